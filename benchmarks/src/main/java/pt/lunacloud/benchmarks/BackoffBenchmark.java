@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.lunacloud.internal.DecorrelatedJitterBackoffStrategy;
+import pt.lunacloud.internal.EqualJitterBackoffStrategy;
+import pt.lunacloud.internal.FullJitterBackoffStrategy;
+
+/**
+ * The cost of computing backoff delays from many threads at once, which
+ * should not contend as each thread has its own random generator. See
+ * {@link BackoffSimulation} for how the strategies spread retries over time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class BackoffBenchmark {
+
+    @Benchmark
+    public int fullJitter() {
+        return FullJitterBackoffStrategy.DEFAULT.getBackoffPeriod(3);
+    }
+
+    @Benchmark
+    public int equalJitter() {
+        return EqualJitterBackoffStrategy.DEFAULT.getBackoffPeriod(3);
+    }
+
+    @Benchmark
+    public int decorrelatedJitter() {
+        return DecorrelatedJitterBackoffStrategy.DEFAULT.getBackoffPeriod(3);
+    }
+}
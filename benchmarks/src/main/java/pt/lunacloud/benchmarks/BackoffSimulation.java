@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import pt.lunacloud.internal.CustomBackoffStrategy;
+import pt.lunacloud.internal.DecorrelatedJitterBackoffStrategy;
+import pt.lunacloud.internal.EqualJitterBackoffStrategy;
+import pt.lunacloud.internal.FullJitterBackoffStrategy;
+
+/**
+ * Simulates many clients failing at the same time (ex: when a server
+ * restarts) and retrying with each backoff strategy, and prints how their
+ * retries are spread over time: the busiest interval, compared to the
+ * average one, shows how much the retries still arrive in waves.
+ * <p>
+ * No request is sent and nobody sleeps: the time of each retry is computed
+ * from the delays returned by the strategy, on a few threads, as the
+ * strategies keep state per thread.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar pt.lunacloud.benchmarks.BackoffSimulation [clients] [retries]</code>
+ */
+public class BackoffSimulation {
+
+    /** The width of the intervals retries are counted in, in milliseconds. */
+    private static final int BUCKET_MILLIS = 100;
+
+    /** The maximum delay of AmazonHttpClient, in milliseconds. */
+    private static final int MAX_DELAY = 20 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int retries = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Map<String, CustomBackoffStrategy> strategies = new LinkedHashMap<String, CustomBackoffStrategy>();
+        strategies.put("exponential (default)", new CustomBackoffStrategy() {
+            // Same delays as AmazonHttpClient without a custom strategy
+            public int getBackoffPeriod(int retryAttempts) {
+                return (int) Math.min(MAX_DELAY, (1L << retryAttempts) * 300);
+            }
+        });
+        strategies.put("full jitter", FullJitterBackoffStrategy.DEFAULT);
+        strategies.put("equal jitter", EqualJitterBackoffStrategy.DEFAULT);
+        strategies.put("decorrelated jitter", DecorrelatedJitterBackoffStrategy.DEFAULT);
+
+        System.out.println(clients + " clients failing at once, retrying " + retries
+                + " times; retries counted per " + BUCKET_MILLIS + " ms");
+        System.out.println(String.format("%-24s %12s %12s %12s %12s",
+                "strategy", "peak", "mean", "peak/mean", "last (ms)"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (Map.Entry<String, CustomBackoffStrategy> entry : strategies.entrySet()) {
+                simulate(entry.getKey(), entry.getValue(), clients, retries, executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void simulate(String name, final CustomBackoffStrategy strategy, int clients,
+            final int retries, ExecutorService executor) throws Exception {
+        final AtomicIntegerArray retriesPerBucket = new AtomicIntegerArray(retries * MAX_DELAY / BUCKET_MILLIS + 1);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    long time = 0;
+                    for (int retry = 1; retry <= retries; retry++) {
+                        time += strategy.getBackoffPeriod(retry);
+                        retriesPerBucket.incrementAndGet((int) (time / BUCKET_MILLIS));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+
+        int peak = 0;
+        int lastBucket = 0;
+        for (int i = 0; i < retriesPerBucket.length(); i++) {
+            int count = retriesPerBucket.get(i);
+            peak = Math.max(peak, count);
+            if (count > 0) lastBucket = i;
+        }
+        double mean = (double) clients * retries / (lastBucket + 1);
+        System.out.println(String.format("%-24s %12d %12.1f %12.1f %12d",
+                name, peak, mean, peak / mean, (lastBucket + 1) * BUCKET_MILLIS));
+    }
+}
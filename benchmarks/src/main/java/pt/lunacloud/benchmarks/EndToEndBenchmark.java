@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.lunacloud.auth.BasicAWSCredentials;
+import pt.lunacloud.emulator.StorageEmulator;
+import pt.lunacloud.services.storage.LunacloudStorageClient;
+import pt.lunacloud.services.storage.model.ObjectListing;
+import pt.lunacloud.services.storage.model.ObjectMetadata;
+import pt.lunacloud.services.storage.model.PutObjectResult;
+import pt.lunacloud.services.storage.model.StorageObject;
+import pt.lunacloud.services.storage.transfer.TransferManager;
+import pt.lunacloud.services.storage.transfer.TransferManagerConfiguration;
+
+/**
+ * Requests through the whole client, HTTP layer included, against the storage
+ * emulator on the loopback interface, so the network and the service don't
+ * hide the client's own cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final String BUCKET = "benchmark-bucket";
+    private static final int SMALL_OBJECT_SIZE = 64 * 1024;
+    private static final int LARGE_OBJECT_SIZE = 32 * 1024 * 1024;
+    private static final int LISTED_KEYS = 1000;
+
+    private StorageEmulator emulator;
+    private LunacloudStorageClient client;
+    private TransferManager transferManager;
+    private byte[] smallObject;
+    private File largeFile;
+    private final byte[] readBuffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        emulator = new StorageEmulator().start();
+        client = new LunacloudStorageClient(new BasicAWSCredentials("access", "secret"));
+        client.setEndpoint(emulator.getEndpoint());
+        client.createBucket(BUCKET);
+
+        Random random = new Random(42);
+        smallObject = new byte[SMALL_OBJECT_SIZE];
+        random.nextBytes(smallObject);
+        client.putObject(BUCKET, "small", new ByteArrayInputStream(smallObject), metadata(SMALL_OBJECT_SIZE));
+        for (int i = 0; i < LISTED_KEYS; i++) {
+            client.putObject(BUCKET, "listed/" + i, new ByteArrayInputStream(new byte[0]), metadata(0));
+        }
+
+        largeFile = File.createTempFile("benchmark", ".bin");
+        byte[] largeObject = new byte[LARGE_OBJECT_SIZE];
+        random.nextBytes(largeObject);
+        FileOutputStream out = new FileOutputStream(largeFile);
+        try {
+            out.write(largeObject);
+        } finally {
+            out.close();
+        }
+
+        transferManager = new TransferManager(client);
+        TransferManagerConfiguration configuration = new TransferManagerConfiguration();
+        configuration.setMinimumUploadPartSize(5 * 1024 * 1024);
+        transferManager.setConfiguration(configuration);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferManager.shutdownNow();
+        emulator.stop();
+        largeFile.delete();
+    }
+
+    @Benchmark
+    public PutObjectResult putSmallObject() {
+        return client.putObject(BUCKET, "put", new ByteArrayInputStream(smallObject), metadata(SMALL_OBJECT_SIZE));
+    }
+
+    @Benchmark
+    public long getSmallObject() throws IOException {
+        StorageObject object = client.getObject(BUCKET, "small");
+        InputStream in = object.getObjectContent();
+        try {
+            long count = 0;
+            int read;
+            while ((read = in.read(readBuffer)) != -1) count += read;
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public ObjectListing listObjects() {
+        return client.listObjects(BUCKET, "listed/");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void uploadLargeFile() throws InterruptedException {
+        transferManager.upload(BUCKET, "large", largeFile).waitForCompletion();
+    }
+
+    private static ObjectMetadata metadata(long contentLength) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(contentLength);
+        return metadata;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pt.lunacloud.ClientConfiguration;
+import pt.lunacloud.auth.BasicAWSCredentials;
+import pt.lunacloud.emulator.Fault;
+import pt.lunacloud.emulator.FaultInjectingProxy;
+import pt.lunacloud.emulator.LatencyDistribution;
+import pt.lunacloud.emulator.StorageEmulator;
+import pt.lunacloud.internal.FullJitterBackoffStrategy;
+import pt.lunacloud.metrics.LatencyHistogram;
+import pt.lunacloud.services.storage.LunacloudStorageClient;
+import pt.lunacloud.services.storage.model.ObjectMetadata;
+import pt.lunacloud.services.storage.model.StorageObject;
+
+/**
+ * Runs puts and gets of small objects through AmazonHttpClient, against the
+ * storage emulator behind a {@link FaultInjectingProxy}, under several mixes of
+ * latency and faults, and prints for each:
+ * <ul>
+ * <li>the goodput: the operations (and their bytes) that succeeded, per second;</li>
+ * <li>the retry amplification: the requests the proxy received per operation;</li>
+ * <li>the operations that failed, after all their retries;</li>
+ * <li>the latency of the operations, retries and backoff included.</li>
+ * </ul>
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar pt.lunacloud.benchmarks.FaultInjectionScenarios
+ * [threads] [seconds per scenario] [max error retries] [default|full-jitter]</code>
+ */
+public class FaultInjectionScenarios {
+
+    private static final String BUCKET = "fault-injection";
+    private static final int OBJECT_SIZE = 16 * 1024;
+    private static final int KEYS = 100;
+
+    /** Kept so the level isn't lost when the logger is collected. */
+    private static final Logger HTTP_LOGGER = Logger.getLogger("pt.lunacloud.http");
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxErrorRetry = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        boolean fullJitter = args.length > 3 && args[3].equals("full-jitter");
+
+        // Every retry is logged, with its stack trace
+        HTTP_LOGGER.setLevel(Level.WARNING);
+
+        StorageEmulator emulator = new StorageEmulator().start();
+        FaultInjectingProxy proxy = new FaultInjectingProxy(emulator.getEndpoint(), 0, 42).start();
+        ClientConfiguration configuration = new ClientConfiguration()
+                .withMaxConnections(threads)
+                .withMaxErrorRetry(maxErrorRetry)
+                .withSocketTimeout(5 * 1000);
+        if (fullJitter) configuration.setBackoffStrategy(FullJitterBackoffStrategy.DEFAULT);
+        LunacloudStorageClient client = new LunacloudStorageClient(
+                new BasicAWSCredentials("access", "secret"), configuration);
+        client.setEndpoint(proxy.getEndpoint());
+
+        byte[] content = new byte[OBJECT_SIZE];
+        new Random(42).nextBytes(content);
+        client.createBucket(BUCKET);
+        for (int i = 0; i < KEYS; i++) {
+            client.putObject(BUCKET, "key-" + i, new ByteArrayInputStream(content), metadata());
+        }
+
+        System.out.println(threads + " threads, " + seconds + " s per scenario, " + maxErrorRetry
+                + " retries, " + (fullJitter ? "full jitter" : "default") + " backoff; "
+                + OBJECT_SIZE / 1024 + " KB puts and gets");
+        System.out.println(String.format("%-22s %9s %9s %9s %9s %9s %9s %9s",
+                "scenario", "ops/s", "MB/s", "req/op", "failed", "p50 ms", "p99 ms", "p99.9 ms"));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Warm up, so the first scenario isn't measured on a cold JVM
+            run(null, proxy, client, content, executor, threads, seconds);
+            run("baseline", proxy, client, content, executor, threads, seconds);
+
+            proxy.withLatency(LatencyDistribution.pareto(1, 1.5));
+            run("pareto latency", proxy, client, content, executor, threads, seconds);
+            proxy.withLatency(LatencyDistribution.NONE);
+
+            for (Fault fault : Fault.values()) {
+                proxy.withoutFaults().withFault(fault, 0.05);
+                run("5% " + fault.name().toLowerCase().replace('_', ' '), proxy, client, content,
+                        executor, threads, seconds);
+            }
+
+            proxy.withoutFaults()
+                    .withLatency(LatencyDistribution.pareto(1, 1.5))
+                    .withFault(Fault.CONNECTION_RESET, 0.01)
+                    .withFault(Fault.INTERNAL_ERROR, 0.01)
+                    .withFault(Fault.SERVICE_UNAVAILABLE, 0.02)
+                    .withFault(Fault.THROTTLING, 0.02)
+                    .withFault(Fault.TRICKLE, 0.01)
+                    .withFault(Fault.REDIRECT, 0.01);
+            run("mix", proxy, client, content, executor, threads, seconds);
+        } finally {
+            executor.shutdownNow();
+            client.shutdown();
+            proxy.stop();
+            emulator.stop();
+        }
+    }
+
+    private static void run(String name, FaultInjectingProxy proxy, final LunacloudStorageClient client,
+            final byte[] content, ExecutorService executor, int threads, int seconds) throws Exception {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        proxy.resetCounts();
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < threads; i++) {
+            final Random random = new Random(i);
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    byte[] buffer = new byte[OBJECT_SIZE];
+                    while (System.nanoTime() < deadline) {
+                        String key = "key-" + random.nextInt(KEYS);
+                        long start = System.nanoTime();
+                        try {
+                            if (random.nextBoolean()) {
+                                client.putObject(BUCKET, key, new ByteArrayInputStream(content), metadata());
+                            } else {
+                                read(client.getObject(BUCKET, key), buffer);
+                            }
+                            succeeded.incrementAndGet();
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        }
+                        latencies.record(System.nanoTime() - start);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        if (name == null) return;
+
+        long operations = succeeded.get() + failed.get();
+        double elapsedSeconds = seconds + (System.nanoTime() - deadline) / 1e9;
+        System.out.println(String.format("%-22s %9.1f %9.2f %9.3f %9d %9.1f %9.1f %9.1f",
+                name,
+                succeeded.get() / elapsedSeconds,
+                succeeded.get() * (double) OBJECT_SIZE / elapsedSeconds / (1024 * 1024),
+                operations == 0 ? 0 : (double) proxy.getRequestCount() / operations,
+                failed.get(),
+                latencies.getPercentileNanos(50) / 1e6,
+                latencies.getPercentileNanos(99) / 1e6,
+                latencies.getPercentileNanos(99.9) / 1e6));
+    }
+
+    private static void read(StorageObject object, byte[] buffer) throws Exception {
+        InputStream in = object.getObjectContent();
+        try {
+            while (in.read(buffer) != -1) {
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ObjectMetadata metadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(OBJECT_SIZE);
+        return metadata;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.lunacloud.services.storage.internal.InputSubstream;
+import pt.lunacloud.services.storage.internal.RepeatableInputStream;
+
+/**
+ * Reading request content through the streams wrapping it: the repeatable
+ * stream buffering un-markable uploads, and the substreams of multipart
+ * uploads. Run with <code>-prof gc</code> to measure the bytes allocated per
+ * operation, which should not depend on the size of the content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+    /** The default read limit of requests, and so the buffer size. */
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    /** The size of the content read, in bytes. */
+    @Param({ "65536", "1048576" })
+    public int size;
+
+    /** The size of the arrays content is read into, in bytes. */
+    @Param({ "8192" })
+    public int readSize;
+
+    private byte[] content;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setUp() {
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+        readBuffer = new byte[readSize];
+    }
+
+    /** Reads the content once, as an upload that succeeds on its first attempt. */
+    @Benchmark
+    public long repeatableInputStream() throws IOException {
+        RepeatableInputStream in = new RepeatableInputStream(new ByteArrayInputStream(content), BUFFER_SIZE);
+        in.mark(BUFFER_SIZE);
+        try {
+            return drain(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Reads the content twice, as an upload retried once. */
+    @Benchmark
+    public long repeatableInputStreamWithReset() throws IOException {
+        RepeatableInputStream in = new RepeatableInputStream(new ByteArrayInputStream(content), BUFFER_SIZE);
+        in.mark(BUFFER_SIZE);
+        try {
+            // Only the buffered part of the content can be read again
+            long count = drain(in, Math.min(size, BUFFER_SIZE));
+            in.reset();
+            return count + drain(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Reads the content a byte at a time. */
+    @Benchmark
+    public long repeatableInputStreamSingleBytes() throws IOException {
+        RepeatableInputStream in = new RepeatableInputStream(new ByteArrayInputStream(content), BUFFER_SIZE);
+        in.mark(BUFFER_SIZE);
+        try {
+            long sum = 0;
+            int b;
+            while ((b = in.read()) != -1) sum += b;
+            return sum;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Reads the second half of the content, as a part of a multipart upload. */
+    @Benchmark
+    public long inputSubstream() throws IOException {
+        InputStream in = new InputSubstream(new ByteArrayInputStream(content), size / 2, size - size / 2, true);
+        try {
+            return drain(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private long drain(InputStream in) throws IOException {
+        return drain(in, Long.MAX_VALUE);
+    }
+
+    private long drain(InputStream in, long limit) throws IOException {
+        long count = 0;
+        while (count < limit) {
+            int read = in.read(readBuffer, 0, (int) Math.min(readBuffer.length, limit - count));
+            if (read == -1) break;
+            count += read;
+        }
+        return count;
+    }
+}
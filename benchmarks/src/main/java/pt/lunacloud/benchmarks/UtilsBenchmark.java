@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.benchmarks;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.lunacloud.util.DateUtils;
+import pt.lunacloud.util.HttpUtils;
+
+/**
+ * Date formatting and parsing, and URL encoding, done for every request and
+ * for every entry of a listing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+    private final DateUtils dateUtils = new DateUtils();
+    private final Date date = new Date(1363273766000L);
+
+    @Benchmark
+    public String formatIso8601Date() {
+        return dateUtils.formatIso8601Date(date);
+    }
+
+    @Benchmark
+    public Date parseIso8601Date() throws ParseException {
+        return dateUtils.parseIso8601Date("2013-03-14T15:09:26.000Z");
+    }
+
+    @Benchmark
+    public String formatRfc822Date() {
+        return dateUtils.formatRfc822Date(date);
+    }
+
+    @Benchmark
+    public Date parseRfc822Date() throws ParseException {
+        return dateUtils.parseRfc822Date("Thu, 14 Mar 2013 15:09:26 GMT");
+    }
+
+    @Benchmark
+    public String urlEncodePlainPath() {
+        return HttpUtils.urlEncode("photos/2013/03/IMG_0042.jpg", true);
+    }
+
+    @Benchmark
+    public String urlEncodePath() {
+        return HttpUtils.urlEncode("photos/2013/03/férias em portugal/IMG 0042 (cópia).jpg", true);
+    }
+
+    @Benchmark
+    public String urlEncodeParameter() {
+        return HttpUtils.urlEncode("3HL4kqtJlcpXroDTDmJ+rmSpXd3dIbrHY+MTRCxf3vjVBH40Nr8X8gdRQBpUMLUo", false);
+    }
+}
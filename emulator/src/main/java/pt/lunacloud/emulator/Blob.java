@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The immutable content of an object or of a part of a multipart upload.
+ */
+abstract class Blob {
+
+    private final long length;
+    private final byte[] md5;
+
+    protected Blob(long length, byte[] md5) {
+        this.length = length;
+        this.md5 = md5;
+    }
+
+    /** Returns the length of the content, in bytes. */
+    long getLength() {
+        return length;
+    }
+
+    /** Returns the MD5 digest of the content. */
+    byte[] getMd5() {
+        return md5;
+    }
+
+    /** Opens the specified range of the content. */
+    abstract InputStream open(long offset, long length) throws IOException;
+
+    /** Releases the storage of the content, after which it can't be opened. */
+    abstract void delete();
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stores the content of objects, either in memory or in files of a
+ * directory. Only content is stored: buckets and metadata are always kept in
+ * memory, so nothing survives the emulator.
+ */
+abstract class BlobStore {
+
+    /**
+     * Reads exactly the specified number of bytes from the specified stream
+     * into a new blob.
+     *
+     * @throws EOFException
+     *             If the stream ends before the specified number of bytes.
+     */
+    abstract Blob write(InputStream in, long length) throws IOException;
+
+    /** Writes the concatenation of the specified blobs into a new blob. */
+    Blob concatenate(List<Blob> blobs) throws IOException {
+        long length = 0;
+        for (Blob blob : blobs) length += blob.getLength();
+        InputStream in = new ConcatenatedInputStream(blobs.iterator());
+        try {
+            return write(in, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Returns a store keeping content in memory. */
+    static BlobStore inMemory() {
+        return new MemoryBlobStore();
+    }
+
+    /** Returns a store keeping content in files of the specified directory. */
+    static BlobStore inDirectory(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create directory " + directory);
+        }
+        return new FileBlobStore(directory);
+    }
+
+    static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Copies exactly the specified number of bytes, returning their MD5 digest. */
+    static byte[] copy(InputStream in, OutputStream out, long length) throws IOException {
+        DigestInputStream digestIn = new DigestInputStream(in, newMd5());
+        byte[] buffer = new byte[(int) Math.min(64 * 1024, Math.max(length, 1))];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = digestIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) throw new EOFException((length - remaining) + " bytes read out of " + length);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return digestIn.getMessageDigest().digest();
+    }
+
+    /** Reads blobs one after the other, opening each only when it's reached. */
+    private static final class ConcatenatedInputStream extends InputStream {
+
+        private final Iterator<Blob> blobs;
+        private InputStream current;
+
+        private ConcatenatedInputStream(Iterator<Blob> blobs) {
+            this.blobs = blobs;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (!blobs.hasNext()) return -1;
+                    Blob blob = blobs.next();
+                    current = blob.open(0, blob.getLength());
+                }
+                int read = current.read(b, off, len);
+                if (read != -1) return read;
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) current.close();
+        }
+    }
+
+    private static final class MemoryBlobStore extends BlobStore {
+
+        @Override
+        Blob write(InputStream in, long length) throws IOException {
+            if (length > Integer.MAX_VALUE) throw new IOException("Content too large to keep in memory: " + length);
+            final byte[] content = new byte[(int) length];
+            byte[] md5 = copy(in, new OutputStream() {
+                private int position;
+
+                @Override
+                public void write(int b) {
+                    content[position++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    System.arraycopy(b, off, content, position, len);
+                    position += len;
+                }
+            }, length);
+            return new Blob(length, md5) {
+                @Override
+                InputStream open(long offset, long length) {
+                    return new ByteArrayInputStream(content, (int) offset, (int) length);
+                }
+
+                @Override
+                void delete() {
+                }
+            };
+        }
+    }
+
+    private static final class FileBlobStore extends BlobStore {
+
+        private final File directory;
+
+        private FileBlobStore(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        Blob write(InputStream in, long length) throws IOException {
+            final File file = File.createTempFile("blob", ".bin", directory);
+            byte[] md5;
+            OutputStream out = new FileOutputStream(file);
+            try {
+                md5 = copy(in, out, length);
+            } catch (IOException e) {
+                out.close();
+                file.delete();
+                throw e;
+            } finally {
+                out.close();
+            }
+            return new Blob(length, md5) {
+                @Override
+                InputStream open(long offset, final long length) throws IOException {
+                    FileInputStream in = new FileInputStream(file);
+                    if (in.skip(offset) != offset) {
+                        in.close();
+                        throw new EOFException("Unable to skip to " + offset + " in " + file);
+                    }
+                    return new BoundedInputStream(in, length);
+                }
+
+                @Override
+                void delete() {
+                    file.delete();
+                }
+            };
+        }
+    }
+}
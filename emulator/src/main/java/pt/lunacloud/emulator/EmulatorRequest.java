@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A request received by the emulator, with its target already split into
+ * bucket, key and query parameters.
+ */
+final class EmulatorRequest {
+
+    final String method;
+
+    /** The bucket name, or null for requests on the service (ex: listing buckets). */
+    final String bucket;
+
+    /** The decoded object key, or null for requests on a bucket. */
+    final String key;
+
+    /** The decoded query parameters; subresources (ex: ?uploads) map to "". */
+    final Map<String, String> parameters;
+
+    /** The headers, by lower case name. */
+    final Map<String, String> headers;
+
+    final InputStream content;
+    final long contentLength;
+
+    EmulatorRequest(String method, String bucket, String key, Map<String, String> parameters,
+            Map<String, String> headers, InputStream content, long contentLength) {
+        this.method = method;
+        this.bucket = bucket;
+        this.key = key;
+        this.parameters = parameters;
+        this.headers = headers;
+        this.content = content;
+        this.contentLength = contentLength;
+    }
+
+    String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    boolean hasParameter(String name) {
+        return parameters.containsKey(name);
+    }
+
+    /** Returns the integer value of the specified parameter, or the default value if absent. */
+    int getIntParameter(String name, int defaultValue) throws StorageException {
+        String value = parameters.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw StorageException.invalidArgument("Invalid value for " + name + ": " + value);
+        }
+    }
+}
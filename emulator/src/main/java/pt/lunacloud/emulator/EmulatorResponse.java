@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A response of the emulator: a status, headers with their names in the case
+ * they're sent in, and an optional body.
+ */
+final class EmulatorResponse {
+
+    final int status;
+    final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+    private InputStream content;
+    private long contentLength;
+
+    EmulatorResponse(int status) {
+        this.status = status;
+    }
+
+    /** Returns a response with the specified XML document as its body. */
+    static EmulatorResponse xml(int status, Xml xml) {
+        byte[] bytes = xml.toBytes();
+        return new EmulatorResponse(status)
+                .withHeader("Content-Type", "application/xml")
+                .withContent(new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    EmulatorResponse withHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    EmulatorResponse withContent(InputStream content, long contentLength) {
+        this.content = content;
+        this.contentLength = contentLength;
+        return this;
+    }
+
+    /** Returns the body, or null if there's none. */
+    InputStream getContent() {
+        return content;
+    }
+
+    long getContentLength() {
+        return contentLength;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+/**
+ * The faults a {@link FaultInjectingProxy} can inject into a request.
+ */
+public enum Fault {
+
+    /** Resets the connection halfway through the request body, or the response body if the request has none. */
+    CONNECTION_RESET,
+
+    /** Returns a 500 InternalError error response. */
+    INTERNAL_ERROR,
+
+    /** Returns a 503 ServiceUnavailable error response. */
+    SERVICE_UNAVAILABLE,
+
+    /** Returns a 400 Throttling error response, as throttled services do. */
+    THROTTLING,
+
+    /** Sends the response body slowly, at the proxy's trickle rate. */
+    TRICKLE,
+
+    /** Returns a 307 Temporary Redirect to the same request on the proxy. */
+    REDIRECT
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An HTTP proxy sitting between a client and a local endpoint, such as a
+ * {@link StorageEmulator}, which delays requests and injects faults into them,
+ * to test and benchmark how the client copes.
+ * <p>
+ * Each request is delayed by a latency drawn from the proxy's
+ * {@link LatencyDistribution}, then suffers at most one {@link Fault}, drawn
+ * with the configured probabilities. The faults and latency can be changed
+ * while the proxy runs. Clients are configured with the proxy's
+ * {@link #getEndpoint() endpoint}, ex:
+ *
+ * <pre>
+ * StorageEmulator emulator = new StorageEmulator().start();
+ * FaultInjectingProxy proxy = new FaultInjectingProxy(emulator.getEndpoint())
+ *         .withLatency(LatencyDistribution.pareto(1, 1.5))
+ *         .withFault(Fault.SERVICE_UNAVAILABLE, 0.05)
+ *         .start();
+ * client.setEndpoint(proxy.getEndpoint());
+ * </pre>
+ */
+public class FaultInjectingProxy {
+
+    private static final long DEFAULT_TRICKLE_BYTES_PER_SECOND = 64 * 1024;
+
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final Random random;
+    private final LoopbackServer server;
+
+    /** Guarded by this proxy. */
+    private final Map<Fault, Double> faultProbabilities = new EnumMap<Fault, Double>(Fault.class);
+
+    private volatile LatencyDistribution latency = LatencyDistribution.NONE;
+    private volatile long trickleBytesPerSecond = DEFAULT_TRICKLE_BYTES_PER_SECOND;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLongArray faultCounts = new AtomicLongArray(Fault.values().length);
+
+    /**
+     * Creates a proxy to the specified endpoint, listening on a free port once
+     * started.
+     *
+     * @param upstreamEndpoint
+     *            The endpoint to forward requests to, ex:
+     *            <code>http://127.0.0.1:49152</code>.
+     */
+    public FaultInjectingProxy(String upstreamEndpoint) {
+        this(upstreamEndpoint, 0, System.nanoTime());
+    }
+
+    /**
+     * Creates a proxy to the specified endpoint, listening on the specified
+     * port once started.
+     *
+     * @param upstreamEndpoint
+     *            The endpoint to forward requests to, ex:
+     *            <code>http://127.0.0.1:49152</code>.
+     * @param port
+     *            The port to listen on, or 0 for any free port.
+     * @param seed
+     *            The seed of the random faults and latencies.
+     */
+    public FaultInjectingProxy(String upstreamEndpoint, int port, long seed) {
+        URI uri = URI.create(upstreamEndpoint);
+        if (!"http".equals(uri.getScheme())) {
+            throw new IllegalArgumentException("Only http endpoints can be proxied: " + upstreamEndpoint);
+        }
+        this.upstreamHost = uri.getHost();
+        this.upstreamPort = uri.getPort() == -1 ? 80 : uri.getPort();
+        this.random = new Random(seed);
+        this.server = new LoopbackServer("fault-injecting-proxy", port) {
+            @Override
+            Runnable newConnection(Socket socket) {
+                return new ProxyConnection(socket, FaultInjectingProxy.this, this);
+            }
+        };
+    }
+
+    /**
+     * Sets the probability of each request suffering the specified fault.
+     * The probabilities of all faults must add up to at most 1.
+     *
+     * @return This proxy, for chaining.
+     */
+    public synchronized FaultInjectingProxy withFault(Fault fault, double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Probability must be between 0 and 1: " + probability);
+        }
+        double total = probability;
+        for (Map.Entry<Fault, Double> entry : faultProbabilities.entrySet()) {
+            if (entry.getKey() != fault) total += entry.getValue();
+        }
+        if (total > 1 + 1e-9) {
+            throw new IllegalArgumentException("Fault probabilities add up to more than 1: " + total);
+        }
+        faultProbabilities.put(fault, probability);
+        return this;
+    }
+
+    /**
+     * Stops injecting faults.
+     *
+     * @return This proxy, for chaining.
+     */
+    public synchronized FaultInjectingProxy withoutFaults() {
+        faultProbabilities.clear();
+        return this;
+    }
+
+    /**
+     * Sets the distribution of the latency added to each request, before it's
+     * forwarded.
+     *
+     * @return This proxy, for chaining.
+     */
+    public FaultInjectingProxy withLatency(LatencyDistribution latency) {
+        if (latency == null) throw new IllegalArgumentException("Latency distribution must not be null");
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Sets the rate {@link Fault#TRICKLE} response bodies are sent at, 64 KB/s
+     * by default.
+     *
+     * @return This proxy, for chaining.
+     */
+    public FaultInjectingProxy withTrickleRate(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) throw new IllegalArgumentException("Trickle rate must be positive");
+        this.trickleBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Starts listening for requests, on daemon threads.
+     *
+     * @return This proxy, for chaining.
+     */
+    public FaultInjectingProxy start() throws IOException {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Returns the port the proxy listens on.
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Returns the endpoint to configure clients with, ex:
+     * <code>http://127.0.0.1:49153</code>.
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Stops listening and closes all connections.
+     */
+    public void stop() {
+        server.stop();
+    }
+
+    /**
+     * Returns the number of requests received since the proxy was created or
+     * its counts were last reset, including those that were failed.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests that suffered the specified fault since
+     * the proxy was created or its counts were last reset.
+     */
+    public long getFaultCount(Fault fault) {
+        return faultCounts.get(fault.ordinal());
+    }
+
+    /**
+     * Resets the request and fault counts to 0.
+     */
+    public void resetCounts() {
+        requestCount.set(0);
+        for (int i = 0; i < faultCounts.length(); i++) faultCounts.set(i, 0);
+    }
+
+    String getUpstreamHost() {
+        return upstreamHost;
+    }
+
+    int getUpstreamPort() {
+        return upstreamPort;
+    }
+
+    long getTrickleBytesPerSecond() {
+        return trickleBytesPerSecond;
+    }
+
+    /** Counts a new request, and returns the latency to add to it. */
+    long nextLatencyMillis() {
+        requestCount.incrementAndGet();
+        synchronized (random) {
+            return latency.nextMillis(random);
+        }
+    }
+
+    /** Returns the fault a new request suffers, or null if none. */
+    Fault nextFault() {
+        double draw;
+        synchronized (random) {
+            draw = random.nextDouble();
+        }
+        Fault fault = null;
+        synchronized (this) {
+            double cumulative = 0;
+            for (Map.Entry<Fault, Double> entry : faultProbabilities.entrySet()) {
+                cumulative += entry.getValue();
+                if (draw < cumulative) {
+                    fault = entry.getKey();
+                    break;
+                }
+            }
+        }
+        if (fault != null) faultCounts.incrementAndGet(fault.ordinal());
+        return fault;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the HTTP/1.1 requests of a connection, one after the other, until
+ * the client closes it.
+ * <p>
+ * Header names are sent in the case the service uses (ex: "ETag"), which is
+ * why the emulator doesn't use the JDK's HTTP server: it changes their case,
+ * and the SDK looks them up case sensitively.
+ */
+final class HttpConnection implements Runnable {
+
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+    private static final int MAX_HEADERS = 200;
+
+    private static final Logger log = Logger.getLogger(HttpConnection.class.getName());
+
+    private static final AtomicLong requestIds = new AtomicLong();
+
+    private static final Map<Integer, String> REASON_PHRASES = new HashMap<Integer, String>();
+    static {
+        REASON_PHRASES.put(200, "OK");
+        REASON_PHRASES.put(204, "No Content");
+        REASON_PHRASES.put(206, "Partial Content");
+        REASON_PHRASES.put(304, "Not Modified");
+        REASON_PHRASES.put(307, "Temporary Redirect");
+        REASON_PHRASES.put(400, "Bad Request");
+        REASON_PHRASES.put(404, "Not Found");
+        REASON_PHRASES.put(405, "Method Not Allowed");
+        REASON_PHRASES.put(409, "Conflict");
+        REASON_PHRASES.put(411, "Length Required");
+        REASON_PHRASES.put(412, "Precondition Failed");
+        REASON_PHRASES.put(416, "Requested Range Not Satisfiable");
+        REASON_PHRASES.put(500, "Internal Server Error");
+        REASON_PHRASES.put(501, "Not Implemented");
+        REASON_PHRASES.put(503, "Service Unavailable");
+    }
+
+    private final Socket socket;
+    private final StorageService service;
+    private final String virtualHostSuffix;
+    private final LoopbackServer server;
+
+    HttpConnection(Socket socket, StorageService service, String virtualHostSuffix, LoopbackServer server) {
+        this.socket = socket;
+        this.service = service;
+        this.virtualHostSuffix = virtualHostSuffix;
+        this.server = server;
+    }
+
+    public void run() {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (serve(in, out)) {
+            }
+        } catch (IOException e) {
+            // The client closed the connection, or the emulator was stopped
+        } finally {
+            server.closed(socket);
+        }
+    }
+
+    /** Serves a request, returning false if the connection must be closed. */
+    private boolean serve(InputStream in, OutputStream out) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) return false;
+        if (requestLine.length() == 0) return true;
+
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = readHeaders(in);
+        String requestId = Long.toHexString(requestIds.incrementAndGet()).toUpperCase();
+        if (parts.length != 3 || headers == null) {
+            write(out, new StorageException(400, "BadRequest", "Malformed request", null).toResponse(requestId),
+                    requestId, false);
+            return false;
+        }
+        boolean keepAlive = parts[2].equals("HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("connection"));
+
+        long contentLength = -1;
+        if (headers.containsKey("content-length")) {
+            try {
+                contentLength = Long.parseLong(headers.get("content-length").trim());
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+        }
+        // Chunked bodies aren't supported, so their length can't be known
+        if (contentLength < 0 && headers.containsKey("transfer-encoding")) keepAlive = false;
+        if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        }
+        BoundedInputStream content = new BoundedInputStream(in, Math.max(contentLength, 0));
+
+        EmulatorResponse response;
+        try {
+            response = service.handle(parseRequest(parts[0], parts[1], headers, content, contentLength));
+        } catch (StorageException e) {
+            response = e.toResponse(requestId);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Unable to serve " + requestLine, e);
+            response = new StorageException(500, "InternalError", String.valueOf(e), null).toResponse(requestId);
+        }
+        // Skip what the request didn't read, so the next one can be read
+        content.drain();
+        write(out, response, requestId, keepAlive);
+        return keepAlive;
+    }
+
+    private EmulatorRequest parseRequest(String method, String target, Map<String, String> headers,
+            InputStream content, long contentLength) throws StorageException {
+        int question = target.indexOf('?');
+        String path = question < 0 ? target : target.substring(0, question);
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        if (question >= 0) {
+            for (String parameter : target.substring(question + 1).split("&")) {
+                if (parameter.length() == 0) continue;
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    parameters.put(decode(parameter, true), "");
+                } else {
+                    parameters.put(decode(parameter.substring(0, equals), true),
+                            decode(parameter.substring(equals + 1), true));
+                }
+            }
+        }
+        if (!path.startsWith("/")) throw StorageException.invalidArgument("Unsupported request target " + target);
+
+        // Virtual host style (bucket.localhost), or path style (/bucket/key)
+        String bucket = null;
+        String key;
+        String host = headers.get("host");
+        if (host != null && host.indexOf(':') >= 0) host = host.substring(0, host.indexOf(':'));
+        if (host != null && host.endsWith(virtualHostSuffix) && host.length() > virtualHostSuffix.length()) {
+            bucket = host.substring(0, host.length() - virtualHostSuffix.length());
+            key = path.substring(1);
+        } else {
+            int slash = path.indexOf('/', 1);
+            if (path.length() > 1) bucket = decode(slash < 0 ? path.substring(1) : path.substring(1, slash), false);
+            key = slash < 0 ? "" : path.substring(slash + 1);
+        }
+        return new EmulatorRequest(method, bucket, key.length() == 0 ? null : decode(key, false),
+                parameters, headers, content, contentLength);
+    }
+
+    /** Writes the specified response, closing its content. */
+    static void write(OutputStream out, EmulatorResponse response, String requestId, boolean keepAlive)
+            throws IOException {
+        int status = response.status;
+        String reason = REASON_PHRASES.get(status);
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason == null ? "Unknown" : reason).append("\r\n");
+        header(head, "Date", StorageService.formatRfc822Date(new Date()));
+        header(head, "Server", "LunacloudStorageEmulator");
+        header(head, "x-amz-request-id", requestId);
+        header(head, "x-amz-id-2", requestId);
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            header(head, header.getKey(), header.getValue());
+        }
+        boolean withBody = status != 204 && status != 304;
+        if (withBody) header(head, "Content-Length", Long.toString(response.getContentLength()));
+        if (!keepAlive) header(head, "Connection", "close");
+        head.append("\r\n");
+        out.write(head.toString().getBytes("UTF-8"));
+
+        InputStream content = response.getContent();
+        if (content != null && withBody) {
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = content.read(buffer)) != -1) out.write(buffer, 0, read);
+            } finally {
+                content.close();
+            }
+        }
+        out.flush();
+    }
+
+    private static void header(StringBuilder head, String name, String value) {
+        head.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    /** Reads the headers, by lower case name, or returns null if they're malformed. */
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (int i = 0; i < MAX_HEADERS; i++) {
+            String line = readLine(in);
+            if (line == null) throw new IOException("Connection closed while reading headers");
+            if (line.length() == 0) return headers;
+            int colon = line.indexOf(':');
+            if (colon <= 0) return null;
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            String previous = headers.get(name);
+            headers.put(name, previous == null ? value : previous + "," + value);
+        }
+        return null;
+    }
+
+    /** Reads a line, without its terminator, or returns null at the end of the stream. */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) return line.size() == 0 ? null : line.toString("UTF-8");
+            if (line.size() == MAX_LINE_LENGTH) throw new IOException("Line too long");
+            line.write(b);
+        }
+        String text = line.toString("UTF-8");
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Decodes the specified URL encoded UTF-8 string. Plus signs are decoded
+     * as spaces in query strings only.
+     */
+    static String decode(String value, boolean query) {
+        if (value.indexOf('%') < 0 && (!query || value.indexOf('+') < 0)) return value;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()
+                    && Character.digit(value.charAt(i + 1), 16) >= 0
+                    && Character.digit(value.charAt(i + 2), 16) >= 0) {
+                bytes.write(Character.digit(value.charAt(i + 1), 16) << 4 | Character.digit(value.charAt(i + 2), 16));
+                i += 3;
+            } else if (c == '+' && query) {
+                bytes.write(' ');
+                i++;
+            } else {
+                // Encode runs of characters at once, so as not to split surrogate pairs
+                int start = i++;
+                while (i < value.length() && value.charAt(i) != '%' && !(query && value.charAt(i) == '+')) i++;
+                byte[] encoded = utf8(value.substring(start, i));
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        try {
+            return bytes.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.util.Random;
+
+/**
+ * A distribution of the latency a {@link FaultInjectingProxy} adds to
+ * requests before forwarding them.
+ */
+public abstract class LatencyDistribution {
+
+    /** Returns the next latency, in milliseconds. */
+    public abstract long nextMillis(Random random);
+
+    /** No latency. */
+    public static final LatencyDistribution NONE = fixed(0);
+
+    /** Always the same latency. */
+    public static LatencyDistribution fixed(final long millis) {
+        if (millis < 0) throw new IllegalArgumentException("Latency must not be negative");
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + millis + " ms)";
+            }
+        };
+    }
+
+    /** A latency uniformly distributed between the specified bounds, inclusive. */
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) throw new IllegalArgumentException("Invalid bounds");
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minMillis + "-" + maxMillis + " ms)";
+            }
+        };
+    }
+
+    /** An exponentially distributed latency, as between independent events. */
+    public static LatencyDistribution exponential(final double meanMillis) {
+        if (meanMillis <= 0) throw new IllegalArgumentException("Mean must be positive");
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+            }
+
+            @Override
+            public String toString() {
+                return "exponential(mean " + meanMillis + " ms)";
+            }
+        };
+    }
+
+    /**
+     * A heavy tailed latency: at least the minimum, and greater than
+     * <code>minMillis * x</code> with probability <code>x^-shape</code>. The
+     * smaller the shape, the heavier the tail (ex: 1.5 gives a 99.9th
+     * percentile 100 times the minimum).
+     */
+    public static LatencyDistribution pareto(final double minMillis, final double shape) {
+        if (minMillis <= 0 || shape <= 0) throw new IllegalArgumentException("Minimum and shape must be positive");
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return (long) (minMillis / Math.pow(1 - random.nextDouble(), 1 / shape));
+            }
+
+            @Override
+            public String toString() {
+                return "pareto(min " + minMillis + " ms, shape " + shape + ")";
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts connections on the loopback interface, and serves each on its own
+ * daemon thread.
+ */
+abstract class LoopbackServer {
+
+    private final String name;
+    private final int port;
+    private final Set<Socket> connections = Collections.synchronizedSet(new HashSet<Socket>());
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    /**
+     * @param name
+     *            The prefix of the names of the server's threads.
+     * @param port
+     *            The port to listen on, or 0 for any free port.
+     */
+    LoopbackServer(String name, int port) {
+        this.name = name;
+        this.port = port;
+    }
+
+    /** Returns the task serving the specified connection, which must call {@link #closed(Socket)} when done. */
+    abstract Runnable newConnection(Socket socket);
+
+    synchronized void start() throws IOException {
+        if (serverSocket != null) throw new IllegalStateException("Already started");
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 128);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ServerSocket acceptingSocket = serverSocket;
+        final ExecutorService connectionExecutor = executor;
+        connectionExecutor.execute(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Socket socket = acceptingSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        connections.add(socket);
+                        connectionExecutor.execute(newConnection(socket));
+                    } catch (IOException e) {
+                        // Stopped
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    synchronized int getPort() {
+        if (serverSocket == null) throw new IllegalStateException("Not started");
+        return serverSocket.getLocalPort();
+    }
+
+    /** Stops listening and closes all connections. */
+    synchronized void stop() {
+        if (serverSocket == null) return;
+        close(serverSocket);
+        synchronized (connections) {
+            for (Socket socket : connections) close(socket);
+        }
+        executor.shutdown();
+        serverSocket = null;
+        executor = null;
+    }
+
+    /** Closes the specified connection, once it's been served. */
+    void closed(Socket socket) {
+        connections.remove(socket);
+        close(socket);
+    }
+
+    private static void close(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closed anyway
+        }
+    }
+
+    static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closed anyway
+        }
+    }
+}
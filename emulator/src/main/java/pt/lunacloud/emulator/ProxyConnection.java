@@ -0,0 +1,271 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forwards the requests of a client connection to the upstream endpoint of a
+ * {@link FaultInjectingProxy}, over a connection of its own, injecting faults
+ * as it goes.
+ * <p>
+ * Header names are forwarded as they are, since clients may read them case
+ * sensitively. Bodies must be delimited by their Content-Length, or by the end
+ * of the connection for responses.
+ */
+final class ProxyConnection implements Runnable {
+
+    private static final int MAX_HEADERS = 200;
+
+    private static final AtomicLong requestIds = new AtomicLong();
+
+    private final Socket socket;
+    private final FaultInjectingProxy proxy;
+    private final LoopbackServer server;
+
+    private Socket upstream;
+    private InputStream upstreamIn;
+    private OutputStream upstreamOut;
+
+    ProxyConnection(Socket socket, FaultInjectingProxy proxy, LoopbackServer server) {
+        this.socket = socket;
+        this.proxy = proxy;
+        this.server = server;
+    }
+
+    public void run() {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (forward(in, out)) {
+            }
+        } catch (IOException e) {
+            // Either end closed its connection, or the proxy was stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeUpstream();
+            server.closed(socket);
+        }
+    }
+
+    /** Forwards a request, returning false if the connection must be closed. */
+    private boolean forward(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        String requestLine = HttpConnection.readLine(in);
+        if (requestLine == null) return false;
+        if (requestLine.length() == 0) return true;
+        String[] parts = requestLine.split(" ");
+        List<String> headers = readHeaders(in);
+        if (parts.length != 3 || headers == null) return false;
+
+        String method = parts[0];
+        String target = parts[1];
+        boolean keepAlive = parts[2].equals("HTTP/1.1") && !"close".equalsIgnoreCase(header(headers, "Connection"));
+        long contentLength = contentLength(headers);
+        if (contentLength < 0) {
+            // Chunked request bodies aren't supported
+            if (header(headers, "Transfer-Encoding") != null) return false;
+            contentLength = 0;
+        }
+
+        Thread.sleep(proxy.nextLatencyMillis());
+        Fault fault = proxy.nextFault();
+
+        if ("100-continue".equalsIgnoreCase(header(headers, "Expect"))) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        }
+        BoundedInputStream content = new BoundedInputStream(in, contentLength);
+
+        if (fault == Fault.CONNECTION_RESET && contentLength > 0) {
+            skip(content, contentLength / 2);
+            reset(socket);
+            return false;
+        }
+        if (fault == Fault.INTERNAL_ERROR || fault == Fault.SERVICE_UNAVAILABLE || fault == Fault.THROTTLING
+                || fault == Fault.REDIRECT) {
+            content.drain();
+            String requestId = "FAULT" + Long.toHexString(requestIds.incrementAndGet()).toUpperCase();
+            HttpConnection.write(out, errorResponse(fault, target, requestId), requestId, keepAlive);
+            return keepAlive;
+        }
+
+        // Forward the request, without the headers about this connection
+        connectUpstream();
+        StringBuilder head = new StringBuilder(requestLine).append("\r\n");
+        for (String header : headers) {
+            String name = name(header);
+            if (name.equalsIgnoreCase("Expect") || name.equalsIgnoreCase("Connection")) continue;
+            head.append(header).append("\r\n");
+        }
+        head.append("\r\n");
+        upstreamOut.write(head.toString().getBytes("UTF-8"));
+        copy(content, upstreamOut, -1);
+        upstreamOut.flush();
+
+        // Forward the response
+        String statusLine = HttpConnection.readLine(upstreamIn);
+        List<String> responseHeaders = statusLine == null ? null : readHeaders(upstreamIn);
+        if (responseHeaders == null) throw new IOException("Malformed upstream response");
+        String[] status = statusLine.split(" ", 3);
+        int statusCode = status.length < 2 ? 0 : Integer.parseInt(status[1]);
+        boolean upstreamKeepAlive = !"close".equalsIgnoreCase(header(responseHeaders, "Connection"));
+        long responseLength = contentLength(responseHeaders);
+        if (method.equals("HEAD") || statusCode == 204 || statusCode == 304) responseLength = 0;
+        if (responseLength < 0) {
+            // Delimited by the end of the upstream connection, so neither can be kept alive
+            upstreamKeepAlive = false;
+            keepAlive = false;
+        }
+
+        head = new StringBuilder(statusLine).append("\r\n");
+        for (String header : responseHeaders) {
+            if (name(header).equalsIgnoreCase("Connection")) continue;
+            head.append(header).append("\r\n");
+        }
+        if (!keepAlive) head.append("Connection: close\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes("UTF-8"));
+
+        InputStream responseContent = responseLength < 0 ? upstreamIn
+                : new BoundedInputStream(upstreamIn, responseLength);
+        if (fault == Fault.CONNECTION_RESET) {
+            copy(new BoundedInputStream(responseContent, Math.max(responseLength, 0) / 2), out, -1);
+            out.flush();
+            reset(socket);
+            closeUpstream();
+            return false;
+        }
+        copy(responseContent, out, fault == Fault.TRICKLE ? proxy.getTrickleBytesPerSecond() : -1);
+        out.flush();
+        if (!upstreamKeepAlive) closeUpstream();
+        return keepAlive;
+    }
+
+    /** Returns the response injecting the specified error or redirect fault. */
+    private EmulatorResponse errorResponse(Fault fault, String target, String requestId) {
+        switch (fault) {
+        case INTERNAL_ERROR:
+            return new StorageException(500, "InternalError",
+                    "We encountered an internal error. Please try again.", null).toResponse(requestId);
+        case SERVICE_UNAVAILABLE:
+            return new StorageException(503, "ServiceUnavailable",
+                    "Please reduce your request rate.", null).toResponse(requestId);
+        case THROTTLING:
+            return new StorageException(400, "Throttling", "Rate exceeded", null).toResponse(requestId);
+        case REDIRECT:
+            return new StorageException(307, "TemporaryRedirect",
+                    "Please re-send this request to the specified temporary endpoint.", null).toResponse(requestId)
+                    .withHeader("Location", proxy.getEndpoint() + target);
+        default:
+            throw new IllegalArgumentException("Not an error fault: " + fault);
+        }
+    }
+
+    private void connectUpstream() throws IOException {
+        if (upstream != null) return;
+        upstream = new Socket(proxy.getUpstreamHost(), proxy.getUpstreamPort());
+        upstream.setTcpNoDelay(true);
+        upstreamIn = new BufferedInputStream(upstream.getInputStream());
+        upstreamOut = new BufferedOutputStream(upstream.getOutputStream());
+    }
+
+    private void closeUpstream() {
+        if (upstream == null) return;
+        LoopbackServer.close(upstream);
+        upstream = null;
+        upstreamIn = null;
+        upstreamOut = null;
+    }
+
+    /**
+     * Copies the specified stream, at most at the specified rate in bytes per
+     * second, or as fast as possible if it's negative.
+     */
+    private static void copy(InputStream in, OutputStream out, long bytesPerSecond)
+            throws IOException, InterruptedException {
+        // Trickle in ten chunks a second
+        int chunkSize = bytesPerSecond < 0 ? 64 * 1024 : (int) Math.max(1, Math.min(64 * 1024, bytesPerSecond / 10));
+        long chunkMillis = bytesPerSecond < 0 ? 0 : Math.max(1, chunkSize * 1000L / bytesPerSecond);
+        byte[] buffer = new byte[chunkSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (chunkMillis > 0) {
+                out.flush();
+                Thread.sleep(chunkMillis);
+            }
+        }
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read == -1) return;
+            count -= read;
+        }
+    }
+
+    /** Closes the specified socket with a TCP reset, rather than a graceful close. */
+    private static void reset(Socket socket) throws IOException {
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+
+    /** Reads the header lines as they are, or returns null if they're malformed. */
+    private static List<String> readHeaders(InputStream in) throws IOException {
+        List<String> headers = new ArrayList<String>();
+        for (int i = 0; i < MAX_HEADERS; i++) {
+            String line = HttpConnection.readLine(in);
+            if (line == null) throw new IOException("Connection closed while reading headers");
+            if (line.length() == 0) return headers;
+            if (line.indexOf(':') <= 0) return null;
+            headers.add(line);
+        }
+        return null;
+    }
+
+    private static String name(String header) {
+        return header.substring(0, header.indexOf(':')).trim();
+    }
+
+    /** Returns the value of the specified header, by case insensitive name, or null. */
+    private static String header(List<String> headers, String name) {
+        for (String header : headers) {
+            if (name(header).equalsIgnoreCase(name)) return header.substring(header.indexOf(':') + 1).trim();
+        }
+        return null;
+    }
+
+    /** Returns the Content-Length, or -1 if it's missing or malformed. */
+    private static long contentLength(List<String> headers) {
+        String value = header(headers, "Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
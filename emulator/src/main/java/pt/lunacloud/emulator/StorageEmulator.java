@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A local server emulating the subset of the Lunacloud Storage API used by
+ * the SDK, so that code using the SDK can be benchmarked and tested without
+ * network access or an account:
+ * <ul>
+ * <li>creating, deleting, listing and locating buckets,
+ * <li>putting, getting (including ranges), heading, deleting and copying
+ * objects,
+ * <li>listing objects with prefix, delimiter, marker and max-keys,
+ * <li>initiating, uploading parts of (or copying them), completing, aborting
+ * and listing multipart uploads,
+ * <li>deleting multiple objects.
+ * </ul>
+ * Requests aren't authenticated, so any credentials work. Other features
+ * (ACLs, versioning, policies...) are answered with 501 Not Implemented.
+ * Buckets and metadata are kept in memory; object content is too, or in files
+ * of a directory for larger data sets.
+ * <p>
+ * The emulator listens on the loopback interface. Point a client at
+ * {@link #getEndpoint()}, whose host is an IP address, so the SDK addresses
+ * buckets in the path rather than the host name:
+ *
+ * <pre>
+ * StorageEmulator emulator = new StorageEmulator().start();
+ * LunacloudStorageClient client = new LunacloudStorageClient(new BasicAWSCredentials(&quot;key&quot;, &quot;secret&quot;));
+ * client.setEndpoint(emulator.getEndpoint());
+ * ...
+ * emulator.stop();
+ * </pre>
+ *
+ * Virtual host style requests, to <code>bucket.localhost</code>, are
+ * understood too.
+ */
+public class StorageEmulator {
+
+    private final StorageService service;
+    private final LoopbackServer server;
+
+    /**
+     * Creates an emulator keeping objects in memory, listening on a free
+     * port once started.
+     */
+    public StorageEmulator() {
+        this(0, null);
+    }
+
+    /**
+     * Creates an emulator listening on the specified port once started.
+     *
+     * @param port
+     *            The port to listen on, or 0 for any free port.
+     * @param directory
+     *            The directory to keep the content of objects in, or null to
+     *            keep it in memory. Files are deleted with their objects, but
+     *            not when the emulator stops.
+     */
+    public StorageEmulator(int port, File directory) {
+        this.service = new StorageService(directory == null
+                ? BlobStore.inMemory()
+                : BlobStore.inDirectory(directory));
+        this.server = new LoopbackServer("storage-emulator", port) {
+            @Override
+            Runnable newConnection(Socket socket) {
+                return new HttpConnection(socket, service, ".localhost", this);
+            }
+        };
+    }
+
+    /**
+     * Starts listening for requests, on daemon threads.
+     *
+     * @return This emulator, for chaining.
+     */
+    public StorageEmulator start() throws IOException {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Returns the port the emulator listens on.
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Returns the endpoint to configure clients with, ex:
+     * <code>http://127.0.0.1:49152</code>.
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Stops listening and closes all connections. The stored buckets and
+     * objects are kept, should the emulator be started again.
+     */
+    public void stop() {
+        server.stop();
+    }
+
+    /**
+     * Runs an emulator until the process is killed.
+     * <p>
+     * Usage: <code>java -jar lunacloud-storage-emulator.jar [port] [directory]</code>
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        File directory = args.length > 1 ? new File(args[1]) : null;
+        StorageEmulator emulator = new StorageEmulator(port, directory).start();
+        System.out.println("Storage emulator listening on " + emulator.getEndpoint());
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+/**
+ * An error returned to the client as an error document, with the same status
+ * and code as the service would return.
+ */
+final class StorageException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+    final String code;
+    final String resource;
+
+    StorageException(int status, String code, String message, String resource) {
+        super(message);
+        this.status = status;
+        this.code = code;
+        this.resource = resource;
+    }
+
+    static StorageException invalidArgument(String message) {
+        return new StorageException(400, "InvalidArgument", message, null);
+    }
+
+    static StorageException noSuchBucket(String bucket) {
+        return new StorageException(404, "NoSuchBucket", "The specified bucket does not exist", bucket);
+    }
+
+    static StorageException noSuchKey(String key) {
+        return new StorageException(404, "NoSuchKey", "The specified key does not exist.", key);
+    }
+
+    static StorageException noSuchUpload(String uploadId) {
+        return new StorageException(404, "NoSuchUpload", "The specified upload does not exist.", uploadId);
+    }
+
+    static StorageException notImplemented(String what) {
+        return new StorageException(501, "NotImplemented", what + " is not implemented by the emulator", null);
+    }
+
+    /** Returns the error document of this exception. */
+    EmulatorResponse toResponse(String requestId) {
+        Xml xml = new Xml().start("Error")
+                .element("Code", code)
+                .element("Message", getMessage());
+        if (resource != null) xml.element("Resource", resource);
+        xml.element("RequestId", requestId).end();
+        return EmulatorResponse.xml(status, xml);
+    }
+}
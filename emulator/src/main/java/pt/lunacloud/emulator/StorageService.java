@@ -0,0 +1,847 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SimpleTimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Implements the storage API on top of a {@link BlobStore}: buckets, objects,
+ * listings, multipart uploads, multiple object deletes and copies. Requests
+ * aren't authenticated, and every bucket is owned by the same account.
+ */
+final class StorageService {
+
+    /** The minimum size of all parts but the last one of a multipart upload. */
+    static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final int MAX_KEYS = 1000;
+    private static final int MAX_PART_NUMBER = 10000;
+
+    /** The maximum size of the XML documents of requests. */
+    private static final int MAX_XML_REQUEST_SIZE = 1024 * 1024;
+
+    private static final String OWNER_ID = "75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a";
+    private static final String OWNER_NAME = "emulator";
+
+    /** Query parameters of a listing; any other makes a GET on a bucket a subresource request. */
+    private static final Set<String> LIST_OBJECTS_PARAMETERS = new HashSet<String>(Arrays.asList(
+            "prefix", "delimiter", "marker", "max-keys"));
+    private static final Set<String> LIST_UPLOADS_PARAMETERS = new HashSet<String>(Arrays.asList(
+            "uploads", "prefix", "key-marker", "upload-id-marker", "max-uploads"));
+    private static final Set<String> LIST_PARTS_PARAMETERS = new HashSet<String>(Arrays.asList(
+            "uploadId", "part-number-marker", "max-parts"));
+
+    /** The request headers stored with an object and returned when it's read, by lower case name. */
+    private static final Map<String, String> STORED_HEADERS = new LinkedHashMap<String, String>();
+    static {
+        for (String header : new String[] { "Cache-Control", "Content-Disposition", "Content-Encoding",
+                "Content-Type", "Expires", "x-amz-server-side-encryption", "x-amz-website-redirect-location" }) {
+            STORED_HEADERS.put(header.toLowerCase(), header);
+        }
+    }
+
+    private final BlobStore blobStore;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentSkipListMap<String, Bucket>();
+
+    StorageService(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    EmulatorResponse handle(EmulatorRequest request) throws StorageException, IOException {
+        if (request.bucket == null) {
+            if (request.method.equals("GET") && request.parameters.isEmpty()) return listBuckets();
+            throw methodNotAllowed(request);
+        }
+        if (request.key == null) return handleBucketRequest(request);
+        return handleObjectRequest(request);
+    }
+
+    private EmulatorResponse handleBucketRequest(EmulatorRequest request) throws StorageException, IOException {
+        String method = request.method;
+        if (method.equals("PUT") && request.parameters.isEmpty()) return createBucket(request);
+        if (method.equals("HEAD") && request.parameters.isEmpty()) {
+            getBucket(request.bucket);
+            return new EmulatorResponse(200);
+        }
+        if (method.equals("DELETE") && request.parameters.isEmpty()) return deleteBucket(request);
+        if (method.equals("GET")) {
+            if (request.hasParameter("location") && request.parameters.size() == 1) {
+                getBucket(request.bucket);
+                return EmulatorResponse.xml(200, new Xml().start("LocationConstraint").end());
+            }
+            if (request.hasParameter("uploads")) {
+                checkParameters(request, LIST_UPLOADS_PARAMETERS);
+                return listMultipartUploads(request);
+            }
+            checkParameters(request, LIST_OBJECTS_PARAMETERS);
+            return listObjects(request);
+        }
+        if (method.equals("POST") && request.hasParameter("delete") && request.parameters.size() == 1) {
+            return deleteObjects(request);
+        }
+        throw methodNotAllowed(request);
+    }
+
+    private EmulatorResponse handleObjectRequest(EmulatorRequest request) throws StorageException, IOException {
+        String method = request.method;
+        boolean copy = request.getHeader("x-amz-copy-source") != null;
+        if (method.equals("PUT")) {
+            if (request.hasParameter("uploadId") && request.hasParameter("partNumber")
+                    && request.parameters.size() == 2) {
+                return copy ? copyPart(request) : uploadPart(request);
+            }
+            checkParameters(request, Collections.<String>emptySet());
+            return copy ? copyObject(request) : putObject(request);
+        }
+        if (method.equals("GET") || method.equals("HEAD")) {
+            if (method.equals("GET") && request.hasParameter("uploadId")) {
+                checkParameters(request, LIST_PARTS_PARAMETERS);
+                return listParts(request);
+            }
+            checkParameters(request, Collections.<String>emptySet());
+            return getObject(request, method.equals("GET"));
+        }
+        if (method.equals("DELETE")) {
+            if (request.hasParameter("uploadId") && request.parameters.size() == 1) {
+                return abortMultipartUpload(request);
+            }
+            checkParameters(request, Collections.<String>emptySet());
+            return deleteObject(request);
+        }
+        if (method.equals("POST")) {
+            if (request.hasParameter("uploads") && request.parameters.size() == 1) {
+                return initiateMultipartUpload(request);
+            }
+            if (request.hasParameter("uploadId") && request.parameters.size() == 1) {
+                return completeMultipartUpload(request);
+            }
+        }
+        throw methodNotAllowed(request);
+    }
+
+    /*
+     * Buckets
+     */
+
+    private EmulatorResponse listBuckets() {
+        Xml xml = new Xml().start("ListAllMyBucketsResult");
+        owner(xml, "Owner");
+        xml.start("Buckets");
+        for (Bucket bucket : buckets.values()) {
+            xml.start("Bucket")
+               .element("Name", bucket.name)
+               .element("CreationDate", formatIso8601Date(bucket.creationDate))
+               .end();
+        }
+        xml.end().end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    private EmulatorResponse createBucket(EmulatorRequest request) throws StorageException {
+        // The location constraint in the body, if any, is ignored
+        if (buckets.putIfAbsent(request.bucket, new Bucket(request.bucket)) != null) {
+            throw new StorageException(409, "BucketAlreadyOwnedByYou",
+                    "Your previous request to create the named bucket succeeded and you already own it.",
+                    request.bucket);
+        }
+        return new EmulatorResponse(200).withHeader("Location", "/" + request.bucket);
+    }
+
+    private EmulatorResponse deleteBucket(EmulatorRequest request) throws StorageException {
+        Bucket bucket = getBucket(request.bucket);
+        synchronized (bucket) {
+            if (!bucket.objects.isEmpty() || !bucket.uploads.isEmpty()) {
+                throw new StorageException(409, "BucketNotEmpty",
+                        "The bucket you tried to delete is not empty", request.bucket);
+            }
+            buckets.remove(request.bucket);
+        }
+        return new EmulatorResponse(204);
+    }
+
+    private EmulatorResponse listObjects(EmulatorRequest request) throws StorageException {
+        Bucket bucket = getBucket(request.bucket);
+        String prefix = valueOf(request.getParameter("prefix"));
+        String delimiter = valueOf(request.getParameter("delimiter"));
+        String marker = valueOf(request.getParameter("marker"));
+        int maxKeys = Math.min(request.getIntParameter("max-keys", MAX_KEYS), MAX_KEYS);
+        if (maxKeys < 0) throw StorageException.invalidArgument("max-keys must not be negative");
+
+        // Keys sharing a prefix are contiguous, so start at the first key
+        // with the prefix, or after the marker if it's further
+        NavigableMap<String, StoredObject> candidates = marker.compareTo(prefix) < 0
+                ? bucket.objects.tailMap(prefix, true)
+                : bucket.objects.tailMap(marker, false);
+
+        List<Map.Entry<String, StoredObject>> contents = new ArrayList<Map.Entry<String, StoredObject>>();
+        List<String> commonPrefixes = new ArrayList<String>();
+        String nextMarker = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) break;
+
+            String commonPrefix = null;
+            if (delimiter.length() > 0) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) commonPrefix = key.substring(0, index + delimiter.length());
+            }
+            // Each common prefix is returned once, and not again after it's used as a marker
+            if (commonPrefix != null && (commonPrefix.equals(nextMarker) || commonPrefix.compareTo(marker) <= 0)) {
+                continue;
+            }
+            if (contents.size() + commonPrefixes.size() == maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                nextMarker = commonPrefix;
+            } else {
+                contents.add(entry);
+                nextMarker = key;
+            }
+        }
+
+        Xml xml = new Xml().start("ListBucketResult")
+                .element("Name", request.bucket)
+                .element("Prefix", prefix)
+                .element("Marker", marker);
+        if (truncated && delimiter.length() > 0) xml.element("NextMarker", nextMarker);
+        xml.element("MaxKeys", maxKeys);
+        if (delimiter.length() > 0) xml.element("Delimiter", delimiter);
+        xml.element("IsTruncated", truncated);
+        for (Map.Entry<String, StoredObject> entry : contents) {
+            StoredObject object = entry.getValue();
+            xml.start("Contents")
+               .element("Key", entry.getKey())
+               .element("LastModified", formatIso8601Date(object.lastModified))
+               .element("ETag", quote(object.etag))
+               .element("Size", object.blob.getLength());
+            owner(xml, "Owner");
+            xml.element("StorageClass", "STANDARD").end();
+        }
+        for (String commonPrefix : commonPrefixes) {
+            xml.start("CommonPrefixes").element("Prefix", commonPrefix).end();
+        }
+        xml.end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    /*
+     * Objects
+     */
+
+    private EmulatorResponse putObject(EmulatorRequest request) throws StorageException, IOException {
+        Bucket bucket = getBucket(request.bucket);
+        Blob blob = store(request);
+        StoredObject object = new StoredObject(blob, hex(blob.getMd5()), storedHeaders(request));
+        put(bucket, request.key, object);
+        return new EmulatorResponse(200).withHeader("ETag", quote(object.etag));
+    }
+
+    private EmulatorResponse getObject(EmulatorRequest request, boolean withContent)
+            throws StorageException, IOException {
+        StoredObject object = getObject(request.bucket, request.key);
+
+        String ifMatch = request.getHeader("If-Match");
+        if (ifMatch != null && !matches(ifMatch, object.etag)) {
+            throw new StorageException(412, "PreconditionFailed",
+                    "At least one of the pre-conditions you specified did not hold", "If-Match");
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && matches(ifNoneMatch, object.etag)) {
+            return new EmulatorResponse(304).withHeader("ETag", quote(object.etag));
+        }
+
+        long length = object.blob.getLength();
+        long offset = 0;
+        long count = length;
+        long[] range = parseRange(request.getHeader("Range"), length);
+        EmulatorResponse response;
+        if (range != null) {
+            offset = range[0];
+            count = range[1] - range[0] + 1;
+            response = new EmulatorResponse(206)
+                    .withHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        } else {
+            response = new EmulatorResponse(200);
+        }
+        response.headers.putAll(object.headers);
+        response.withHeader("ETag", quote(object.etag))
+                .withHeader("Last-Modified", formatRfc822Date(object.lastModified))
+                .withHeader("Accept-Ranges", "bytes");
+        return response.withContent(withContent ? object.blob.open(offset, count) : null, count);
+    }
+
+    private EmulatorResponse deleteObject(EmulatorRequest request) throws StorageException {
+        Bucket bucket = getBucket(request.bucket);
+        StoredObject object = bucket.objects.remove(request.key);
+        if (object != null) object.blob.delete();
+        return new EmulatorResponse(204);
+    }
+
+    private EmulatorResponse deleteObjects(EmulatorRequest request) throws StorageException, IOException {
+        Bucket bucket = getBucket(request.bucket);
+        Element delete = parseXml(request).getDocumentElement();
+        boolean quiet = "true".equals(childText(delete, "Quiet"));
+        NodeList objects = delete.getElementsByTagName("Object");
+        if (objects.getLength() == 0 || objects.getLength() > MAX_KEYS) throw malformedXml();
+
+        Xml xml = new Xml().start("DeleteResult");
+        for (int i = 0; i < objects.getLength(); i++) {
+            String key = childText((Element) objects.item(i), "Key");
+            if (key == null) throw malformedXml();
+            StoredObject object = bucket.objects.remove(key);
+            if (object != null) object.blob.delete();
+            if (!quiet) xml.start("Deleted").element("Key", key).end();
+        }
+        xml.end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    private EmulatorResponse copyObject(EmulatorRequest request) throws StorageException, IOException {
+        Bucket bucket = getBucket(request.bucket);
+        StoredObject source = getCopySource(request);
+        Map<String, String> headers = "REPLACE".equals(request.getHeader("x-amz-metadata-directive"))
+                ? storedHeaders(request)
+                : source.headers;
+        Blob blob = blobStore.write(source.blob.open(0, source.blob.getLength()), source.blob.getLength());
+        StoredObject object = new StoredObject(blob, source.etag, headers);
+        put(bucket, request.key, object);
+
+        Xml xml = new Xml().start("CopyObjectResult")
+                .element("LastModified", formatIso8601Date(object.lastModified))
+                .element("ETag", quote(object.etag))
+                .end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    /*
+     * Multipart uploads
+     */
+
+    private EmulatorResponse initiateMultipartUpload(EmulatorRequest request) throws StorageException {
+        Bucket bucket = getBucket(request.bucket);
+        Upload upload = new Upload(request.key, storedHeaders(request));
+        synchronized (bucket) {
+            // Don't add uploads to a bucket being deleted
+            getBucket(request.bucket);
+            bucket.uploads.put(upload.uploadId, upload);
+        }
+
+        Xml xml = new Xml().start("InitiateMultipartUploadResult")
+                .element("Bucket", request.bucket)
+                .element("Key", request.key)
+                .element("UploadId", upload.uploadId)
+                .end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    private EmulatorResponse uploadPart(EmulatorRequest request) throws StorageException, IOException {
+        Upload upload = getUpload(request);
+        int partNumber = getPartNumber(request);
+        Part part = new Part(store(request));
+        Part previous = upload.parts.put(partNumber, part);
+        if (previous != null) previous.blob.delete();
+        return new EmulatorResponse(200).withHeader("ETag", quote(part.etag));
+    }
+
+    private EmulatorResponse copyPart(EmulatorRequest request) throws StorageException, IOException {
+        Upload upload = getUpload(request);
+        int partNumber = getPartNumber(request);
+        StoredObject source = getCopySource(request);
+
+        long offset = 0;
+        long length = source.blob.getLength();
+        String range = request.getHeader("x-amz-copy-source-range");
+        if (range != null) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) throw StorageException.invalidArgument("Invalid copy source range: " + range);
+            offset = bounds[0];
+            length = bounds[1] - bounds[0] + 1;
+        }
+        Part part = new Part(blobStore.write(source.blob.open(offset, length), length));
+        Part previous = upload.parts.put(partNumber, part);
+        if (previous != null) previous.blob.delete();
+
+        Xml xml = new Xml().start("CopyPartResult")
+                .element("LastModified", formatIso8601Date(part.lastModified))
+                .element("ETag", quote(part.etag))
+                .end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    private EmulatorResponse completeMultipartUpload(EmulatorRequest request) throws StorageException, IOException {
+        Bucket bucket = getBucket(request.bucket);
+        Upload upload = getUpload(request);
+        NodeList partElements = parseXml(request).getDocumentElement().getElementsByTagName("Part");
+        if (partElements.getLength() == 0) throw malformedXml();
+
+        List<Blob> blobs = new ArrayList<Blob>();
+        MessageDigest md5OfMd5s = BlobStore.newMd5();
+        int previousPartNumber = 0;
+        for (int i = 0; i < partElements.getLength(); i++) {
+            Element partElement = (Element) partElements.item(i);
+            int partNumber;
+            try {
+                partNumber = Integer.parseInt(valueOf(childText(partElement, "PartNumber")).trim());
+            } catch (NumberFormatException e) {
+                throw malformedXml();
+            }
+            if (partNumber <= previousPartNumber) {
+                throw new StorageException(400, "InvalidPartOrder",
+                        "The list of parts was not in ascending order.", null);
+            }
+            previousPartNumber = partNumber;
+
+            Part part = upload.parts.get(partNumber);
+            if (part == null || !part.etag.equals(unquote(valueOf(childText(partElement, "ETag"))))) {
+                throw new StorageException(400, "InvalidPart",
+                        "One or more of the specified parts could not be found.", null);
+            }
+            if (i < partElements.getLength() - 1 && part.blob.getLength() < MIN_PART_SIZE) {
+                throw new StorageException(400, "EntityTooSmall",
+                        "Your proposed upload is smaller than the minimum allowed object size.", null);
+            }
+            blobs.add(part.blob);
+            md5OfMd5s.update(part.blob.getMd5());
+        }
+
+        if (bucket.uploads.remove(upload.uploadId) == null) throw StorageException.noSuchUpload(upload.uploadId);
+        Blob blob = blobStore.concatenate(blobs);
+        for (Part part : upload.parts.values()) part.blob.delete();
+        StoredObject object = new StoredObject(blob,
+                hex(md5OfMd5s.digest()) + "-" + blobs.size(), upload.headers);
+        put(bucket, request.key, object);
+
+        Xml xml = new Xml().start("CompleteMultipartUploadResult")
+                .element("Location", "/" + request.bucket + "/" + request.key)
+                .element("Bucket", request.bucket)
+                .element("Key", request.key)
+                .element("ETag", quote(object.etag))
+                .end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    private EmulatorResponse abortMultipartUpload(EmulatorRequest request) throws StorageException {
+        Bucket bucket = getBucket(request.bucket);
+        Upload upload = getUpload(request);
+        if (bucket.uploads.remove(upload.uploadId) != null) {
+            for (Part part : upload.parts.values()) part.blob.delete();
+        }
+        return new EmulatorResponse(204);
+    }
+
+    private EmulatorResponse listParts(EmulatorRequest request) throws StorageException {
+        Upload upload = getUpload(request);
+        int partNumberMarker = request.getIntParameter("part-number-marker", 0);
+        int maxParts = Math.min(request.getIntParameter("max-parts", MAX_KEYS), MAX_KEYS);
+
+        Xml xml = new Xml().start("ListPartsResult")
+                .element("Bucket", request.bucket)
+                .element("Key", request.key)
+                .element("UploadId", upload.uploadId);
+        owner(xml, "Initiator");
+        owner(xml, "Owner");
+        xml.element("StorageClass", "STANDARD")
+           .element("PartNumberMarker", partNumberMarker);
+
+        List<Map.Entry<Integer, Part>> parts = new ArrayList<Map.Entry<Integer, Part>>(
+                upload.parts.tailMap(partNumberMarker, false).entrySet());
+        boolean truncated = parts.size() > maxParts;
+        if (truncated) parts = parts.subList(0, maxParts);
+        if (!parts.isEmpty()) xml.element("NextPartNumberMarker", parts.get(parts.size() - 1).getKey());
+        xml.element("MaxParts", maxParts)
+           .element("IsTruncated", truncated);
+        for (Map.Entry<Integer, Part> entry : parts) {
+            Part part = entry.getValue();
+            xml.start("Part")
+               .element("PartNumber", entry.getKey())
+               .element("LastModified", formatIso8601Date(part.lastModified))
+               .element("ETag", quote(part.etag))
+               .element("Size", part.blob.getLength())
+               .end();
+        }
+        xml.end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    private EmulatorResponse listMultipartUploads(EmulatorRequest request) throws StorageException {
+        Bucket bucket = getBucket(request.bucket);
+        String prefix = valueOf(request.getParameter("prefix"));
+        String keyMarker = valueOf(request.getParameter("key-marker"));
+        String uploadIdMarker = valueOf(request.getParameter("upload-id-marker"));
+        int maxUploads = Math.min(request.getIntParameter("max-uploads", MAX_KEYS), MAX_KEYS);
+
+        List<Upload> uploads = new ArrayList<Upload>();
+        for (Upload upload : bucket.uploads.values()) {
+            if (!upload.key.startsWith(prefix)) continue;
+            int keyOrder = upload.key.compareTo(keyMarker);
+            if (keyOrder < 0 || (keyOrder == 0 && (uploadIdMarker.length() == 0
+                    || upload.uploadId.compareTo(uploadIdMarker) <= 0))) {
+                continue;
+            }
+            uploads.add(upload);
+        }
+        Collections.sort(uploads, new Comparator<Upload>() {
+            public int compare(Upload a, Upload b) {
+                int keyOrder = a.key.compareTo(b.key);
+                return keyOrder != 0 ? keyOrder : a.uploadId.compareTo(b.uploadId);
+            }
+        });
+        boolean truncated = uploads.size() > maxUploads;
+        if (truncated) uploads = uploads.subList(0, maxUploads);
+
+        Xml xml = new Xml().start("ListMultipartUploadsResult")
+                .element("Bucket", request.bucket)
+                .element("KeyMarker", keyMarker)
+                .element("UploadIdMarker", uploadIdMarker);
+        if (!uploads.isEmpty()) {
+            xml.element("NextKeyMarker", uploads.get(uploads.size() - 1).key)
+               .element("NextUploadIdMarker", uploads.get(uploads.size() - 1).uploadId);
+        }
+        if (prefix.length() > 0) xml.element("Prefix", prefix);
+        xml.element("MaxUploads", maxUploads)
+           .element("IsTruncated", truncated);
+        for (Upload upload : uploads) {
+            xml.start("Upload")
+               .element("Key", upload.key)
+               .element("UploadId", upload.uploadId);
+            owner(xml, "Initiator");
+            owner(xml, "Owner");
+            xml.element("StorageClass", "STANDARD")
+               .element("Initiated", formatIso8601Date(upload.initiated))
+               .end();
+        }
+        xml.end();
+        return EmulatorResponse.xml(200, xml);
+    }
+
+    /*
+     * Helpers
+     */
+
+    private Bucket getBucket(String name) throws StorageException {
+        Bucket bucket = buckets.get(name);
+        if (bucket == null) throw StorageException.noSuchBucket(name);
+        return bucket;
+    }
+
+    private StoredObject getObject(String bucketName, String key) throws StorageException {
+        StoredObject object = getBucket(bucketName).objects.get(key);
+        if (object == null) throw StorageException.noSuchKey(key);
+        return object;
+    }
+
+    private Upload getUpload(EmulatorRequest request) throws StorageException {
+        String uploadId = request.getParameter("uploadId");
+        Upload upload = getBucket(request.bucket).uploads.get(uploadId);
+        if (upload == null || !upload.key.equals(request.key)) throw StorageException.noSuchUpload(uploadId);
+        return upload;
+    }
+
+    private int getPartNumber(EmulatorRequest request) throws StorageException {
+        int partNumber = request.getIntParameter("partNumber", 0);
+        if (partNumber < 1 || partNumber > MAX_PART_NUMBER) {
+            throw StorageException.invalidArgument("Part number must be an integer between 1 and " + MAX_PART_NUMBER);
+        }
+        return partNumber;
+    }
+
+    /** Returns the object named by the x-amz-copy-source header, "/bucket/key" URL encoded. */
+    private StoredObject getCopySource(EmulatorRequest request) throws StorageException {
+        String source = HttpConnection.decode(request.getHeader("x-amz-copy-source"), false);
+        if (source.startsWith("/")) source = source.substring(1);
+        if (source.contains("?versionId=")) throw StorageException.notImplemented("Copying a version");
+        int slash = source.indexOf('/');
+        if (slash <= 0 || slash == source.length() - 1) {
+            throw StorageException.invalidArgument("Copy Source must mention the source bucket and key");
+        }
+        return getObject(source.substring(0, slash), source.substring(slash + 1));
+    }
+
+    /** Replaces the object under the specified key, unless the bucket was deleted meanwhile. */
+    private void put(Bucket bucket, String key, StoredObject object) throws StorageException {
+        StoredObject previous;
+        synchronized (bucket) {
+            if (buckets.get(bucket.name) != bucket) {
+                object.blob.delete();
+                throw StorageException.noSuchBucket(bucket.name);
+            }
+            previous = bucket.objects.put(key, object);
+        }
+        if (previous != null) previous.blob.delete();
+    }
+
+    /** Stores the content of the request, checking its Content-MD5 header if any. */
+    private Blob store(EmulatorRequest request) throws StorageException, IOException {
+        if (request.contentLength < 0) {
+            throw new StorageException(411, "MissingContentLength",
+                    "You must provide the Content-Length HTTP header.", null);
+        }
+        Blob blob;
+        try {
+            blob = blobStore.write(request.content, request.contentLength);
+        } catch (EOFException e) {
+            throw new StorageException(400, "IncompleteBody",
+                    "You did not provide the number of bytes specified by the Content-Length HTTP header", null);
+        }
+        String contentMd5 = request.getHeader("Content-MD5");
+        if (contentMd5 != null && !contentMd5.trim().equals(base64(blob.getMd5()))) {
+            blob.delete();
+            throw new StorageException(400, "BadDigest",
+                    "The Content-MD5 you specified did not match what we received.", null);
+        }
+        return blob;
+    }
+
+    /** Returns the headers of the request stored with an object, with their names in canonical case. */
+    private static Map<String, String> storedHeaders(EmulatorRequest request) {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Type", "binary/octet-stream");
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            String name = STORED_HEADERS.get(header.getKey());
+            if (name != null) {
+                headers.put(name, header.getValue());
+            } else if (header.getKey().startsWith("x-amz-meta-")) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    /** Reads the XML document of the request, which must be small. */
+    private static Document parseXml(EmulatorRequest request) throws StorageException, IOException {
+        if (request.contentLength < 0 || request.contentLength > MAX_XML_REQUEST_SIZE) throw malformedXml();
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) request.contentLength);
+        try {
+            BlobStore.copy(request.content, content, request.contentLength);
+        } catch (EOFException e) {
+            throw malformedXml();
+        }
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(content.toByteArray()));
+        } catch (Exception e) {
+            throw malformedXml();
+        }
+    }
+
+    private static String childText(Element element, String name) {
+        NodeList children = element.getElementsByTagName(name);
+        return children.getLength() == 0 ? null : children.item(0).getTextContent();
+    }
+
+    /**
+     * Returns the first and last byte of the specified range header, or null
+     * if the whole content must be returned.
+     */
+    private static long[] parseRange(String range, long length) throws StorageException {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) return null;
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength == 0) throw invalidRange(length);
+                first = Math.max(0, length - suffixLength);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                // Invalid ranges are ignored
+                if (last < first) return null;
+                last = Math.min(last, length - 1);
+            }
+            if (first >= length) throw invalidRange(length);
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static StorageException invalidRange(long length) {
+        return new StorageException(416, "InvalidRange", "The requested range is not satisfiable",
+                "bytes */" + length);
+    }
+
+    private static StorageException malformedXml() {
+        return new StorageException(400, "MalformedXML",
+                "The XML you provided was not well-formed or did not validate against our published schema", null);
+    }
+
+    private static StorageException methodNotAllowed(EmulatorRequest request) {
+        if (!request.parameters.isEmpty()) {
+            return StorageException.notImplemented(request.method + " with parameters " + request.parameters.keySet());
+        }
+        return new StorageException(405, "MethodNotAllowed",
+                "The specified method is not allowed against this resource.", request.method);
+    }
+
+    /** Rejects requests with parameters the emulator doesn't know, most likely unimplemented subresources. */
+    private static void checkParameters(EmulatorRequest request, Set<String> allowed) throws StorageException {
+        for (String name : request.parameters.keySet()) {
+            if (!allowed.contains(name)) {
+                throw StorageException.notImplemented(request.method + " with parameter " + name);
+            }
+        }
+    }
+
+    private static boolean matches(String condition, String etag) {
+        for (String candidate : condition.split(",")) {
+            String value = unquote(candidate.trim());
+            if (value.equals("*") || value.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    private static void owner(Xml xml, String element) {
+        xml.start(element).element("ID", OWNER_ID).element("DisplayName", OWNER_NAME).end();
+    }
+
+    private static String valueOf(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    private static String unquote(String etag) {
+        if (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            return etag.substring(1, etag.length() - 1);
+        }
+        return etag;
+    }
+
+    static String formatIso8601Date(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        return format.format(date);
+    }
+
+    static String formatRfc822Date(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        return format.format(date);
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static String base64(byte[] bytes) {
+        StringBuilder base64 = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b = (bytes[i] & 0xff) << 16;
+            if (i + 1 < bytes.length) b |= (bytes[i + 1] & 0xff) << 8;
+            if (i + 2 < bytes.length) b |= bytes[i + 2] & 0xff;
+            base64.append(BASE64[(b >> 18) & 0x3f]).append(BASE64[(b >> 12) & 0x3f]);
+            base64.append(i + 1 < bytes.length ? BASE64[(b >> 6) & 0x3f] : '=');
+            base64.append(i + 2 < bytes.length ? BASE64[b & 0x3f] : '=');
+        }
+        return base64.toString();
+    }
+
+    private static final class Bucket {
+        private final String name;
+        private final Date creationDate = new Date();
+        private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<String, StoredObject>();
+        private final ConcurrentMap<String, Upload> uploads = new ConcurrentSkipListMap<String, Upload>();
+
+        private Bucket(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class StoredObject {
+        private final Blob blob;
+        private final String etag;
+        private final Map<String, String> headers;
+        private final Date lastModified = new Date();
+
+        private StoredObject(Blob blob, String etag, Map<String, String> headers) {
+            this.blob = blob;
+            this.etag = etag;
+            this.headers = headers;
+        }
+    }
+
+    private static final class Upload {
+        private final String key;
+        private final String uploadId = UUID.randomUUID().toString().replace("-", "");
+        private final Map<String, String> headers;
+        private final Date initiated = new Date();
+        private final ConcurrentSkipListMap<Integer, Part> parts = new ConcurrentSkipListMap<Integer, Part>();
+
+        private Upload(String key, Map<String, String> headers) {
+            this.key = key;
+            this.headers = headers;
+        }
+    }
+
+    private static final class Part {
+        private final Blob blob;
+        private final String etag;
+        private final Date lastModified = new Date();
+
+        private Part(Blob blob) {
+            this.blob = blob;
+            this.etag = hex(blob.getMd5());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.emulator;
+
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+
+/**
+ * Builds the XML documents of responses.
+ */
+final class Xml {
+
+    static final String NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+    private final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    private final LinkedList<String> openElements = new LinkedList<String>();
+
+    /** Starts an element; the root element is in the storage namespace. */
+    Xml start(String name) {
+        xml.append('<').append(name);
+        if (openElements.isEmpty()) xml.append(" xmlns=\"").append(NAMESPACE).append('"');
+        xml.append('>');
+        openElements.addFirst(name);
+        return this;
+    }
+
+    /** Ends the last element started. */
+    Xml end() {
+        xml.append("</").append(openElements.removeFirst()).append('>');
+        return this;
+    }
+
+    /** Adds an element with the specified text content. */
+    Xml element(String name, Object value) {
+        xml.append('<').append(name).append('>');
+        escape(String.valueOf(value));
+        xml.append("</").append(name).append('>');
+        return this;
+    }
+
+    private void escape(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<': xml.append("&lt;"); break;
+            case '>': xml.append("&gt;"); break;
+            case '&': xml.append("&amp;"); break;
+            case '"': xml.append("&quot;"); break;
+            case '\r': xml.append("&#13;"); break;
+            default: xml.append(c);
+            }
+        }
+    }
+
+    byte[] toBytes() {
+        try {
+            return xml.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return xml.toString();
+    }
+}
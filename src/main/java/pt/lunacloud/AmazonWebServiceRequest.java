@@ -36,6 +36,12 @@ public abstract class AmazonWebServiceRequest {
 	 */
 	private LunacloudCredentials credentials;
 
+	/**
+	 * The optional client execution timeout (in milliseconds) for this request
+	 * - overrides the default timeout set at the client level.
+	 */
+	private Integer clientExecutionTimeout;
+
 	/**
 	 * Sets the optional credentials to use for this request, overriding the
 	 * default credentials set at the client level.
@@ -59,6 +65,34 @@ public abstract class AmazonWebServiceRequest {
 		return credentials;
 	}
 
+	/**
+	 * Sets the optional amount of time to allow (in milliseconds) for this
+	 * request to complete end to end, including retries and the backoff pauses
+	 * between them, overriding the default timeout set at the client level. A
+	 * value of 0 means no limit.
+	 * 
+	 * @param clientExecutionTimeout
+	 *            The client execution timeout for this request, or null to use
+	 *            the client's timeout.
+	 * 
+	 * @see ClientConfiguration#setClientExecutionTimeout(int)
+	 */
+	public void setClientExecutionTimeout(Integer clientExecutionTimeout) {
+		this.clientExecutionTimeout = clientExecutionTimeout;
+	}
+
+	/**
+	 * Returns the optional amount of time to allow (in milliseconds) for this
+	 * request to complete end to end, overriding the default timeout set at
+	 * the client level.
+	 * 
+	 * @return The client execution timeout for this request, or null if the
+	 *         client's timeout is used.
+	 */
+	public Integer getClientExecutionTimeout() {
+		return clientExecutionTimeout;
+	}
+
 	/**
 	 * Internal only method for accessing private, internal request parameters.
 	 * Not intended for direct use by callers.
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud;
+
+import pt.lunacloud.http.CircuitBreakerListener;
+
+/**
+ * Thresholds controlling the circuit breakers a client keeps for each of the
+ * endpoints (ex: bucket virtual hosts) it sends requests to.
+ * <p>
+ * A breaker opens when an endpoint fails too many requests in a row, or when
+ * the error rate over its most recent requests gets too high. While open,
+ * requests to that endpoint fail immediately with a
+ * {@link CircuitBreakerOpenException}. After the cool-down period, the breaker
+ * becomes half-open and lets a limited number of probe requests through: if
+ * they succeed the breaker closes again, otherwise it re-opens.
+ * <p>
+ * Server errors (5xx), throttling errors and I/O errors count as failures.
+ * 
+ * @see ClientConfiguration#setCircuitBreakerConfiguration(CircuitBreakerConfiguration)
+ */
+public class CircuitBreakerConfiguration {
+
+	/** The default number of consecutive failures that open a breaker. */
+	public static final int DEFAULT_CONSECUTIVE_FAILURE_THRESHOLD = 5;
+
+	/** The default error rate (in percent) that opens a breaker. */
+	public static final double DEFAULT_ERROR_RATE_THRESHOLD = 50.0;
+
+	/** The default number of recent requests the error rate is computed over. */
+	public static final int DEFAULT_WINDOW_SIZE = 20;
+
+	/** The default minimum number of requests before the error rate applies. */
+	public static final int DEFAULT_MINIMUM_REQUESTS = 10;
+
+	/** The default cool-down period (in milliseconds) of an open breaker. */
+	public static final long DEFAULT_OPEN_DURATION = 10 * 1000;
+
+	/** The default number of probe requests allowed by a half-open breaker. */
+	public static final int DEFAULT_HALF_OPEN_PROBES = 1;
+
+	private int consecutiveFailureThreshold = DEFAULT_CONSECUTIVE_FAILURE_THRESHOLD;
+	private double errorRateThreshold = DEFAULT_ERROR_RATE_THRESHOLD;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private int minimumRequests = DEFAULT_MINIMUM_REQUESTS;
+	private long openDuration = DEFAULT_OPEN_DURATION;
+	private int halfOpenProbes = DEFAULT_HALF_OPEN_PROBES;
+	private CircuitBreakerListener listener;
+
+	public CircuitBreakerConfiguration() {}
+
+	public CircuitBreakerConfiguration(CircuitBreakerConfiguration other) {
+		this.consecutiveFailureThreshold = other.consecutiveFailureThreshold;
+		this.errorRateThreshold = other.errorRateThreshold;
+		this.windowSize = other.windowSize;
+		this.minimumRequests = other.minimumRequests;
+		this.openDuration = other.openDuration;
+		this.halfOpenProbes = other.halfOpenProbes;
+		this.listener = other.listener;
+	}
+
+	/**
+	 * Returns the number of consecutive failed requests to an endpoint that
+	 * open its breaker.
+	 * 
+	 * @return The number of consecutive failures that open a breaker.
+	 */
+	public int getConsecutiveFailureThreshold() {
+		return consecutiveFailureThreshold;
+	}
+
+	/**
+	 * Sets the number of consecutive failed requests to an endpoint that open
+	 * its breaker, or zero to only open breakers based on the error rate.
+	 * 
+	 * @param consecutiveFailureThreshold
+	 *            The number of consecutive failures that open a breaker.
+	 */
+	public void setConsecutiveFailureThreshold(int consecutiveFailureThreshold) {
+		if (consecutiveFailureThreshold < 0) {
+			throw new IllegalArgumentException("Consecutive failure threshold must not be negative");
+		}
+		this.consecutiveFailureThreshold = consecutiveFailureThreshold;
+	}
+
+	/**
+	 * Sets the number of consecutive failed requests to an endpoint that open
+	 * its breaker, and returns the updated configuration so that additional
+	 * calls may be chained together.
+	 * 
+	 * @param consecutiveFailureThreshold
+	 *            The number of consecutive failures that open a breaker.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withConsecutiveFailureThreshold(int consecutiveFailureThreshold) {
+		setConsecutiveFailureThreshold(consecutiveFailureThreshold);
+		return this;
+	}
+
+	/**
+	 * Returns the error rate, in percent of the most recent requests to an
+	 * endpoint, that opens its breaker.
+	 * 
+	 * @return The error rate (in percent) that opens a breaker.
+	 */
+	public double getErrorRateThreshold() {
+		return errorRateThreshold;
+	}
+
+	/**
+	 * Sets the error rate, in percent of the most recent requests to an
+	 * endpoint, that opens its breaker. Must be greater than 0 and at most 100.
+	 * 
+	 * @param errorRateThreshold
+	 *            The error rate (in percent) that opens a breaker.
+	 */
+	public void setErrorRateThreshold(double errorRateThreshold) {
+		if (errorRateThreshold <= 0 || errorRateThreshold > 100) {
+			throw new IllegalArgumentException("Error rate threshold must be greater than 0 and at most 100");
+		}
+		this.errorRateThreshold = errorRateThreshold;
+	}
+
+	/**
+	 * Sets the error rate, in percent of the most recent requests to an
+	 * endpoint, that opens its breaker, and returns the updated configuration
+	 * so that additional calls may be chained together.
+	 * 
+	 * @param errorRateThreshold
+	 *            The error rate (in percent) that opens a breaker.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withErrorRateThreshold(double errorRateThreshold) {
+		setErrorRateThreshold(errorRateThreshold);
+		return this;
+	}
+
+	/**
+	 * Returns the number of most recent requests to an endpoint that its
+	 * error rate is computed over.
+	 * 
+	 * @return The number of requests the error rate is computed over.
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Sets the number of most recent requests to an endpoint that its error
+	 * rate is computed over.
+	 * 
+	 * @param windowSize
+	 *            The number of requests the error rate is computed over.
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Sets the number of most recent requests to an endpoint that its error
+	 * rate is computed over, and returns the updated configuration so that
+	 * additional calls may be chained together.
+	 * 
+	 * @param windowSize
+	 *            The number of requests the error rate is computed over.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withWindowSize(int windowSize) {
+		setWindowSize(windowSize);
+		return this;
+	}
+
+	/**
+	 * Returns the minimum number of requests an endpoint's breaker must have
+	 * seen before the error rate threshold applies.
+	 * 
+	 * @return The minimum number of requests before the error rate applies.
+	 */
+	public int getMinimumRequests() {
+		return minimumRequests;
+	}
+
+	/**
+	 * Sets the minimum number of requests an endpoint's breaker must have seen
+	 * before the error rate threshold applies, so that a couple of early
+	 * failures don't open it.
+	 * 
+	 * @param minimumRequests
+	 *            The minimum number of requests before the error rate
+	 *            applies.
+	 */
+	public void setMinimumRequests(int minimumRequests) {
+		this.minimumRequests = minimumRequests;
+	}
+
+	/**
+	 * Sets the minimum number of requests an endpoint's breaker must have seen
+	 * before the error rate threshold applies, and returns the updated
+	 * configuration so that additional calls may be chained together.
+	 * 
+	 * @param minimumRequests
+	 *            The minimum number of requests before the error rate
+	 *            applies.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withMinimumRequests(int minimumRequests) {
+		setMinimumRequests(minimumRequests);
+		return this;
+	}
+
+	/**
+	 * Returns the cool-down period (in milliseconds) during which an open
+	 * breaker rejects all requests before letting probes through.
+	 * 
+	 * @return The cool-down period (in milliseconds) of an open breaker.
+	 */
+	public long getOpenDuration() {
+		return openDuration;
+	}
+
+	/**
+	 * Sets the cool-down period (in milliseconds) during which an open breaker
+	 * rejects all requests before letting probes through.
+	 * 
+	 * @param openDuration
+	 *            The cool-down period (in milliseconds) of an open breaker.
+	 */
+	public void setOpenDuration(long openDuration) {
+		if (openDuration < 0) {
+			throw new IllegalArgumentException("Open duration must not be negative");
+		}
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Sets the cool-down period (in milliseconds) during which an open breaker
+	 * rejects all requests, and returns the updated configuration so that
+	 * additional calls may be chained together.
+	 * 
+	 * @param openDuration
+	 *            The cool-down period (in milliseconds) of an open breaker.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withOpenDuration(long openDuration) {
+		setOpenDuration(openDuration);
+		return this;
+	}
+
+	/**
+	 * Returns the number of probe requests a half-open breaker lets through,
+	 * all of which must succeed for the breaker to close.
+	 * 
+	 * @return The number of probe requests allowed by a half-open breaker.
+	 */
+	public int getHalfOpenProbes() {
+		return halfOpenProbes;
+	}
+
+	/**
+	 * Sets the number of probe requests a half-open breaker lets through, all
+	 * of which must succeed for the breaker to close.
+	 * 
+	 * @param halfOpenProbes
+	 *            The number of probe requests allowed by a half-open breaker.
+	 */
+	public void setHalfOpenProbes(int halfOpenProbes) {
+		if (halfOpenProbes <= 0) {
+			throw new IllegalArgumentException("Half-open probes must be positive");
+		}
+		this.halfOpenProbes = halfOpenProbes;
+	}
+
+	/**
+	 * Sets the number of probe requests a half-open breaker lets through, and
+	 * returns the updated configuration so that additional calls may be
+	 * chained together.
+	 * 
+	 * @param halfOpenProbes
+	 *            The number of probe requests allowed by a half-open breaker.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withHalfOpenProbes(int halfOpenProbes) {
+		setHalfOpenProbes(halfOpenProbes);
+		return this;
+	}
+
+	/**
+	 * Returns the optional listener notified when a breaker changes state.
+	 * 
+	 * @return The optional listener notified when a breaker changes state.
+	 */
+	public CircuitBreakerListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Sets the optional listener notified when a breaker changes state.
+	 * 
+	 * @param listener
+	 *            The optional listener notified when a breaker changes state.
+	 */
+	public void setListener(CircuitBreakerListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the optional listener notified when a breaker changes state, and
+	 * returns the updated configuration so that additional calls may be
+	 * chained together.
+	 * 
+	 * @param listener
+	 *            The optional listener notified when a breaker changes state.
+	 * 
+	 * @return The updated CircuitBreakerConfiguration object.
+	 */
+	public CircuitBreakerConfiguration withListener(CircuitBreakerListener listener) {
+		setListener(listener);
+		return this;
+	}
+
+}
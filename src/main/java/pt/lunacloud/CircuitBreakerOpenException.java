@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud;
+
+/**
+ * Exception thrown when a request is rejected without being sent because the
+ * circuit breaker for its endpoint is open, ex: after the endpoint returned
+ * too many consecutive errors. Requests to the endpoint are allowed again
+ * once the breaker's cool-down period is over.
+ * 
+ * @see ClientConfiguration#setCircuitBreakerConfiguration(CircuitBreakerConfiguration)
+ */
+public class CircuitBreakerOpenException extends LunacloudClientException {
+	private static final long serialVersionUID = 1L;
+
+	/** The endpoint whose circuit breaker rejected the request. */
+	private final String endpoint;
+
+	/**
+	 * Creates a new CircuitBreakerOpenException for the specified endpoint.
+	 * 
+	 * @param endpoint
+	 *            The endpoint (ex: https://bucket.example.com:443) whose
+	 *            circuit breaker rejected the request.
+	 */
+	public CircuitBreakerOpenException(String endpoint) {
+		super("Circuit breaker is open for endpoint " + endpoint + ", request was not sent");
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Returns the endpoint whose circuit breaker rejected the request.
+	 * 
+	 * @return The endpoint whose circuit breaker rejected the request.
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+}
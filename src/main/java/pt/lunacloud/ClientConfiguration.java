@@ -14,6 +14,20 @@
  */
 package pt.lunacloud;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pt.lunacloud.http.HttpTransport;
+import pt.lunacloud.internal.CustomBackoffStrategy;
+import pt.lunacloud.internal.DnsResolver;
+import pt.lunacloud.internal.RateLimiter;
+import pt.lunacloud.metrics.MetricsCollector;
+import pt.lunacloud.metrics.SlowRequestDetector;
 import pt.lunacloud.util.VersionInfoUtils;
 
 /**
@@ -35,6 +49,27 @@ public class ClientConfiguration {
 	/** The default maximum number of retries for error responses. */
 	public static final int DEFAULT_MAX_RETRIES = 3;
 
+	/** The default time to live of pooled connections (unlimited). */
+	public static final long DEFAULT_CONNECTION_TTL = -1;
+
+	/** The default cap on keep-alive durations (none, the server decides). */
+	public static final long DEFAULT_CONNECTION_MAX_KEEP_ALIVE = -1;
+
+	/** The default period between two reaps of idle connections. */
+	public static final long DEFAULT_CONNECTION_REAP_INTERVAL = 60 * 1000;
+
+	/** The default time a connection may sit idle in the pool. */
+	public static final long DEFAULT_CONNECTION_MAX_IDLE = 60 * 1000;
+
+	/** The default idle time after which connections are validated before reuse. */
+	public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2 * 1000;
+
+	/** The default client execution timeout (disabled). */
+	public static final int DEFAULT_CLIENT_EXECUTION_TIMEOUT = 0;
+
+	/** The default request body spool threshold (disabled). */
+	public static final int DEFAULT_REQUEST_BODY_SPOOL_THRESHOLD = -1;
+
 	/** The HTTP user agent header passed with all HTTP requests. */
 	private String userAgent = DEFAULT_USER_AGENT;
 
@@ -78,6 +113,109 @@ public class ClientConfiguration {
 	/** The maximum number of open HTTP connections. */
 	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
 
+	/**
+	 * The maximum number of open HTTP connections to any single route (ex: one
+	 * bucket virtual host). A value of 0 means the same as maxConnections.
+	 */
+	private int maxConnectionsPerRoute = 0;
+
+	/** Overrides of maxConnectionsPerRoute for specific host names. */
+	private Map<String, Integer> maxConnectionsPerHost = new HashMap<String, Integer>();
+
+	/**
+	 * The maximum amount of time (in milliseconds) a pooled connection is kept
+	 * after being opened, regardless of activity. A negative value means no
+	 * limit.
+	 */
+	private long connectionTTL = DEFAULT_CONNECTION_TTL;
+
+	/**
+	 * The maximum amount of time (in milliseconds) an idle connection is kept
+	 * alive for reuse, when the server's Keep-Alive header doesn't ask for a
+	 * shorter one. A negative value means idle connections are kept for as
+	 * long as the server allows.
+	 */
+	private long connectionMaxKeepAlive = DEFAULT_CONNECTION_MAX_KEEP_ALIVE;
+
+	/**
+	 * The amount of time to wait (in milliseconds) for a connection from the
+	 * pool when all connections are in use. A value of 0 means the
+	 * connectionTimeout is used.
+	 */
+	private int connectionLeaseTimeout = 0;
+
+	/**
+	 * The period (in milliseconds) between two reaps of expired and idle
+	 * connections from the pool. A value of 0 disables reaping.
+	 */
+	private long connectionReapInterval = DEFAULT_CONNECTION_REAP_INTERVAL;
+
+	/**
+	 * The amount of time (in milliseconds) a connection may sit idle in the
+	 * pool before it's closed by the reaper. A value of 0 means only expired
+	 * connections are closed.
+	 */
+	private long connectionMaxIdle = DEFAULT_CONNECTION_MAX_IDLE;
+
+	/**
+	 * The amount of time (in milliseconds) a pooled connection may sit idle
+	 * before it's checked for staleness when reused. A value of 0 disables
+	 * the check.
+	 */
+	private int validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+
+	/**
+	 * The number of connections to open to the service endpoint (and to each
+	 * of the pre-warmed buckets) when a client's connections are pre-warmed.
+	 * A value of 0 means connections are only opened when requests need them.
+	 */
+	private int prewarmConnections = 0;
+
+	/** The buckets whose virtual hosts to pre-warm connections to. */
+	private List<String> prewarmBucketNames = new ArrayList<String>();
+
+	/**
+	 * The maximum number of TLS sessions cached for resumption. A value of 0
+	 * means unlimited, and a negative value means the JVM's default SSL
+	 * context (and its cache settings) are used.
+	 */
+	private int tlsSessionCacheSize = -1;
+
+	/**
+	 * The amount of time (in seconds) cached TLS sessions can be resumed for.
+	 * A value of 0 means unlimited, and a negative value means the JVM's
+	 * default SSL context (and its cache settings) are used.
+	 */
+	private int tlsSessionTimeout = -1;
+
+	/**
+	 * The resolver used to look up the addresses of the hosts connections
+	 * are opened to, or null to use the system resolver.
+	 */
+	private DnsResolver dnsResolver;
+
+	/**
+	 * The size (in bytes) above which request bodies of unknown length are
+	 * spooled to a temporary file instead of being buffered in memory, or a
+	 * negative value to always buffer them in memory.
+	 */
+	private int requestBodySpoolThreshold = DEFAULT_REQUEST_BODY_SPOOL_THRESHOLD;
+
+	/**
+	 * The directory spooled request bodies are written to, or null for the
+	 * system's default temporary directory.
+	 */
+	private File requestBodySpoolDirectory;
+
+	/** The collector the metrics of every request are reported to, if any. */
+	private MetricsCollector metricsCollector;
+
+	/** The detector slow requests are logged by, if any. */
+	private SlowRequestDetector slowRequestDetector;
+
+	/** True if the client's statistics and connection pool are exposed over JMX. */
+	private boolean jmxEnabled;
+
 	/**
 	 * The amount of time to wait (in milliseconds) for data to be transfered
 	 * over an established, open connection before the connection is timed out.
@@ -92,6 +230,13 @@ public class ClientConfiguration {
 	 */
 	private int connectionTimeout = 50 * 1000;
 
+	/**
+	 * The amount of time to allow (in milliseconds) for a request to complete
+	 * end to end, including waiting for a pooled connection, all retries and
+	 * the backoff pauses between them. A value of 0 means no limit.
+	 */
+	private int clientExecutionTimeout = DEFAULT_CLIENT_EXECUTION_TIMEOUT;
+
 	/**
 	 * Optional size hint (in bytes) for the low level TCP send buffer. This is
 	 * an advanced option for advanced users who want to tune low level TCP
@@ -106,12 +251,54 @@ public class ClientConfiguration {
 	 */
 	private int socketReceiveBufferSizeHint = 0;
 
+	/**
+	 * Optional limiter on the rate at which requests are sent, shared by all
+	 * threads (and all clients) using this configuration.
+	 */
+	private RateLimiter rateLimiter = null;
+
+	/**
+	 * Optional strategy for how long to wait between retries of failed
+	 * requests. If not set, the default exponential backoff is used.
+	 */
+	private CustomBackoffStrategy backoffStrategy = null;
+
+	/**
+	 * Optional thresholds for the circuit breakers guarding each endpoint. If
+	 * not set, requests are never rejected by a circuit breaker.
+	 */
+	private CircuitBreakerConfiguration circuitBreakerConfiguration = null;
+
+	/**
+	 * Optional transport shared with other clients. If not set, each client
+	 * creates its own connection pool.
+	 */
+	private HttpTransport httpTransport = null;
+
 	public ClientConfiguration() {
 	}
 
 	public ClientConfiguration(ClientConfiguration other) {
 		this.connectionTimeout = other.connectionTimeout;
 		this.maxConnections = other.maxConnections;
+		this.maxConnectionsPerRoute = other.maxConnectionsPerRoute;
+		this.maxConnectionsPerHost = new HashMap<String, Integer>(other.maxConnectionsPerHost);
+		this.connectionTTL = other.connectionTTL;
+		this.connectionMaxKeepAlive = other.connectionMaxKeepAlive;
+		this.connectionLeaseTimeout = other.connectionLeaseTimeout;
+		this.connectionReapInterval = other.connectionReapInterval;
+		this.connectionMaxIdle = other.connectionMaxIdle;
+		this.validateAfterInactivity = other.validateAfterInactivity;
+		this.prewarmConnections = other.prewarmConnections;
+		this.prewarmBucketNames = new ArrayList<String>(other.prewarmBucketNames);
+		this.tlsSessionCacheSize = other.tlsSessionCacheSize;
+		this.tlsSessionTimeout = other.tlsSessionTimeout;
+		this.dnsResolver = other.dnsResolver;
+		this.requestBodySpoolThreshold = other.requestBodySpoolThreshold;
+		this.requestBodySpoolDirectory = other.requestBodySpoolDirectory;
+		this.metricsCollector = other.metricsCollector;
+		this.slowRequestDetector = other.slowRequestDetector;
+		this.jmxEnabled = other.jmxEnabled;
 		this.maxErrorRetry = other.maxErrorRetry;
 		this.protocol = other.protocol;
 		this.proxyDomain = other.proxyDomain;
@@ -122,9 +309,15 @@ public class ClientConfiguration {
 		this.proxyWorkstation = other.proxyWorkstation;
 		this.socketTimeout = other.socketTimeout;
 		this.userAgent = other.userAgent;
+		this.clientExecutionTimeout = other.clientExecutionTimeout;
 
 		this.socketReceiveBufferSizeHint = other.socketReceiveBufferSizeHint;
 		this.socketSendBufferSizeHint = other.socketSendBufferSizeHint;
+
+		this.rateLimiter = other.rateLimiter;
+		this.backoffStrategy = other.backoffStrategy;
+		this.circuitBreakerConfiguration = other.circuitBreakerConfiguration;
+		this.httpTransport = other.httpTransport;
 	}
 
 	/**
@@ -218,6 +411,746 @@ public class ClientConfiguration {
 		return this;
 	}
 
+	/**
+	 * Returns the maximum number of open HTTP connections to any single route.
+	 * Since each bucket virtual host is a separate route, this keeps a few
+	 * busy buckets from taking every connection in the pool.
+	 * 
+	 * @return The maximum number of open HTTP connections per route, or 0 if
+	 *         it's the same as the maximum number of connections.
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * Sets the maximum number of open HTTP connections to any single route.
+	 * Since each bucket virtual host is a separate route, this keeps a few
+	 * busy buckets from taking every connection in the pool.
+	 * 
+	 * @param maxConnectionsPerRoute
+	 *            The maximum number of open HTTP connections per route, or 0
+	 *            to use the maximum number of connections.
+	 */
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	/**
+	 * Sets the maximum number of open HTTP connections to any single route,
+	 * and returns the updated ClientConfiguration object so that additional
+	 * method calls may be chained together.
+	 * 
+	 * @param maxConnectionsPerRoute
+	 *            The maximum number of open HTTP connections per route, or 0
+	 *            to use the maximum number of connections.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+		return this;
+	}
+
+	/**
+	 * Returns the overrides of the maximum number of open HTTP connections per
+	 * route, keyed by host name.
+	 * 
+	 * @return A read-only view of the per host connection limits.
+	 */
+	public Map<String, Integer> getMaxConnectionsPerHost() {
+		return Collections.unmodifiableMap(maxConnectionsPerHost);
+	}
+
+	/**
+	 * Overrides the maximum number of open HTTP connections for the routes to
+	 * the specified host (ex: a bucket virtual host that needs more or fewer
+	 * connections than the others).
+	 * 
+	 * @param host
+	 *            The host name the limit applies to.
+	 * @param maxConnections
+	 *            The maximum number of open HTTP connections to the host.
+	 */
+	public void setMaxConnectionsForHost(String host, int maxConnections) {
+		maxConnectionsPerHost.put(host.toLowerCase(), maxConnections);
+	}
+
+	/**
+	 * Overrides the maximum number of open HTTP connections for the routes to
+	 * the specified host, and returns the updated ClientConfiguration object
+	 * so that additional method calls may be chained together.
+	 * 
+	 * @param host
+	 *            The host name the limit applies to.
+	 * @param maxConnections
+	 *            The maximum number of open HTTP connections to the host.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withMaxConnectionsForHost(String host, int maxConnections) {
+		setMaxConnectionsForHost(host, maxConnections);
+		return this;
+	}
+
+	/**
+	 * Returns the maximum amount of time (in milliseconds) a pooled
+	 * connection is kept after being opened, regardless of activity.
+	 * 
+	 * @return The time to live of pooled connections, or a negative value if
+	 *         unlimited.
+	 */
+	public long getConnectionTTL() {
+		return connectionTTL;
+	}
+
+	/**
+	 * Sets the maximum amount of time (in milliseconds) a pooled connection is
+	 * kept after being opened, regardless of activity. Expired connections are
+	 * closed instead of being reused, which lets clients pick up DNS and load
+	 * balancer changes.
+	 * 
+	 * @param connectionTTL
+	 *            The time to live of pooled connections, or a negative value
+	 *            for no limit.
+	 */
+	public void setConnectionTTL(long connectionTTL) {
+		this.connectionTTL = connectionTTL;
+	}
+
+	/**
+	 * Sets the maximum amount of time (in milliseconds) a pooled connection is
+	 * kept after being opened, and returns the updated ClientConfiguration
+	 * object so that additional method calls may be chained together.
+	 * 
+	 * @param connectionTTL
+	 *            The time to live of pooled connections, or a negative value
+	 *            for no limit.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withConnectionTTL(long connectionTTL) {
+		setConnectionTTL(connectionTTL);
+		return this;
+	}
+
+	/**
+	 * Returns the maximum amount of time (in milliseconds) an idle connection
+	 * is kept alive for reuse.
+	 * 
+	 * @return The cap on keep-alive durations, or a negative value if idle
+	 *         connections are kept for as long as the server allows.
+	 */
+	public long getConnectionMaxKeepAlive() {
+		return connectionMaxKeepAlive;
+	}
+
+	/**
+	 * Sets the maximum amount of time (in milliseconds) an idle connection is
+	 * kept alive for reuse. The keep-alive duration is taken from the timeout
+	 * of the server's Keep-Alive response header, capped to this value, and
+	 * is this value when the server doesn't send one.
+	 * 
+	 * @param connectionMaxKeepAlive
+	 *            The cap on keep-alive durations, or a negative value to keep
+	 *            idle connections for as long as the server allows.
+	 */
+	public void setConnectionMaxKeepAlive(long connectionMaxKeepAlive) {
+		this.connectionMaxKeepAlive = connectionMaxKeepAlive;
+	}
+
+	/**
+	 * Sets the maximum amount of time (in milliseconds) an idle connection is
+	 * kept alive for reuse, and returns the updated ClientConfiguration object
+	 * so that additional method calls may be chained together.
+	 * 
+	 * @param connectionMaxKeepAlive
+	 *            The cap on keep-alive durations, or a negative value to keep
+	 *            idle connections for as long as the server allows.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withConnectionMaxKeepAlive(long connectionMaxKeepAlive) {
+		setConnectionMaxKeepAlive(connectionMaxKeepAlive);
+		return this;
+	}
+
+	/**
+	 * Returns the amount of time to wait (in milliseconds) for a connection
+	 * from the pool when all connections are in use.
+	 * 
+	 * @return The connection lease timeout, or 0 if the connection timeout is
+	 *         used.
+	 */
+	public int getConnectionLeaseTimeout() {
+		return connectionLeaseTimeout;
+	}
+
+	/**
+	 * Sets the amount of time to wait (in milliseconds) for a connection from
+	 * the pool when all connections are in use. If the timeout expires, the
+	 * request fails with a ConnectionPoolTimeoutException.
+	 * 
+	 * @param connectionLeaseTimeout
+	 *            The connection lease timeout, or 0 to use the connection
+	 *            timeout.
+	 */
+	public void setConnectionLeaseTimeout(int connectionLeaseTimeout) {
+		this.connectionLeaseTimeout = connectionLeaseTimeout;
+	}
+
+	/**
+	 * Sets the amount of time to wait (in milliseconds) for a connection from
+	 * the pool when all connections are in use, and returns the updated
+	 * ClientConfiguration object so that additional method calls may be
+	 * chained together.
+	 * 
+	 * @param connectionLeaseTimeout
+	 *            The connection lease timeout, or 0 to use the connection
+	 *            timeout.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withConnectionLeaseTimeout(int connectionLeaseTimeout) {
+		setConnectionLeaseTimeout(connectionLeaseTimeout);
+		return this;
+	}
+
+	/**
+	 * Returns the period (in milliseconds) between two reaps of expired and
+	 * idle connections from the pool.
+	 * 
+	 * @return The period between two reaps, or 0 if reaping is disabled.
+	 */
+	public long getConnectionReapInterval() {
+		return connectionReapInterval;
+	}
+
+	/**
+	 * Sets the period (in milliseconds) between two reaps of expired and idle
+	 * connections from the pool. Reaping closes connections before the server
+	 * does, so they don't linger in CLOSE_WAIT.
+	 * 
+	 * @param connectionReapInterval
+	 *            The period between two reaps, or 0 to disable reaping.
+	 */
+	public void setConnectionReapInterval(long connectionReapInterval) {
+		this.connectionReapInterval = connectionReapInterval;
+	}
+
+	/**
+	 * Sets the period (in milliseconds) between two reaps of expired and idle
+	 * connections from the pool, and returns the updated ClientConfiguration
+	 * object so that additional method calls may be chained together.
+	 * 
+	 * @param connectionReapInterval
+	 *            The period between two reaps, or 0 to disable reaping.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withConnectionReapInterval(long connectionReapInterval) {
+		setConnectionReapInterval(connectionReapInterval);
+		return this;
+	}
+
+	/**
+	 * Returns the amount of time (in milliseconds) a connection may sit idle
+	 * in the pool before it's closed by the reaper.
+	 * 
+	 * @return The maximum idle time of pooled connections, or 0 if only
+	 *         expired connections are reaped.
+	 */
+	public long getConnectionMaxIdle() {
+		return connectionMaxIdle;
+	}
+
+	/**
+	 * Sets the amount of time (in milliseconds) a connection may sit idle in
+	 * the pool before it's closed by the reaper. This should be shorter than
+	 * the idle timeout of the servers and load balancers in front of them.
+	 * 
+	 * @param connectionMaxIdle
+	 *            The maximum idle time of pooled connections, or 0 to only
+	 *            reap expired connections.
+	 */
+	public void setConnectionMaxIdle(long connectionMaxIdle) {
+		this.connectionMaxIdle = connectionMaxIdle;
+	}
+
+	/**
+	 * Sets the amount of time (in milliseconds) a connection may sit idle in
+	 * the pool before it's closed by the reaper, and returns the updated
+	 * ClientConfiguration object so that additional method calls may be
+	 * chained together.
+	 * 
+	 * @param connectionMaxIdle
+	 *            The maximum idle time of pooled connections, or 0 to only
+	 *            reap expired connections.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withConnectionMaxIdle(long connectionMaxIdle) {
+		setConnectionMaxIdle(connectionMaxIdle);
+		return this;
+	}
+
+	/**
+	 * Returns the amount of time (in milliseconds) a pooled connection may sit
+	 * idle before it's checked for staleness when reused.
+	 * 
+	 * @return The inactivity period after which connections are validated,
+	 *         or 0 if they never are.
+	 */
+	public int getValidateAfterInactivity() {
+		return validateAfterInactivity;
+	}
+
+	/**
+	 * Sets the amount of time (in milliseconds) a pooled connection may sit
+	 * idle before it's checked for staleness when reused. Connections closed
+	 * by the server in the meantime are then replaced instead of failing the
+	 * request with a NoHttpResponseException, while connections reused right
+	 * away skip the check.
+	 * 
+	 * @param validateAfterInactivity
+	 *            The inactivity period after which connections are validated,
+	 *            or 0 to never validate them.
+	 */
+	public void setValidateAfterInactivity(int validateAfterInactivity) {
+		this.validateAfterInactivity = validateAfterInactivity;
+	}
+
+	/**
+	 * Sets the amount of time (in milliseconds) a pooled connection may sit
+	 * idle before it's checked for staleness when reused, and returns the
+	 * updated ClientConfiguration object so that additional method calls may
+	 * be chained together.
+	 * 
+	 * @param validateAfterInactivity
+	 *            The inactivity period after which connections are validated,
+	 *            or 0 to never validate them.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withValidateAfterInactivity(int validateAfterInactivity) {
+		setValidateAfterInactivity(validateAfterInactivity);
+		return this;
+	}
+
+	/**
+	 * Returns the number of connections to open to the service endpoint, and
+	 * to the virtual host of each pre-warmed bucket, when a client's
+	 * connections are pre-warmed.
+	 * 
+	 * @return The number of connections to pre-warm per host, or 0 if
+	 *         connections are only opened when requests need them.
+	 */
+	public int getPrewarmConnections() {
+		return prewarmConnections;
+	}
+
+	/**
+	 * Sets the number of connections to open to the service endpoint, and to
+	 * the virtual host of each pre-warmed bucket, when the client's
+	 * <code>prewarmConnections()</code> method is called, once the client is
+	 * configured. The connections (including their TLS handshake) are parked
+	 * in the connection pool, so that the first requests don't pay for
+	 * connection setup. The number is capped to the maximum number of
+	 * connections per route.
+	 * 
+	 * @param prewarmConnections
+	 *            The number of connections to pre-warm per host, or 0 to only
+	 *            open connections when requests need them.
+	 */
+	public void setPrewarmConnections(int prewarmConnections) {
+		this.prewarmConnections = prewarmConnections;
+	}
+
+	/**
+	 * Sets the number of connections to open to the service endpoint, and to
+	 * the virtual host of each pre-warmed bucket, when a client's connections
+	 * are pre-warmed, and returns the updated ClientConfiguration object so
+	 * that additional method calls may be chained together.
+	 * 
+	 * @param prewarmConnections
+	 *            The number of connections to pre-warm per host, or 0 to only
+	 *            open connections when requests need them.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withPrewarmConnections(int prewarmConnections) {
+		setPrewarmConnections(prewarmConnections);
+		return this;
+	}
+
+	/**
+	 * Returns the buckets whose virtual hosts connections are pre-warmed to,
+	 * in addition to the service endpoint.
+	 * 
+	 * @return A read-only view of the buckets to pre-warm connections to.
+	 */
+	public List<String> getPrewarmBucketNames() {
+		return Collections.unmodifiableList(prewarmBucketNames);
+	}
+
+	/**
+	 * Sets the buckets whose virtual hosts connections are pre-warmed to, in
+	 * addition to the service endpoint. Buckets that
+	 * can't be addressed through a virtual host share the service endpoint's
+	 * connections.
+	 * 
+	 * @param prewarmBucketNames
+	 *            The buckets to pre-warm connections to.
+	 */
+	public void setPrewarmBucketNames(List<String> prewarmBucketNames) {
+		this.prewarmBucketNames = new ArrayList<String>(prewarmBucketNames);
+	}
+
+	/**
+	 * Sets the buckets whose virtual hosts connections are pre-warmed to, and
+	 * returns the updated ClientConfiguration object so that additional method
+	 * calls may be chained together.
+	 * 
+	 * @param prewarmBucketNames
+	 *            The buckets to pre-warm connections to.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withPrewarmBucketNames(String... prewarmBucketNames) {
+		setPrewarmBucketNames(Arrays.asList(prewarmBucketNames));
+		return this;
+	}
+
+	/**
+	 * Returns the maximum number of TLS sessions cached for resumption.
+	 * 
+	 * @return The TLS session cache size, 0 if unlimited, or a negative value
+	 *         if the JVM's default SSL context is used.
+	 */
+	public int getTlsSessionCacheSize() {
+		return tlsSessionCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of TLS sessions cached for resumption. Resuming
+	 * a cached session when opening a new connection skips the key exchange
+	 * of a full handshake, saving a round trip and the client's CPU time.
+	 * <p>
+	 * Setting the TLS session cache size or timeout makes clients use their
+	 * own SSL context, initialized with the default trust managers and no
+	 * client certificate, instead of the JVM's default one.
+	 * 
+	 * @param tlsSessionCacheSize
+	 *            The TLS session cache size, 0 for unlimited, or a negative
+	 *            value to use the JVM's default SSL context.
+	 */
+	public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+		this.tlsSessionCacheSize = tlsSessionCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of TLS sessions cached for resumption, and
+	 * returns the updated ClientConfiguration object so that additional method
+	 * calls may be chained together.
+	 * 
+	 * @param tlsSessionCacheSize
+	 *            The TLS session cache size, 0 for unlimited, or a negative
+	 *            value to use the JVM's default SSL context.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withTlsSessionCacheSize(int tlsSessionCacheSize) {
+		setTlsSessionCacheSize(tlsSessionCacheSize);
+		return this;
+	}
+
+	/**
+	 * Returns the amount of time (in seconds) cached TLS sessions can be
+	 * resumed for.
+	 * 
+	 * @return The TLS session timeout in seconds, 0 if unlimited, or a
+	 *         negative value if the JVM's default SSL context is used.
+	 */
+	public int getTlsSessionTimeout() {
+		return tlsSessionTimeout;
+	}
+
+	/**
+	 * Sets the amount of time (in seconds) cached TLS sessions can be resumed
+	 * for. Servers may expire sessions sooner, in which case a full handshake
+	 * is made anyway.
+	 * 
+	 * @param tlsSessionTimeout
+	 *            The TLS session timeout in seconds, 0 for unlimited, or a
+	 *            negative value to use the JVM's default SSL context.
+	 */
+	public void setTlsSessionTimeout(int tlsSessionTimeout) {
+		this.tlsSessionTimeout = tlsSessionTimeout;
+	}
+
+	/**
+	 * Sets the amount of time (in seconds) cached TLS sessions can be resumed
+	 * for, and returns the updated ClientConfiguration object so that
+	 * additional method calls may be chained together.
+	 * 
+	 * @param tlsSessionTimeout
+	 *            The TLS session timeout in seconds, 0 for unlimited, or a
+	 *            negative value to use the JVM's default SSL context.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withTlsSessionTimeout(int tlsSessionTimeout) {
+		setTlsSessionTimeout(tlsSessionTimeout);
+		return this;
+	}
+
+	/**
+	 * Returns the resolver used to look up the addresses of the hosts
+	 * connections are opened to.
+	 * 
+	 * @return The DNS resolver, or null if the system resolver is used.
+	 */
+	public DnsResolver getDnsResolver() {
+		return dnsResolver;
+	}
+
+	/**
+	 * Sets the resolver used to look up the addresses of the hosts
+	 * connections are opened to. A
+	 * {@link pt.lunacloud.internal.CachingDnsResolver} caches lookups and
+	 * spreads connections across all of the addresses of an endpoint.
+	 * 
+	 * @param dnsResolver
+	 *            The DNS resolver, or null to use the system resolver.
+	 */
+	public void setDnsResolver(DnsResolver dnsResolver) {
+		this.dnsResolver = dnsResolver;
+	}
+
+	/**
+	 * Sets the resolver used to look up the addresses of the hosts
+	 * connections are opened to, and returns the updated ClientConfiguration
+	 * object so that additional method calls may be chained together.
+	 * 
+	 * @param dnsResolver
+	 *            The DNS resolver, or null to use the system resolver.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withDnsResolver(DnsResolver dnsResolver) {
+		setDnsResolver(dnsResolver);
+		return this;
+	}
+
+	/**
+	 * Returns the size (in bytes) above which request bodies of unknown
+	 * length are spooled to a temporary file instead of being buffered in
+	 * memory.
+	 * 
+	 * @return The request body spool threshold in bytes, or a negative value
+	 *         if request bodies are always buffered in memory.
+	 */
+	public int getRequestBodySpoolThreshold() {
+		return requestBodySpoolThreshold;
+	}
+
+	/**
+	 * Sets the size (in bytes) above which request bodies of unknown length
+	 * are spooled to a temporary file instead of being buffered in memory.
+	 * Spooled bodies are sent with a known length and can be repeated in full
+	 * when a request is retried, while using a bounded amount of memory. The
+	 * temporary file is deleted once the request completes.
+	 * <p>
+	 * The whole body is spooled before the request is sent. The progress
+	 * listener of an object upload still reports the bytes as they're sent,
+	 * not as they're spooled, so a failed upload doesn't report its whole
+	 * body as transferred.
+	 * 
+	 * @param requestBodySpoolThreshold
+	 *            The request body spool threshold in bytes, or a negative
+	 *            value to always buffer request bodies in memory.
+	 */
+	public void setRequestBodySpoolThreshold(int requestBodySpoolThreshold) {
+		this.requestBodySpoolThreshold = requestBodySpoolThreshold;
+	}
+
+	/**
+	 * Sets the size (in bytes) above which request bodies of unknown length
+	 * are spooled to a temporary file instead of being buffered in memory,
+	 * and returns the updated ClientConfiguration object so that additional
+	 * method calls may be chained together.
+	 * 
+	 * @param requestBodySpoolThreshold
+	 *            The request body spool threshold in bytes, or a negative
+	 *            value to always buffer request bodies in memory.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withRequestBodySpoolThreshold(int requestBodySpoolThreshold) {
+		setRequestBodySpoolThreshold(requestBodySpoolThreshold);
+		return this;
+	}
+
+	/**
+	 * Returns the directory spooled request bodies are written to.
+	 * 
+	 * @return The request body spool directory, or null if the system's
+	 *         default temporary directory is used.
+	 */
+	public File getRequestBodySpoolDirectory() {
+		return requestBodySpoolDirectory;
+	}
+
+	/**
+	 * Sets the directory spooled request bodies are written to.
+	 * 
+	 * @param requestBodySpoolDirectory
+	 *            The request body spool directory, or null to use the
+	 *            system's default temporary directory.
+	 */
+	public void setRequestBodySpoolDirectory(File requestBodySpoolDirectory) {
+		this.requestBodySpoolDirectory = requestBodySpoolDirectory;
+	}
+
+	/**
+	 * Sets the directory spooled request bodies are written to, and returns
+	 * the updated ClientConfiguration object so that additional method calls
+	 * may be chained together.
+	 * 
+	 * @param requestBodySpoolDirectory
+	 *            The request body spool directory, or null to use the
+	 *            system's default temporary directory.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withRequestBodySpoolDirectory(File requestBodySpoolDirectory) {
+		setRequestBodySpoolDirectory(requestBodySpoolDirectory);
+		return this;
+	}
+
+	/**
+	 * Returns the collector the metrics of every request are reported to.
+	 * 
+	 * @return The metrics collector, or null if request metrics aren't
+	 *         collected.
+	 */
+	public MetricsCollector getMetricsCollector() {
+		return metricsCollector;
+	}
+
+	/**
+	 * Sets the collector the metrics of every request are reported to: the
+	 * operation, bucket, status code, attempt count, the time spent signing,
+	 * sending and unmarshalling, and the bytes transferred. An
+	 * {@link pt.lunacloud.metrics.AggregatingMetricsCollector} keeps latency
+	 * histograms per operation in memory. A collector can be shared by many
+	 * clients.
+	 * 
+	 * @param metricsCollector
+	 *            The metrics collector, or null to not collect request
+	 *            metrics.
+	 */
+	public void setMetricsCollector(MetricsCollector metricsCollector) {
+		this.metricsCollector = metricsCollector;
+	}
+
+	/**
+	 * Sets the collector the metrics of every request are reported to, and
+	 * returns the updated ClientConfiguration object so that additional
+	 * method calls may be chained together.
+	 * 
+	 * @param metricsCollector
+	 *            The metrics collector, or null to not collect request
+	 *            metrics.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withMetricsCollector(MetricsCollector metricsCollector) {
+		setMetricsCollector(metricsCollector);
+		return this;
+	}
+
+	/**
+	 * Returns the detector slow requests are logged by.
+	 * 
+	 * @return The slow request detector, or null if slow requests aren't
+	 *         detected.
+	 */
+	public SlowRequestDetector getSlowRequestDetector() {
+		return slowRequestDetector;
+	}
+
+	/**
+	 * Sets the detector slow requests are logged by, with their request ID,
+	 * endpoint, phase timings and attempt history. Slow requests are detected
+	 * against a threshold per operation, or a percentile of the latencies of
+	 * each operation. The detector is used in addition to any metrics
+	 * collector, and can be shared by many clients.
+	 * 
+	 * @param slowRequestDetector
+	 *            The slow request detector, or null to not detect slow
+	 *            requests.
+	 */
+	public void setSlowRequestDetector(SlowRequestDetector slowRequestDetector) {
+		this.slowRequestDetector = slowRequestDetector;
+	}
+
+	/**
+	 * Sets the detector slow requests are logged by, and returns the updated
+	 * ClientConfiguration object so that additional method calls may be
+	 * chained together.
+	 * 
+	 * @param slowRequestDetector
+	 *            The slow request detector, or null to not detect slow
+	 *            requests.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withSlowRequestDetector(SlowRequestDetector slowRequestDetector) {
+		setSlowRequestDetector(slowRequestDetector);
+		return this;
+	}
+
+	/**
+	 * Returns true if the client's request statistics and connection pool are
+	 * registered as MBeans with the platform MBean server.
+	 * 
+	 * @return True if JMX is enabled.
+	 */
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	/**
+	 * Sets whether the client's request statistics and connection pool are
+	 * registered as MBeans with the platform MBean server, under the
+	 * pt.lunacloud domain: request and error rates, errors by code, retries
+	 * and requests in flight (type=HttpClient), and leased, available and
+	 * pending connections (type=ConnectionPool). The MBeans are unregistered
+	 * when the client is shut down. Disabled by default.
+	 * 
+	 * @param jmxEnabled
+	 *            True to register the client's MBeans.
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * Sets whether the client's request statistics and connection pool are
+	 * registered as MBeans, and returns the updated ClientConfiguration
+	 * object so that additional method calls may be chained together.
+	 * 
+	 * @param jmxEnabled
+	 *            True to register the client's MBeans.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withJmxEnabled(boolean jmxEnabled) {
+		setJmxEnabled(jmxEnabled);
+		return this;
+	}
+
 	/**
 	 * Returns the HTTP user agent header to send with all requests.
 	 * 
@@ -596,6 +1529,57 @@ public class ClientConfiguration {
 		return this;
 	}
 
+	/**
+	 * Returns the amount of time to allow (in milliseconds) for a request to
+	 * complete end to end, including waiting for a pooled connection, sending
+	 * the request, all retries and the backoff pauses between them. A value of
+	 * 0 means no limit.
+	 * 
+	 * @return The client execution timeout in milliseconds.
+	 */
+	public int getClientExecutionTimeout() {
+		return clientExecutionTimeout;
+	}
+
+	/**
+	 * Sets the amount of time to allow (in milliseconds) for a request to
+	 * complete end to end, including waiting for a pooled connection, sending
+	 * the request, all retries and the backoff pauses between them. A value of
+	 * 0 means no limit.
+	 * <p>
+	 * When the timeout passes, the HTTP request in flight is aborted and a
+	 * {@link ClientExecutionTimeoutException} is thrown. For operations that
+	 * return a stream (ex: getting an object), the timeout covers receiving
+	 * the response headers, not reading the returned stream. When a request
+	 * body of unknown length is spooled (see
+	 * {@link #setRequestBodySpoolThreshold(int)}), the timeout covers reading
+	 * it, but is only checked between reads of the caller's stream, so a read
+	 * that blocks isn't interrupted. Individual requests can override this
+	 * setting with
+	 * {@link AmazonWebServiceRequest#setClientExecutionTimeout(Integer)}.
+	 * 
+	 * @param clientExecutionTimeout
+	 *            The client execution timeout in milliseconds.
+	 */
+	public void setClientExecutionTimeout(int clientExecutionTimeout) {
+		this.clientExecutionTimeout = clientExecutionTimeout;
+	}
+
+	/**
+	 * Sets the amount of time to allow (in milliseconds) for a request to
+	 * complete end to end, and returns the updated ClientConfiguration object
+	 * so that additional method calls may be chained together.
+	 * 
+	 * @param clientExecutionTimeout
+	 *            The client execution timeout in milliseconds.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withClientExecutionTimeout(int clientExecutionTimeout) {
+		setClientExecutionTimeout(clientExecutionTimeout);
+		return this;
+	}
+
 	/**
 	 * Returns the optional size hints (in bytes) for the low level TCP send and
 	 * receive buffers. This is an advanced option for advanced users who want
@@ -722,4 +1706,181 @@ public class ClientConfiguration {
 		return this;
 	}
 
+	/**
+	 * Returns the optional limiter on the rate at which requests are sent. A
+	 * rate limiter is consulted before every request attempt, and is notified
+	 * of throttling and successful responses so it can slow the whole client
+	 * down when the service is overloaded, instead of only delaying the retry
+	 * of the request that was throttled.
+	 * 
+	 * @return The optional rate limiter, or null if requests are sent as fast
+	 *         as callers issue them.
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Sets the optional limiter on the rate at which requests are sent. The
+	 * same limiter instance is shared by every client created with this
+	 * configuration (and with copies of it), so it throttles their combined
+	 * request rate.
+	 * 
+	 * @param rateLimiter
+	 *            The rate limiter to use (ex: an
+	 *            {@link pt.lunacloud.internal.AdaptiveRateLimiter}), or null to
+	 *            disable client side rate limiting.
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Sets the optional limiter on the rate at which requests are sent, and
+	 * returns the updated ClientConfiguration object so that additional method
+	 * calls may be chained together.
+	 * 
+	 * @param rateLimiter
+	 *            The rate limiter to use, or null to disable client side rate
+	 *            limiting.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withRateLimiter(RateLimiter rateLimiter) {
+		setRateLimiter(rateLimiter);
+		return this;
+	}
+
+	/**
+	 * Returns the optional strategy for how long to wait between retries of
+	 * failed requests. If not set, requests are retried after an exponentially
+	 * growing delay.
+	 * 
+	 * @return The optional backoff strategy for retries.
+	 */
+	public CustomBackoffStrategy getBackoffStrategy() {
+		return backoffStrategy;
+	}
+
+	/**
+	 * Sets the optional strategy for how long to wait between retries of
+	 * failed requests. The strategy is told which class of error (I/O, server
+	 * error or throttling) caused the retry, so an
+	 * {@link pt.lunacloud.internal.ErrorClassBackoffStrategy} can be used to
+	 * back off differently for each of them.
+	 * 
+	 * @param backoffStrategy
+	 *            The backoff strategy for retries (ex: an
+	 *            {@link pt.lunacloud.internal.FullJitterBackoffStrategy}), or
+	 *            null to use the default exponential backoff.
+	 */
+	public void setBackoffStrategy(CustomBackoffStrategy backoffStrategy) {
+		this.backoffStrategy = backoffStrategy;
+	}
+
+	/**
+	 * Sets the optional strategy for how long to wait between retries of
+	 * failed requests, and returns the updated ClientConfiguration object so
+	 * that additional method calls may be chained together.
+	 * 
+	 * @param backoffStrategy
+	 *            The backoff strategy for retries, or null to use the default
+	 *            exponential backoff.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withBackoffStrategy(CustomBackoffStrategy backoffStrategy) {
+		setBackoffStrategy(backoffStrategy);
+		return this;
+	}
+
+	/**
+	 * Returns the optional thresholds for the circuit breakers guarding each
+	 * endpoint (ex: each bucket virtual host) requests are sent to.
+	 * 
+	 * @return The optional circuit breaker configuration, or null if circuit
+	 *         breakers are disabled.
+	 */
+	public CircuitBreakerConfiguration getCircuitBreakerConfiguration() {
+		return circuitBreakerConfiguration;
+	}
+
+	/**
+	 * Sets the optional thresholds for the circuit breakers guarding each
+	 * endpoint requests are sent to. Once an endpoint fails too many requests,
+	 * further requests to it fail fast with a
+	 * {@link CircuitBreakerOpenException} instead of tying up the calling
+	 * thread in retries, until the breaker's cool-down period is over.
+	 * 
+	 * @param circuitBreakerConfiguration
+	 *            The circuit breaker configuration, or null to disable
+	 *            circuit breakers.
+	 */
+	public void setCircuitBreakerConfiguration(CircuitBreakerConfiguration circuitBreakerConfiguration) {
+		this.circuitBreakerConfiguration = circuitBreakerConfiguration;
+	}
+
+	/**
+	 * Sets the optional thresholds for the circuit breakers guarding each
+	 * endpoint requests are sent to, and returns the updated
+	 * ClientConfiguration object so that additional method calls may be
+	 * chained together.
+	 * 
+	 * @param circuitBreakerConfiguration
+	 *            The circuit breaker configuration, or null to disable
+	 *            circuit breakers.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withCircuitBreakerConfiguration(CircuitBreakerConfiguration circuitBreakerConfiguration) {
+		setCircuitBreakerConfiguration(circuitBreakerConfiguration);
+		return this;
+	}
+
+	/**
+	 * Returns the optional transport (connection pool and TLS context) shared
+	 * by the clients created with this configuration.
+	 * 
+	 * @return The optional shared transport, or null if each client creates
+	 *         its own.
+	 */
+	public HttpTransport getHttpTransport() {
+		return httpTransport;
+	}
+
+	/**
+	 * Sets the optional transport (connection pool and TLS context) shared by
+	 * the clients created with this configuration. Clients that only differ
+	 * in their credentials can then reuse each other's connections and TLS
+	 * sessions, instead of each keeping its own pool of idle sockets.
+	 * <p>
+	 * The connection pool, proxy and reaping settings of a shared transport
+	 * are those of the configuration it was created with; those set here are
+	 * ignored. Shutting down a client leaves the transport running.
+	 * 
+	 * @param httpTransport
+	 *            The shared transport, or null for each client to create its
+	 *            own.
+	 */
+	public void setHttpTransport(HttpTransport httpTransport) {
+		this.httpTransport = httpTransport;
+	}
+
+	/**
+	 * Sets the optional transport (connection pool and TLS context) shared by
+	 * the clients created with this configuration, and returns the updated
+	 * ClientConfiguration object so that additional method calls may be
+	 * chained together.
+	 * 
+	 * @param httpTransport
+	 *            The shared transport, or null for each client to create its
+	 *            own.
+	 * 
+	 * @return The updated ClientConfiguration object.
+	 */
+	public ClientConfiguration withHttpTransport(HttpTransport httpTransport) {
+		setHttpTransport(httpTransport);
+		return this;
+	}
+
 }
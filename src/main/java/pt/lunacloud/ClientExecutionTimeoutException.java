@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud;
+
+/**
+ * Exception thrown when a request could not be completed within its client
+ * execution timeout, including the time spent waiting for a pooled connection,
+ * sending the request, retrying it and backing off between retries.
+ * 
+ * @see ClientConfiguration#setClientExecutionTimeout(int)
+ * @see AmazonWebServiceRequest#setClientExecutionTimeout(Integer)
+ */
+public class ClientExecutionTimeoutException extends LunacloudClientException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new ClientExecutionTimeoutException with the specified
+	 * message, and root cause.
+	 * 
+	 * @param message
+	 *            An error message describing why this exception was thrown.
+	 * @param t
+	 *            The underlying cause of this exception.
+	 */
+	public ClientExecutionTimeoutException(String message, Throwable t) {
+		super(message, t);
+	}
+
+	/**
+	 * Creates a new ClientExecutionTimeoutException with the specified
+	 * message.
+	 * 
+	 * @param message
+	 *            An error message describing why this exception was thrown.
+	 */
+	public ClientExecutionTimeoutException(String message) {
+		super(message);
+	}
+
+}
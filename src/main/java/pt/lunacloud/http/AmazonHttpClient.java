@@ -17,15 +17,16 @@ package pt.lunacloud.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import javax.net.ssl.SSLContext;
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,23 +37,33 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 
 import pt.lunacloud.LunacloudClientException;
 import pt.lunacloud.LunacloudServiceException;
 import pt.lunacloud.AmazonWebServiceRequest;
 import pt.lunacloud.AmazonWebServiceResponse;
+import pt.lunacloud.CircuitBreakerConfiguration;
+import pt.lunacloud.CircuitBreakerOpenException;
 import pt.lunacloud.ClientConfiguration;
+import pt.lunacloud.ClientExecutionTimeoutException;
 import pt.lunacloud.Request;
 import pt.lunacloud.ResponseMetadata;
 import pt.lunacloud.LunacloudServiceException.ErrorType;
 import pt.lunacloud.handlers.RequestHandler;
 import pt.lunacloud.internal.CRC32MismatchException;
 import pt.lunacloud.internal.CustomBackoffStrategy;
+import pt.lunacloud.internal.RateLimiter;
+import pt.lunacloud.internal.CustomBackoffStrategy.ErrorClass;
+import pt.lunacloud.metrics.MetricsCollector;
+import pt.lunacloud.metrics.RequestMetricsEvent;
+import pt.lunacloud.metrics.SlowRequestDetector;
 import pt.lunacloud.util.AWSRequestMetrics;
 import pt.lunacloud.util.CountingInputStream;
+import pt.lunacloud.util.JmxUtils;
+import pt.lunacloud.util.RandomUtils;
 import pt.lunacloud.util.ResponseMetadataCache;
 import pt.lunacloud.util.TimingInfo;
 import pt.lunacloud.util.AWSRequestMetrics.Field;
@@ -73,6 +84,12 @@ public class AmazonHttpClient {
      */
     static final Log log = LogFactory.getLog(AmazonHttpClient.class);
 
+    /** The transport sending HTTP requests, possibly shared with other clients */
+    private final HttpTransport transport;
+
+    /** True if the transport was created for (and is shut down with) this client */
+    private final boolean ownsTransport;
+
     /** Internal client for sending HTTP requests */
     private final HttpClient httpClient;
 
@@ -85,10 +102,19 @@ public class AmazonHttpClient {
     /** Cache of metadata for recently executed requests for diagnostic purposes */
     private final ResponseMetadataCache responseMetadataCache = new ResponseMetadataCache(50);
 
-    private static final Random random = new Random();
+    /** Circuit breakers guarding each endpoint, keyed by scheme, host and port */
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /** Request statistics exposed over JMX, or null if JMX isn't enabled */
+    private final HttpClientStatistics statistics;
+
+    /** The name of the statistics MBean, or null if JMX isn't enabled */
+    private final ObjectName statisticsMBeanName;
+
+    /** Operation names reported to metrics collectors, by request class */
+    private static final ConcurrentMap<Class<?>, String> operationNames = new ConcurrentHashMap<Class<?>, String>();
 
     private static HttpRequestFactory httpRequestFactory = new HttpRequestFactory();
-    private static HttpClientFactory httpClientFactory = new HttpClientFactory();
 
     /** Internal system property to enable advanced timing info collection. */
     public static final String PROFILING_SYSTEM_PROPERTY = "com.amazonaws.sdk.enableRuntimeProfiling";
@@ -116,7 +142,17 @@ public class AmazonHttpClient {
      */
     public AmazonHttpClient(ClientConfiguration clientConfiguration) {
         this.config = clientConfiguration;
-        this.httpClient = httpClientFactory.createHttpClient(config);
+        HttpTransport sharedTransport = config.getHttpTransport();
+        this.ownsTransport = (sharedTransport == null);
+        this.transport = ownsTransport ? new HttpTransport(config) : sharedTransport;
+        this.httpClient = transport.getHttpClient();
+        if (config.isJmxEnabled()) {
+            this.statistics = new HttpClientStatistics();
+            this.statisticsMBeanName = JmxUtils.registerMBean("HttpClient", statistics);
+        } else {
+            this.statistics = null;
+            this.statisticsMBeanName = null;
+        }
     }
 
     /**
@@ -137,24 +173,103 @@ public class AmazonHttpClient {
         return responseMetadataCache.get(request);
     }
 
+    /**
+     * Returns the circuit breakers created so far for the endpoints this
+     * client sent requests to, keyed by endpoint (ex:
+     * https://bucket.example.com:443). The map is empty unless circuit
+     * breakers are enabled in the client configuration.
+     *
+     * @return A read-only view of the circuit breakers of this client.
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+
+    /**
+     * Opens up to the specified number of connections to each of the specified
+     * endpoints (including the TLS handshake for HTTPS endpoints) and parks
+     * them in this client's connection pool, so that the first requests sent
+     * to those endpoints don't pay for connection setup. Blocks until all
+     * connections are opened or have failed to open.
+     *
+     * @param endpoints
+     *            The endpoints (ex: https://bucket.example.com) to open
+     *            connections to.
+     * @param connectionsPerEndpoint
+     *            The number of connections to open to each endpoint, which is
+     *            capped to the per route connection limit.
+     *
+     * @return The number of connections opened and parked in the pool.
+     */
+    public int prewarmConnections(List<URI> endpoints, int connectionsPerEndpoint) {
+        try {
+            return new ConnectionPrewarmer((AbstractHttpClient) httpClient, config).prewarm(endpoints, connectionsPerEndpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LunacloudClientException("Interrupted while pre-warming connections", e);
+        }
+    }
+
+    /**
+     * Returns a snapshot of this client's HTTP connection pool: how many
+     * connections are leased and available, and how many requests are
+     * waiting for a connection.
+     *
+     * @return A snapshot of this client's HTTP connection pool.
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return getConnectionManager().getTotalStats();
+    }
+
+    /**
+     * Returns a snapshot of each route in this client's HTTP connection pool,
+     * keyed by target host (ex: https://bucket.example.com:443). Requests
+     * pending on a route are queued for a connection rather than waiting on
+     * the network.
+     *
+     * @return A snapshot of each route in this client's HTTP connection pool.
+     */
+    public Map<String, ConnectionPoolStats> getConnectionPoolStatsPerRoute() {
+        return getConnectionManager().getRouteStats();
+    }
+
+    private InstrumentedClientConnManager getConnectionManager() {
+        return (InstrumentedClientConnManager) httpClient.getConnectionManager();
+    }
+
+    /**
+     * Returns the request statistics of this client (request and error
+     * counts and rates, errors by code, retries and requests in flight),
+     * which are also registered as an MBean.
+     *
+     * @return The request statistics of this client, or null if JMX isn't
+     *         enabled in the client configuration.
+     */
+    public HttpClientStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * Disables the default strict hostname verification in this client and
      * instead uses a browser compatible hostname verification strategy (i.e.
      * cert hostname wildcards are evaulated more liberally).
+     * <p>
+     * If this client uses a shared transport, this affects every client
+     * sharing it.
      */
     public void disableStrictHostnameVerification() {
-        try {
-            SchemeRegistry schemeRegistry = httpClient.getConnectionManager().getSchemeRegistry();
-
-            SSLSocketFactory sf = new SSLSocketFactory(
-                    SSLContext.getDefault(),
-                    SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
-            Scheme https = new Scheme("https", 443, sf);
+        transport.disableStrictHostnameVerification();
+    }
 
-            schemeRegistry.register(https);
-        } catch (NoSuchAlgorithmException e) {
-            throw new LunacloudClientException("Unable to access default SSL context to disable strict hostname verification");
-        }
+    /**
+     * Returns the counters of the TLS handshakes (full and resumed) made by
+     * the transport of this client, which are shared with the other clients
+     * using the same transport.
+     *
+     * @return The TLS handshake counters of this client's transport.
+     */
+    public TlsHandshakeStats getTlsHandshakeStats() {
+        return transport.getTlsHandshakeStats();
     }
 
     /**
@@ -182,16 +297,49 @@ public class AmazonHttpClient {
         List<RequestHandler> requestHandlers = executionContext.getRequestHandlers();
         if (requestHandlers == null) requestHandlers = new ArrayList<RequestHandler>();
 
+        // Bound the whole execution, including retries, if a timeout was requested
+        ExecutionDeadline deadline = createDeadline(request);
+
         // Apply any additional service specific request handlers that need to be run
         for ( RequestHandler requestHandler : requestHandlers ) {
             requestHandler.beforeRequest(request);
         }
 
+        // Record the request's metrics if a collector will consume them
+        MetricsCollector metricsCollector = config.getMetricsCollector();
+        SlowRequestDetector slowRequestDetector = config.getSlowRequestDetector();
+        boolean collectMetrics = (metricsCollector != null || slowRequestDetector != null);
+        if (collectMetrics && !executionContext.getAwsRequestMetrics().isEnabled()) {
+            executionContext.setAwsRequestMetrics(new AWSRequestMetrics(true));
+        }
+        long startNanos = System.nanoTime();
+        if (statistics != null) statistics.requestStarted();
+
+        SpooledInputStream spooledContent = null;
         try {
-            T t = executeHelper(request, responseHandler, errorResponseHandler, executionContext);
-            TimingInfo timingInfo = executionContext.getAwsRequestMetrics().getTimingInfo();
+            spooledContent = spoolContent(request, deadline);
+            RequestContentWrapper contentWrapper = executionContext.getContentWrapper();
+            if (contentWrapper != null && request.getContent() != null) {
+                request.setContent(contentWrapper.wrap(request.getContent()));
+            }
+            T t = executeHelper(request, responseHandler, errorResponseHandler, executionContext, deadline);
+            // The shared no-op metrics' timing info must not be mutated
+            AWSRequestMetrics awsRequestMetrics = executionContext.getAwsRequestMetrics();
+            TimingInfo timingInfo = awsRequestMetrics.isEnabled()
+                    ? awsRequestMetrics.getTimingInfo() : new TimingInfo(startTime);
             timingInfo.setEndTime(System.currentTimeMillis());
 
+            if (statistics != null) statistics.requestSucceeded();
+            RequestMetricsEvent event = null;
+            if (collectMetrics) {
+                event = collectMetrics(metricsCollector, slowRequestDetector, request, executionContext, startNanos, null);
+            }
+            ResponseBodyTimingInputStream streamedBody = executionContext.getStreamedResponseBody();
+            if (streamedBody != null) {
+                streamedBody.detach((event == null || metricsCollector == null) ? null
+                        : new ResponseBodyMetricsListener(metricsCollector, event));
+            }
+
             for (RequestHandler handler : requestHandlers) {
                 try {
                     handler.afterResponse(request, t, timingInfo);
@@ -199,13 +347,179 @@ public class AmazonHttpClient {
             }
             return t;
         } catch (LunacloudClientException e) {
+            if (statistics != null) statistics.requestFailed(e);
+            if (collectMetrics) {
+                collectMetrics(metricsCollector, slowRequestDetector, request, executionContext, startNanos, e);
+            }
+            ResponseBodyTimingInputStream streamedBody = executionContext.getStreamedResponseBody();
+            if (streamedBody != null) streamedBody.detach(null);
             for (RequestHandler handler : requestHandlers) {
                 handler.afterError(request, e);
             }
             throw e;
+        } finally {
+            if (spooledContent != null) spooledContent.release();
+            if (statistics != null) statistics.requestFinished();
+        }
+    }
+
+    /**
+     * Reports the metrics of a completed or failed request to the specified
+     * collector and slow request detector, either of which may be null.
+     * Errors thrown by them are logged, never propagated.
+     * <p>
+     * With only a detector, the request's event is only built if the
+     * detector records the request, ie: if it's slow and sampled.
+     *
+     * @return The reported metrics, or null if none were built.
+     */
+    private RequestMetricsEvent collectMetrics(MetricsCollector metricsCollector, SlowRequestDetector slowRequestDetector,
+            Request<?> request, ExecutionContext executionContext, long startNanos,
+            LunacloudClientException exception) {
+        try {
+            long clientExecuteTimeNanos = System.nanoTime() - startNanos;
+            String operationName = getOperationName(request.getOriginalRequest());
+            long slowThresholdNanos = (slowRequestDetector == null) ? -1
+                    : checkSlowRequest(slowRequestDetector, operationName, clientExecuteTimeNanos);
+            if (metricsCollector == null && slowThresholdNanos < 0) return null;
+
+            AWSRequestMetrics awsRequestMetrics = executionContext.getAwsRequestMetrics();
+
+            Object statusCode = awsRequestMetrics.getLastProperty(Field.StatusCode);
+            Object requestId = awsRequestMetrics.getLastProperty(Field.AWSRequestID);
+            Number attemptCount = awsRequestMetrics.getTimingInfo().getCounter(Field.AttemptCount.name());
+            Number bytesReceived = awsRequestMetrics.getTimingInfo().getCounter(Field.BytesProcessed.name());
+
+            RequestMetricsEvent event = new RequestMetricsEvent(
+                    operationName,
+                    request.getServiceName(),
+                    request.getEndpoint(),
+                    executionContext.getBucketName(),
+                    (statusCode instanceof Integer) ? (Integer) statusCode : -1,
+                    (requestId == null) ? null : requestId.toString(),
+                    exception,
+                    (attemptCount == null) ? 1 : attemptCount.intValue(),
+                    clientExecuteTimeNanos,
+                    awsRequestMetrics.getFieldTimesNanos(),
+                    getContentLength(request),
+                    (bytesReceived == null) ? -1 : bytesReceived.longValue(),
+                    executionContext.getAttempts());
+            if (metricsCollector != null) collectMetrics(metricsCollector, event);
+            if (slowThresholdNanos >= 0) {
+                try {
+                    slowRequestDetector.recordSlowRequest(event, slowThresholdNanos);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to record slow request: " + e.getMessage(), e);
+                }
+            }
+            return event;
+        } catch (RuntimeException e) {
+            log.warn("Unable to collect request metrics: " + e.getMessage(), e);
+            return null;
         }
     }
 
+    /**
+     * Returns the threshold the specified request exceeded if the detector
+     * records it, or -1 otherwise.
+     */
+    private static long checkSlowRequest(SlowRequestDetector slowRequestDetector, String operationName, long timeNanos) {
+        try {
+            return slowRequestDetector.checkRequest(operationName, timeNanos);
+        } catch (RuntimeException e) {
+            log.warn("Unable to check for a slow request: " + e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    private static void collectMetrics(MetricsCollector metricsCollector, RequestMetricsEvent event) {
+        try {
+            metricsCollector.collectRequestMetrics(event);
+        } catch (RuntimeException e) {
+            log.warn("Unable to collect request metrics: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reports the transfer time of a streamed response body, finished after
+     * its request's metrics were reported, to the same collector.
+     */
+    private static final class ResponseBodyMetricsListener implements ResponseBodyTimingInputStream.Listener {
+        private final MetricsCollector metricsCollector;
+        private final RequestMetricsEvent event;
+
+        private ResponseBodyMetricsListener(MetricsCollector metricsCollector, RequestMetricsEvent event) {
+            this.metricsCollector = metricsCollector;
+            this.event = event;
+        }
+
+        public void bodyFinished(long transferTimeNanos) {
+            try {
+                metricsCollector.collectResponseBodyMetrics(event, transferTimeNanos);
+            } catch (RuntimeException e) {
+                log.warn("Unable to collect response body metrics: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /** Returns the name of the operation of the specified request (ex: "PutObject"). */
+    private static String getOperationName(AmazonWebServiceRequest originalRequest) {
+        if (originalRequest == null) return "Unknown";
+
+        Class<?> requestClass = originalRequest.getClass();
+        String operationName = operationNames.get(requestClass);
+        if (operationName == null) {
+            operationName = requestClass.getSimpleName();
+            if (operationName.endsWith("Request")) {
+                operationName = operationName.substring(0, operationName.length() - "Request".length());
+            }
+            operationNames.put(requestClass, operationName);
+        }
+        return operationName;
+    }
+
+    /** Returns the Content-Length of the specified request, or -1 if unknown. */
+    private static long getContentLength(Request<?> request) {
+        String contentLength = request.getHeaders().get("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {}
+        }
+        return (request.getContent() == null) ? 0 : -1;
+    }
+
+    /**
+     * Spools the content of the specified request to a repeatable stream of
+     * known length if it has no Content-Length and spooling is enabled,
+     * instead of letting HttpClient buffer the whole content in memory.
+     * Spooling is bounded by the specified execution deadline, if any.
+     *
+     * @return The spooled content that replaced the content of the request,
+     *         which must be released once the request completes, or null if
+     *         the content wasn't spooled.
+     */
+    private SpooledInputStream spoolContent(Request<?> request, ExecutionDeadline deadline) {
+        InputStream content = request.getContent();
+        if (content == null || config.getRequestBodySpoolThreshold() < 0) return null;
+        if (request.getHeaders().get("Content-Length") != null) return null;
+
+        SpooledInputStream spooledContent;
+        try {
+            spooledContent = SpooledInputStream.spool(content,
+                    config.getRequestBodySpoolThreshold(), config.getRequestBodySpoolDirectory(), deadline);
+        } catch (IOException e) {
+            throw new LunacloudClientException("Unable to spool request body: " + e.getMessage(), e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Spooled " + spooledContent.getLength() + " byte request body "
+                    + (spooledContent.isSpooledToFile() ? "to a temporary file" : "in memory"));
+        }
+        request.setContent(spooledContent);
+        request.addHeader("Content-Length", Long.toString(spooledContent.getLength()));
+        return spooledContent;
+    }
+
     /**
      * Internal method to execute the HTTP method given.
      *
@@ -215,7 +529,7 @@ public class AmazonHttpClient {
     private <T extends Object> T executeHelper(Request<?> request,
             HttpResponseHandler<AmazonWebServiceResponse<T>> responseHandler,
             HttpResponseHandler<LunacloudServiceException> errorResponseHandler,
-            ExecutionContext executionContext)
+            ExecutionContext executionContext, ExecutionDeadline deadline)
             throws LunacloudClientException, LunacloudServiceException {
 
         /*
@@ -229,8 +543,8 @@ public class AmazonHttpClient {
 
         AWSRequestMetrics awsRequestMetrics = executionContext.getAwsRequestMetrics();
         /* add the service endpoint to the logs. You can infer service name from service endpoint */
-        awsRequestMetrics.addProperty(Field.ServiceName.name(), request.getServiceName());
-        awsRequestMetrics.addProperty(Field.ServiceEndpoint.name(), request.getEndpoint());
+        awsRequestMetrics.addProperty(Field.ServiceName, request.getServiceName());
+        awsRequestMetrics.addProperty(Field.ServiceEndpoint, request.getEndpoint());
 
 
         // Apply whatever request options we know how to handle, such as user-agent.
@@ -240,6 +554,7 @@ public class AmazonHttpClient {
         URI redirectedURI = null;
         HttpEntity entity = null;
         LunacloudServiceException exception = null;
+        ErrorClass errorClass = null;
 
         // Make a copy of the original request params and headers so that we can
         // permute it in this loop and start over with the original every time.
@@ -249,22 +564,31 @@ public class AmazonHttpClient {
         originalHeaders.putAll(request.getHeaders());
 
         while (true) {
-            awsRequestMetrics.setCounter(Field.AttemptCount.name(), retryCount+1);
+            awsRequestMetrics.setCounter(Field.AttemptCount, retryCount+1);
             if ( retryCount > 0 ) {
+                if (statistics != null) statistics.attemptRetried();
                 request.setParameters(originalParameters);
                 request.setHeaders(originalHeaders);
             }
 
             HttpRequestBase httpRequest = null;
             org.apache.http.HttpResponse response = null;
+            CircuitBreaker circuitBreaker = null;
+            CircuitBreaker.Permit circuitBreakerPermit = null;
 
+            // Track the attempt's outcome for its history, if metrics are recorded
+            long attemptStartNanos = System.nanoTime();
+            int connectionsOpenedBefore = countEvents(awsRequestMetrics, Field.ConnectTime);
+            String attemptError = null;
 
             try {
+                if (deadline != null) deadline.check();
+
                 // Sign the request if a signer was provided
                 if (executionContext.getSigner() != null && executionContext.getCredentials() != null) {
-                    awsRequestMetrics.startEvent(Field.RequestSigningTime.name());
+                    awsRequestMetrics.startEvent(Field.RequestSigningTime);
                     executionContext.getSigner().sign(request, executionContext.getCredentials());
-                    awsRequestMetrics.endEvent(Field.RequestSigningTime.name());
+                    awsRequestMetrics.endEvent(Field.RequestSigningTime);
                 }
 
                  if (requestLog.isDebugEnabled()) {
@@ -281,10 +605,22 @@ public class AmazonHttpClient {
                     httpRequest.setURI(redirectedURI);
                 }
 
+                if (executionContext.getAbortHandle() != null) {
+                    executionContext.getAbortHandle().setHttpRequest(httpRequest);
+                }
+
                 if ( retryCount > 0 ) {
-                    awsRequestMetrics.startEvent(Field.RetryPauseTime.name());
-                    pauseExponentially(retryCount, exception, executionContext.getCustomBackoffStrategy());
-                    awsRequestMetrics.endEvent(Field.RetryPauseTime.name());
+                    // Don't pause for a retry the endpoint's breaker would reject anyway
+                    CircuitBreaker endpointBreaker = getCircuitBreaker(httpRequest.getURI());
+                    if (endpointBreaker != null && endpointBreaker.tryReject()) {
+                        throw new CircuitBreakerOpenException(endpointBreaker.getEndpoint());
+                    }
+
+                    awsRequestMetrics.startEvent(Field.RetryPauseTime);
+                    CustomBackoffStrategy backoffStrategy = executionContext.getCustomBackoffStrategy();
+                    if (backoffStrategy == null) backoffStrategy = config.getBackoffStrategy();
+                    pauseExponentially(retryCount, errorClass, backoffStrategy, deadline);
+                    awsRequestMetrics.endEvent(Field.RetryPauseTime);
                 }
 
                 if ( entity != null ) {
@@ -302,22 +638,65 @@ public class AmazonHttpClient {
                 }
 
                 exception = null;
+                errorClass = null;
 
-                awsRequestMetrics.startEvent(Field.HttpRequestTime.name());
-                response = httpClient.execute(httpRequest);
-                awsRequestMetrics.endEvent(Field.HttpRequestTime.name());
+                circuitBreaker = getCircuitBreaker(httpRequest.getURI());
+                if (circuitBreaker != null && (circuitBreakerPermit = circuitBreaker.tryAcquire()) == null) {
+                    String endpoint = circuitBreaker.getEndpoint();
+                    circuitBreaker = null;
+                    throw new CircuitBreakerOpenException(endpoint);
+                }
+
+                RateLimiter rateLimiter = config.getRateLimiter();
+                if (rateLimiter != null) {
+                    awsRequestMetrics.startEvent(Field.RateLimitPauseTime);
+                    pauseForRateLimit(rateLimiter, deadline);
+                    awsRequestMetrics.endEvent(Field.RateLimitPauseTime);
+                }
 
+                if (!ownsTransport) {
+                    applyTimeouts(httpRequest);
+                }
+                if (deadline != null) {
+                    applyDeadline(httpRequest, deadline);
+                    deadline.arm(httpRequest);
+                }
+
+                awsRequestMetrics.startEvent(Field.HttpRequestTime);
+                RequestPhases.begin(awsRequestMetrics);
+                try {
+                    response = httpClient.execute(httpRequest);
+                } finally {
+                    RequestPhases.end();
+                }
+                awsRequestMetrics.endEvent(Field.HttpRequestTime);
+
+                if (circuitBreaker != null) {
+                    if (isEndpointFailure(response)) {
+                        circuitBreaker.onFailure(circuitBreakerPermit);
+                    } else {
+                        circuitBreaker.onSuccess(circuitBreakerPermit);
+                    }
+                    circuitBreaker = null;
+                }
 
                 if (isRequestSuccessful(response)) {
+                    if (rateLimiter != null) rateLimiter.onSuccess();
 
-                    awsRequestMetrics.addProperty(Field.StatusCode.name(), response.getStatusLine().getStatusCode());
+                    awsRequestMetrics.addProperty(Field.StatusCode, response.getStatusLine().getStatusCode());
 
                     /*
                      * If we get back any 2xx status code, then we know we should
                      * treat the service call as successful.
                      */
                     leaveHttpConnectionOpen = responseHandler.needsConnectionLeftOpen();
-                    return handleResponse(request, responseHandler, httpRequest, response, executionContext);
+                    T result = handleResponse(request, responseHandler, httpRequest, response, executionContext);
+                    if (deadline != null && !deadline.disarm()) {
+                        // The response may have been cut off by the abort
+                        leaveHttpConnectionOpen = false;
+                        throw deadline.timeout(null);
+                    }
+                    return result;
                 } else if (isTemporaryRedirect(response)) {
                     /*
                      * S3 sends 307 Temporary Redirects if you try to delete an
@@ -330,33 +709,85 @@ public class AmazonHttpClient {
                     log.debug("Redirecting to: " + redirectedLocation);
                     redirectedURI = URI.create(redirectedLocation);
                     httpRequest.setURI(redirectedURI);
-                    awsRequestMetrics.addProperty(Field.StatusCode.name(), response.getStatusLine().getStatusCode());
-                    awsRequestMetrics.addProperty(Field.RedirectLocation.name(), redirectedLocation);
-                    awsRequestMetrics.addProperty(Field.AWSRequestID.name(), null);
+                    awsRequestMetrics.addProperty(Field.StatusCode, response.getStatusLine().getStatusCode());
+                    awsRequestMetrics.addProperty(Field.RedirectLocation, redirectedLocation);
+                    awsRequestMetrics.addProperty(Field.AWSRequestID, null);
 
                 } else {
                     leaveHttpConnectionOpen = errorResponseHandler.needsConnectionLeftOpen();
                     exception = handleErrorResponse(request, errorResponseHandler, httpRequest, response);
-                    awsRequestMetrics.addProperty(Field.AWSRequestID.name(), exception.getRequestId());
-                    awsRequestMetrics.addProperty(Field.AWSErrorCode.name(), exception.getErrorCode());
-                    awsRequestMetrics.addProperty(Field.StatusCode.name(), exception.getStatusCode());
+                    awsRequestMetrics.addProperty(Field.AWSRequestID, exception.getRequestId());
+                    awsRequestMetrics.addProperty(Field.AWSErrorCode, exception.getErrorCode());
+                    awsRequestMetrics.addProperty(Field.StatusCode, exception.getStatusCode());
+
+                    if (rateLimiter != null) {
+                        if (isThrottlingException(exception)
+                            || exception.getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                            rateLimiter.onThrottle();
+                        } else {
+                            rateLimiter.onSuccess();
+                        }
+                    }
 
                     if (!shouldRetry(httpRequest, exception, retryCount)) {
                         throw exception;
                     }
+                    errorClass = isThrottlingException(exception) ? ErrorClass.THROTTLING : ErrorClass.SERVER_ERROR;
                     resetRequestAfterError(request, exception);
                 }
             } catch (IOException ioe) {
+                /*
+                 * Requests aborted by the client (on timeout, or because a
+                 * hedged request won) say nothing about the endpoint, so
+                 * their permit is released rather than counted as a failure.
+                 */
+                if (deadline != null && deadline.isExpired()) {
+                    throw deadline.timeout(ioe);
+                }
+                if (executionContext.getAbortHandle() != null && executionContext.getAbortHandle().isAborted()) {
+                    throw new LunacloudClientException("Request aborted", ioe);
+                }
+
+                if (circuitBreaker != null) {
+                    circuitBreaker.onFailure(circuitBreakerPermit);
+                    circuitBreaker = null;
+                }
+
+                attemptError = ioe.toString();
                 log.info("Unable to execute HTTP request: " + ioe.getMessage(), ioe);
-                awsRequestMetrics.addProperty(Field.Exception.name(), ioe.toString());
-                awsRequestMetrics.addProperty(Field.AWSRequestID.name(), null);
+                awsRequestMetrics.addProperty(Field.Exception, ioe.toString());
+                awsRequestMetrics.addProperty(Field.AWSRequestID, null);
 
                 if (!shouldRetry(httpRequest, ioe, retryCount)) {
                     throw new LunacloudClientException("Unable to execute HTTP request: " + ioe.getMessage(), ioe);
                 }
+                errorClass = ErrorClass.IO;
                 resetRequestAfterError(request, ioe);
+            } catch (LunacloudClientException ace) {
+                if (attemptError == null) attemptError = (ace instanceof LunacloudServiceException)
+                        ? ((LunacloudServiceException) ace).getErrorCode() : ace.toString();
+                /*
+                 * If the deadline aborted the request while the response was
+                 * being processed, report the timeout rather than whatever
+                 * error the aborted stream caused.
+                 */
+                if (deadline != null && deadline.wasAborted()
+                        && !(ace instanceof LunacloudServiceException)
+                        && !(ace instanceof ClientExecutionTimeoutException)) {
+                    throw deadline.timeout(ace);
+                }
+                throw ace;
             } finally {
+                if (awsRequestMetrics.isEnabled()) {
+                    if (attemptError == null && exception != null) attemptError = exception.getErrorCode();
+                    executionContext.recordAttempt(retryCount + 1,
+                            (response == null) ? -1 : response.getStatusLine().getStatusCode(), attemptError,
+                            System.nanoTime() - attemptStartNanos,
+                            countEvents(awsRequestMetrics, Field.ConnectTime) > connectionsOpenedBefore);
+                }
                 retryCount++;
+                if (deadline != null) deadline.disarm();
+                if (circuitBreaker != null) circuitBreaker.release(circuitBreakerPermit);
 
                 /*
                  * Some response handlers need to manually manage the HTTP
@@ -372,6 +803,89 @@ public class AmazonHttpClient {
         } /* end while (true) */
     }
 
+    /** Returns the number of times the specified event was recorded in the specified metrics. */
+    private static int countEvents(AWSRequestMetrics awsRequestMetrics, Field field) {
+        if (!awsRequestMetrics.isEnabled()) return 0;
+        List<TimingInfo> events = awsRequestMetrics.getTimingInfo().getAllSubMeasurements(field.name());
+        return (events == null) ? 0 : events.size();
+    }
+
+    /**
+     * Returns the circuit breaker guarding the endpoint of the specified URI,
+     * creating it if needed, or null if circuit breakers are disabled.
+     */
+    private CircuitBreaker getCircuitBreaker(URI uri) {
+        CircuitBreakerConfiguration circuitBreakerConfig = config.getCircuitBreakerConfiguration();
+        if (circuitBreakerConfig == null) return null;
+
+        String scheme = uri.getScheme().toLowerCase();
+        int port = uri.getPort();
+        if (port == -1) port = "https".equals(scheme) ? 443 : 80;
+        String endpoint = scheme + "://" + uri.getHost().toLowerCase() + ":" + port;
+
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(endpoint, circuitBreakerConfig);
+            CircuitBreaker existing = circuitBreakers.putIfAbsent(endpoint, circuitBreaker);
+            if (existing != null) circuitBreaker = existing;
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns true if the specified response indicates a problem with the
+     * endpoint that sent it (a server error or throttling), as opposed to a
+     * problem with the request.
+     */
+    private boolean isEndpointFailure(org.apache.http.HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        return status >= 500 || status == 429;
+    }
+
+    /**
+     * Returns the deadline for executing the specified request, or null if
+     * neither the request nor the client configuration specify a client
+     * execution timeout.
+     */
+    private ExecutionDeadline createDeadline(Request<?> request) {
+        int timeout = config.getClientExecutionTimeout();
+        AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        if (originalRequest != null && originalRequest.getClientExecutionTimeout() != null) {
+            timeout = originalRequest.getClientExecutionTimeout();
+        }
+        return (timeout > 0) ? new ExecutionDeadline(timeout) : null;
+    }
+
+    /**
+     * Caps the connection (and connection pool wait) and socket timeouts of
+     * the specified request so that no single blocking operation outlives the
+     * execution deadline.
+     */
+    private void applyDeadline(HttpRequestBase httpRequest, ExecutionDeadline deadline) {
+        int remaining = (int) Math.min(Math.max(deadline.getRemainingMillis(), 1), Integer.MAX_VALUE);
+        HttpParams params = httpRequest.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, capTimeout(config.getConnectionTimeout(), remaining));
+        HttpConnectionParams.setSoTimeout(params, capTimeout(config.getSocketTimeout(), remaining));
+    }
+
+    /**
+     * Sets the connection and socket timeouts of this client on the specified
+     * request, since the defaults of a shared transport come from the
+     * configuration it was created with.
+     */
+    private void applyTimeouts(HttpRequestBase httpRequest) {
+        HttpParams params = httpRequest.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, config.getConnectionTimeout());
+        HttpConnectionParams.setSoTimeout(params, config.getSocketTimeout());
+    }
+
+    /**
+     * Returns the smaller of two timeouts, where zero means no timeout.
+     */
+    private static int capTimeout(int timeout, int cap) {
+        return (timeout <= 0) ? cap : Math.min(timeout, cap);
+    }
+
     /**
      * Resets the specified request, so that it can be sent again, after
      * receiving the specified error. If a problem is encountered with resetting
@@ -432,10 +946,13 @@ public class AmazonHttpClient {
      * held open. This is an optional method, and callers are not expected to
      * call it, but can if they want to explicitly release any open resources.
      * Once a client has been shutdown, it cannot be used to make more requests.
+     * <p>
+     * A transport shared through the client configuration is left running,
+     * since other clients may still be using it.
      */
     public void shutdown() {
-        IdleConnectionReaper.removeConnectionManager(httpClient.getConnectionManager());
-        httpClient.getConnectionManager().shutdown();
+        JmxUtils.unregisterMBean(statisticsMBeanName);
+        if (ownsTransport) transport.shutdown();
     }
 
     /**
@@ -548,18 +1065,27 @@ public class AmazonHttpClient {
         }
 
         try {
+            AWSRequestMetrics awsRequestMetrics = executionContext.getAwsRequestMetrics();
             CountingInputStream countingInputStream = null;
-            if (System.getProperty(PROFILING_SYSTEM_PROPERTY) != null) {
-                countingInputStream = new CountingInputStream(httpResponse.getContent());
+            ResponseBodyTimingInputStream timingInputStream = null;
+            if (awsRequestMetrics.isEnabled()) {
+                timingInputStream = new ResponseBodyTimingInputStream(httpResponse.getContent(), awsRequestMetrics);
+                countingInputStream = new CountingInputStream(timingInputStream);
                 httpResponse.setContent(countingInputStream);
+                if (responseHandler.needsConnectionLeftOpen()) {
+                    executionContext.setStreamedResponseBody(timingInputStream);
+                }
             }
 
-            AWSRequestMetrics awsRequestMetrics = executionContext.getAwsRequestMetrics();
-            awsRequestMetrics.startEvent(Field.ResponseProcessingTime.name());
+            awsRequestMetrics.startEvent(Field.ResponseProcessingTime);
             AmazonWebServiceResponse<? extends T> awsResponse = responseHandler.handle(httpResponse);
-            awsRequestMetrics.endEvent(Field.ResponseProcessingTime.name());
+            awsRequestMetrics.endEvent(Field.ResponseProcessingTime);
+            // Streamed bodies are timed until the caller closes them
+            if (timingInputStream != null && !responseHandler.needsConnectionLeftOpen()) {
+                timingInputStream.finish();
+            }
             if (countingInputStream != null) {
-                awsRequestMetrics.setCounter(Field.BytesProcessed.name(), countingInputStream.getByteCount());
+                awsRequestMetrics.setCounter(Field.BytesProcessed, countingInputStream.getByteCount());
             }
 
 
@@ -572,7 +1098,7 @@ public class AmazonHttpClient {
                 requestLog.debug("Received successful response: " + apacheHttpResponse.getStatusLine().getStatusCode()
                         + ", AWS Request ID: " + awsResponse.getRequestId());
             }
-            awsRequestMetrics.addProperty(Field.AWSRequestID.name(), awsResponse.getRequestId());
+            awsRequestMetrics.addProperty(Field.AWSRequestID, awsResponse.getRequestId());
 
             return awsResponse.getResult();
         } catch (CRC32MismatchException e) {
@@ -680,22 +1206,29 @@ public class AmazonHttpClient {
      *
      * @param retries
      *            Current retry count.
-     * @param previousException
-     *            Exception information for the previous attempt, if any.
+     * @param errorClass
+     *            The class of error that made the previous attempt fail.
+     * @param backoffStrategy
+     *            The optional custom backoff strategy to use.
+     * @param deadline
+     *            The optional deadline for executing the request.
      */
-    private void pauseExponentially(int retries, LunacloudServiceException previousException, CustomBackoffStrategy backoffStrategy) {
+    private void pauseExponentially(int retries, ErrorClass errorClass, CustomBackoffStrategy backoffStrategy, ExecutionDeadline deadline) {
         long delay = 0;
         if (backoffStrategy != null) {
-            delay = backoffStrategy.getBackoffPeriod(retries);
+            delay = backoffStrategy.getBackoffPeriod(retries, errorClass);
         } else {
             long scaleFactor = 300;
-            if ( isThrottlingException(previousException) ) {
-                scaleFactor = 500 + random.nextInt(100);
+            if ( errorClass == ErrorClass.THROTTLING ) {
+                scaleFactor = 500 + RandomUtils.current().nextInt(100);
             }
             delay = (long) (Math.pow(2, retries) * scaleFactor);
         }
 
         delay = Math.min(delay, MAX_BACKOFF_IN_MILLISECONDS);
+
+        // Don't bother sleeping if the retry couldn't be sent in time anyway
+        if (deadline != null) deadline.checkDelay(delay);
         if (log.isDebugEnabled()) {
             log.debug("Retriable error detected, " +
                     "will retry in " + delay + "ms, attempt number: " + retries);
@@ -709,6 +1242,32 @@ public class AmazonHttpClient {
         }
     }
 
+    /**
+     * Waits for as long as the specified rate limiter requires before the next
+     * request can be sent.
+     *
+     * @param rateLimiter
+     *            The client-wide rate limiter to reserve a send slot from.
+     * @param deadline
+     *            The optional deadline for executing the request.
+     */
+    private void pauseForRateLimit(RateLimiter rateLimiter, ExecutionDeadline deadline) {
+        long delay = rateLimiter.acquire();
+        if (delay <= 0) return;
+        if (deadline != null) deadline.checkDelay(delay);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Client side rate limit reached, will send request in " + delay + "ms");
+        }
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LunacloudClientException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Returns true if the specified exception is a throttling error.
      *
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import pt.lunacloud.CircuitBreakerConfiguration;
+
+/**
+ * The circuit breaker guarding requests to one endpoint.
+ * <p>
+ * Breakers are created on demand by {@link AmazonHttpClient} and can be looked
+ * up through {@link AmazonHttpClient#getCircuitBreakers()} to read their
+ * current state and metrics.
+ *
+ * @see CircuitBreakerConfiguration
+ */
+public class CircuitBreaker {
+
+    /** The states of a circuit breaker. */
+    public enum State {
+        /** Requests are sent normally and their outcome is tracked. */
+        CLOSED,
+        /** Requests are rejected until the cool-down period is over. */
+        OPEN,
+        /** A limited number of probe requests are sent to test the endpoint. */
+        HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final CircuitBreakerConfiguration config;
+
+    private State state = State.CLOSED;
+
+    /** Outcomes of the most recent requests, true for failures. */
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+
+    private int consecutiveFailures;
+    private long openedAt;
+
+    /** Incremented each time this breaker goes half-open, so stale probes are ignored. */
+    private int halfOpenGeneration;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    private long successCount;
+    private long failureCount;
+    private long rejectedCount;
+    private long openCount;
+
+    CircuitBreaker(String endpoint, CircuitBreakerConfiguration config) {
+        this.endpoint = endpoint;
+        this.config = config;
+        this.window = new boolean[config.getWindowSize()];
+    }
+
+    /**
+     * Returns the endpoint (ex: https://bucket.example.com:443) guarded by
+     * this breaker.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the current state of this breaker. An open breaker whose
+     * cool-down period is over is reported as open until the next request
+     * moves it to half-open.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Returns the number of requests that completed successfully. */
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    /** Returns the number of requests that failed. */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /** Returns the number of requests rejected without being sent. */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /** Returns the number of times this breaker has opened. */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /** Returns the current number of consecutive failures. */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns the error rate, in percent, over the most recent requests
+     * tracked while this breaker was closed.
+     */
+    public synchronized double getErrorRate() {
+        return (windowCount == 0) ? 0 : 100.0 * windowFailures / windowCount;
+    }
+
+    /**
+     * A permission to send a request granted by a breaker. Only requests
+     * permitted while the breaker is half-open are probes: those permitted
+     * earlier, and still in flight when it goes half-open, don't count
+     * towards closing or reopening it.
+     */
+    static final class Permit {
+        private final boolean probe;
+        private final int generation;
+
+        private Permit(boolean probe, int generation) {
+            this.probe = probe;
+            this.generation = generation;
+        }
+
+        /** Returns true if this permit was granted to probe a half-open breaker. */
+        boolean isProbe() {
+            return probe;
+        }
+    }
+
+    /**
+     * Asks this breaker for permission to send a request. Each granted
+     * permit must be handed back to exactly one call to
+     * {@link #onSuccess(Permit)}, {@link #onFailure(Permit)} or
+     * {@link #release(Permit)}.
+     *
+     * @return The permit to send the request, or null if it must be rejected.
+     */
+    Permit tryAcquire() {
+        State previousState, newState;
+        Permit permit;
+        synchronized (this) {
+            previousState = state;
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < config.getOpenDuration()) {
+                    rejectedCount++;
+                    return null;
+                }
+                state = State.HALF_OPEN;
+                halfOpenGeneration++;
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight + probeSuccesses >= config.getHalfOpenProbes()) {
+                    rejectedCount++;
+                    return null;
+                }
+                probesInFlight++;
+                permit = new Permit(true, halfOpenGeneration);
+            } else {
+                permit = new Permit(false, halfOpenGeneration);
+            }
+            newState = state;
+        }
+        notifyListener(previousState, newState);
+        return permit;
+    }
+
+    /**
+     * Rejects a request without changing the state of this breaker if it
+     * would reject it now, ex: a retry about to pause before asking for a
+     * permit, so that it fails fast instead.
+     *
+     * @return True if the request was rejected.
+     */
+    synchronized boolean tryReject() {
+        boolean rejected;
+        if (state == State.OPEN) {
+            rejected = System.currentTimeMillis() - openedAt < config.getOpenDuration();
+        } else {
+            rejected = state == State.HALF_OPEN && probesInFlight + probeSuccesses >= config.getHalfOpenProbes();
+        }
+        if (rejected) rejectedCount++;
+        return rejected;
+    }
+
+    /**
+     * Records that a request permitted by this breaker reached the endpoint
+     * and got a response that doesn't indicate a problem with it.
+     */
+    void onSuccess(Permit permit) {
+        State previousState, newState;
+        synchronized (this) {
+            previousState = state;
+            successCount++;
+            consecutiveFailures = 0;
+            if (isCurrentProbe(permit)) {
+                probesInFlight--;
+                if (++probeSuccesses >= config.getHalfOpenProbes()) close();
+            } else if (state == State.CLOSED && !permit.probe) {
+                record(false);
+            }
+            newState = state;
+        }
+        notifyListener(previousState, newState);
+    }
+
+    /**
+     * Records that a request permitted by this breaker failed because of an
+     * I/O error, a server error or throttling.
+     */
+    void onFailure(Permit permit) {
+        State previousState, newState;
+        synchronized (this) {
+            previousState = state;
+            failureCount++;
+            consecutiveFailures++;
+            if (isCurrentProbe(permit)) {
+                probesInFlight--;
+                open();
+            } else if (state == State.CLOSED && !permit.probe) {
+                record(true);
+                if (shouldOpen()) open();
+            }
+            newState = state;
+        }
+        notifyListener(previousState, newState);
+    }
+
+    /**
+     * Releases a permit granted by this breaker for a request whose outcome
+     * says nothing about the endpoint, ex: one that failed before being sent.
+     */
+    synchronized void release(Permit permit) {
+        if (isCurrentProbe(permit)) probesInFlight--;
+    }
+
+    /** Returns true if the specified permit probes the current half-open period. */
+    private boolean isCurrentProbe(Permit permit) {
+        return permit.probe && state == State.HALF_OPEN && permit.generation == halfOpenGeneration;
+    }
+
+    private boolean shouldOpen() {
+        int threshold = config.getConsecutiveFailureThreshold();
+        if (threshold > 0 && consecutiveFailures >= threshold) return true;
+        return windowCount >= Math.max(config.getMinimumRequests(), 1)
+            && getErrorRate() >= config.getErrorRateThreshold();
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowPosition]) windowFailures--;
+        } else {
+            windowCount++;
+        }
+        window[windowPosition] = failure;
+        if (failure) windowFailures++;
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        openCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Notifies the listener, outside of this breaker's lock, if an update
+     * moved this breaker from the specified previous state to a new one.
+     */
+    private void notifyListener(State previousState, State newState) {
+        CircuitBreakerListener listener = config.getListener();
+        if (listener == null || previousState == newState) return;
+        try {
+            listener.onStateChange(this, previousState, newState);
+        } catch (RuntimeException e) {
+            AmazonHttpClient.log.warn("Circuit breaker listener failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker(" + endpoint + ", " + getState() + ")";
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+/**
+ * Listener notified when the circuit breaker for an endpoint changes state.
+ * <p>
+ * Listeners are called from the threads executing requests, after the state
+ * change took effect, so implementations should return quickly and must be
+ * safe for use by multiple threads.
+ *
+ * @see pt.lunacloud.CircuitBreakerConfiguration#setListener(CircuitBreakerListener)
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * Called when the specified breaker moves from one state to another.
+     *
+     * @param circuitBreaker
+     *            The breaker that changed state, whose metrics can be read
+     *            to find out why.
+     * @param previousState
+     *            The state the breaker was in.
+     * @param newState
+     *            The state the breaker is now in.
+     */
+    public void onStateChange(CircuitBreaker circuitBreaker,
+            CircuitBreaker.State previousState, CircuitBreaker.State newState);
+}
@@ -24,11 +24,21 @@ import pt.lunacloud.ClientConfiguration;
 class ConnectionManagerFactory {
 
     public static ThreadSafeClientConnManager createThreadSafeClientConnManager( ClientConfiguration config, HttpParams httpClientParams ) {
-        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
-        connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+        InstrumentedClientConnManager connectionManager = new InstrumentedClientConnManager(config.getConnectionTTL());
+        int maxConnectionsPerRoute = config.getMaxConnectionsPerRoute();
+        if (maxConnectionsPerRoute <= 0) maxConnectionsPerRoute = config.getMaxConnections();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
         connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setMaxConnectionsPerHost(config.getMaxConnectionsPerHost());
+        connectionManager.setConnectionLeaseTimeout(config.getConnectionLeaseTimeout());
 
-        IdleConnectionReaper.registerConnectionManager(connectionManager);
+        connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivity());
+        connectionManager.setDnsResolver(config.getDnsResolver());
+
+        if (config.getConnectionReapInterval() > 0) {
+            IdleConnectionReaper.registerConnectionManager(connectionManager,
+                    config.getConnectionReapInterval(), config.getConnectionMaxIdle());
+        }
         return connectionManager;
     }
 }
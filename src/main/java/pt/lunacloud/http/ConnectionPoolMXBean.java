@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+/**
+ * Management interface of the connection pool of a transport, registered as
+ * pt.lunacloud:type=ConnectionPool when JMX is enabled in the configuration
+ * the transport is created with.
+ *
+ * @see pt.lunacloud.ClientConfiguration#setJmxEnabled(boolean)
+ */
+public interface ConnectionPoolMXBean {
+
+    /** Returns the number of connections currently in use by requests. */
+    int getLeasedConnections();
+
+    /** Returns the number of idle connections available for reuse. */
+    int getAvailableConnections();
+
+    /** Returns the number of requests waiting for a connection. */
+    int getPendingConnectionRequests();
+
+    /** Returns the maximum number of connections allowed. */
+    int getMaxConnections();
+
+    /** Returns the number of full TLS handshakes made. */
+    long getFullTlsHandshakeCount();
+
+    /** Returns the number of TLS handshakes that resumed a cached session. */
+    long getResumedTlsHandshakeCount();
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+/**
+ * Exposes the connection pool and TLS handshake counters of a transport
+ * over JMX.
+ */
+class ConnectionPoolMonitor implements ConnectionPoolMXBean {
+
+    private final InstrumentedClientConnManager connectionManager;
+    private final TlsHandshakeStats handshakeStats;
+
+    ConnectionPoolMonitor(InstrumentedClientConnManager connectionManager, TlsHandshakeStats handshakeStats) {
+        this.connectionManager = connectionManager;
+        this.handshakeStats = handshakeStats;
+    }
+
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    public int getPendingConnectionRequests() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    public int getMaxConnections() {
+        return connectionManager.getTotalStats().getMax();
+    }
+
+    public long getFullTlsHandshakeCount() {
+        return handshakeStats.getFullHandshakeCount();
+    }
+
+    public long getResumedTlsHandshakeCount() {
+        return handshakeStats.getResumedHandshakeCount();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+/**
+ * A snapshot of the connections in a client's HTTP connection pool, or in the
+ * part of it serving one route.
+ *
+ * @see AmazonHttpClient#getConnectionPoolStats()
+ * @see AmazonHttpClient#getConnectionPoolStatsPerRoute()
+ */
+public class ConnectionPoolStats {
+
+    private final int leased;
+    private final int available;
+    private final int pending;
+    private final int max;
+
+    ConnectionPoolStats(int leased, int available, int pending, int max) {
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.max = max;
+    }
+
+    /** Returns the number of connections currently in use by requests. */
+    public int getLeased() {
+        return leased;
+    }
+
+    /** Returns the number of idle connections available for reuse. */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * Returns the number of requests waiting for a connection because the
+     * connection limit has been reached.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /** Returns the maximum number of connections allowed. */
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "[leased: " + leased + "; pending: " + pending
+            + "; available: " + available + "; max: " + max + "]";
+    }
+}
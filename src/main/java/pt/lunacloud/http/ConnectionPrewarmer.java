@@ -0,0 +1,179 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+import pt.lunacloud.ClientConfiguration;
+
+/**
+ * Opens connections ahead of time and parks them in a client's connection
+ * pool, so that the first requests to an endpoint don't pay for the TCP
+ * connect and TLS handshake.
+ * <p>
+ * For HTTPS endpoints the handshake completes while opening the connection,
+ * since the SSL socket factory verifies the server's host name right after
+ * connecting. Endpoints reached through a proxy aren't pre-warmed, as that
+ * would require tunneling through the proxy outside of a request.
+ */
+class ConnectionPrewarmer {
+
+    /** The maximum number of connections opened in parallel. */
+    private static final int MAX_PARALLEL_CONNECTS = 8;
+
+    private final AbstractHttpClient httpClient;
+    private final ClientConfiguration config;
+
+    ConnectionPrewarmer(AbstractHttpClient httpClient, ClientConfiguration config) {
+        this.httpClient = httpClient;
+        this.config = config;
+    }
+
+    /**
+     * Opens up to the specified number of connections to each of the specified
+     * endpoints and releases them to the pool, blocking until done. Idle
+     * connections already in the pool count towards the number.
+     *
+     * @return The number of connections left open in the pool.
+     */
+    int prewarm(List<URI> endpoints, int connectionsPerEndpoint) throws InterruptedException {
+        ClientConnectionManager connectionManager = httpClient.getConnectionManager();
+        List<LeasedConnection> leased = new ArrayList<LeasedConnection>();
+        try {
+            for (URI endpoint : endpoints) {
+                leaseConnections(endpoint, connectionsPerEndpoint, leased);
+            }
+            return open(leased);
+        } finally {
+            long keepAlive = Math.max(config.getConnectionMaxKeepAlive(), 0);
+            for (LeasedConnection connection : leased) {
+                connectionManager.releaseConnection(connection.connection, keepAlive, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void leaseConnections(URI endpoint, int count, List<LeasedConnection> leased) throws InterruptedException {
+        HttpRoute route = determineRoute(endpoint);
+        if (route.getHopCount() > 1) {
+            AmazonHttpClient.log.debug("Not pre-warming connections to " + endpoint + " through a proxy");
+            return;
+        }
+
+        ClientConnectionManager connectionManager = httpClient.getConnectionManager();
+        if (connectionManager instanceof ThreadSafeClientConnManager) {
+            count = Math.min(count, ((ThreadSafeClientConnManager) connectionManager).getMaxForRoute(route));
+        }
+
+        for (int i = 0; i < count; i++) {
+            try {
+                ManagedClientConnection connection = connectionManager.requestConnection(route, null)
+                        .getConnection(config.getConnectionTimeout(), TimeUnit.MILLISECONDS);
+                leased.add(new LeasedConnection(route, connection));
+            } catch (ConnectionPoolTimeoutException e) {
+                AmazonHttpClient.log.debug("Connection pool exhausted while pre-warming connections to " + endpoint);
+                return;
+            }
+        }
+    }
+
+    private HttpRoute determineRoute(URI endpoint) {
+        HttpHost target = new HttpHost(endpoint.getHost(), endpoint.getPort(), endpoint.getScheme());
+        BasicHttpRequest request = new BasicHttpRequest("HEAD", "/");
+        request.setParams(httpClient.getParams());
+        try {
+            HttpRoutePlanner routePlanner = httpClient.getRoutePlanner();
+            return routePlanner.determineRoute(target, request, new BasicHttpContext());
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unable to determine route to " + endpoint, e);
+        }
+    }
+
+    /**
+     * Opens the specified connections in parallel, and marks those that opened
+     * successfully as reusable.
+     */
+    private int open(List<LeasedConnection> leased) throws InterruptedException {
+        if (leased.isEmpty()) return 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(leased.size(), MAX_PARALLEL_CONNECTS), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "java-sdk-connection-prewarmer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final HttpParams params = httpClient.getParams();
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final LeasedConnection connection : leased) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        if (!connection.connection.isOpen()) {
+                            connection.connection.open(connection.route, new BasicHttpContext(), params);
+                        }
+                        connection.connection.markReusable();
+                        return null;
+                    }
+                }));
+            }
+
+            int opened = 0;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                    opened++;
+                } catch (ExecutionException e) {
+                    AmazonHttpClient.log.debug("Unable to pre-warm connection: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+            return opened;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** A connection leased from the pool, with the route it's for. */
+    private static final class LeasedConnection {
+        private final HttpRoute route;
+        private final ManagedClientConnection connection;
+
+        private LeasedConnection(HttpRoute route, ManagedClientConnection connection) {
+            this.route = route;
+            this.connection = connection;
+        }
+    }
+}
@@ -14,27 +14,53 @@
  */
 package pt.lunacloud.http;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import pt.lunacloud.auth.LunacloudCredentials;
 import pt.lunacloud.auth.Signer;
 import pt.lunacloud.handlers.RequestHandler;
 import pt.lunacloud.internal.CustomBackoffStrategy;
+import pt.lunacloud.metrics.RequestAttempt;
 import pt.lunacloud.util.AWSRequestMetrics;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
 
 
 public class ExecutionContext {
 	private List<RequestHandler> requestHandlers;
 	private String contextUserAgent;
-	private AWSRequestMetrics awsRequestMetrics = new AWSRequestMetrics();
+	private AWSRequestMetrics awsRequestMetrics = AWSRequestMetrics.newInstance();
 	private CustomBackoffStrategy backoffStrategy;
 
 	/** Optional signer to enable the runtime layer to handle signing requests (and resigning on retries). */
 	private Signer signer;
 
+	/** Optional name of the bucket the request is for, reported to metrics collectors. */
+	private String bucketName;
+
 	/** Optional credentials to enable the runtime layer to handle signing requests (and resigning on retries). */
 	private LunacloudCredentials credentials;
 
+	/** Optional handle through which another thread can abort the execution. */
+	private RequestAbortHandle abortHandle;
+
+	/** Optional wrapper applied to the request's content before it's sent. */
+	private RequestContentWrapper contentWrapper;
+
+	/** The timed body of the response, if it's streamed to the caller. */
+	private ResponseBodyTimingInputStream streamedResponseBody;
+
+	/*
+	 * The outcome of the last attempt, kept as is so that its RequestAttempt
+	 * is only built if the request's metrics are reported; earlier attempts
+	 * are added to the AttemptHistory of the request's metrics.
+	 */
+	private int lastAttemptNumber;
+	private int lastAttemptStatusCode;
+	private String lastAttemptError;
+	private long lastAttemptTimeNanos;
+	private boolean lastAttemptNewConnection;
+
 
     public String getContextUserAgent() {
         return contextUserAgent;
@@ -134,4 +160,100 @@ public class ExecutionContext {
     public void setCustomBackoffStrategy(CustomBackoffStrategy backoffStrategy) {
         this.backoffStrategy = backoffStrategy;
     }
+
+    /**
+     * Returns the name of the bucket the associated request is for, or null
+     * if it isn't for a bucket.
+     */
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    /**
+     * Sets the name of the bucket the associated request is for, which is
+     * reported with the request's metrics.
+     *
+     * @param bucketName
+     *            The name of the bucket, or null if the request isn't for a
+     *            bucket.
+     */
+    public void setBucketName(String bucketName) {
+        this.bucketName = bucketName;
+    }
+
+    /**
+     * Returns the optional handle through which another thread can abort the
+     * associated request's execution.
+     */
+    public RequestAbortHandle getAbortHandle() {
+        return abortHandle;
+    }
+
+    /**
+     * Sets the optional handle through which another thread can abort the
+     * associated request's execution, ex: once a hedged request has won.
+     *
+     * @param abortHandle
+     *            The handle to abort the execution with, or null.
+     */
+    public void setAbortHandle(RequestAbortHandle abortHandle) {
+        this.abortHandle = abortHandle;
+    }
+
+    /**
+     * Returns the optional wrapper applied to the associated request's
+     * content, once spooled if needed, before it's sent.
+     */
+    public RequestContentWrapper getContentWrapper() {
+        return contentWrapper;
+    }
+
+    /**
+     * Sets the optional wrapper applied to the associated request's content,
+     * once spooled if needed, before it's sent.
+     *
+     * @param contentWrapper
+     *            The wrapper of the request's content, or null.
+     */
+    public void setContentWrapper(RequestContentWrapper contentWrapper) {
+        this.contentWrapper = contentWrapper;
+    }
+
+    ResponseBodyTimingInputStream getStreamedResponseBody() {
+        return streamedResponseBody;
+    }
+
+    void setStreamedResponseBody(ResponseBodyTimingInputStream streamedResponseBody) {
+        this.streamedResponseBody = streamedResponseBody;
+    }
+
+    /**
+     * Records the outcome of an attempt, moving the previous one, if any, to
+     * the AttemptHistory of the request's metrics.
+     */
+    void recordAttempt(int attemptNumber, int statusCode, String error, long timeNanos, boolean newConnection) {
+        if (lastAttemptNumber > 0) awsRequestMetrics.addProperty(Field.AttemptHistory, getLastAttempt());
+        lastAttemptNumber = attemptNumber;
+        lastAttemptStatusCode = statusCode;
+        lastAttemptError = error;
+        lastAttemptTimeNanos = timeNanos;
+        lastAttemptNewConnection = newConnection;
+    }
+
+    /**
+     * Returns the history of the attempts recorded, in order.
+     */
+    List<RequestAttempt> getAttempts() {
+        List<RequestAttempt> attempts = new ArrayList<RequestAttempt>();
+        for (Object attempt : awsRequestMetrics.getProperties(Field.AttemptHistory)) {
+            attempts.add((RequestAttempt) attempt);
+        }
+        if (lastAttemptNumber > 0) attempts.add(getLastAttempt());
+        return attempts;
+    }
+
+    private RequestAttempt getLastAttempt() {
+        return new RequestAttempt(lastAttemptNumber, lastAttemptStatusCode, lastAttemptError,
+                lastAttemptTimeNanos, lastAttemptNewConnection);
+    }
 }
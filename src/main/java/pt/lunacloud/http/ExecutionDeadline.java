@@ -0,0 +1,162 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+import pt.lunacloud.ClientExecutionTimeoutException;
+
+/**
+ * The end-to-end deadline of one request execution, covering every attempt,
+ * the backoff between attempts, the wait for pooled connections and the
+ * spooling of a request body of unknown length.
+ * <p>
+ * While an attempt is in flight, a shared timer thread is armed to abort its
+ * HTTP request when the deadline passes, so that the executing thread is
+ * released even if it's blocked reading from a socket.
+ */
+class ExecutionDeadline {
+
+    /** Number of cancelled abort tasks after which the timer queue is purged. */
+    private static final int PURGE_INTERVAL = 1024;
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "java-sdk-execution-timeout-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final AtomicInteger cancellations = new AtomicInteger();
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+
+    /** The abort task armed for the attempt currently in flight, if any. */
+    private AbortTask abortTask;
+
+    ExecutionDeadline(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Returns the number of milliseconds left before the deadline, which is
+     * zero or negative once it has passed.
+     */
+    long getRemainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Throws a ClientExecutionTimeoutException if the deadline has passed.
+     */
+    void check() {
+        if (getRemainingMillis() <= 0) throw timeout(null);
+    }
+
+    /**
+     * Throws a ClientExecutionTimeoutException if the deadline would pass
+     * before the specified delay is over, ex: before the next retry could be
+     * sent.
+     */
+    void checkDelay(long delayMillis) {
+        if (delayMillis >= getRemainingMillis()) throw timeout(null);
+    }
+
+    /**
+     * Arms the timer to abort the specified request when the deadline passes.
+     */
+    void arm(HttpRequestBase httpRequest) {
+        disarm();
+        abortTask = new AbortTask(httpRequest);
+        abortTask.future = timer.schedule(abortTask, Math.max(getRemainingMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Disarms the timer for the attempt in flight.
+     *
+     * @return True if the attempt in flight (if any) was not aborted.
+     */
+    boolean disarm() {
+        if (abortTask == null) return true;
+        boolean completed = abortTask.cancel();
+        abortTask = null;
+        if (cancellations.incrementAndGet() % PURGE_INTERVAL == 0) timer.purge();
+        return completed;
+    }
+
+    /**
+     * Returns true if the deadline has passed.
+     */
+    boolean isExpired() {
+        return wasAborted() || getRemainingMillis() <= 0;
+    }
+
+    /**
+     * Returns true if the attempt in flight was aborted because the deadline
+     * passed.
+     */
+    boolean wasAborted() {
+        return abortTask != null && abortTask.isFired();
+    }
+
+    /**
+     * Returns a new exception reporting that this deadline has passed.
+     */
+    ClientExecutionTimeoutException timeout(Throwable cause) {
+        String message = "Client execution did not complete before the specified timeout of " + timeoutMillis + "ms";
+        return (cause == null) ? new ClientExecutionTimeoutException(message)
+                               : new ClientExecutionTimeoutException(message, cause);
+    }
+
+    /** Aborts an HTTP request unless cancelled first. */
+    private static final class AbortTask implements Runnable {
+        private final HttpRequestBase httpRequest;
+        private ScheduledFuture<?> future;
+        private boolean cancelled;
+        private boolean fired;
+
+        private AbortTask(HttpRequestBase httpRequest) {
+            this.httpRequest = httpRequest;
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (cancelled) return;
+                fired = true;
+            }
+            AmazonHttpClient.log.debug("Aborting request after client execution timeout");
+            httpRequest.abort();
+        }
+
+        private synchronized boolean cancel() {
+            cancelled = true;
+            if (future != null) future.cancel(false);
+            return !fired;
+        }
+
+        private synchronized boolean isFired() {
+            return fired;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+
+import pt.lunacloud.util.AWSRequestMetrics;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Hostname verifier that times the TLS handshake it triggers, and records
+ * whether it negotiated a new session or resumed a cached one.
+ * <p>
+ * HttpClient's SSL socket factory verifies the host name right after
+ * connecting, and asking the socket for its session is what runs the
+ * handshake, so timing that call times the handshake. A session created
+ * before the handshake started was resumed from the cache. The handshake
+ * time is also recorded into the metrics of the request being executed, if
+ * any.
+ */
+class HandshakeTimingHostnameVerifier implements X509HostnameVerifier {
+
+    /** The cipher suite of the session returned when a handshake fails. */
+    private static final String NULL_CIPHER_SUITE = "SSL_NULL_WITH_NULL_NULL";
+
+    private final X509HostnameVerifier verifier;
+    private final TlsHandshakeStats stats;
+
+    HandshakeTimingHostnameVerifier(X509HostnameVerifier verifier, TlsHandshakeStats stats) {
+        this.verifier = verifier;
+        this.stats = stats;
+    }
+
+    public void verify(String host, SSLSocket ssl) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        SSLSession session = ssl.getSession();
+        long endNanos = System.nanoTime();
+        long elapsedNanos = endNanos - startNanos;
+
+        AWSRequestMetrics metrics = RequestPhases.current();
+        if (metrics != null) metrics.addEventTime(Field.TlsHandshakeTime, startNanos, endNanos);
+
+        if (NULL_CIPHER_SUITE.equals(session.getCipherSuite())) {
+            stats.recordFailedHandshake();
+        } else if (session.getCreationTime() < startMillis) {
+            stats.recordResumedHandshake(elapsedNanos);
+        } else {
+            stats.recordFullHandshake(elapsedNanos);
+        }
+
+        verifier.verify(host, ssl);
+    }
+
+    public boolean verify(String host, SSLSession session) {
+        return verifier.verify(host, session);
+    }
+
+    public void verify(String host, X509Certificate cert) throws SSLException {
+        verifier.verify(host, cert);
+    }
+
+    public void verify(String host, String[] cns, String[] subjectAlts) throws SSLException {
+        verifier.verify(host, cns, subjectAlts);
+    }
+}
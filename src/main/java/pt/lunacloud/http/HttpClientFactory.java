@@ -18,11 +18,13 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
@@ -44,6 +46,8 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.scheme.SchemeSocketFactory;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
@@ -52,6 +56,7 @@ import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 
 import pt.lunacloud.LunacloudClientException;
 import pt.lunacloud.ClientConfiguration;
@@ -67,10 +72,14 @@ class HttpClientFactory {
      * @param config
      *            Client configuration options (ex: proxy settings, connection
      *            limits, etc).
+     * @param sslContext
+     *            The SSL context to create HTTPS connections with.
+     * @param handshakeStats
+     *            The counters to record TLS handshakes in.
      *
      * @return The new, configured HttpClient.
      */
-    public HttpClient createHttpClient(ClientConfiguration config) {
+    public HttpClient createHttpClient(ClientConfiguration config, SSLContext sslContext, TlsHandshakeStats handshakeStats) {
         /* Form User-Agent information */
         String userAgent = config.getUserAgent();
         if (!(userAgent.equals(ClientConfiguration.DEFAULT_USER_AGENT))) {
@@ -94,23 +103,23 @@ class HttpClientFactory {
 
         /* Set connection manager */
         ThreadSafeClientConnManager connectionManager = ConnectionManagerFactory.createThreadSafeClientConnManager(config, httpClientParams);
-        DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, httpClientParams);
+        DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, httpClientParams) {
+            @Override
+            protected HttpRequestExecutor createRequestExecutor() {
+                return new TimingHttpRequestExecutor();
+            }
+        };
         httpClient.setRedirectStrategy(new LocationHeaderNotRequiredRedirectStrategy());
+        if (config.getConnectionMaxKeepAlive() >= 0) {
+            httpClient.setKeepAliveStrategy(new MaxKeepAliveStrategy(config.getConnectionMaxKeepAlive()));
+        }
 
-        try {
-            Scheme http = new Scheme("http", 80, PlainSocketFactory.getSocketFactory());
-
-            SSLSocketFactory sf = new SSLSocketFactory(
-                    SSLContext.getDefault(),
-                    SSLSocketFactory.STRICT_HOSTNAME_VERIFIER);
-            Scheme https = new Scheme("https", 443, sf);
+        Scheme http = new Scheme("http", 80, PlainSocketFactory.getSocketFactory());
+        Scheme https = createHttpsScheme(sslContext, SSLSocketFactory.STRICT_HOSTNAME_VERIFIER, handshakeStats);
 
-            SchemeRegistry sr = connectionManager.getSchemeRegistry();
-            sr.register(http);
-            sr.register(https);
-        } catch (NoSuchAlgorithmException e) {
-            throw new LunacloudClientException("Unable to access default SSL context");
-        }
+        SchemeRegistry sr = connectionManager.getSchemeRegistry();
+        sr.register(http);
+        sr.register(https);
 
         /*
          * If SSL cert checking for endpoints has been explicitly disabled,
@@ -145,6 +154,49 @@ class HttpClientFactory {
         return httpClient;
     }
 
+    /**
+     * Returns the SSL context to create HTTPS connections with. Unless the
+     * TLS session cache is configured, this is the JVM's default context, so
+     * the cache of the default context (which may be shared with other
+     * libraries) is never modified.
+     *
+     * @param config
+     *            Client configuration options specifying the TLS session
+     *            cache size and timeout.
+     *
+     * @return The SSL context to create HTTPS connections with.
+     */
+    public SSLContext createSSLContext(ClientConfiguration config) {
+        int sessionCacheSize = config.getTlsSessionCacheSize();
+        int sessionTimeout = config.getTlsSessionTimeout();
+        try {
+            if (sessionCacheSize < 0 && sessionTimeout < 0) return SSLContext.getDefault();
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            if (sessionCacheSize >= 0) sessionContext.setSessionCacheSize(sessionCacheSize);
+            if (sessionTimeout >= 0) sessionContext.setSessionTimeout(sessionTimeout);
+            return sslContext;
+        } catch (NoSuchAlgorithmException e) {
+            throw new LunacloudClientException("Unable to access default SSL context");
+        } catch (KeyManagementException e) {
+            throw new LunacloudClientException("Unable to initialize SSL context", e);
+        }
+    }
+
+    /**
+     * Returns a scheme for HTTPS connections created with the specified SSL
+     * context, whose handshakes are verified with the specified hostname
+     * verifier and recorded in the specified counters.
+     */
+    public Scheme createHttpsScheme(SSLContext sslContext, X509HostnameVerifier hostnameVerifier,
+            TlsHandshakeStats handshakeStats) {
+        SSLSocketFactory sf = new SSLSocketFactory(sslContext,
+                new HandshakeTimingHostnameVerifier(hostnameVerifier, handshakeStats));
+        return new Scheme("https", 443, sf);
+    }
+
     /**
      * Customization of the default redirect strategy provided by HttpClient to be a little
      * less strict about the Location header to account for S3 not sending the Location
@@ -166,6 +218,25 @@ class HttpClientFactory {
         }
     }
 
+    /**
+     * Keep-alive strategy that honors the timeout of the server's Keep-Alive
+     * header, but never keeps an idle connection longer than the configured
+     * maximum.
+     */
+    private static final class MaxKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        private final long maxKeepAlive;
+
+        private MaxKeepAliveStrategy(long maxKeepAlive) {
+            this.maxKeepAlive = maxKeepAlive;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long keepAlive = super.getKeepAliveDuration(response, context);
+            return (keepAlive < 0) ? maxKeepAlive : Math.min(keepAlive, maxKeepAlive);
+        }
+    }
+
     /**
      * Simple implementation of SchemeSocketFactory (and
      * LayeredSchemeSocketFactory) that bypasses SSL certificate checks. This
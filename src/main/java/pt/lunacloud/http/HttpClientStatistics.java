@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.lunacloud.LunacloudClientException;
+import pt.lunacloud.LunacloudServiceException;
+import pt.lunacloud.metrics.RateMeter;
+
+/**
+ * The request statistics of a client: requests and errors, with their rates,
+ * errors by code, retries and requests in flight. Only kept when JMX is
+ * enabled in the client configuration.
+ *
+ * @see AmazonHttpClient#getStatistics()
+ */
+public class HttpClientStatistics implements HttpClientStatisticsMXBean {
+
+    private final RateMeter requests = new RateMeter();
+    private final RateMeter errors = new RateMeter();
+    private final ConcurrentMap<String, AtomicLong> errorsByCode = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    HttpClientStatistics() {}
+
+    /** Called before a request is executed. */
+    void requestStarted() {
+        inFlightRequests.incrementAndGet();
+    }
+
+    /** Called once a request was executed, successfully or not. */
+    void requestFinished() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    /** Called once a request was executed successfully. */
+    void requestSucceeded() {
+        requests.mark();
+    }
+
+    /** Called once a request failed, after any retries. */
+    void requestFailed(LunacloudClientException exception) {
+        requests.mark();
+        errors.mark();
+
+        String errorCode = (exception instanceof LunacloudServiceException)
+                ? ((LunacloudServiceException) exception).getErrorCode() : null;
+        if (errorCode == null) errorCode = exception.getClass().getSimpleName();
+
+        AtomicLong count = errorsByCode.get(errorCode);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = errorsByCode.putIfAbsent(errorCode, newCount);
+            if (count == null) count = newCount;
+        }
+        count.incrementAndGet();
+    }
+
+    /** Called before an attempt is retried. */
+    void attemptRetried() {
+        retries.incrementAndGet();
+    }
+
+    public long getRequestCount() {
+        return requests.getCount();
+    }
+
+    public double getRequestRate() {
+        return requests.getOneMinuteRate();
+    }
+
+    public long getErrorCount() {
+        return errors.getCount();
+    }
+
+    public double getErrorRate() {
+        return errors.getOneMinuteRate();
+    }
+
+    public Map<String, Long> getErrorCountsByCode() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : errorsByCode.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[requests: " + getRequestCount() + "; errors: " + getErrorCount()
+            + "; retries: " + getRetryCount() + "; in flight: " + getInFlightRequests()
+            + "; errors by code: " + getErrorCountsByCode() + "]";
+    }
+}
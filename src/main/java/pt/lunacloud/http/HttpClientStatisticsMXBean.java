@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.util.Map;
+
+/**
+ * Management interface of the request statistics of a client, registered as
+ * pt.lunacloud:type=HttpClient when JMX is enabled in the client
+ * configuration.
+ *
+ * @see pt.lunacloud.ClientConfiguration#setJmxEnabled(boolean)
+ */
+public interface HttpClientStatisticsMXBean {
+
+    /** Returns the number of requests executed, successfully or not. */
+    long getRequestCount();
+
+    /** Returns the requests executed per second, averaged over the last minute. */
+    double getRequestRate();
+
+    /** Returns the number of requests that failed, after any retries. */
+    long getErrorCount();
+
+    /** Returns the failed requests per second, averaged over the last minute. */
+    double getErrorRate();
+
+    /**
+     * Returns the number of failed requests by error code, ex: SlowDown, or
+     * by exception class for failures without a service error code.
+     */
+    Map<String, Long> getErrorCountsByCode();
+
+    /** Returns the number of attempts retried, including redirects. */
+    long getRetryCount();
+
+    /** Returns the number of requests currently being executed. */
+    int getInFlightRequests();
+}
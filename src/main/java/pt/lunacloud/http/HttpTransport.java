@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+
+import pt.lunacloud.ClientConfiguration;
+import pt.lunacloud.util.JmxUtils;
+
+/**
+ * The HTTP machinery behind a client: one connection pool, scheme registry
+ * and SSL socket factory (and so one TLS session cache), reaped by the
+ * {@link IdleConnectionReaper}.
+ * <p>
+ * By default every client creates its own transport. A transport created
+ * explicitly can instead be shared by many clients, ex: one client per tenant
+ * credential, through
+ * {@link ClientConfiguration#setHttpTransport(HttpTransport)}, so that they
+ * all reuse the same pooled connections and TLS sessions.
+ * <p>
+ * Connection level settings (connection limits, TTL, keep-alive, reaping,
+ * proxy) are taken from the configuration the transport is created with.
+ * Socket and connection timeouts are applied per request from the
+ * configuration of each client using the transport. Shutting down a client
+ * doesn't shut down a shared transport; its creator must call
+ * {@link #shutdown()} once no client uses it anymore.
+ */
+public class HttpTransport {
+
+    private static final HttpClientFactory httpClientFactory = new HttpClientFactory();
+
+    private final SSLContext sslContext;
+    private final TlsHandshakeStats handshakeStats = new TlsHandshakeStats();
+    private final HttpClient httpClient;
+
+    /** The name of the connection pool MBean, if JMX is enabled */
+    private final ObjectName connectionPoolMBeanName;
+
+    /**
+     * Creates a new transport configured with the connection level settings
+     * of the specified configuration.
+     *
+     * @param config
+     *            The configuration specifying the connection pool, proxy and
+     *            timeout settings of the transport.
+     */
+    public HttpTransport(ClientConfiguration config) {
+        this.sslContext = httpClientFactory.createSSLContext(config);
+        this.httpClient = httpClientFactory.createHttpClient(config, sslContext, handshakeStats);
+        this.connectionPoolMBeanName = config.isJmxEnabled()
+            ? JmxUtils.registerMBean("ConnectionPool", new ConnectionPoolMonitor(
+                (InstrumentedClientConnManager) httpClient.getConnectionManager(), handshakeStats))
+            : null;
+    }
+
+    /**
+     * Returns the underlying HttpClient, whose connection manager holds the
+     * pool shared by every client using this transport.
+     */
+    HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Returns the counters of the TLS handshakes made by this transport.
+     *
+     * @return The TLS handshake counters of this transport.
+     */
+    public TlsHandshakeStats getTlsHandshakeStats() {
+        return handshakeStats;
+    }
+
+    /**
+     * Switches HTTPS connections to a browser compatible hostname
+     * verification strategy (i.e. cert hostname wildcards are evaluated more
+     * liberally).
+     */
+    void disableStrictHostnameVerification() {
+        Scheme https = httpClientFactory.createHttpsScheme(sslContext,
+                SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER, handshakeStats);
+        httpClient.getConnectionManager().getSchemeRegistry().register(https);
+    }
+
+    /**
+     * Shuts down this transport, closing all of its pooled connections. Any
+     * client still using it won't be able to send more requests.
+     */
+    public void shutdown() {
+        JmxUtils.unregisterMBean(connectionPoolMBeanName);
+        IdleConnectionReaper.removeConnectionManager(httpClient.getConnectionManager());
+        httpClient.getConnectionManager().shutdown();
+    }
+}
@@ -15,6 +15,7 @@
 package pt.lunacloud.http;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -42,14 +43,17 @@ import org.apache.http.conn.ClientConnectionManager;
  */
 public class IdleConnectionReaper extends Thread {
 
-    /** The period between invocations of the idle connection reaper. */
+    /** The default period between invocations of the idle connection reaper. */
     private static final int PERIOD_MILLISECONDS = 1000 * 60 * 1;
 
+    /** The default time a connection may sit idle in the pool before it's closed. */
+    private static final int IDLE_TIMEOUT_MILLISECONDS = 1000 * 60 * 1;
+
     /**
      * The list of registered connection managers, whose connections
      * will be periodically checked and idle connections closed.
      */
-    private static ArrayList<ClientConnectionManager> connectionManagers = new ArrayList<ClientConnectionManager>();
+    private static ArrayList<Registration> connectionManagers = new ArrayList<Registration>();
 
     /** Singleton instance of the connection reaper. */
     private static IdleConnectionReaper instance;
@@ -65,35 +69,73 @@ public class IdleConnectionReaper extends Thread {
     }
 
     public static synchronized void registerConnectionManager(ClientConnectionManager connectionManager) {
+        registerConnectionManager(connectionManager, PERIOD_MILLISECONDS, IDLE_TIMEOUT_MILLISECONDS);
+    }
+
+    /**
+     * Registers the specified connection manager to have its expired
+     * connections, and those idle for longer than the specified timeout,
+     * closed at the specified interval.
+     *
+     * @param connectionManager
+     *            The connection manager to reap connections from.
+     * @param reapIntervalMillis
+     *            The period (in milliseconds) between two reaps of the
+     *            connection manager.
+     * @param idleTimeoutMillis
+     *            The time (in milliseconds) a connection may sit idle before
+     *            being closed, or 0 to only close expired connections.
+     */
+    public static synchronized void registerConnectionManager(ClientConnectionManager connectionManager,
+            long reapIntervalMillis, long idleTimeoutMillis) {
+        if (reapIntervalMillis <= 0) throw new IllegalArgumentException("Reap interval must be positive");
         if (instance == null) instance = new IdleConnectionReaper();
-        connectionManagers.add(connectionManager);
+        connectionManagers.add(new Registration(connectionManager, reapIntervalMillis, idleTimeoutMillis));
+
+        // Wake the reaper up in case this manager needs reaping sooner than the others
+        IdleConnectionReaper.class.notifyAll();
     }
 
     public static synchronized void removeConnectionManager(ClientConnectionManager connectionManager) {
-        connectionManagers.remove(connectionManager);
+        for (Iterator<Registration> it = connectionManagers.iterator(); it.hasNext();) {
+            if (it.next().connectionManager == connectionManager) it.remove();
+        }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void run() {
         while (true) {
             try {
-                Thread.sleep(PERIOD_MILLISECONDS);
-
-                // Copy the list of managed ConnectionManagers to avoid possible
-                // ConcurrentModificationExceptions if registerConnectionManager or
-                // removeConnectionManager are called while we're iterating (rather
-                // than block/lock while this loop executes).
-                List<ClientConnectionManager> connectionManagers = null;
+                // Wait until at least one of the managed ConnectionManagers is
+                // due, and collect those that are, so that we don't hold the
+                // lock (and block registerConnectionManager or
+                // removeConnectionManager) while reaping.
+                List<Registration> dueConnectionManagers = new ArrayList<Registration>();
                 synchronized (IdleConnectionReaper.class) {
-                    connectionManagers = (List<ClientConnectionManager>)IdleConnectionReaper.connectionManagers.clone();
+                    long now = System.currentTimeMillis();
+                    long wait = PERIOD_MILLISECONDS;
+                    for (Registration registration : connectionManagers) {
+                        if (registration.nextReap <= now) {
+                            dueConnectionManagers.add(registration);
+                            registration.nextReap = now + registration.reapIntervalMillis;
+                        }
+                        wait = Math.min(wait, registration.nextReap - now);
+                    }
+                    if (dueConnectionManagers.isEmpty()) {
+                        IdleConnectionReaper.class.wait(Math.max(wait, 1));
+                        continue;
+                    }
                 }
-                for (ClientConnectionManager connectionManager : connectionManagers) {
+                for (Registration registration : dueConnectionManagers) {
                     // When we release connections, the connection manager leaves them
                     // open so they can be reused.  We want to close out any idle
                     // connections so that they don't sit around in CLOSE_WAIT.
                     try {
-                        connectionManager.closeIdleConnections(60, TimeUnit.SECONDS);
+                        registration.connectionManager.closeExpiredConnections();
+                        if (registration.idleTimeoutMillis > 0) {
+                            registration.connectionManager.closeIdleConnections(
+                                    registration.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                        }
                     } catch (Throwable t) {
                         log.warn("Unable to close idle connections", t);
                     }
@@ -121,4 +163,21 @@ public class IdleConnectionReaper extends Thread {
             instance = null;
         }
     }
-}
\ No newline at end of file
+
+    /** A registered connection manager and how often to reap it. */
+    private static final class Registration {
+        private final ClientConnectionManager connectionManager;
+        private final long reapIntervalMillis;
+        private final long idleTimeoutMillis;
+
+        /** Guarded by the IdleConnectionReaper class lock. */
+        private long nextReap;
+
+        private Registration(ClientConnectionManager connectionManager, long reapIntervalMillis, long idleTimeoutMillis) {
+            this.connectionManager = connectionManager;
+            this.reapIntervalMillis = reapIntervalMillis;
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            this.nextReap = System.currentTimeMillis() + reapIntervalMillis;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import pt.lunacloud.internal.DnsResolver;
+import pt.lunacloud.util.AWSRequestMetrics;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Thread safe connection manager with per host connection limits, a
+ * connection lease timeout independent of the connect timeout, validation of
+ * long idle connections, pluggable DNS resolution, and pool statistics.
+ */
+class InstrumentedClientConnManager extends ThreadSafeClientConnManager {
+
+    /** Time to wait (in milliseconds) for a pooled connection, 0 for the connect timeout. */
+    private volatile int connectionLeaseTimeout;
+
+    /**
+     * @param connTTL
+     *            The time to live (in milliseconds) of pooled connections, or
+     *            a negative value for no limit.
+     */
+    InstrumentedClientConnManager(long connTTL) {
+        super(SchemeRegistryFactory.createDefault(), connTTL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schreg) {
+        return new ResolvingClientConnectionOperator(schreg);
+    }
+
+    @Override
+    protected ConnPoolByRoute createConnectionPool(long connTTL, TimeUnit connTTLTimeUnit) {
+        return new InstrumentedConnPoolByRoute(connOperator, connPerRoute, 20, connTTL, connTTLTimeUnit);
+    }
+
+    /**
+     * Sets the time to wait (in milliseconds) for a pooled connection when
+     * all connections are in use. By default HttpClient waits for as long as
+     * the connect timeout.
+     */
+    void setConnectionLeaseTimeout(int connectionLeaseTimeout) {
+        this.connectionLeaseTimeout = connectionLeaseTimeout;
+    }
+
+    /**
+     * Sets the time (in milliseconds) a pooled connection may sit idle before
+     * it's checked for staleness when leased, or 0 to never check.
+     */
+    void setValidateAfterInactivity(long validateAfterInactivity) {
+        getPool().setValidateAfterInactivity(validateAfterInactivity);
+    }
+
+    /**
+     * Sets the resolver to resolve target hosts with, or null to use the
+     * system resolver.
+     */
+    void setDnsResolver(DnsResolver dnsResolver) {
+        ((ResolvingClientConnectionOperator) connOperator).setDnsResolver(dnsResolver);
+    }
+
+    /**
+     * Overrides the connection limit of the routes to the specified hosts.
+     */
+    void setMaxConnectionsPerHost(Map<String, Integer> maxConnectionsPerHost) {
+        getPool().setMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ClientConnectionRequest request = super.requestConnection(route, state);
+        final int leaseTimeout = connectionLeaseTimeout;
+        final AWSRequestMetrics metrics = RequestPhases.current();
+        if (leaseTimeout <= 0 && metrics == null) return request;
+
+        return new ClientConnectionRequest() {
+            public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+                    throws InterruptedException, ConnectionPoolTimeoutException {
+                if (leaseTimeout > 0) {
+                    timeout = leaseTimeout;
+                    tunit = TimeUnit.MILLISECONDS;
+                }
+                if (metrics == null) return request.getConnection(timeout, tunit);
+
+                metrics.startEvent(Field.ConnectionLeaseTime);
+                try {
+                    return request.getConnection(timeout, tunit);
+                } finally {
+                    metrics.endEvent(Field.ConnectionLeaseTime);
+                }
+            }
+
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+
+    /** Returns a snapshot of the connections in the whole pool. */
+    ConnectionPoolStats getTotalStats() {
+        return getPool().getTotalStats();
+    }
+
+    /** Returns a snapshot of the connections of each route in the pool. */
+    Map<String, ConnectionPoolStats> getRouteStats() {
+        return getPool().getRouteStats();
+    }
+
+    private InstrumentedConnPoolByRoute getPool() {
+        return (InstrumentedConnPoolByRoute) pool;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.tsccm.BasicPoolEntry;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.RouteSpecificPool;
+import org.apache.http.impl.conn.tsccm.WaitingThreadAborter;
+
+/**
+ * Connection pool that applies per host connection limits to routes as they
+ * are created, and reports how many connections are leased, available and
+ * waited for, in total and per route.
+ * <p>
+ * Pooled connections that have been idle for longer than the configured
+ * inactivity period are checked for staleness before being leased, so that a
+ * connection the server (or a load balancer) has closed in the meantime is
+ * discarded instead of failing the request it was leased for.
+ */
+class InstrumentedConnPoolByRoute extends ConnPoolByRoute {
+
+    private final ConnPerRouteBean connPerRouteBean;
+    private final long connTTL;
+    private final TimeUnit connTTLTimeUnit;
+
+    /** Idle time (in milliseconds) after which connections are validated before lease, 0 to never. */
+    private volatile long validateAfterInactivity;
+
+    /** Overrides of the per route connection limit, keyed by host name. */
+    private volatile Map<String, Integer> maxConnectionsPerHost = Collections.emptyMap();
+
+    InstrumentedConnPoolByRoute(ClientConnectionOperator operator, ConnPerRouteBean connPerRoute,
+            int maxTotalConnections, long connTTL, TimeUnit connTTLTimeUnit) {
+        super(operator, connPerRoute, maxTotalConnections, connTTL, connTTLTimeUnit);
+        this.connPerRouteBean = connPerRoute;
+        this.connTTL = connTTL;
+        this.connTTLTimeUnit = connTTLTimeUnit;
+    }
+
+    void setValidateAfterInactivity(long validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    void setMaxConnectionsPerHost(Map<String, Integer> maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = new LinkedHashMap<String, Integer>(maxConnectionsPerHost);
+    }
+
+    @Override
+    protected RouteSpecificPool newRouteSpecificPool(HttpRoute route) {
+        Integer max = maxConnectionsPerHost.get(route.getTargetHost().getHostName().toLowerCase());
+        if (max != null) connPerRouteBean.setMaxForRoute(route, max);
+        return new InstrumentedRouteSpecificPool(route, connPerRouteBean);
+    }
+
+    @Override
+    protected BasicPoolEntry createEntry(RouteSpecificPool rospl, ClientConnectionOperator op) {
+        BasicPoolEntry entry = new ValidatingPoolEntry(op, rospl.getRoute(), connTTL, connTTLTimeUnit);
+        getLock().lock();
+        try {
+            rospl.createdEntry(entry);
+            numConnections++;
+            leasedConnections.add(entry);
+        } finally {
+            getLock().unlock();
+        }
+        return entry;
+    }
+
+    @Override
+    protected BasicPoolEntry getEntryBlocking(HttpRoute route, Object state, long timeout, TimeUnit tunit,
+            WaitingThreadAborter aborter) throws ConnectionPoolTimeoutException, InterruptedException {
+        long deadline = (timeout > 0) ? System.currentTimeMillis() + tunit.toMillis(timeout) : 0;
+        while (true) {
+            BasicPoolEntry entry = super.getEntryBlocking(route, state, timeout, tunit, aborter);
+            if (!isStale(entry)) return entry;
+
+            AmazonHttpClient.log.debug("Discarding stale connection for route " + route);
+            freeEntry(entry, false, 0, TimeUnit.MILLISECONDS);
+            if (deadline > 0) {
+                timeout = Math.max(deadline - System.currentTimeMillis(), 1);
+                tunit = TimeUnit.MILLISECONDS;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the specified entry has been idle for longer than the
+     * inactivity period and its connection turns out to be closed on the
+     * other end.
+     */
+    private boolean isStale(BasicPoolEntry entry) {
+        long inactivity = validateAfterInactivity;
+        if (inactivity <= 0 || !(entry instanceof ValidatingPoolEntry)) return false;
+        if (entry.getUpdated() == 0 || System.currentTimeMillis() - entry.getUpdated() <= inactivity) return false;
+        return ((ValidatingPoolEntry) entry).isStale();
+    }
+
+    /**
+     * Returns a snapshot of the connections in the whole pool.
+     */
+    ConnectionPoolStats getTotalStats() {
+        getLock().lock();
+        try {
+            return new ConnectionPoolStats(leasedConnections.size(), freeConnections.size(),
+                    waitingThreads.size(), maxTotalConnections);
+        } finally {
+            getLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the connections of each route currently in the
+     * pool, keyed by target host (ex: https://bucket.example.com:443).
+     */
+    Map<String, ConnectionPoolStats> getRouteStats() {
+        Map<String, ConnectionPoolStats> stats = new LinkedHashMap<String, ConnectionPoolStats>();
+        getLock().lock();
+        try {
+            for (RouteSpecificPool routePool : routeToPool.values()) {
+                InstrumentedRouteSpecificPool pool = (InstrumentedRouteSpecificPool) routePool;
+                stats.put(pool.getRoute().getTargetHost().toURI(), pool.getStats());
+            }
+        } finally {
+            getLock().unlock();
+        }
+        return stats;
+    }
+
+    /** Pool entry whose connection can be checked for staleness. */
+    private static final class ValidatingPoolEntry extends BasicPoolEntry {
+
+        private ValidatingPoolEntry(ClientConnectionOperator op, HttpRoute route, long connTTL, TimeUnit unit) {
+            super(op, route, connTTL, unit);
+        }
+
+        private boolean isStale() {
+            OperatedClientConnection connection = getConnection();
+            return connection.isOpen() && connection.isStale();
+        }
+    }
+
+    /** Route pool exposing its counters, which are guarded by the pool lock. */
+    private static final class InstrumentedRouteSpecificPool extends RouteSpecificPool {
+
+        private InstrumentedRouteSpecificPool(HttpRoute route, ConnPerRouteBean connPerRoute) {
+            super(route, connPerRoute);
+        }
+
+        private ConnectionPoolStats getStats() {
+            int available = freeEntries.size();
+            return new ConnectionPoolStats(numEntries - available, available,
+                    waitingThreads.size(), connPerRoute.getMaxForRoute(route));
+        }
+    }
+}
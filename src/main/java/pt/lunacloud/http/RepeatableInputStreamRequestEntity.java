@@ -35,9 +35,15 @@ import pt.lunacloud.Request;
  */
 class RepeatableInputStreamRequestEntity extends BasicHttpEntity {
 
+    /** The size of the buffer the content is copied to the connection with */
+    private static final int WRITE_BUFFER_SIZE = 32 * 1024;
+
     /** True if the request entity hasn't been written out yet */
     private boolean firstAttempt = true;
 
+    /** The buffer used to write out the content, reused across attempts */
+    private byte[] writeBuffer;
+
     /** The underlying InputStreamRequestEntity being delegated to */
     private InputStreamEntity inputStreamRequestEntity;
 
@@ -138,11 +144,35 @@ class RepeatableInputStreamRequestEntity extends BasicHttpEntity {
             if (!firstAttempt && isRepeatable()) content.reset();
 
             firstAttempt = false;
-            inputStreamRequestEntity.writeTo(output);
+            copyContent(output);
         } catch (IOException ioe) {
             if (originalException == null) originalException = ioe;
             throw originalException;
         }
     }
 
+    /**
+     * Copies the content to the specified stream like InputStreamEntity does,
+     * but in larger chunks, so that large uploads take fewer reads and
+     * writes.
+     */
+    private void copyContent(OutputStream output) throws IOException {
+        if (writeBuffer == null) writeBuffer = new byte[WRITE_BUFFER_SIZE];
+
+        long remaining = inputStreamRequestEntity.getContentLength();
+        int count;
+        if (remaining < 0) {
+            while ((count = content.read(writeBuffer)) != -1) {
+                output.write(writeBuffer, 0, count);
+            }
+        } else {
+            while (remaining > 0) {
+                count = content.read(writeBuffer, 0, (int) Math.min(writeBuffer.length, remaining));
+                if (count == -1) break;
+                output.write(writeBuffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
 }
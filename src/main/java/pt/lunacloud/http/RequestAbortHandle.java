@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Lets another thread abort a request execution: the HTTP request in flight,
+ * if any, is aborted, releasing the executing thread even if it's blocked
+ * reading from a socket, and no further attempt is sent.
+ * <p>
+ * Set on the {@link ExecutionContext} of the execution to abort.
+ */
+public class RequestAbortHandle {
+
+    /** The HTTP request of the attempt in flight; guarded by this handle. */
+    private HttpRequestBase httpRequest;
+    private boolean aborted;
+
+    /**
+     * Aborts the execution. Does nothing if it has already completed.
+     */
+    public void abort() {
+        HttpRequestBase inFlight;
+        synchronized (this) {
+            aborted = true;
+            inFlight = httpRequest;
+        }
+        if (inFlight != null) inFlight.abort();
+    }
+
+    /**
+     * Returns true if the execution has been aborted.
+     */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Registers the HTTP request of the next attempt, aborting it straight
+     * away if the execution has already been aborted.
+     */
+    void setHttpRequest(HttpRequestBase httpRequest) {
+        synchronized (this) {
+            this.httpRequest = httpRequest;
+            if (!aborted) return;
+        }
+        httpRequest.abort();
+    }
+}
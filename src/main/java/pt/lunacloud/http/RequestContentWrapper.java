@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.io.InputStream;
+
+/**
+ * Wraps the content of a request once the client has made it repeatable,
+ * ex: to report upload progress or calculate a checksum as it's sent.
+ * <p>
+ * When the content is spooled (see
+ * {@link pt.lunacloud.ClientConfiguration#setRequestBodySpoolThreshold(int)}),
+ * the wrapper is applied to the spooled content, so that it only sees the
+ * bytes as they're sent rather than as they're spooled. Set on the
+ * {@link ExecutionContext} of the request.
+ */
+public interface RequestContentWrapper {
+
+    /**
+     * Returns the stream to send as the content of the request.
+     *
+     * @param content
+     *            The content of the request, spooled if needed.
+     *
+     * @return The stream to send in place of the specified content.
+     */
+    InputStream wrap(InputStream content);
+}
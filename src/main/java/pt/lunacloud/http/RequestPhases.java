@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import pt.lunacloud.util.AWSRequestMetrics;
+
+/**
+ * Tracks the metrics of the request being executed on the current thread, so
+ * that the connection manager, connection operator, request executor and
+ * hostname verifier can record the phases of the request (lease wait,
+ * connect, TLS handshake, send, time to first byte) into them.
+ * <p>
+ * HttpClient executes a request entirely on the calling thread, and doesn't
+ * hand its context to the connection manager or to the hostname verifier, so
+ * the metrics are kept in a thread local for the duration of the call.
+ */
+class RequestPhases {
+
+    private static final ThreadLocal<AWSRequestMetrics> currentMetrics = new ThreadLocal<AWSRequestMetrics>();
+
+    private RequestPhases() {}
+
+    /**
+     * Records the phases of the requests executed on the current thread into
+     * the specified metrics, if enabled, until {@link #end()} is called.
+     */
+    static void begin(AWSRequestMetrics metrics) {
+        if (metrics.isEnabled()) currentMetrics.set(metrics);
+    }
+
+    /** Stops recording the phases of the requests executed on the current thread. */
+    static void end() {
+        currentMetrics.remove();
+    }
+
+    /**
+     * Returns the metrics of the request being executed on the current
+     * thread, or null if its phases aren't recorded.
+     */
+    static AWSRequestMetrics current() {
+        return currentMetrics.get();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.impl.conn.DefaultClientConnection;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import pt.lunacloud.internal.DnsResolver;
+import pt.lunacloud.util.AWSRequestMetrics;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Connection operator that resolves target hosts through a {@link DnsResolver},
+ * and tells the resolver which addresses connections were opened to, failed
+ * to connect to, and were closed.
+ * <p>
+ * Without a resolver it behaves exactly like HttpClient's default operator.
+ */
+class ResolvingClientConnectionOperator extends DefaultClientConnectionOperator {
+
+    private volatile DnsResolver dnsResolver;
+
+    ResolvingClientConnectionOperator(SchemeRegistry schemes) {
+        super(schemes);
+    }
+
+    /**
+     * Sets the resolver to resolve target hosts with, or null to use the
+     * system resolver for every connection.
+     */
+    void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+
+    @Override
+    public OperatedClientConnection createConnection() {
+        return new TrackedClientConnection();
+    }
+
+    @Override
+    protected InetAddress[] resolveHostname(String host) throws UnknownHostException {
+        DnsResolver resolver = dnsResolver;
+        return (resolver == null) ? super.resolveHostname(host) : resolver.resolve(host);
+    }
+
+    /*
+     * Records the time taken to open the connection into the metrics of the
+     * request being executed, if any.
+     */
+    @Override
+    public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+            HttpContext context, HttpParams params) throws IOException {
+        AWSRequestMetrics metrics = RequestPhases.current();
+        if (metrics == null) {
+            openResolvedConnection(conn, target, local, context, params);
+            return;
+        }
+
+        metrics.startEvent(Field.ConnectTime);
+        try {
+            openResolvedConnection(conn, target, local, context, params);
+        } finally {
+            metrics.endEvent(Field.ConnectTime);
+        }
+    }
+
+    /*
+     * Same as the default implementation, except that the resolver is told
+     * about the outcome of connecting to each address.
+     */
+    private void openResolvedConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+            HttpContext context, HttpParams params) throws IOException {
+        DnsResolver resolver = dnsResolver;
+        if (resolver == null || !(conn instanceof TrackedClientConnection)) {
+            super.openConnection(conn, target, local, context, params);
+            return;
+        }
+
+        if (target == null) throw new IllegalArgumentException("Target host may not be null");
+        if (params == null) throw new IllegalArgumentException("Parameters may not be null");
+        if (conn.isOpen()) throw new IllegalStateException("Connection must not be open");
+
+        Scheme scheme = schemeRegistry.getScheme(target.getSchemeName());
+        SchemeSocketFactory socketFactory = scheme.getSchemeSocketFactory();
+        String host = target.getHostName();
+        InetAddress[] addresses = resolver.resolve(host);
+        int port = scheme.resolvePort(target.getPort());
+
+        for (int i = 0; i < addresses.length; i++) {
+            InetAddress address = addresses[i];
+            boolean last = (i == addresses.length - 1);
+
+            Socket sock = socketFactory.createSocket(params);
+            conn.opening(sock, target);
+
+            InetSocketAddress remoteAddress = new InetSocketAddress(address, port);
+            InetSocketAddress localAddress = (local == null) ? null : new InetSocketAddress(local, 0);
+            try {
+                Socket connsock = socketFactory.connectSocket(sock, remoteAddress, localAddress, params);
+                if (sock != connsock) {
+                    sock = connsock;
+                    conn.opening(sock, target);
+                }
+                prepareSocket(sock, context, params);
+                conn.openCompleted(socketFactory.isSecure(sock), params);
+                ((TrackedClientConnection) conn).opened(resolver, host, address);
+                return;
+            } catch (ConnectException ex) {
+                resolver.onConnectFailure(host, address);
+                if (last) throw new HttpHostConnectException(target, ex);
+            } catch (ConnectTimeoutException ex) {
+                resolver.onConnectFailure(host, address);
+                if (last) throw ex;
+            }
+        }
+    }
+
+    /**
+     * Client connection that tells the resolver it was opened through once
+     * it's closed. Pooled connections are reopened after being closed, so the
+     * connection tracks which address it's currently open to.
+     */
+    private static final class TrackedClientConnection extends DefaultClientConnection {
+        private DnsResolver resolver;
+        private String host;
+        private InetAddress address;
+
+        private synchronized void opened(DnsResolver resolver, String host, InetAddress address) {
+            released();
+            this.resolver = resolver;
+            this.host = host;
+            this.address = address;
+            resolver.onConnect(host, address);
+        }
+
+        private synchronized void released() {
+            if (resolver != null) {
+                resolver.onClose(host, address);
+                resolver = null;
+                host = null;
+                address = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                released();
+            }
+        }
+
+        @Override
+        public void shutdown() throws IOException {
+            try {
+                super.shutdown();
+            } finally {
+                released();
+            }
+        }
+    }
+}
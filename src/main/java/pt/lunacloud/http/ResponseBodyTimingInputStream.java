@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import pt.lunacloud.util.AWSRequestMetrics;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Input stream over a response body that records the time from the response
+ * headers being received until the body is fully read or closed, whichever
+ * comes first, as the {@link Field#ResponseBodyTransferTime} of the request.
+ * <p>
+ * Streamed bodies (ex: object contents) are read and closed by the caller,
+ * possibly on another thread, after the request completed and its metrics
+ * were reported. Once the request completes, the stream is
+ * {@link #detach(Listener) detached} from its metrics, which aren't safe for
+ * use by another thread, and the time is handed to a listener instead.
+ */
+class ResponseBodyTimingInputStream extends FilterInputStream {
+
+    /** Receives the transfer time of a body finished after its request completed. */
+    interface Listener {
+        void bodyFinished(long transferTimeNanos);
+    }
+
+    private final AWSRequestMetrics metrics;
+    private final long startNanos;
+
+    /* Guarded by this stream. */
+    private boolean finished;
+    private boolean detached;
+    private Listener listener;
+
+    ResponseBodyTimingInputStream(InputStream in, AWSRequestMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+        this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) finish();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count == -1) finish();
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Records the transfer time, once: into the request's metrics while the
+     * request is executing, or to the listener once it's detached.
+     */
+    void finish() {
+        long endNanos = System.nanoTime();
+        Listener finishedListener;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            if (!detached) {
+                metrics.addEventTime(Field.ResponseBodyTransferTime, startNanos, endNanos);
+                return;
+            }
+            finishedListener = listener;
+        }
+        if (finishedListener != null) finishedListener.bodyFinished(endNanos - startNanos);
+    }
+
+    /**
+     * Stops recording into the request's metrics, once the request completed.
+     * If the body isn't finished yet, its transfer time will be handed to the
+     * specified listener, if any, on the thread finishing it.
+     */
+    synchronized void detach(Listener listener) {
+        detached = true;
+        this.listener = listener;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Fully repeatable copy of a stream of unknown length. Small streams are kept
+ * in memory; once a stream grows past the spool threshold, its contents are
+ * written to a temporary file instead, so that the heap used per request is
+ * bounded no matter how much data is uploaded.
+ * <p>
+ * The stream supports mark and reset without any read limit, and its
+ * temporary file (if any) is deleted when it's released.
+ */
+class SpooledInputStream extends InputStream {
+
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /** The spooled contents, if they fit under the threshold. */
+    private final byte[] data;
+
+    /** The temporary file holding the spooled contents, if they didn't. */
+    private final File file;
+    private RandomAccessFile fileAccess;
+
+    private final long length;
+    private long position;
+    private long markPosition;
+
+    private SpooledInputStream(byte[] data, File file, long length) throws IOException {
+        this.data = data;
+        this.file = file;
+        this.length = length;
+        if (file != null) fileAccess = new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * Reads the specified stream to its end, keeping its contents in memory
+     * if they're no larger than the specified threshold, and in a temporary
+     * file otherwise. The specified stream is not closed.
+     *
+     * @param in
+     *            The stream to spool.
+     * @param memoryThreshold
+     *            The maximum number of bytes kept in memory.
+     * @param directory
+     *            The directory to create the temporary file in, or null for
+     *            the system's default temporary directory.
+     * @param deadline
+     *            The deadline of the request execution the stream is spooled
+     *            for, checked between reads, or null if there's none.
+     *
+     * @return A repeatable stream with the contents of the specified stream.
+     */
+    static SpooledInputStream spool(InputStream in, int memoryThreshold, File directory,
+            ExecutionDeadline deadline) throws IOException {
+        byte[] buffer = new byte[Math.min(Math.max(memoryThreshold, 0), COPY_BUFFER_SIZE) + 1];
+        int count = 0;
+        int read;
+        while ((read = in.read(buffer, count, buffer.length - count)) != -1) {
+            if (deadline != null) deadline.check();
+            count += read;
+            if (count == buffer.length) {
+                if (count > memoryThreshold) break;
+                // Grow geometrically, but never past one byte over the threshold
+                byte[] larger = new byte[(int) Math.min((long) memoryThreshold + 1, 2L * buffer.length)];
+                System.arraycopy(buffer, 0, larger, 0, count);
+                buffer = larger;
+            }
+        }
+        if (count <= memoryThreshold) {
+            byte[] data = buffer;
+            if (count != buffer.length) {
+                data = new byte[count];
+                System.arraycopy(buffer, 0, data, 0, count);
+            }
+            return new SpooledInputStream(data, null, count);
+        }
+
+        File file = File.createTempFile("lunacloud-sdk-", ".spool", directory);
+        boolean success = false;
+        try {
+            long length = count;
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(buffer, 0, count);
+                byte[] copyBuffer = (buffer.length >= COPY_BUFFER_SIZE) ? buffer : new byte[COPY_BUFFER_SIZE];
+                while ((read = in.read(copyBuffer)) != -1) {
+                    if (deadline != null) deadline.check();
+                    out.write(copyBuffer, 0, read);
+                    length += read;
+                }
+            } finally {
+                out.close();
+            }
+            SpooledInputStream spooled = new SpooledInputStream(null, file, length);
+            success = true;
+            return spooled;
+        } finally {
+            if (!success) file.delete();
+        }
+    }
+
+    /** Returns the number of bytes spooled. */
+    long getLength() {
+        return length;
+    }
+
+    /** Returns true if the contents were spooled to a temporary file. */
+    boolean isSpooledToFile() {
+        return file != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) return -1;
+        int b = (data != null) ? (data[(int) position] & 0xff) : readFile();
+        if (b != -1) position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position >= length) return -1;
+        int count = (int) Math.min(len, length - position);
+        if (data != null) {
+            System.arraycopy(data, (int) position, b, off, count);
+        } else {
+            count = openFile().read(b, off, count);
+            if (count == -1) return -1;
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) return 0;
+        long skipped = Math.min(n, length - position);
+        position += skipped;
+        if (data == null) openFile().seek(position);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /** The read limit is ignored, as the whole stream can always be repeated. */
+    @Override
+    public synchronized void mark(int readlimit) {
+        markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = markPosition;
+        if (data == null) openFile().seek(position);
+    }
+
+    /**
+     * Closes the temporary file, if any. The stream can still be reset and
+     * read again afterwards; only {@link #release()} discards its contents.
+     */
+    @Override
+    public void close() throws IOException {
+        if (fileAccess != null) {
+            fileAccess.close();
+            fileAccess = null;
+        }
+    }
+
+    /** Closes this stream and deletes its temporary file, if any. */
+    void release() {
+        try {
+            close();
+        } catch (IOException e) {
+            AmazonHttpClient.log.debug("Unable to close spooled request body", e);
+        }
+        if (file != null && !file.delete() && file.exists()) {
+            AmazonHttpClient.log.warn("Unable to delete spooled request body " + file);
+        }
+    }
+
+    private int readFile() throws IOException {
+        return openFile().read();
+    }
+
+    private RandomAccessFile openFile() throws IOException {
+        if (fileAccess == null) {
+            fileAccess = new RandomAccessFile(file, "r");
+            fileAccess.seek(position);
+        }
+        return fileAccess;
+    }
+}
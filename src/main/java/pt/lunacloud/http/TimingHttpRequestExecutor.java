@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import pt.lunacloud.util.AWSRequestMetrics;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Request executor that records the time spent sending each request, and
+ * waiting for its response headers, into the metrics of the request being
+ * executed on the current thread.
+ *
+ * @see RequestPhases
+ */
+class TimingHttpRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        AWSRequestMetrics metrics = RequestPhases.current();
+        if (metrics == null) return super.doSendRequest(request, conn, context);
+
+        metrics.startEvent(Field.RequestSendTime);
+        try {
+            return super.doSendRequest(request, conn, context);
+        } finally {
+            metrics.endEvent(Field.RequestSendTime);
+        }
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws HttpException, IOException {
+        AWSRequestMetrics metrics = RequestPhases.current();
+        if (metrics == null) return super.doReceiveResponse(request, conn, context);
+
+        metrics.startEvent(Field.TimeToFirstByte);
+        try {
+            return super.doReceiveResponse(request, conn, context);
+        } finally {
+            metrics.endEvent(Field.TimeToFirstByte);
+        }
+    }
+}
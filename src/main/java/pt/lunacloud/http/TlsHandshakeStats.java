@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the TLS handshakes made by a transport: how many negotiated a
+ * new session (full handshakes), how many resumed a cached one, how many
+ * failed, and how long they took.
+ *
+ * @see AmazonHttpClient#getTlsHandshakeStats()
+ * @see pt.lunacloud.ClientConfiguration#setTlsSessionCacheSize(int)
+ */
+public class TlsHandshakeStats {
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong fullHandshakeNanos = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakeNanos = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+
+    void recordFullHandshake(long nanos) {
+        fullHandshakes.incrementAndGet();
+        fullHandshakeNanos.addAndGet(nanos);
+    }
+
+    void recordResumedHandshake(long nanos) {
+        resumedHandshakes.incrementAndGet();
+        resumedHandshakeNanos.addAndGet(nanos);
+    }
+
+    void recordFailedHandshake() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    /** Returns the number of handshakes that negotiated a new session. */
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    /** Returns the number of handshakes that resumed a cached session. */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    /** Returns the number of handshakes that failed. */
+    public long getFailedHandshakeCount() {
+        return failedHandshakes.get();
+    }
+
+    /** Returns the total time (in milliseconds) spent in full handshakes. */
+    public long getFullHandshakeTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fullHandshakeNanos.get());
+    }
+
+    /** Returns the total time (in milliseconds) spent in resumed handshakes. */
+    public long getResumedHandshakeTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(resumedHandshakeNanos.get());
+    }
+
+    /** Returns the average time (in milliseconds) of a full handshake. */
+    public double getAverageFullHandshakeMillis() {
+        return average(fullHandshakeNanos.get(), fullHandshakes.get());
+    }
+
+    /** Returns the average time (in milliseconds) of a resumed handshake. */
+    public double getAverageResumedHandshakeMillis() {
+        return average(resumedHandshakeNanos.get(), resumedHandshakes.get());
+    }
+
+    /**
+     * Returns the share, in percent, of successful handshakes that resumed a
+     * cached session.
+     */
+    public double getResumptionRate() {
+        long resumed = resumedHandshakes.get();
+        long total = resumed + fullHandshakes.get();
+        return (total == 0) ? 0 : 100.0 * resumed / total;
+    }
+
+    private static double average(long nanos, long count) {
+        return (count == 0) ? 0 : nanos / (count * 1000000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "[full: " + getFullHandshakeCount() + "; resumed: " + getResumedHandshakeCount()
+            + "; failed: " + getFailedHandshakeCount() + "; average full: " + getAverageFullHandshakeMillis()
+            + "ms; average resumed: " + getAverageResumedHandshakeMillis() + "ms]";
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive-increase/multiplicative-decrease (AIMD) rate limiter.
+ * <p>
+ * The limiter does not restrict anything until the first throttling response
+ * is seen. At that point the allowed send rate is set to a fraction of the
+ * rate observed over the last second, and requests are spaced out evenly to
+ * honor it. Every further throttling response cuts the rate again (at most
+ * once per decrease interval, so that a whole wave of throttled requests only
+ * counts once), while successful responses let the rate grow back linearly.
+ */
+public class AdaptiveRateLimiter extends RateLimiter {
+
+    /** Default lowest send rate, in requests per second. */
+    public static final double DEFAULT_MIN_RATE = 0.5;
+
+    /** Default factor applied to the send rate on throttling. */
+    public static final double DEFAULT_DECREASE_FACTOR = 0.7;
+
+    /** Default growth of the send rate, in requests per second per second. */
+    public static final double DEFAULT_INCREASE_RATE = 2.0;
+
+    /** Default minimum time between two consecutive rate decreases. */
+    public static final long DEFAULT_DECREASE_INTERVAL_MILLIS = 500;
+
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double minRate;
+    private final double decreaseFactor;
+    private final double increaseRate;
+    private final long decreaseIntervalNanos;
+
+    /** True once a throttling response has been seen and the limiter is engaged. */
+    private boolean engaged;
+
+    /** The currently allowed send rate, in requests per second. */
+    private double rate;
+
+    /** The earliest time (System.nanoTime) at which the next request may be sent. */
+    private long nextPermitNanos;
+
+    private long lastDecreaseNanos;
+    private long lastIncreaseNanos;
+
+    /* Measurement of the actual send rate over one second windows. */
+    private long windowStartNanos = System.nanoTime();
+    private int windowCount;
+    private double measuredRate;
+
+    public AdaptiveRateLimiter() {
+        this(DEFAULT_MIN_RATE, DEFAULT_DECREASE_FACTOR, DEFAULT_INCREASE_RATE, DEFAULT_DECREASE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Constructs a new limiter.
+     *
+     * @param minRate
+     *            The lowest send rate, in requests per second, the limiter will
+     *            ever back off to.
+     * @param decreaseFactor
+     *            The factor (between 0 and 1) by which the send rate is
+     *            multiplied on throttling.
+     * @param increaseRate
+     *            How fast, in requests per second per second, the send rate
+     *            grows back while requests succeed.
+     * @param decreaseIntervalMillis
+     *            The minimum time between two consecutive rate decreases.
+     */
+    public AdaptiveRateLimiter(double minRate, double decreaseFactor, double increaseRate, long decreaseIntervalMillis) {
+        if (minRate <= 0) throw new IllegalArgumentException("Minimum rate must be positive");
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) throw new IllegalArgumentException("Decrease factor must be between 0 and 1");
+        if (increaseRate < 0) throw new IllegalArgumentException("Increase rate must not be negative");
+
+        this.minRate = minRate;
+        this.decreaseFactor = decreaseFactor;
+        this.increaseRate = increaseRate;
+        this.decreaseIntervalNanos = TimeUnit.MILLISECONDS.toNanos(decreaseIntervalMillis);
+    }
+
+    @Override
+    public synchronized long acquire() {
+        long now = System.nanoTime();
+        measure(now);
+
+        if (!engaged) return 0;
+
+        long sendAt = Math.max(nextPermitNanos, now);
+        nextPermitNanos = sendAt + (long) (ONE_SECOND_NANOS / rate);
+        return TimeUnit.NANOSECONDS.toMillis(sendAt - now);
+    }
+
+    @Override
+    public synchronized void onThrottle() {
+        long now = System.nanoTime();
+        if (engaged && now - lastDecreaseNanos < decreaseIntervalNanos) return;
+
+        double base = engaged ? rate : Math.max(measuredRate, currentWindowRate(now));
+        rate = Math.max(minRate, base * decreaseFactor);
+        engaged = true;
+        lastDecreaseNanos = now;
+        lastIncreaseNanos = now;
+    }
+
+    @Override
+    public synchronized void onSuccess() {
+        if (!engaged) return;
+
+        long now = System.nanoTime();
+        double elapsedSeconds = (double) (now - lastIncreaseNanos) / ONE_SECOND_NANOS;
+        lastIncreaseNanos = now;
+
+        /*
+         * Don't let the rate drift far above what callers actually send,
+         * otherwise a long quiet period would leave the limiter wide open
+         * for the next burst.
+         */
+        double ceiling = 2 * Math.max(measuredRate, currentWindowRate(now));
+        rate = Math.max(rate, Math.min(rate + increaseRate * elapsedSeconds, ceiling));
+    }
+
+    /**
+     * Returns the currently allowed send rate in requests per second, or a
+     * negative value if the limiter hasn't been engaged by a throttling
+     * response yet.
+     */
+    public synchronized double getRate() {
+        return engaged ? rate : -1;
+    }
+
+    private void measure(long now) {
+        windowCount++;
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= ONE_SECOND_NANOS) {
+            measuredRate = (double) windowCount * ONE_SECOND_NANOS / elapsed;
+            windowCount = 0;
+            windowStartNanos = now;
+        }
+    }
+
+    private double currentWindowRate(long now) {
+        long elapsed = Math.max(now - windowStartNanos, ONE_SECOND_NANOS / 10);
+        return (double) windowCount * ONE_SECOND_NANOS / elapsed;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DNS resolver that caches lookups for a fixed time to live, and spreads new
+ * connections across all of the addresses of a host, instead of letting every
+ * connection go to the first address returned by the system resolver.
+ * <p>
+ * Addresses are handed out either round-robin, or least-loaded first (the
+ * address with the fewest connections currently open through this resolver
+ * is tried first). An address that fails to accept a connection is moved to
+ * the back of the list for a while, so that other addresses are tried first;
+ * if every address has failed, they're all tried anyway.
+ */
+public class CachingDnsResolver extends DnsResolver {
+
+    /** How the addresses of a host are ordered for new connections. */
+    public enum Strategy {
+        /** Each new connection starts with the next address in turn. */
+        ROUND_ROBIN,
+        /** Each new connection starts with the address with the fewest open connections. */
+        LEAST_LOADED
+    }
+
+    /** Default time to live of cached lookups. */
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    /** Default time an address is avoided after a failed connect. */
+    public static final long DEFAULT_FAILURE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final long ttlNanos;
+    private final long failureTimeoutNanos;
+    private final Strategy strategy;
+
+    private final ConcurrentMap<String, CachedHost> cache = new ConcurrentHashMap<String, CachedHost>();
+
+    /** The number of connections open to each address, across hosts and lookups. */
+    private final ConcurrentMap<InetAddress, AtomicInteger> openConnections = new ConcurrentHashMap<InetAddress, AtomicInteger>();
+
+    /** The time (System.nanoTime) until which each failed address is avoided. */
+    private final ConcurrentMap<InetAddress, Long> failedAddresses = new ConcurrentHashMap<InetAddress, Long>();
+
+    public CachingDnsResolver() {
+        this(DEFAULT_TTL_MILLIS, Strategy.ROUND_ROBIN, DEFAULT_FAILURE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs a new resolver.
+     *
+     * @param ttlMillis
+     *            How long (in milliseconds) a lookup is cached before the
+     *            host name is resolved again.
+     * @param strategy
+     *            How the addresses of a host are ordered for new
+     *            connections.
+     * @param failureTimeoutMillis
+     *            How long (in milliseconds) an address that failed to accept
+     *            a connection is tried last.
+     */
+    public CachingDnsResolver(long ttlMillis, Strategy strategy, long failureTimeoutMillis) {
+        if (ttlMillis < 0) throw new IllegalArgumentException("TTL must not be negative");
+        if (strategy == null) throw new IllegalArgumentException("Strategy must not be null");
+        if (failureTimeoutMillis < 0) throw new IllegalArgumentException("Failure timeout must not be negative");
+
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.strategy = strategy;
+        this.failureTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(failureTimeoutMillis);
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        CachedHost cached = cache.get(host);
+        if (cached == null || now - cached.resolvedAt >= ttlNanos) {
+            cached = new CachedHost(lookup(host), now);
+            cache.put(host, cached);
+        }
+        return order(cached, now);
+    }
+
+    /**
+     * Looks up all of the addresses of the specified host. Subclasses can
+     * override this to use a resolver other than the system one.
+     */
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    @Override
+    public void onConnect(String host, InetAddress address) {
+        failedAddresses.remove(address);
+        AtomicInteger count = openConnections.get(address);
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = openConnections.putIfAbsent(address, newCount);
+            if (count == null) count = newCount;
+        }
+        count.incrementAndGet();
+    }
+
+    @Override
+    public void onConnectFailure(String host, InetAddress address) {
+        failedAddresses.put(address, System.nanoTime() + failureTimeoutNanos);
+    }
+
+    @Override
+    public void onClose(String host, InetAddress address) {
+        AtomicInteger count = openConnections.get(address);
+        if (count != null) count.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of connections currently open to the specified
+     * address through this resolver.
+     */
+    public int getOpenConnections(InetAddress address) {
+        AtomicInteger count = openConnections.get(address);
+        return (count == null) ? 0 : count.get();
+    }
+
+    /**
+     * Forgets the cached lookup of the specified host, so that it's resolved
+     * again for the next connection.
+     */
+    public void evict(String host) {
+        cache.remove(host);
+    }
+
+    private InetAddress[] order(CachedHost cached, long now) {
+        InetAddress[] addresses = cached.addresses;
+        int n = addresses.length;
+        int start;
+        if (strategy == Strategy.ROUND_ROBIN) {
+            start = (cached.next.getAndIncrement() & Integer.MAX_VALUE) % n;
+        } else {
+            start = 0;
+            int min = Integer.MAX_VALUE;
+            int offset = cached.next.getAndIncrement() & Integer.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                // Rotate the scan so that ties don't always go to the same address
+                int index = (offset + i) % n;
+                int open = getOpenConnections(addresses[index]);
+                if (open < min && !isFailed(addresses[index], now)) {
+                    min = open;
+                    start = index;
+                }
+            }
+        }
+
+        List<InetAddress> healthy = new ArrayList<InetAddress>(n);
+        List<InetAddress> failed = new ArrayList<InetAddress>();
+        for (int i = 0; i < n; i++) {
+            InetAddress address = addresses[(start + i) % n];
+            if (isFailed(address, now)) {
+                failed.add(address);
+            } else {
+                healthy.add(address);
+            }
+        }
+        healthy.addAll(failed);
+        return healthy.toArray(new InetAddress[n]);
+    }
+
+    private boolean isFailed(InetAddress address, long now) {
+        Long failedUntil = failedAddresses.get(address);
+        if (failedUntil == null) return false;
+        if (now - failedUntil < 0) return true;
+        failedAddresses.remove(address, failedUntil);
+        return false;
+    }
+
+    /** The result of a lookup and the round-robin position in it. */
+    private static final class CachedHost {
+        private final InetAddress[] addresses;
+        private final long resolvedAt;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private CachedHost(InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -15,5 +15,33 @@
 package pt.lunacloud.internal;
 
 public abstract class CustomBackoffStrategy {
+
+    /**
+     * The broad classes of retryable errors, so that strategies can back off
+     * differently depending on what went wrong with the previous attempt.
+     */
+    public static enum ErrorClass {
+        /** The request failed with an I/O error (ex: connection reset). */
+        IO,
+        /** The service returned a 5xx error response. */
+        SERVER_ERROR,
+        /** The service returned a throttling error. */
+        THROTTLING
+    }
+
     public abstract int getBackoffPeriod(int retryAttempts);
-}
\ No newline at end of file
+
+    /**
+     * Returns the time, in milliseconds, to wait before the specified retry
+     * attempt after an error of the specified class. By default the error
+     * class is ignored.
+     *
+     * @param retryAttempts
+     *            The number of the retry attempt about to be made.
+     * @param errorClass
+     *            The class of error that made the previous attempt fail.
+     */
+    public int getBackoffPeriod(int retryAttempts, ErrorClass errorClass) {
+        return getBackoffPeriod(retryAttempts);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import pt.lunacloud.util.RandomUtils;
+
+/**
+ * Waits a random time between the base delay and three times the previous
+ * delay, capped at the maximum delay. Each delay depends on the previous one
+ * rather than on the attempt number, which decorrelates retries further than
+ * the other jitter strategies.
+ * <p>
+ * The previous delay is tracked per thread, since all attempts of a request
+ * are made by the same thread; it's reset on the first retry of a request.
+ */
+public class DecorrelatedJitterBackoffStrategy extends JitterBackoffStrategy {
+
+    private final ThreadLocal<Integer> previousDelay = new ThreadLocal<Integer>();
+
+    public DecorrelatedJitterBackoffStrategy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public DecorrelatedJitterBackoffStrategy(int baseDelay, int maxDelay) {
+        super(baseDelay, maxDelay);
+    }
+
+    public int getBackoffPeriod(int retryAttempts) {
+        Integer previous = previousDelay.get();
+        if (retryAttempts <= 1 || previous == null) previous = baseDelay;
+
+        long upper = Math.min((long) maxDelay, 3L * previous);
+        int delay = baseDelay + (int) RandomUtils.nextLong(Math.max(upper - baseDelay, 0) + 1);
+        previousDelay.set(delay);
+        return delay;
+    }
+
+    public static final CustomBackoffStrategy DEFAULT = new DecorrelatedJitterBackoffStrategy();
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves the host names clients open connections to, and decides in which
+ * order the addresses of a host are tried.
+ * <p>
+ * The resolver is told about every connection opened to an address, every
+ * failed attempt to connect to one, and every connection closed, so that it
+ * can spread new connections over the addresses of a host and stop handing
+ * out addresses that don't accept connections.
+ * <p>
+ * Implementations must be safe for use by multiple threads.
+ */
+public abstract class DnsResolver {
+
+    /**
+     * Returns the addresses of the specified host, in the order connecting to
+     * them should be attempted.
+     *
+     * @param host
+     *            The host name to resolve.
+     *
+     * @return The addresses of the host, in the order to try them.
+     *
+     * @throws UnknownHostException
+     *             If the host name can't be resolved.
+     */
+    public abstract InetAddress[] resolve(String host) throws UnknownHostException;
+
+    /**
+     * Notifies this resolver that a connection to the specified address of the
+     * specified host was opened.
+     */
+    public void onConnect(String host, InetAddress address) {}
+
+    /**
+     * Notifies this resolver that connecting to the specified address of the
+     * specified host failed or timed out.
+     */
+    public void onConnectFailure(String host, InetAddress address) {}
+
+    /**
+     * Notifies this resolver that a connection previously opened to the
+     * specified address of the specified host was closed.
+     */
+    public void onClose(String host, InetAddress address) {}
+}
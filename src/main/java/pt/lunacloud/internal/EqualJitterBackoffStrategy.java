@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import pt.lunacloud.util.RandomUtils;
+
+/**
+ * Waits half of the exponential delay ceiling for the retry attempt, plus a
+ * random time up to the other half. Unlike full jitter, this never retries
+ * sooner than half the plain exponential delay.
+ */
+public class EqualJitterBackoffStrategy extends JitterBackoffStrategy {
+
+    public EqualJitterBackoffStrategy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public EqualJitterBackoffStrategy(int baseDelay, int maxDelay) {
+        super(baseDelay, maxDelay);
+    }
+
+    public int getBackoffPeriod(int retryAttempts) {
+        int ceiling = exponentialCeiling(retryAttempts);
+        int half = ceiling / 2;
+        return half + (int) RandomUtils.nextLong(ceiling - half + 1L);
+    }
+
+    public static final CustomBackoffStrategy DEFAULT = new EqualJitterBackoffStrategy();
+}
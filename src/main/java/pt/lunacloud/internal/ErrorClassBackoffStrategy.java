@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Backoff strategy that delegates to a different strategy for each class of
+ * error, ex: short full-jitter delays after I/O errors, but longer
+ * decorrelated-jitter delays after throttling.
+ * <p>
+ * Error classes without a specific strategy use the default strategy.
+ */
+public class ErrorClassBackoffStrategy extends CustomBackoffStrategy {
+
+    private final CustomBackoffStrategy defaultStrategy;
+    private final Map<ErrorClass, CustomBackoffStrategy> strategies =
+        new EnumMap<ErrorClass, CustomBackoffStrategy>(ErrorClass.class);
+
+    /**
+     * Constructs a new strategy that uses the specified strategy for any error
+     * class without a more specific one.
+     *
+     * @param defaultStrategy
+     *            The strategy to use when none has been set for an error
+     *            class.
+     */
+    public ErrorClassBackoffStrategy(CustomBackoffStrategy defaultStrategy) {
+        if (defaultStrategy == null) throw new IllegalArgumentException("Default backoff strategy must be specified");
+        this.defaultStrategy = defaultStrategy;
+    }
+
+    /**
+     * Sets the strategy to use after errors of the specified class, and
+     * returns this object so that additional calls may be chained together.
+     */
+    public ErrorClassBackoffStrategy withStrategy(ErrorClass errorClass, CustomBackoffStrategy strategy) {
+        strategies.put(errorClass, strategy);
+        return this;
+    }
+
+    /**
+     * Returns the strategy used after errors of the specified class.
+     */
+    public CustomBackoffStrategy getStrategy(ErrorClass errorClass) {
+        CustomBackoffStrategy strategy = (errorClass == null) ? null : strategies.get(errorClass);
+        return (strategy == null) ? defaultStrategy : strategy;
+    }
+
+    public int getBackoffPeriod(int retryAttempts) {
+        return defaultStrategy.getBackoffPeriod(retryAttempts);
+    }
+
+    @Override
+    public int getBackoffPeriod(int retryAttempts, ErrorClass errorClass) {
+        return getStrategy(errorClass).getBackoffPeriod(retryAttempts, errorClass);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+import pt.lunacloud.util.RandomUtils;
+
+/**
+ * Waits a random time between zero and the exponential delay ceiling for the
+ * retry attempt. This spreads retries out the most, at the cost of sometimes
+ * retrying almost immediately.
+ */
+public class FullJitterBackoffStrategy extends JitterBackoffStrategy {
+
+    public FullJitterBackoffStrategy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public FullJitterBackoffStrategy(int baseDelay, int maxDelay) {
+        super(baseDelay, maxDelay);
+    }
+
+    public int getBackoffPeriod(int retryAttempts) {
+        return (int) RandomUtils.nextLong(exponentialCeiling(retryAttempts) + 1L);
+    }
+
+    public static final CustomBackoffStrategy DEFAULT = new FullJitterBackoffStrategy();
+}
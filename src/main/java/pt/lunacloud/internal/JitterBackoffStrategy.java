@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+/**
+ * Base class for exponential backoff strategies that randomize ("jitter") the
+ * delay between retries, so that requests failing together (ex: from many
+ * threads hitting the same overloaded server) don't all retry together.
+ * <p>
+ * Random numbers are drawn from a per-thread generator, so many threads can
+ * back off at the same time without contending on a shared one.
+ */
+public abstract class JitterBackoffStrategy extends CustomBackoffStrategy {
+
+    /** Default base delay, in milliseconds, of the exponential backoff. */
+    public static final int DEFAULT_BASE_DELAY = 300;
+
+    /** Default maximum delay, in milliseconds, between two attempts. */
+    public static final int DEFAULT_MAX_DELAY = 20 * 1000;
+
+    protected final int baseDelay;
+    protected final int maxDelay;
+
+    protected JitterBackoffStrategy(int baseDelay, int maxDelay) {
+        if (baseDelay <= 0) throw new IllegalArgumentException("Base delay must be positive");
+        if (maxDelay < baseDelay) throw new IllegalArgumentException("Max delay must not be less than base delay");
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Returns the exponential delay ceiling for the specified retry attempt,
+     * i.e. <code>min(maxDelay, baseDelay * 2^retryAttempts)</code>.
+     */
+    protected int exponentialCeiling(int retryAttempts) {
+        if (retryAttempts <= 0) return baseDelay;
+        if (retryAttempts >= 30) return maxDelay;
+        return (int) Math.min((long) maxDelay, (long) baseDelay << retryAttempts);
+    }
+}
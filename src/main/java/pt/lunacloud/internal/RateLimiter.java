@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.internal;
+
+/**
+ * Client-wide limiter on the rate at which requests are sent. Unlike a
+ * {@link CustomBackoffStrategy}, which only delays the retry of the request
+ * that failed, a rate limiter is consulted before every attempt made by every
+ * thread sharing it, and is told about throttling and successful responses so
+ * that it can adapt the allowed send rate.
+ * <p>
+ * Implementations must be safe for use by multiple threads.
+ */
+public abstract class RateLimiter {
+
+    /**
+     * Reserves permission to send one request and returns how long (in
+     * milliseconds) the caller must wait before sending it. The reservation is
+     * made immediately, so callers are expected to honor the returned delay.
+     *
+     * @return The number of milliseconds to wait before sending the request,
+     *         or zero if the request can be sent right away.
+     */
+    public abstract long acquire();
+
+    /**
+     * Notifies this limiter that the service rejected a request because the
+     * client is sending too fast (ex: a throttling error or a 503 response).
+     */
+    public abstract void onThrottle();
+
+    /**
+     * Notifies this limiter that a request completed without being throttled.
+     */
+    public abstract void onSuccess();
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics collector that aggregates request metrics in memory, per
+ * operation, so that latency percentiles and error rates can be read (or
+ * exported) by the application at any time.
+ * <p>
+ * Aggregation is lock-free; the collector can be shared by any number of
+ * clients.
+ */
+public class AggregatingMetricsCollector extends MetricsCollector {
+
+    private final ConcurrentMap<String, OperationMetrics> operations =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    @Override
+    public void collectRequestMetrics(RequestMetricsEvent event) {
+        getOrCreate(event.getOperationName()).add(event);
+    }
+
+    /**
+     * Returns the metrics of the specified operation, or null if no request
+     * was made for it.
+     *
+     * @param operationName
+     *            The name of the operation (ex: "PutObject").
+     */
+    public OperationMetrics getOperationMetrics(String operationName) {
+        return operations.get(operationName);
+    }
+
+    /** Returns the metrics of every operation a request was made for, by operation name. */
+    public Map<String, OperationMetrics> getAllOperationMetrics() {
+        return Collections.unmodifiableMap(operations);
+    }
+
+    /** Forgets the metrics of all operations. */
+    public void reset() {
+        operations.clear();
+    }
+
+    private OperationMetrics getOrCreate(String operationName) {
+        OperationMetrics metrics = operations.get(operationName);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics(operationName);
+            metrics = operations.putIfAbsent(operationName, newMetrics);
+            if (metrics == null) metrics = newMetrics;
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies, with a relative error of at most 1/16
+ * (6.25%) on the reported percentiles.
+ * <p>
+ * Latencies are recorded in microseconds into log-linear buckets: each power
+ * of two is split into 16 equally sized buckets, which covers one microsecond
+ * to about a day in 544 counters. Recording a latency is a couple of atomic
+ * increments, so histograms can be updated from any number of threads without
+ * contention on a lock.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Latencies above 2^36 microseconds (about 19 hours) go in the last bucket. */
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong minMicros = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param latencyNanos
+     *            The latency in nanoseconds.
+     */
+    public void record(long latencyNanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+
+        long min;
+        while (micros < (min = minMicros.get()) && !minMicros.compareAndSet(min, micros)) {}
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {}
+    }
+
+    /** Returns the number of latencies recorded. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Returns the smallest latency recorded, in nanoseconds, or 0 if none. */
+    public long getMinNanos() {
+        long min = minMicros.get();
+        return (min == Long.MAX_VALUE) ? 0 : TimeUnit.MICROSECONDS.toNanos(min);
+    }
+
+    /** Returns the largest latency recorded, in nanoseconds, or 0 if none. */
+    public long getMaxNanos() {
+        return TimeUnit.MICROSECONDS.toNanos(maxMicros.get());
+    }
+
+    /** Returns the mean of the latencies recorded, in nanoseconds, or 0 if none. */
+    public long getMeanNanos() {
+        long n = count.get();
+        return (n == 0) ? 0 : TimeUnit.MICROSECONDS.toNanos(totalMicros.get() / n);
+    }
+
+    /**
+     * Returns the specified percentile of the latencies recorded, in
+     * nanoseconds, or 0 if none were recorded. The value returned is the upper
+     * bound of the bucket the percentile falls in, capped to the largest
+     * latency recorded.
+     *
+     * @param percentile
+     *            The percentile, between 0 and 100 (ex: 99.9).
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        // Sum the buckets first, as counts may be updated while we're reading
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return TimeUnit.MICROSECONDS.toNanos(Math.min(upperBoundOf(i), maxMicros.get()));
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /** Clears all recorded latencies. Latencies recorded concurrently may be lost. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        totalMicros.set(0);
+        minMicros.set(Long.MAX_VALUE);
+        maxMicros.set(0);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "{Count: " + getCount()
+                + ", p50: " + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50)) + "us"
+                + ", p99: " + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99)) + "us"
+                + ", Max: " + TimeUnit.NANOSECONDS.toMicros(getMaxNanos()) + "us}";
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+/**
+ * Receives the metrics of every request executed by the clients it's
+ * configured on (see
+ * {@link pt.lunacloud.ClientConfiguration#setMetricsCollector(MetricsCollector)}).
+ * <p>
+ * Collectors are called on the thread that executed the request, once the
+ * request (including its retries) completed or failed, so they should return
+ * quickly and never block. Exceptions thrown by a collector are logged and
+ * otherwise ignored.
+ * <p>
+ * Implementations must be safe for use by multiple threads.
+ */
+public abstract class MetricsCollector {
+
+    /**
+     * Collects the metrics of one completed or failed request.
+     *
+     * @param event
+     *            The metrics of the request.
+     */
+    public abstract void collectRequestMetrics(RequestMetricsEvent event);
+
+    /**
+     * Collects the time taken to transfer the body of a streamed response
+     * (ex: object contents). The caller reads such a body after the request
+     * completed, so after {@link #collectRequestMetrics(RequestMetricsEvent)}
+     * was called for the request, whose event doesn't include it; neither
+     * does the timing info handed to request handlers.
+     * <p>
+     * Called once the body was read to its end or closed, on the thread that
+     * did so. Does nothing by default.
+     *
+     * @param event
+     *            The metrics of the request, as collected when it completed.
+     * @param transferTimeNanos
+     *            The time, in nanoseconds, from the response headers being
+     *            received until the body was read to its end or closed.
+     */
+    public void collectResponseBodyMetrics(RequestMetricsEvent event, long transferTimeNanos) {
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Aggregated metrics of all the requests made for one operation: request,
+ * error and retry counts, bytes transferred, and histograms of the total
+ * latency and of the time spent sending the HTTP request.
+ */
+public class OperationMetrics {
+
+    private final String operationName;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram httpRequestLatency = new LatencyHistogram();
+
+    public OperationMetrics(String operationName) {
+        this.operationName = operationName;
+    }
+
+    /** Adds the metrics of one request to this operation's. */
+    void add(RequestMetricsEvent event) {
+        requestCount.incrementAndGet();
+        if (!event.isSuccessful()) errorCount.incrementAndGet();
+        if (event.getAttemptCount() > 1) retryCount.addAndGet(event.getAttemptCount() - 1);
+        if (event.getBytesSent() > 0) bytesSent.addAndGet(event.getBytesSent());
+        if (event.getBytesReceived() > 0) bytesReceived.addAndGet(event.getBytesReceived());
+        latency.record(event.getClientExecuteTimeNanos());
+        httpRequestLatency.record(event.getTimeNanos(Field.HttpRequestTime));
+    }
+
+    /** Returns the name of the operation (ex: "PutObject"). */
+    public String getOperationName() {
+        return operationName;
+    }
+
+    /** Returns the number of requests made. */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /** Returns the number of requests that failed. */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /** Returns the number of retries made, over all requests. */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /** Returns the number of bytes of request content sent. */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Returns the number of bytes of response content received, where known. */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /** Returns the histogram of the total latency of requests, including retries. */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /** Returns the histogram of the time spent sending HTTP requests and receiving responses. */
+    public LatencyHistogram getHttpRequestLatency() {
+        return httpRequestLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "{Operation: " + operationName + ", Requests: " + getRequestCount() + ", Errors: " + getErrorCount()
+                + ", Retries: " + getRetryCount() + ", Latency: " + latency + "}";
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events and measures their rate as an exponentially weighted moving
+ * average over the last minute, the same way the Unix load average is
+ * computed. Thread safe and lock free; the average is updated lazily, every
+ * five seconds, by the first thread marking or reading the meter.
+ */
+public class RateMeter {
+
+    private static final long TICK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final double TICK_INTERVAL_SECONDS = 5.0;
+
+    /** Weight of the latest interval in the one minute average. */
+    private static final double ALPHA = 1 - Math.exp(-TICK_INTERVAL_SECONDS / 60);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong uncounted = new AtomicLong();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+
+    /* Only updated by the thread winning the race to tick. */
+    private volatile double rate;
+    private volatile boolean initialized;
+
+    /** Records an event. */
+    public void mark() {
+        mark(1);
+    }
+
+    /** Records the specified number of events (ex: bytes). */
+    public void mark(long n) {
+        tickIfNecessary();
+        count.addAndGet(n);
+        uncounted.addAndGet(n);
+    }
+
+    /** Returns the number of events recorded since this meter was created. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Returns the rate of events per second, averaged over the last minute. */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long age = System.nanoTime() - oldTick;
+        if (age < TICK_INTERVAL_NANOS) return;
+
+        long ticks = age / TICK_INTERVAL_NANOS;
+        if (!lastTick.compareAndSet(oldTick, oldTick + ticks * TICK_INTERVAL_NANOS)) return;
+
+        // The events counted so far happened during the first elapsed
+        // interval, and none during the others
+        double instantRate = uncounted.getAndSet(0) / TICK_INTERVAL_SECONDS;
+        double newRate = initialized ? rate + ALPHA * (instantRate - rate) : instantRate;
+        if (ticks > 1) newRate *= Math.pow(1 - ALPHA, ticks - 1);
+        rate = newRate;
+        initialized = true;
+    }
+
+    @Override
+    public String toString() {
+        return "[count: " + getCount() + "; rate: " + getOneMinuteRate() + "/s]";
+    }
+}
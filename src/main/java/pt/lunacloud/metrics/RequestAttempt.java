@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One attempt at executing a request: how it ended, how long it took and
+ * whether it had to open a new connection.
+ *
+ * @see RequestMetricsEvent#getAttempts()
+ */
+public class RequestAttempt {
+
+    private final int attemptNumber;
+    private final int statusCode;
+    private final String error;
+    private final long timeNanos;
+    private final boolean newConnection;
+
+    /**
+     * Constructs a new attempt.
+     *
+     * @param attemptNumber
+     *            The number of the attempt, starting at 1.
+     * @param statusCode
+     *            The HTTP status code of the response, or -1 if no response
+     *            was received.
+     * @param error
+     *            The error code returned by the service, or the description
+     *            of the exception the attempt failed with, or null if it
+     *            succeeded.
+     * @param timeNanos
+     *            The time (in nanoseconds) taken by the attempt, including
+     *            any back-off pause before it.
+     * @param newConnection
+     *            True if a new connection was opened for the attempt, false
+     *            if a pooled connection was reused.
+     */
+    public RequestAttempt(int attemptNumber, int statusCode, String error, long timeNanos, boolean newConnection) {
+        this.attemptNumber = attemptNumber;
+        this.statusCode = statusCode;
+        this.error = error;
+        this.timeNanos = timeNanos;
+        this.newConnection = newConnection;
+    }
+
+    /** Returns the number of the attempt, starting at 1. */
+    public int getAttemptNumber() {
+        return attemptNumber;
+    }
+
+    /** Returns the HTTP status code of the response, or -1 if no response was received. */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the error code returned by the service, or the description of
+     * the exception the attempt failed with, or null if it succeeded.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /** Returns the time (in nanoseconds) taken by the attempt, including any back-off pause before it. */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /** Returns true if a new connection was opened for the attempt, false if a pooled one was reused. */
+    public boolean isNewConnection() {
+        return newConnection;
+    }
+
+    @Override
+    public String toString() {
+        return "{attempt: " + attemptNumber + "; status: " + statusCode
+            + (error == null ? "" : "; error: " + error)
+            + "; time: " + TimeUnit.NANOSECONDS.toMicros(timeNanos) / 1000.0 + "ms"
+            + "; connection: " + (newConnection ? "new" : "reused") + "}";
+    }
+}
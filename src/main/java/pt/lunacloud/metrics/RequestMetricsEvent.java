@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import pt.lunacloud.LunacloudClientException;
+import pt.lunacloud.LunacloudServiceException;
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * The metrics of one request executed by a client: what was requested, how
+ * it ended, how many attempts it took, how long each step took and how many
+ * bytes were transferred.
+ */
+public class RequestMetricsEvent {
+
+    private final String operationName;
+    private final String serviceName;
+    private final URI endpoint;
+    private final String bucketName;
+    private final int statusCode;
+    private final String requestId;
+    private final LunacloudClientException exception;
+    private final int attemptCount;
+    private final long clientExecuteTimeNanos;
+    private final long[] fieldTimesNanos;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final List<RequestAttempt> attempts;
+
+    /**
+     * Constructs a new event.
+     *
+     * @param operationName
+     *            The name of the operation (ex: "PutObject").
+     * @param serviceName
+     *            The name of the service the request was sent to.
+     * @param endpoint
+     *            The endpoint the request was sent to.
+     * @param bucketName
+     *            The bucket the request was for, or null if none.
+     * @param statusCode
+     *            The HTTP status code of the last response, or -1 if no
+     *            response was received.
+     * @param requestId
+     *            The request ID of the last response, or null if unknown.
+     * @param exception
+     *            The exception the request failed with, or null if it
+     *            succeeded.
+     * @param attemptCount
+     *            The number of attempts made, including the first one.
+     * @param clientExecuteTimeNanos
+     *            The total time (in nanoseconds) taken by the request,
+     *            including retries.
+     * @param fieldTimesNanos
+     *            The time (in nanoseconds) spent on each of the timed
+     *            {@link Field}s, indexed by their ordinal.
+     * @param bytesSent
+     *            The number of bytes of request content sent, or -1 if
+     *            unknown.
+     * @param bytesReceived
+     *            The number of bytes of response content received, or -1 if
+     *            unknown.
+     */
+    public RequestMetricsEvent(String operationName, String serviceName, URI endpoint, String bucketName,
+            int statusCode, String requestId, LunacloudClientException exception, int attemptCount,
+            long clientExecuteTimeNanos, long[] fieldTimesNanos, long bytesSent, long bytesReceived) {
+        this(operationName, serviceName, endpoint, bucketName, statusCode, requestId, exception, attemptCount,
+                clientExecuteTimeNanos, fieldTimesNanos, bytesSent, bytesReceived, null);
+    }
+
+    /**
+     * Constructs a new event with the history of its attempts.
+     *
+     * @param attempts
+     *            The attempts made, in order, or null if unknown.
+     *
+     * @see #RequestMetricsEvent(String, String, URI, String, int, String,
+     *      LunacloudClientException, int, long, long[], long, long)
+     */
+    public RequestMetricsEvent(String operationName, String serviceName, URI endpoint, String bucketName,
+            int statusCode, String requestId, LunacloudClientException exception, int attemptCount,
+            long clientExecuteTimeNanos, long[] fieldTimesNanos, long bytesSent, long bytesReceived,
+            List<RequestAttempt> attempts) {
+        this.operationName = operationName;
+        this.serviceName = serviceName;
+        this.endpoint = endpoint;
+        this.bucketName = bucketName;
+        this.statusCode = statusCode;
+        this.requestId = requestId;
+        this.exception = exception;
+        this.attemptCount = attemptCount;
+        this.clientExecuteTimeNanos = clientExecuteTimeNanos;
+        this.fieldTimesNanos = fieldTimesNanos;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.attempts = (attempts == null) ? Collections.<RequestAttempt>emptyList()
+                : Collections.unmodifiableList(attempts);
+    }
+
+    /** Returns the name of the operation (ex: "PutObject"). */
+    public String getOperationName() {
+        return operationName;
+    }
+
+    /** Returns the name of the service the request was sent to. */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /** Returns the endpoint the request was sent to. */
+    public URI getEndpoint() {
+        return endpoint;
+    }
+
+    /** Returns the bucket the request was for, or null if none. */
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    /**
+     * Returns the HTTP status code of the last response, or -1 if no response
+     * was received.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /** Returns the request ID of the last response, or null if unknown. */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /** Returns true if the request completed successfully. */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /** Returns the exception the request failed with, or null if it succeeded. */
+    public LunacloudClientException getException() {
+        return exception;
+    }
+
+    /**
+     * Returns the error code returned by the service, or null if the request
+     * succeeded or failed in the client.
+     */
+    public String getErrorCode() {
+        if (exception instanceof LunacloudServiceException) {
+            return ((LunacloudServiceException) exception).getErrorCode();
+        }
+        return null;
+    }
+
+    /** Returns the number of attempts made, including the first one. */
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    /** Returns the total time (in nanoseconds) taken by the request, including retries. */
+    public long getClientExecuteTimeNanos() {
+        return clientExecuteTimeNanos;
+    }
+
+    /**
+     * Returns the time (in nanoseconds) spent on the specified step of the
+     * request (ex: {@link Field#RequestSigningTime},
+     * {@link Field#HttpRequestTime} or {@link Field#ResponseProcessingTime}),
+     * summed over all attempts, or 0 if the step wasn't timed.
+     */
+    public long getTimeNanos(Field field) {
+        if (field == Field.ClientExecuteTime) return clientExecuteTimeNanos;
+        return (fieldTimesNanos == null) ? 0 : fieldTimesNanos[field.ordinal()];
+    }
+
+    /** Returns the number of bytes of request content sent, or -1 if unknown. */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the number of bytes of response content received, or -1 if
+     * unknown (ex: object contents, which are read after the request
+     * completes).
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the attempts made, in order: how each ended, how long it took
+     * and whether it reused a pooled connection. Empty if unknown.
+     */
+    public List<RequestAttempt> getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "{Operation: " + operationName + ", Bucket: " + bucketName + ", Status Code: " + statusCode
+                + ", Attempts: " + attemptCount + ", Time: " + (clientExecuteTimeNanos / 1000) + "us}";
+    }
+}
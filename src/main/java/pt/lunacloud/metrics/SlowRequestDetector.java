@@ -0,0 +1,338 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import pt.lunacloud.util.AWSRequestMetrics.Field;
+
+/**
+ * Detects slow requests and logs one record per slow request with its
+ * request ID, endpoint, phase timings, attempt history, bytes transferred and
+ * whether each attempt reused a pooled connection (see
+ * {@link pt.lunacloud.ClientConfiguration#setSlowRequestDetector(SlowRequestDetector)}).
+ * <p>
+ * A request is slow if it took longer than, in order of precedence:
+ * <ul>
+ * <li>the threshold set for its operation,
+ * <li>the configured percentile of the latencies of its operation, once
+ * enough requests were made for it,
+ * <li>the default threshold.
+ * </ul>
+ * The phase timings of every request are recorded while it runs, since
+ * whether it's slow is only known once it completes. Past that, requests
+ * that aren't recorded only cost a comparison (and recording their latency
+ * when a percentile is configured): clients check them with
+ * {@link #checkRequest(String, long)} before building their event and
+ * attempt history. Records are only built for a sample of the slow requests,
+ * one of every {@link #setSampleInterval(int)}, so that an outage doesn't
+ * flood the logs.
+ * <p>
+ * Records are logged as warnings to the
+ * <code>pt.lunacloud.metrics.SlowRequestDetector</code> log; subclasses can
+ * override {@link #onSlowRequest(RequestMetricsEvent, long)} to send them
+ * elsewhere. A detector can be shared by many clients.
+ */
+public class SlowRequestDetector extends MetricsCollector {
+
+    /** The default minimum number of requests before a percentile threshold applies. */
+    public static final int DEFAULT_MINIMUM_SAMPLES = 100;
+
+    /** The number of requests between two updates of a percentile threshold. */
+    private static final int PERCENTILE_UPDATE_INTERVAL = 100;
+
+    private static final Log log = LogFactory.getLog(SlowRequestDetector.class);
+
+    private final ConcurrentMap<String, Long> operationThresholdsNanos = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, PercentileThreshold> percentileThresholds =
+            new ConcurrentHashMap<String, PercentileThreshold>();
+
+    private volatile long defaultThresholdNanos = -1;
+    private volatile double percentile = -1;
+    private volatile int minimumSamples = DEFAULT_MINIMUM_SAMPLES;
+    private volatile int sampleInterval = 1;
+
+    private final AtomicLong slowRequestCount = new AtomicLong();
+    private final AtomicLong capturedCount = new AtomicLong();
+
+    /**
+     * Sets the time above which requests are slow, unless a threshold was
+     * set for their operation, or a percentile applies.
+     *
+     * @param thresholdMillis
+     *            The threshold in milliseconds, or a negative value for none.
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        this.defaultThresholdNanos = (thresholdMillis < 0) ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Sets the time above which requests are slow, and returns this detector
+     * so that additional method calls may be chained together.
+     *
+     * @see #setThresholdMillis(long)
+     */
+    public SlowRequestDetector withThresholdMillis(long thresholdMillis) {
+        setThresholdMillis(thresholdMillis);
+        return this;
+    }
+
+    /**
+     * Sets the time above which requests for the specified operation are
+     * slow, which takes precedence over the percentile and default threshold.
+     *
+     * @param operationName
+     *            The name of the operation (ex: "PutObject").
+     * @param thresholdMillis
+     *            The threshold in milliseconds, or a negative value to remove
+     *            the operation's threshold.
+     */
+    public void setThresholdMillis(String operationName, long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            operationThresholdsNanos.remove(operationName);
+        } else {
+            operationThresholdsNanos.put(operationName, TimeUnit.MILLISECONDS.toNanos(thresholdMillis));
+        }
+    }
+
+    /**
+     * Sets the time above which requests for the specified operation are
+     * slow, and returns this detector so that additional method calls may be
+     * chained together.
+     *
+     * @see #setThresholdMillis(String, long)
+     */
+    public SlowRequestDetector withThresholdMillis(String operationName, long thresholdMillis) {
+        setThresholdMillis(operationName, thresholdMillis);
+        return this;
+    }
+
+    /**
+     * Sets the percentile of the latencies of each operation above which its
+     * requests are slow (ex: 99.9), once at least
+     * {@link #setMinimumSamples(int)} requests were made for the operation.
+     * The percentile is updated every 100 requests.
+     *
+     * @param percentile
+     *            The percentile, between 0 and 100, or a negative value to
+     *            only use fixed thresholds.
+     */
+    public void setPercentile(double percentile) {
+        if (percentile > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        this.percentile = percentile;
+        percentileThresholds.clear();
+    }
+
+    /**
+     * Sets the percentile of the latencies above which requests are slow, and
+     * returns this detector so that additional method calls may be chained
+     * together.
+     *
+     * @see #setPercentile(double)
+     */
+    public SlowRequestDetector withPercentile(double percentile) {
+        setPercentile(percentile);
+        return this;
+    }
+
+    /**
+     * Sets the number of requests that must be made for an operation before
+     * its percentile threshold applies. Defaults to 100.
+     */
+    public void setMinimumSamples(int minimumSamples) {
+        if (minimumSamples < 1) throw new IllegalArgumentException("Minimum samples must be positive");
+        this.minimumSamples = minimumSamples;
+    }
+
+    /**
+     * Sets the number of requests that must be made for an operation before
+     * its percentile threshold applies, and returns this detector so that
+     * additional method calls may be chained together.
+     */
+    public SlowRequestDetector withMinimumSamples(int minimumSamples) {
+        setMinimumSamples(minimumSamples);
+        return this;
+    }
+
+    /**
+     * Sets how many slow requests are detected for each one recorded: 1 to
+     * record every slow request, 10 to record one of every ten. Defaults to 1.
+     */
+    public void setSampleInterval(int sampleInterval) {
+        if (sampleInterval < 1) throw new IllegalArgumentException("Sample interval must be positive");
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Sets how many slow requests are detected for each one recorded, and
+     * returns this detector so that additional method calls may be chained
+     * together.
+     */
+    public SlowRequestDetector withSampleInterval(int sampleInterval) {
+        setSampleInterval(sampleInterval);
+        return this;
+    }
+
+    /** Returns the number of slow requests detected. */
+    public long getSlowRequestCount() {
+        return slowRequestCount.get();
+    }
+
+    /** Returns the number of slow requests recorded, after sampling. */
+    public long getRecordedCount() {
+        return capturedCount.get();
+    }
+
+    @Override
+    public void collectRequestMetrics(RequestMetricsEvent event) {
+        long thresholdNanos = checkRequest(event.getOperationName(), event.getClientExecuteTimeNanos());
+        if (thresholdNanos >= 0) recordSlowRequest(event, thresholdNanos);
+    }
+
+    /**
+     * Checks whether the specified request is slow, and records its latency
+     * for its operation's percentile. Clients call this before building the
+     * request's event, which is only needed if the request is recorded.
+     *
+     * @param operationName
+     *            The name of the request's operation (ex: "PutObject").
+     * @param timeNanos
+     *            The time taken by the request, including retries.
+     *
+     * @return The threshold the request exceeded, if it's slow and sampled
+     *         to be recorded, or -1 otherwise.
+     */
+    public long checkRequest(String operationName, long timeNanos) {
+        long thresholdNanos = getThresholdNanos(operationName, timeNanos);
+        if (thresholdNanos < 0 || timeNanos <= thresholdNanos) return -1;
+
+        long count = slowRequestCount.incrementAndGet();
+        if ((count - 1) % sampleInterval != 0) return -1;
+        return thresholdNanos;
+    }
+
+    /**
+     * Records a slow request that {@link #checkRequest(String, long)} sampled.
+     *
+     * @param event
+     *            The metrics of the slow request.
+     * @param thresholdNanos
+     *            The threshold returned by {@link #checkRequest(String, long)}.
+     */
+    public void recordSlowRequest(RequestMetricsEvent event, long thresholdNanos) {
+        capturedCount.incrementAndGet();
+        onSlowRequest(event, thresholdNanos);
+    }
+
+    /**
+     * Returns the threshold applying to the specified operation, or -1 if
+     * none, and records the latency of the request for its percentile.
+     */
+    private long getThresholdNanos(String operationName, long timeNanos) {
+        Long operationThreshold = operationThresholdsNanos.get(operationName);
+        if (operationThreshold != null) return operationThreshold;
+
+        if (percentile >= 0) {
+            PercentileThreshold threshold = percentileThresholds.get(operationName);
+            if (threshold == null) {
+                PercentileThreshold newThreshold = new PercentileThreshold();
+                threshold = percentileThresholds.putIfAbsent(operationName, newThreshold);
+                if (threshold == null) threshold = newThreshold;
+            }
+            long thresholdNanos = threshold.getThresholdNanos();
+            threshold.record(timeNanos, percentile, minimumSamples);
+            if (thresholdNanos >= 0) return thresholdNanos;
+        }
+        return defaultThresholdNanos;
+    }
+
+    /**
+     * Called with a sample of the slow requests detected; logs a record of
+     * the request as a warning.
+     *
+     * @param event
+     *            The metrics of the slow request.
+     * @param thresholdNanos
+     *            The threshold (in nanoseconds) the request exceeded.
+     */
+    protected void onSlowRequest(RequestMetricsEvent event, long thresholdNanos) {
+        if (log.isWarnEnabled()) log.warn(formatRecord(event, thresholdNanos));
+    }
+
+    /**
+     * Formats a record of the specified slow request, as comma separated
+     * key=value pairs.
+     */
+    protected String formatRecord(RequestMetricsEvent event, long thresholdNanos) {
+        StringBuilder builder = new StringBuilder("Slow request: ");
+        builder.append("Operation=").append(event.getOperationName());
+        builder.append(", TimeMillis=").append(toMillis(event.getClientExecuteTimeNanos()));
+        builder.append(", ThresholdMillis=").append(toMillis(thresholdNanos));
+        builder.append(", RequestId=").append(event.getRequestId());
+        builder.append(", Endpoint=").append(event.getEndpoint());
+        if (event.getBucketName() != null) builder.append(", Bucket=").append(event.getBucketName());
+        builder.append(", StatusCode=").append(event.getStatusCode());
+        if (!event.isSuccessful()) {
+            String errorCode = event.getErrorCode();
+            builder.append(", Error=").append(errorCode != null ? errorCode : event.getException().toString());
+        }
+        builder.append(", AttemptCount=").append(event.getAttemptCount());
+        builder.append(", BytesSent=").append(event.getBytesSent());
+        builder.append(", BytesReceived=").append(event.getBytesReceived());
+
+        builder.append(", Phases={");
+        boolean first = true;
+        for (Field field : Field.values()) {
+            long fieldTimeNanos = event.getTimeNanos(field);
+            if (fieldTimeNanos <= 0) continue;
+            if (!first) builder.append(", ");
+            builder.append(field).append('=').append(toMillis(fieldTimeNanos));
+            first = false;
+        }
+        builder.append('}');
+
+        builder.append(", Attempts=").append(event.getAttempts());
+        return builder.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+    }
+
+    /** The percentile of the latencies of one operation, updated periodically. */
+    private static final class PercentileThreshold {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong count = new AtomicLong();
+        private volatile long thresholdNanos = -1;
+
+        long getThresholdNanos() {
+            return thresholdNanos;
+        }
+
+        void record(long timeNanos, double percentile, int minimumSamples) {
+            latencies.record(timeNanos);
+            long n = count.incrementAndGet();
+            if (n >= minimumSamples && (thresholdNanos < 0 || n % PERCENTILE_UPDATE_INTERVAL == 0)) {
+                thresholdNanos = latencies.getPercentileNanos(percentile);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate at which a counter, maintained elsewhere, grows (ex: the
+ * bytes transfered by an upload), as an instantaneous rate and as an
+ * exponentially weighted moving average.
+ * <p>
+ * The counter is sampled when the rates are read, so that measuring it costs
+ * nothing to the threads updating it and doesn't need a thread of its own.
+ * Samples taken less than a second apart are ignored; the instantaneous rate
+ * is the rate over the interval between the last two samples, and the
+ * average weights each interval according to its length, so the rates stay
+ * accurate however often they are read.
+ */
+public class ThroughputMeter {
+
+    private static final long MIN_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** The time constant of the moving average, in seconds. */
+    private final double timeConstantSeconds;
+
+    private long lastSampleNanos = System.nanoTime();
+    private long lastSampleCount;
+    private double instantaneousRate;
+    private double averageRate;
+    private boolean initialized;
+
+    /**
+     * Creates a meter whose moving average has the specified time constant:
+     * the weight of older intervals in the average decays by a factor of e
+     * every time constant.
+     *
+     * @param timeConstantSeconds
+     *            The time constant of the moving average, in seconds.
+     */
+    public ThroughputMeter(double timeConstantSeconds) {
+        if (timeConstantSeconds <= 0) throw new IllegalArgumentException("Time constant must be positive");
+        this.timeConstantSeconds = timeConstantSeconds;
+    }
+
+    /**
+     * Samples the current value of the counter, updating the rates if the
+     * previous sample is at least a second old.
+     *
+     * @param count
+     *            The current value of the counter.
+     */
+    public synchronized void sample(long count) {
+        long now = System.nanoTime();
+        long elapsedNanos = now - lastSampleNanos;
+        if (elapsedNanos < MIN_SAMPLE_INTERVAL_NANOS) return;
+
+        // Don't let the time before the first update (ex: while a transfer
+        // is queued) drag the rates down
+        if (!initialized && count == lastSampleCount) {
+            lastSampleNanos = now;
+            return;
+        }
+
+        // The counter may be reset (ex: when a download is retried)
+        long delta = Math.max(0, count - lastSampleCount);
+        double elapsedSeconds = elapsedNanos / 1e9;
+        instantaneousRate = delta / elapsedSeconds;
+        if (initialized) {
+            double alpha = 1 - Math.exp(-elapsedSeconds / timeConstantSeconds);
+            averageRate += alpha * (instantaneousRate - averageRate);
+        } else {
+            averageRate = instantaneousRate;
+            initialized = true;
+        }
+        lastSampleNanos = now;
+        lastSampleCount = count;
+    }
+
+    /**
+     * Returns the rate, per second, at which the counter grew between the
+     * last two samples.
+     */
+    public synchronized double getInstantaneousRate() {
+        return instantaneousRate;
+    }
+
+    /**
+     * Returns the rate, per second, at which the counter grew, as an
+     * exponentially weighted moving average.
+     */
+    public synchronized double getAverageRate() {
+        return averageRate;
+    }
+
+    @Override
+    public String toString() {
+        return "[rate: " + getInstantaneousRate() + "/s; average: " + getAverageRate() + "/s]";
+    }
+}
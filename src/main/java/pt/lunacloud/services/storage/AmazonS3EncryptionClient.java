@@ -20,6 +20,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -36,6 +37,7 @@ import pt.lunacloud.AmazonWebServiceRequest;
 import pt.lunacloud.ClientConfiguration;
 import pt.lunacloud.auth.LunacloudCredentials;
 import pt.lunacloud.auth.LunacloudCredentialsProvider;
+import pt.lunacloud.services.storage.internal.ServiceUtils;
 import pt.lunacloud.services.storage.internal.crypto.ByteRangeCapturingInputStream;
 import pt.lunacloud.services.storage.internal.crypto.EncryptedUploadContext;
 import pt.lunacloud.services.storage.internal.crypto.EncryptionInstruction;
@@ -63,6 +65,7 @@ import pt.lunacloud.services.storage.model.StorageObject;
 import pt.lunacloud.services.storage.model.UploadPartRequest;
 import pt.lunacloud.services.storage.model.UploadPartResult;
 import pt.lunacloud.services.storage.transfer.TransferManager;
+import pt.lunacloud.util.ByteBufferInputStream;
 import pt.lunacloud.util.VersionInfoUtils;
 
 
@@ -487,6 +490,53 @@ public class AmazonS3EncryptionClient extends LunacloudStorageClient {
         return s3Object.getObjectMetadata();
     }
 
+    /* (non-Javadoc)
+     * @see pt.lunacloud.services.storage.LunacloudStorageClient#getObject(pt.lunacloud.services.storage.model.GetObjectRequest, java.nio.ByteBuffer)
+     */
+    @Override
+    public ObjectMetadata getObject(GetObjectRequest getObjectRequest, ByteBuffer destination)
+    throws LunacloudClientException, LunacloudServiceException {
+
+        assertParameterNotNull(destination,
+        "The destination buffer parameter must be specified when downloading an object directly to a buffer");
+
+        StorageObject s3Object = getObject(getObjectRequest);
+        // getObject can return null if constraints were specified but not met
+        if (s3Object == null) return null;
+
+        // As for files, there's no MD5 check since the stored contents are encrypted.
+        // The stored Content-Length is the encrypted one, so only the original
+        // length, when it was recorded, can reject an object that won't fit.
+        long contentLength = -1;
+        String unencryptedContentLength = s3Object.getObjectMetadata().getUserMetadata().get(Headers.UNENCRYPTED_CONTENT_LENGTH);
+        if (unencryptedContentLength != null && getObjectRequest.getRange() == null) {
+            try {
+                contentLength = Long.parseLong(unencryptedContentLength);
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+        }
+        ServiceUtils.downloadObjectToBuffer(s3Object, destination, false, contentLength);
+
+        return s3Object.getObjectMetadata();
+    }
+
+    /* (non-Javadoc)
+     * @see pt.lunacloud.services.storage.LunacloudStorageClient#putObject(java.lang.String, java.lang.String, java.nio.ByteBuffer, pt.lunacloud.services.storage.model.ObjectMetadata)
+     */
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, ByteBuffer buffer, ObjectMetadata metadata)
+    throws LunacloudClientException, LunacloudServiceException {
+
+        assertParameterNotNull(buffer,
+        "The buffer parameter must be specified when uploading an object from a buffer");
+        if (metadata == null) metadata = new ObjectMetadata();
+
+        // The MD5 of the plaintext isn't computed, since the encrypted contents are what's uploaded
+        metadata.setContentLength(buffer.remaining());
+        return putObject(new PutObjectRequest(bucketName, key, new ByteBufferInputStream(buffer), metadata));
+    }
+
     /* (non-Javadoc)
      * @see com.amazonaws.services.s3.AmazonS3Client#deleteObject(com.amazonaws.services.s3.model.DeleteObjectRequest)
      */
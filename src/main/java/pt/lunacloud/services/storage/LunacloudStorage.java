@@ -17,6 +17,7 @@ package pt.lunacloud.services.storage;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.List;
 
@@ -1849,6 +1850,53 @@ public interface LunacloudStorage {
     public ObjectMetadata getObject(GetObjectRequest getObjectRequest, File destinationFile)
             throws LunacloudClientException, LunacloudServiceException;
 
+    /**
+     * <p>
+     * Gets the object metadata for the object stored
+     * in Amazon S3 under the specified bucket and key,
+     * and reads the object contents into the
+     * specified buffer, which may be a direct buffer.
+     * Returns <code>null</code> if the specified constraints weren't met.
+     * </p>
+     * <p>
+     * The object contents are stored from the buffer's position onwards,
+     * and the position is advanced past them. If the object is larger than
+     * the space remaining in the buffer, an exception is thrown and the
+     * position is left unchanged; a range can be specified in the request to
+     * download part of a larger object. Nothing is stored when the response
+     * says how large the object is; otherwise (ex: for encrypted objects
+     * stored without their original length) the remaining space of the
+     * buffer may have been overwritten.
+     * </p>
+     * <p>
+     * To get an object from Amazon S3, the caller must have {@link Permission#Read}
+     * access to the object.
+     * </p>
+     *
+     * @param getObjectRequest
+     *            The request object containing all the options on how to
+     *            download the Amazon S3 object content.
+     * @param destination
+     *            The buffer to read the object content being downloaded from
+     *            Amazon S3 into.
+     *
+     * @return All S3 object metadata for the specified object.
+     *         Returns <code>null</code> if constraints were specified but not met.
+     *
+     * @throws LunacloudClientException
+     *             If any errors are encountered in the client while making the
+     *             request, handling the response, or if the object doesn't
+     *             fit in the specified buffer.
+     * @throws LunacloudServiceException
+     *             If any errors occurred in Amazon S3 while processing the
+     *             request.
+     *
+     * @see LunacloudStorage#getObject(GetObjectRequest)
+     * @see LunacloudStorage#getObject(GetObjectRequest, File)
+     */
+    public ObjectMetadata getObject(GetObjectRequest getObjectRequest, ByteBuffer destination)
+            throws LunacloudClientException, LunacloudServiceException;
+
     /**
      * <p>
      * Deletes the specified bucket. All objects (and all object versions, if versioning
@@ -2161,6 +2209,55 @@ public interface LunacloudStorage {
             String bucketName, String key, InputStream input, ObjectMetadata metadata)
             throws LunacloudClientException, LunacloudServiceException;
 
+    /**
+     * <p>
+     * Uploads the remaining bytes of the specified buffer, which may be a
+     * direct buffer, to Amazon S3 under the specified bucket and key name.
+     * </p>
+     * <p>
+     * The content length is set from the buffer, and unless the metadata
+     * already specifies one, the client computes the MD5 checksum of the
+     * buffer so that Amazon S3 can verify the data wasn't corrupted in
+     * transit. The data is read from the buffer as it's sent, without being
+     * copied to an intermediate array or buffered for retries, and the
+     * buffer's position is left unchanged. The buffer must not be modified
+     * until this method returns.
+     * </p>
+     * <p>
+     * The specified bucket must already exist and the caller must have
+     * {@link Permission#Write} permission to the bucket to upload an object.
+     * </p>
+     *
+     * @param bucketName
+     *            The name of an existing bucket, to which you have
+     *            {@link Permission#Write} permission.
+     * @param key
+     *            The key under which to store the specified data.
+     * @param buffer
+     *            The buffer containing the data to be uploaded to Amazon
+     *            S3.
+     * @param metadata
+     *            Additional metadata instructing Amazon S3 how to handle the
+     *            uploaded data (e.g. custom user metadata, hooks for specifying
+     *            content type, etc.).
+     *
+     * @return A {@link PutObjectResult} object containing the information
+     *         returned by Amazon S3 for the newly created object.
+     *
+     * @throws LunacloudClientException
+     *             If any errors are encountered in the client while making the
+     *             request or handling the response.
+     * @throws LunacloudServiceException
+     *             If any errors occurred in Amazon S3 while processing the
+     *             request.
+     *
+     * @see LunacloudStorage#putObject(String, String, InputStream, ObjectMetadata)
+     * @see LunacloudStorage#putObject(PutObjectRequest)
+     */
+    public PutObjectResult putObject(
+            String bucketName, String key, ByteBuffer buffer, ObjectMetadata metadata)
+            throws LunacloudClientException, LunacloudServiceException;
+
     /**
      * <p>
      * Copies a source object to a new destination in Amazon S3.
@@ -18,15 +18,19 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -58,16 +62,18 @@ import pt.lunacloud.handlers.RequestHandler;
 import pt.lunacloud.http.ExecutionContext;
 import pt.lunacloud.http.HttpMethodName;
 import pt.lunacloud.http.HttpResponseHandler;
+import pt.lunacloud.http.RequestAbortHandle;
+import pt.lunacloud.http.RequestContentWrapper;
 import pt.lunacloud.internal.StaticCredentialsProvider;
 import pt.lunacloud.services.storage.internal.BucketNameUtils;
 import pt.lunacloud.services.storage.internal.Constants;
 import pt.lunacloud.services.storage.internal.DeleteObjectsResponse;
-import pt.lunacloud.services.storage.internal.InputSubstream;
+import pt.lunacloud.services.storage.internal.HedgedRequestExecutor;
+import pt.lunacloud.services.storage.internal.FileRegionInputStream;
 import pt.lunacloud.services.storage.internal.MD5DigestCalculatingInputStream;
 import pt.lunacloud.services.storage.internal.Mimetypes;
 import pt.lunacloud.services.storage.internal.ObjectExpirationHeaderHandler;
 import pt.lunacloud.services.storage.internal.ProgressReportingInputStream;
-import pt.lunacloud.services.storage.internal.RepeatableFileInputStream;
 import pt.lunacloud.services.storage.internal.RepeatableInputStream;
 import pt.lunacloud.services.storage.internal.ResponseHeaderHandlerChain;
 import pt.lunacloud.services.storage.internal.S3ErrorResponseHandler;
@@ -162,6 +168,7 @@ import pt.lunacloud.services.storage.model.transform.XmlResponsesSaxParser.Compl
 import pt.lunacloud.services.storage.model.transform.XmlResponsesSaxParser.CopyObjectResultHandler;
 import pt.lunacloud.transform.Unmarshaller;
 import pt.lunacloud.util.BinaryUtils;
+import pt.lunacloud.util.ByteBufferInputStream;
 import pt.lunacloud.util.Md5Utils;
 
 
@@ -211,6 +218,9 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
     /** Provider for AWS credentials. */
     private LunacloudCredentialsProvider awsCredentialsProvider;
 
+    /** Executor for hedged reads, created the first time one is needed. */
+    private HedgedRequestExecutor hedgedRequestExecutor;
+
     /**
      * Constructs a new client to invoke service methods on Amazon S3. A
      * credentials provider chain will be used that searches for credentials in
@@ -338,6 +348,61 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
                 "/com/amazonaws/services/s3/request.handlers"));
     }
 
+    /**
+     * <p>
+     * Opens the connections configured through
+     * {@link ClientConfiguration#setPrewarmConnections(int)} and
+     * {@link ClientConfiguration#setPrewarmBucketNames(List)}, and parks them
+     * in the connection pool. Blocks until the connections are open.
+     * </p>
+     * <p>
+     * Call this once the client is configured, ex: after
+     * {@link #setEndpoint(String)}, so the connections are opened to the
+     * endpoint requests will be sent to; call it from a thread of your own to
+     * pre-warm in the background.
+     * </p>
+     *
+     * @return The number of connections opened and parked in the pool.
+     *
+     * @see #prewarmConnections(int, String...)
+     */
+    public int prewarmConnections() {
+        List<String> bucketNames = clientConfiguration.getPrewarmBucketNames();
+        return prewarmConnections(clientConfiguration.getPrewarmConnections(),
+                bucketNames.toArray(new String[bucketNames.size()]));
+    }
+
+    /**
+     * <p>
+     * Opens connections to the endpoint of this client, and to the virtual
+     * host of each of the specified buckets, and parks them in the connection
+     * pool so that the first requests sent there don't pay for the TCP
+     * connect and TLS handshake. Blocks until the connections are open.
+     * </p>
+     * <p>
+     * Call this once the client is configured, ex: after
+     * {@link #setEndpoint(String)}.
+     * </p>
+     *
+     * @param connectionsPerHost
+     *            The number of connections to open to each host, capped to
+     *            the maximum number of connections per route.
+     * @param bucketNames
+     *            The buckets whose virtual hosts to open connections to.
+     *
+     * @return The number of connections opened and parked in the pool.
+     */
+    public int prewarmConnections(int connectionsPerHost, String... bucketNames) {
+        Set<URI> endpoints = new LinkedHashSet<URI>();
+        endpoints.add(endpoint);
+        for (String bucketName : bucketNames) {
+            if (isVirtualHostAddressable(bucketName)) {
+                endpoints.add(convertToVirtualHostEndpoint(bucketName));
+            }
+        }
+        return client.prewarmConnections(new ArrayList<URI>(endpoints), connectionsPerHost);
+    }
+
     /**
      * <p>
      * Override the default S3 client options for this client.
@@ -349,6 +414,17 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
       this.clientOptions = new S3ClientOptions(clientOptions);
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        synchronized (this) {
+            if (hedgedRequestExecutor != null) {
+                hedgedRequestExecutor.shutdown();
+                hedgedRequestExecutor = null;
+            }
+        }
+    }
+
     /**
      * Appends a request handler to the list of registered handlers that are run
      * as part of a request's lifecycle.
@@ -769,17 +845,38 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
             throws LunacloudClientException, LunacloudServiceException {
         assertParameterNotNull(getObjectMetadataRequest, "The GetObjectMetadataRequest parameter must be specified when requesting an object's metadata");
 
+        assertParameterNotNull(getObjectMetadataRequest.getBucketName(), "The bucket name parameter must be specified when requesting an object's metadata");
+        assertParameterNotNull(getObjectMetadataRequest.getKey(), "The key parameter must be specified when requesting an object's metadata");
+
+        if (clientOptions.isHedgedReads()) {
+            final GetObjectMetadataRequest originalRequest = getObjectMetadataRequest;
+            return invokeHedged(new HedgedRequestExecutor.Attempt<ObjectMetadata>() {
+                public ObjectMetadata call(RequestAbortHandle abortHandle) {
+                    return invokeGetObjectMetadata(originalRequest, abortHandle);
+                }
+            }, new HedgedRequestExecutor.Discarder<ObjectMetadata>() {
+                public void discard(ObjectMetadata result) {
+                    // Nothing to release, the whole response has been read
+                }
+            });
+        }
+
+        return invokeGetObjectMetadata(getObjectMetadataRequest, null);
+    }
+
+    /**
+     * Sends a single HEAD request for the specified object's metadata.
+     */
+    private ObjectMetadata invokeGetObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest,
+            RequestAbortHandle abortHandle) {
         String bucketName = getObjectMetadataRequest.getBucketName();
         String key = getObjectMetadataRequest.getKey();
         String versionId = getObjectMetadataRequest.getVersionId();
 
-        assertParameterNotNull(bucketName, "The bucket name parameter must be specified when requesting an object's metadata");
-        assertParameterNotNull(key, "The key parameter must be specified when requesting an object's metadata");
-
         Request<GetObjectMetadataRequest> request = createRequest(bucketName, key, getObjectMetadataRequest, HttpMethodName.HEAD);
         if (versionId != null) request.addParameter("versionId", versionId);
 
-        return invoke(request, new S3MetadataResponseHandler(), bucketName, key);
+        return invoke(request, new S3MetadataResponseHandler(), bucketName, key, abortHandle, null);
     }
 
     /* (non-Javadoc)
@@ -872,32 +969,27 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         assertParameterNotNull(getObjectRequest.getKey(),
                 "The key parameter must be specified when requesting an object");
 
-        Request<GetObjectRequest> request = createRequest(getObjectRequest.getBucketName(), getObjectRequest.getKey(), getObjectRequest, HttpMethodName.GET);
-
-        if (getObjectRequest.getVersionId() != null) {
-            request.addParameter("versionId", getObjectRequest.getVersionId());
-        }
-
-        // Range
-        if (getObjectRequest.getRange() != null) {
-            long[] range = getObjectRequest.getRange();
-            request.addHeader(Headers.RANGE, "bytes=" + Long.toString(range[0]) + "-" + Long.toString(range[1]));
-        }
-
-        addResponseHeaderParameters(request, getObjectRequest.getResponseHeaders());
-
-        addDateHeader(request, Headers.GET_OBJECT_IF_MODIFIED_SINCE,
-                getObjectRequest.getModifiedSinceConstraint());
-        addDateHeader(request, Headers.GET_OBJECT_IF_UNMODIFIED_SINCE,
-                getObjectRequest.getUnmodifiedSinceConstraint());
-        addStringListHeader(request, Headers.GET_OBJECT_IF_MATCH,
-                getObjectRequest.getMatchingETagConstraints());
-        addStringListHeader(request, Headers.GET_OBJECT_IF_NONE_MATCH,
-                getObjectRequest.getNonmatchingETagConstraints());
-
         ProgressListener progressListener = getObjectRequest.getProgressListener();
         try {
-            StorageObject s3Object = invoke(request, new S3ObjectResponseHandler(), getObjectRequest.getBucketName(), getObjectRequest.getKey());
+            StorageObject s3Object;
+            if (clientOptions.isHedgedReads()) {
+                final GetObjectRequest originalRequest = getObjectRequest;
+                s3Object = invokeHedged(new HedgedRequestExecutor.Attempt<StorageObject>() {
+                    public StorageObject call(RequestAbortHandle abortHandle) {
+                        return invokeGetObject(originalRequest, abortHandle);
+                    }
+                }, new HedgedRequestExecutor.Discarder<StorageObject>() {
+                    public void discard(StorageObject result) {
+                        try {
+                            result.getObjectContent().abort();
+                        } catch (Exception e) {
+                            log.debug("Unable to abort hedged object request", e);
+                        }
+                    }
+                });
+            } else {
+                s3Object = invokeGetObject(getObjectRequest, null);
+            }
 
             /*
              * TODO: For now, it's easiest to set there here in the client, but
@@ -945,6 +1037,52 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         }
     }
 
+    /**
+     * Sends a single GET request for the specified object, returning as soon
+     * as the response headers have been received.
+     */
+    private StorageObject invokeGetObject(GetObjectRequest getObjectRequest, RequestAbortHandle abortHandle) {
+        Request<GetObjectRequest> request = createRequest(getObjectRequest.getBucketName(), getObjectRequest.getKey(), getObjectRequest, HttpMethodName.GET);
+
+        if (getObjectRequest.getVersionId() != null) {
+            request.addParameter("versionId", getObjectRequest.getVersionId());
+        }
+
+        // Range
+        if (getObjectRequest.getRange() != null) {
+            long[] range = getObjectRequest.getRange();
+            request.addHeader(Headers.RANGE, "bytes=" + Long.toString(range[0]) + "-" + Long.toString(range[1]));
+        }
+
+        addResponseHeaderParameters(request, getObjectRequest.getResponseHeaders());
+
+        addDateHeader(request, Headers.GET_OBJECT_IF_MODIFIED_SINCE,
+                getObjectRequest.getModifiedSinceConstraint());
+        addDateHeader(request, Headers.GET_OBJECT_IF_UNMODIFIED_SINCE,
+                getObjectRequest.getUnmodifiedSinceConstraint());
+        addStringListHeader(request, Headers.GET_OBJECT_IF_MATCH,
+                getObjectRequest.getMatchingETagConstraints());
+        addStringListHeader(request, Headers.GET_OBJECT_IF_NONE_MATCH,
+                getObjectRequest.getNonmatchingETagConstraints());
+
+        return invoke(request, new S3ObjectResponseHandler(), getObjectRequest.getBucketName(), getObjectRequest.getKey(),
+                abortHandle, null);
+    }
+
+    /**
+     * Runs the specified read request with hedging, as configured in this
+     * client's {@link S3ClientOptions}.
+     */
+    private <T> T invokeHedged(HedgedRequestExecutor.Attempt<T> attempt, HedgedRequestExecutor.Discarder<T> discarder) {
+        HedgedRequestExecutor executor;
+        synchronized (this) {
+            if (hedgedRequestExecutor == null) hedgedRequestExecutor = new HedgedRequestExecutor();
+            executor = hedgedRequestExecutor;
+        }
+        return executor.execute(attempt, discarder,
+                clientOptions.getHedgedReadPercentile(), clientOptions.getMinimumHedgedReadDelay());
+    }
+
     /* (non-Javadoc)
      * @see com.amazonaws.services.s3.AmazonS3#getObject(com.amazonaws.services.s3.model.GetObjectRequest, java.io.File)
      */
@@ -962,6 +1100,25 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         return s3Object.getObjectMetadata();
     }
 
+    /* (non-Javadoc)
+     * @see pt.lunacloud.services.storage.LunacloudStorage#getObject(pt.lunacloud.services.storage.model.GetObjectRequest, java.nio.ByteBuffer)
+     */
+    public ObjectMetadata getObject(GetObjectRequest getObjectRequest, ByteBuffer destination)
+            throws LunacloudClientException, LunacloudServiceException {
+        assertParameterNotNull(destination,
+                "The destination buffer parameter must be specified when downloading an object directly to a buffer");
+
+        StorageObject s3Object = getObject(getObjectRequest);
+        // getObject can return null if constraints were specified but not met
+        if (s3Object == null) return null;
+
+        Object contentLength = s3Object.getObjectMetadata().getRawMetadata().get(Headers.CONTENT_LENGTH);
+        ServiceUtils.downloadObjectToBuffer(s3Object, destination, (getObjectRequest.getRange() == null),
+                (contentLength instanceof Long) ? (Long) contentLength : -1);
+
+        return s3Object.getObjectMetadata();
+    }
+
     /* (non-Javadoc)
      * @see com.amazonaws.services.s3.AmazonS3#deleteBucket(java.lang.String)
      */
@@ -1004,6 +1161,28 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
     }
 
 
+    /* (non-Javadoc)
+     * @see pt.lunacloud.services.storage.LunacloudStorage#putObject(java.lang.String, java.lang.String, java.nio.ByteBuffer, pt.lunacloud.services.storage.model.ObjectMetadata)
+     */
+    public PutObjectResult putObject(String bucketName, String key, ByteBuffer buffer, ObjectMetadata metadata)
+            throws LunacloudClientException, LunacloudServiceException {
+        assertParameterNotNull(buffer,
+                "The buffer parameter must be specified when uploading an object from a buffer");
+        if (metadata == null) metadata = new ObjectMetadata();
+
+        metadata.setContentLength(buffer.remaining());
+        if (metadata.getContentMD5() == null) {
+            try {
+                metadata.setContentMD5(BinaryUtils.toBase64(Md5Utils.computeMD5Hash(buffer)));
+            } catch (NoSuchAlgorithmException e) {
+                log.warn("No MD5 digest algorithm available.  Unable to calculate " +
+                         "checksum and verify data integrity.", e);
+            }
+        }
+
+        return putObject(new PutObjectRequest(bucketName, key, new ByteBufferInputStream(buffer), metadata));
+    }
+
     /* (non-Javadoc)
      * @see com.amazonaws.services.s3.AmazonS3#putObject(com.amazonaws.services.s3.model.PutObjectRequest)
      */
@@ -1047,7 +1226,7 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
             }
 
             try {
-                input = new RepeatableFileInputStream(file);
+                input = new FileRegionInputStream(file);
             } catch (FileNotFoundException fnfe) {
                 throw new LunacloudClientException("Unable to find file to upload", fnfe);
             }
@@ -1073,55 +1252,32 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         }
 
         // Use internal interface to differentiate 0 from unset.
-        if (metadata.getRawMetadata().get(Headers.CONTENT_LENGTH) == null) {
+        if (metadata.getRawMetadata().get(Headers.CONTENT_LENGTH) == null
+                && clientConfiguration.getRequestBodySpoolThreshold() < 0) {
             /*
              * There's nothing we can do except for let the HTTP client buffer
              * the input stream contents if the caller doesn't tell us how much
              * data to expect in a stream since we have to explicitly tell
              * Amazon S3 how much we're sending before we start sending any of
-             * it.
+             * it. Unless request body spooling is enabled, that buffer is in
+             * memory.
              */
             log.warn("No content length specified for stream data.  " +
                      "Stream contents will be buffered in memory and could result in " +
                      "out of memory errors.");
         }
 
+        /*
+         * The content is wrapped once the HTTP client has spooled it (if it
+         * does), so that progress is reported as the content is sent, not as
+         * it's spooled.
+         */
+        PutObjectContentWrapper contentWrapper =
+                new PutObjectContentWrapper(progressListener, metadata.getContentMD5() == null);
         if (progressListener != null) {
-            input = new ProgressReportingInputStream(input, progressListener);
             fireProgressEvent(progressListener, ProgressEvent.STARTED_EVENT_CODE);
         }
 
-        if (!input.markSupported()) {
-            int streamBufferSize = Constants.DEFAULT_STREAM_BUFFER_SIZE;
-            String bufferSizeOverride = System.getProperty("com.amazonaws.sdk.s3.defaultStreamBufferSize");
-            if (bufferSizeOverride != null) {
-                try {
-                    streamBufferSize = Integer.parseInt(bufferSizeOverride);
-                } catch (Exception e) {
-                    log.warn("Unable to parse buffer size override from value: " + bufferSizeOverride);
-                }
-            }
-
-            input = new RepeatableInputStream(input, streamBufferSize);
-        }
-
-        MD5DigestCalculatingInputStream md5DigestStream = null;
-        if (metadata.getContentMD5() == null) {
-            /*
-             * If the user hasn't set the content MD5, then we don't want to
-             * buffer the whole stream in memory just to calculate it. Instead,
-             * we can calculate it on the fly and validate it with the returned
-             * ETag from the object upload.
-             */
-            try {
-                md5DigestStream = new MD5DigestCalculatingInputStream(input);
-                input = md5DigestStream;
-            } catch (NoSuchAlgorithmException e) {
-                log.warn("No MD5 digest algorithm available.  Unable to calculate " +
-                         "checksum and verify data integrity.", e);
-            }
-        }
-
         if (metadata.getContentType() == null) {
             /*
              * Default to the "application/octet-stream" if the user hasn't
@@ -1135,17 +1291,22 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
 
         ObjectMetadata returnedMetadata = null;
         try {
-            returnedMetadata = invoke(request, new S3MetadataResponseHandler(), bucketName, key);
+            returnedMetadata = invoke(request, new S3MetadataResponseHandler(), bucketName, key, null, contentWrapper);
         } catch (LunacloudClientException ace) {
             fireProgressEvent(progressListener, ProgressEvent.FAILED_EVENT_CODE);
             throw ace;
         } finally {
-            try {input.close();} catch (Exception e) {
+            try {
+                // Reports any progress not reported yet
+                contentWrapper.close();
+                input.close();
+            } catch (Exception e) {
                 log.warn("Unable to cleanly close input stream: " + e.getMessage(), e);
             }
         }
 
         String contentMd5 = metadata.getContentMD5();
+        MD5DigestCalculatingInputStream md5DigestStream = contentWrapper.getMd5DigestStream();
         if (md5DigestStream != null) {
             contentMd5 = BinaryUtils.toBase64(md5DigestStream.getMd5Digest());
         }
@@ -2261,8 +2422,8 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
             inputStream = uploadPartRequest.getInputStream();
         } else if (uploadPartRequest.getFile() != null) {
             try {
-                inputStream = new InputSubstream(new RepeatableFileInputStream(uploadPartRequest.getFile()),
-                        uploadPartRequest.getFileOffset(), partSize, true);
+                inputStream = new FileRegionInputStream(uploadPartRequest.getFile(),
+                        uploadPartRequest.getFileOffset(), partSize);
             } catch (FileNotFoundException e) {
                 throw new IllegalArgumentException("The specified file doesn't exist", e);
             }
@@ -2572,6 +2733,22 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         }
     }
 
+    /**
+     * Returns true if requests for the specified bucket can be sent to the
+     * bucket's virtual host, rather than to the endpoint with the bucket name
+     * in the resource path.
+     */
+    private boolean isVirtualHostAddressable(String bucketName) {
+        // If we're using SSL and the bucket name contains a period, we the hostname
+        // won't line up with the cert hostname pattern, since wildcards are only
+        // allowed to match one segment in a DNS name.
+        boolean sslCertMismatch = endpoint.getScheme().equalsIgnoreCase("https") &&
+                                  bucketName != null && bucketName.contains(".");
+
+        return !clientOptions.isPathStyleAccess() && bucketNameUtils.isDNSBucketName(bucketName) &&
+               !validIP(endpoint.getHost()) && !sslCertMismatch;
+    }
+
     /**
      * Converts the current endpoint set for this client into virtual addressing
      * style, by placing the name of the specified bucket before the S3 service
@@ -2882,14 +3059,7 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         Request<X> request = new DefaultRequest<X>(originalRequest, Constants.STORAGE_SERVICE_NAME);
         request.setHttpMethod(httpMethod);
 
-        // If we're using SSL and the bucket name contains a period, we the hostname
-        // won't line up with the cert hostname pattern, since wildcards are only
-        // allowed to match one segment in a DNS name.
-        boolean sslCertMismatch = endpoint.getScheme().equalsIgnoreCase("https") &&
-                                  bucketName != null && bucketName.contains(".");
-
-        if (!clientOptions.isPathStyleAccess() && bucketNameUtils.isDNSBucketName(bucketName) &&
-              !validIP(endpoint.getHost()) && !sslCertMismatch) {
+        if (isVirtualHostAddressable(bucketName)) {
             request.setEndpoint(convertToVirtualHostEndpoint(bucketName));
             request.setResourcePath(ServiceUtils.urlEncode(key));
         } else {
@@ -2940,6 +3110,11 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
     }
 
     private <X, Y extends AmazonWebServiceRequest> X invoke(Request<Y> request, HttpResponseHandler<AmazonWebServiceResponse<X>> responseHandler, String bucket, String key) {
+        return invoke(request, responseHandler, bucket, key, null, null);
+    }
+
+    private <X, Y extends AmazonWebServiceRequest> X invoke(Request<Y> request, HttpResponseHandler<AmazonWebServiceResponse<X>> responseHandler, String bucket, String key,
+            RequestAbortHandle abortHandle, RequestContentWrapper contentWrapper) {
         for (Entry<String, String> entry : request.getOriginalRequest().copyPrivateRequestParameters().entrySet()) {
             request.addParameter(entry.getKey(), entry.getValue());
         }
@@ -2963,8 +3138,75 @@ public class LunacloudStorageClient extends AmazonWebServiceClient implements Lu
         ExecutionContext executionContext = createExecutionContext();
         executionContext.setSigner(createSigner(request, bucket, key));
         executionContext.setCredentials(credentials);
+        executionContext.setBucketName(bucket);
+        executionContext.setAbortHandle(abortHandle);
+        executionContext.setContentWrapper(contentWrapper);
 
         return client.execute(request, responseHandler, errorResponseHandler, executionContext);
     }
 
-}
\ No newline at end of file
+    /**
+     * Wraps the content of an object upload, once spooled if needed, to
+     * report its progress, make it repeatable and calculate its MD5 digest.
+     */
+    private static final class PutObjectContentWrapper implements RequestContentWrapper {
+        private final ProgressListener progressListener;
+        private final boolean calculateMd5;
+        private MD5DigestCalculatingInputStream md5DigestStream;
+        private InputStream wrappedContent;
+
+        private PutObjectContentWrapper(ProgressListener progressListener, boolean calculateMd5) {
+            this.progressListener = progressListener;
+            this.calculateMd5 = calculateMd5;
+        }
+
+        public InputStream wrap(InputStream input) {
+            if (progressListener != null) {
+                input = new ProgressReportingInputStream(input, progressListener);
+            }
+
+            if (!input.markSupported()) {
+                int streamBufferSize = Constants.DEFAULT_STREAM_BUFFER_SIZE;
+                String bufferSizeOverride = System.getProperty("com.amazonaws.sdk.s3.defaultStreamBufferSize");
+                if (bufferSizeOverride != null) {
+                    try {
+                        streamBufferSize = Integer.parseInt(bufferSizeOverride);
+                    } catch (Exception e) {
+                        log.warn("Unable to parse buffer size override from value: " + bufferSizeOverride);
+                    }
+                }
+
+                input = new RepeatableInputStream(input, streamBufferSize);
+            }
+
+            if (calculateMd5) {
+                /*
+                 * If the user hasn't set the content MD5, then we don't want to
+                 * buffer the whole stream in memory just to calculate it. Instead,
+                 * we can calculate it on the fly and validate it with the returned
+                 * ETag from the object upload.
+                 */
+                try {
+                    md5DigestStream = new MD5DigestCalculatingInputStream(input);
+                    input = md5DigestStream;
+                } catch (NoSuchAlgorithmException e) {
+                    log.warn("No MD5 digest algorithm available.  Unable to calculate " +
+                             "checksum and verify data integrity.", e);
+                }
+            }
+            wrappedContent = input;
+            return input;
+        }
+
+        /** Closes the wrapped content, if the content was wrapped. */
+        private void close() throws IOException {
+            if (wrappedContent != null) wrappedContent.close();
+        }
+
+        /** Returns the stream calculating the MD5 digest of the content sent, if any. */
+        private MD5DigestCalculatingInputStream getMd5DigestStream() {
+            return md5DigestStream;
+        }
+    }
+
+}
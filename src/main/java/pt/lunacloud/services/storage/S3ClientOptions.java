@@ -22,13 +22,31 @@ public class S3ClientOptions {
     /** The default setting for use of path-style access */
     public static final boolean DEFAULT_PATH_STYLE_ACCESS = false;
 
+    /** The default latency percentile after which reads are hedged */
+    public static final double DEFAULT_HEDGED_READ_PERCENTILE = 95.0;
+
+    /** The default minimum delay, in milliseconds, before reads are hedged */
+    public static final long DEFAULT_MINIMUM_HEDGED_READ_DELAY = 10;
+
     /** Flag for use of path-style access */
     private boolean pathStyleAccess = DEFAULT_PATH_STYLE_ACCESS;
 
+    /** Flag for hedging of object reads */
+    private boolean hedgedReads = false;
+
+    /** The latency percentile after which reads are hedged */
+    private double hedgedReadPercentile = DEFAULT_HEDGED_READ_PERCENTILE;
+
+    /** The minimum delay, in milliseconds, before reads are hedged */
+    private long minimumHedgedReadDelay = DEFAULT_MINIMUM_HEDGED_READ_DELAY;
+
     public S3ClientOptions() {}
 
     public S3ClientOptions( S3ClientOptions other ) {
         this.pathStyleAccess = other.pathStyleAccess;
+        this.hedgedReads = other.hedgedReads;
+        this.hedgedReadPercentile = other.hedgedReadPercentile;
+        this.minimumHedgedReadDelay = other.minimumHedgedReadDelay;
     }
 
     /**
@@ -103,4 +121,126 @@ public class S3ClientOptions {
       return this;
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>
+     * Returns whether the client hedges object reads.
+     * </p>
+     * <p>
+     * When hedging is enabled, if a <code>getObject</code> or
+     * <code>getObjectMetadata</code> call hasn't received the response headers
+     * within the configured percentile of recently observed latencies, the
+     * client sends a second, identical request over another pooled
+     * connection, uses whichever response arrives first and aborts the other
+     * one. This trades a small amount of extra load for much lower tail
+     * latency when a few storage nodes are occasionally slow.
+     * </p>
+     * @return True if the client hedges object reads.
+     */
+    public boolean isHedgedReads() {
+        return hedgedReads;
+    }
+
+    /**
+     * <p>
+     * Configures the client to hedge object reads. See
+     * {@link #isHedgedReads()} for details.
+     * </p>
+     * @param hedgedReads
+     *            True to hedge object reads.
+     */
+    public void setHedgedReads(boolean hedgedReads) {
+      this.hedgedReads = hedgedReads;
+    }
+
+    /**
+     * <p>
+     * Configures the client to hedge object reads. See
+     * {@link #isHedgedReads()} for details.
+     * </p>
+     * @param hedgedReads
+     *            True to hedge object reads.
+     *
+     * @return The updated S3ClientOptions object with the new hedged reads
+     *         setting.
+     */
+    public S3ClientOptions withHedgedReads(boolean hedgedReads) {
+      setHedgedReads(hedgedReads);
+      return this;
+    }
+
+    /**
+     * Returns the percentile (between 0 and 100) of recently observed read
+     * latencies after which a hedged read is sent.
+     *
+     * @return The latency percentile after which reads are hedged.
+     */
+    public double getHedgedReadPercentile() {
+        return hedgedReadPercentile;
+    }
+
+    /**
+     * Sets the percentile (between 0 and 100) of recently observed read
+     * latencies after which a hedged read is sent. Lower percentiles cut more
+     * of the tail latency, but send more duplicate requests: at the 95th
+     * percentile about 5% of reads are duplicated.
+     *
+     * @param hedgedReadPercentile
+     *            The latency percentile after which reads are hedged.
+     */
+    public void setHedgedReadPercentile(double hedgedReadPercentile) {
+      if (hedgedReadPercentile <= 0 || hedgedReadPercentile > 100) {
+          throw new IllegalArgumentException("Hedged read percentile must be between 0 and 100");
+      }
+      this.hedgedReadPercentile = hedgedReadPercentile;
+    }
+
+    /**
+     * Sets the percentile (between 0 and 100) of recently observed read
+     * latencies after which a hedged read is sent.
+     *
+     * @param hedgedReadPercentile
+     *            The latency percentile after which reads are hedged.
+     *
+     * @return The updated S3ClientOptions object.
+     */
+    public S3ClientOptions withHedgedReadPercentile(double hedgedReadPercentile) {
+      setHedgedReadPercentile(hedgedReadPercentile);
+      return this;
+    }
+
+    /**
+     * Returns the minimum delay, in milliseconds, before a hedged read is
+     * sent, regardless of observed latencies.
+     *
+     * @return The minimum delay before reads are hedged.
+     */
+    public long getMinimumHedgedReadDelay() {
+        return minimumHedgedReadDelay;
+    }
+
+    /**
+     * Sets the minimum delay, in milliseconds, before a hedged read is sent,
+     * regardless of observed latencies.
+     *
+     * @param minimumHedgedReadDelay
+     *            The minimum delay before reads are hedged.
+     */
+    public void setMinimumHedgedReadDelay(long minimumHedgedReadDelay) {
+      this.minimumHedgedReadDelay = minimumHedgedReadDelay;
+    }
+
+    /**
+     * Sets the minimum delay, in milliseconds, before a hedged read is sent,
+     * regardless of observed latencies.
+     *
+     * @param minimumHedgedReadDelay
+     *            The minimum delay before reads are hedged.
+     *
+     * @return The updated S3ClientOptions object.
+     */
+    public S3ClientOptions withMinimumHedgedReadDelay(long minimumHedgedReadDelay) {
+      setMinimumHedgedReadDelay(minimumHedgedReadDelay);
+      return this;
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.services.storage.internal;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A repeatable input stream over a region of a file, such as one part of a
+ * multipart upload.
+ * <p>
+ * Data is read with positional reads on the file's {@link FileChannel},
+ * straight into the caller's array, so the stream never seeks: marking,
+ * resetting and skipping only move this stream's own position. The stream
+ * can be repeated an unlimited number of times, and reset (and read again)
+ * even after it's been closed, in which case the file is reopened.
+ */
+public class FileRegionInputStream extends InputStream {
+
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    private RandomAccessFile fileAccess;
+    private FileChannel channel;
+
+    /** The position in the region (not in the file) of the next byte to read. */
+    private long position;
+    private long markPosition;
+
+    /** Wrapper of the last array read into, reused while callers reuse their array. */
+    private ByteBuffer wrapper;
+    private byte[] wrappedArray;
+
+    /**
+     * Creates a repeatable input stream over a whole file.
+     *
+     * @param file
+     *            The file from which this input stream reads data.
+     *
+     * @throws FileNotFoundException
+     *             If the specified file doesn't exist, or can't be opened.
+     */
+    public FileRegionInputStream(File file) throws FileNotFoundException {
+        this(file, 0, (file == null) ? 0 : file.length());
+    }
+
+    /**
+     * Creates a repeatable input stream over a region of a file.
+     *
+     * @param file
+     *            The file from which this input stream reads data.
+     * @param offset
+     *            The offset, in bytes, in the file at which the region
+     *            starts.
+     * @param length
+     *            The length, in bytes, of the region. The stream ends early
+     *            if the file ends before the region does.
+     *
+     * @throws FileNotFoundException
+     *             If the specified file doesn't exist, or can't be opened.
+     */
+    public FileRegionInputStream(File file, long offset, long length) throws FileNotFoundException {
+        if (file == null) throw new IllegalArgumentException("File cannot be null");
+        if (offset < 0) throw new IllegalArgumentException("Offset must not be negative");
+        if (length < 0) throw new IllegalArgumentException("Length must not be negative");
+
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        open();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) return -1;
+
+        ByteBuffer buffer = wrap(null, 0, 1);
+        int count = readFully(buffer);
+        if (count <= 0) return -1;
+        return buffer.get(0) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (position >= length) return -1;
+
+        int count = (int) Math.min(len, length - position);
+        return readFully(wrap(b, off, count));
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        long skipped = Math.min(n, length - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /** The read limit is ignored, as the whole region can always be repeated. */
+    @Override
+    public synchronized void mark(int readlimit) {
+        markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = markPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileAccess != null) {
+            fileAccess.close();
+            fileAccess = null;
+            channel = null;
+        }
+    }
+
+    /** Returns the file this stream reads from. */
+    public File getFile() {
+        return file;
+    }
+
+    /** Returns the offset, in bytes, in the file at which this stream starts. */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** Returns the length, in bytes, of the region read by this stream. */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Reads from the current position into the remaining space of the
+     * specified buffer, returning the number of bytes read, or -1 if the
+     * file ended.
+     */
+    private int readFully(ByteBuffer buffer) throws IOException {
+        if (channel == null) open();
+
+        int count;
+        do {
+            count = channel.read(buffer, offset + position);
+        } while (count == 0 && buffer.hasRemaining());
+        if (count > 0) position += count;
+        return count;
+    }
+
+    /**
+     * Returns a buffer over the specified range of the specified array, or a
+     * one-byte buffer if the array is null.
+     */
+    private ByteBuffer wrap(byte[] b, int off, int len) {
+        if (b == null) {
+            if (wrappedArray != null || wrapper == null) {
+                wrapper = ByteBuffer.allocate(1);
+                wrappedArray = null;
+            }
+            wrapper.clear();
+            return wrapper;
+        }
+        if (b != wrappedArray) {
+            wrapper = ByteBuffer.wrap(b);
+            wrappedArray = b;
+        }
+        wrapper.limit(off + len);
+        wrapper.position(off);
+        return wrapper;
+    }
+
+    private void open() throws FileNotFoundException {
+        fileAccess = new RandomAccessFile(file, "r");
+        channel = fileAccess.getChannel();
+    }
+}
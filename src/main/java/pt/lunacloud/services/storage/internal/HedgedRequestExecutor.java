@@ -0,0 +1,339 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.services.storage.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import pt.lunacloud.LunacloudClientException;
+import pt.lunacloud.http.RequestAbortHandle;
+
+/**
+ * Executes idempotent read requests with hedging: if the first attempt hasn't
+ * completed within a delay derived from recently observed latencies (ex: the
+ * 95th percentile), a second, identical attempt is started, and whichever
+ * completes first is used. The losing attempt is aborted through its
+ * {@link RequestAbortHandle}, so that it gives its HTTP connection up even if
+ * it's blocked reading from a socket, and its result, if it completed anyway,
+ * is handed to a {@link Discarder} so that any resources it holds are
+ * released.
+ * <p>
+ * The first attempt runs on the calling thread; hedged attempts run on a
+ * bounded pool of threads, and are started late (or not at all) when they're
+ * all busy. Hedging only starts once enough latencies have been observed to
+ * compute a meaningful delay.
+ */
+public class HedgedRequestExecutor {
+
+    /** Performs one complete attempt of a request. */
+    public interface Attempt<T> {
+        /**
+         * @param abortHandle
+         *            The handle to set on the attempt's execution context, so
+         *            the attempt can be aborted if it loses the race.
+         */
+        T call(RequestAbortHandle abortHandle) throws Exception;
+    }
+
+    /** Releases the resources held by the result of a losing attempt. */
+    public interface Discarder<T> {
+        void discard(T result);
+    }
+
+    /** The default maximum number of hedged attempts in flight at once. */
+    public static final int DEFAULT_MAX_HEDGED_ATTEMPTS = 16;
+
+    /** Number of recent latencies kept to compute the hedging delay. */
+    private static final int SAMPLE_SIZE = 1024;
+
+    /** Minimum number of observed latencies before hedging starts. */
+    private static final int MIN_SAMPLES = 20;
+
+    /** How many new samples are recorded before the delay is recomputed. */
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private static final Log log = LogFactory.getLog(HedgedRequestExecutor.class);
+
+    /** Number of cancelled hedges after which the pool's queue is purged. */
+    private static final int PURGE_INTERVAL = 1024;
+
+    private final ScheduledThreadPoolExecutor hedgeThreadPool;
+    private final AtomicInteger cancellations = new AtomicInteger();
+
+    /* Ring buffer of recent attempt latencies, in milliseconds. */
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private int sampleCount;
+    private int nextSample;
+    private int samplesSinceRecompute;
+    private double cachedPercentile = -1;
+    private long cachedDelay = -1;
+
+    public HedgedRequestExecutor() {
+        this(DEFAULT_MAX_HEDGED_ATTEMPTS);
+    }
+
+    /**
+     * @param maxHedgedAttempts
+     *            The maximum number of hedged attempts in flight at once.
+     */
+    public HedgedRequestExecutor(int maxHedgedAttempts) {
+        if (maxHedgedAttempts <= 0) throw new IllegalArgumentException("Maximum hedged attempts must be positive");
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("s3-hedged-request-worker-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.hedgeThreadPool = new ScheduledThreadPoolExecutor(maxHedgedAttempts, threadFactory);
+        this.hedgeThreadPool.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.hedgeThreadPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executes the specified attempt, hedging it with a second attempt if it
+     * takes longer than the specified percentile of recent latencies.
+     *
+     * @param attempt
+     *            Performs one complete attempt of the request. Must be safe to
+     *            run twice concurrently, and to abort.
+     * @param discarder
+     *            Releases the result of an attempt that lost the race.
+     * @param percentile
+     *            The latency percentile (ex: 95.0) after which to hedge.
+     * @param minimumDelay
+     *            The minimum delay, in milliseconds, before hedging.
+     *
+     * @return The result of the first attempt to complete successfully.
+     */
+    public <T> T execute(Attempt<T> attempt, Discarder<T> discarder, double percentile, long minimumDelay) {
+        long delay = getHedgeDelay(percentile);
+        if (delay < 0) {
+            long startTime = System.nanoTime();
+            T result = call(attempt, null);
+            recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return result;
+        }
+        delay = Math.max(delay, minimumDelay);
+
+        HedgedCall<T> call = new HedgedCall<T>(attempt, discarder);
+        try {
+            return call.run(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LunacloudClientException("Interrupted while waiting for hedged request", e);
+        }
+    }
+
+    /**
+     * Returns the current delay, in milliseconds, after which attempts are
+     * hedged, or a negative value if not enough latencies have been observed
+     * yet.
+     */
+    public synchronized long getHedgeDelay(double percentile) {
+        if (sampleCount < MIN_SAMPLES) return -1;
+
+        if (cachedDelay < 0 || percentile != cachedPercentile || samplesSinceRecompute >= RECOMPUTE_INTERVAL) {
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            cachedDelay = sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+            cachedPercentile = percentile;
+            samplesSinceRecompute = 0;
+        }
+        return cachedDelay;
+    }
+
+    /**
+     * Shuts down the threads used to run hedged attempts.
+     */
+    public void shutdown() {
+        hedgeThreadPool.shutdownNow();
+    }
+
+    private synchronized void recordLatency(long millis) {
+        samples[nextSample] = millis;
+        nextSample = (nextSample + 1) % SAMPLE_SIZE;
+        if (sampleCount < SAMPLE_SIZE) sampleCount++;
+        samplesSinceRecompute++;
+    }
+
+    private static <T> T call(Attempt<T> attempt, RequestAbortHandle abortHandle) {
+        try {
+            return attempt.call(abortHandle);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LunacloudClientException(e.getMessage(), e);
+        }
+    }
+
+    /** The outcome of one attempt: either a result or an error. */
+    private static final class Outcome<T> {
+        private final T result;
+        private final RuntimeException error;
+
+        private Outcome(T result, RuntimeException error) {
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    /**
+     * The state shared by the attempts of one hedged request: the first
+     * attempt, run by the caller, and the hedged one, run by the pool.
+     */
+    private final class HedgedCall<T> implements Runnable {
+        private static final int FIRST = 0;
+        private static final int HEDGE = 1;
+
+        private final Attempt<T> attempt;
+        private final Discarder<T> discarder;
+        private final RequestAbortHandle[] abortHandles = { new RequestAbortHandle(), new RequestAbortHandle() };
+
+        /** The outcome of the hedged attempt, if it had to be waited for. */
+        private final BlockingQueue<Outcome<T>> hedgeOutcome = new LinkedBlockingQueue<Outcome<T>>();
+
+        /* Guarded by this call. */
+        private int winner = -1;
+        private boolean decided;
+        private boolean hedgeStarted;
+        private boolean hedgeForbidden;
+        private boolean gaveUp;
+
+        private HedgedCall(Attempt<T> attempt, Discarder<T> discarder) {
+            this.attempt = attempt;
+            this.discarder = discarder;
+        }
+
+        private T run(long delay) throws InterruptedException {
+            ScheduledFuture<?> hedge = hedgeThreadPool.schedule(this, delay, TimeUnit.MILLISECONDS);
+            try {
+                Outcome<T> outcome = attempt(FIRST);
+                boolean hedged;
+                synchronized (this) {
+                    hedgeForbidden = true;
+                    hedged = hedgeStarted;
+                }
+                if (!hedged && hedge.cancel(false)
+                        && cancellations.incrementAndGet() % PURGE_INTERVAL == 0) {
+                    hedgeThreadPool.purge();
+                }
+
+                if (outcome != null && outcome.error == null) return outcome.result;
+                if (!hedged) throw outcome.error;
+
+                // Either the hedged attempt won, or it's still our best chance
+                Outcome<T> other = hedgeOutcome.take();
+                if (other.error == null) return other.result;
+                throw (outcome != null) ? outcome.error : other.error;
+            } finally {
+                giveUp();
+            }
+        }
+
+        /** Runs the hedged attempt, once the delay is over and a thread is free. */
+        public void run() {
+            synchronized (this) {
+                if (hedgeForbidden) return;
+                hedgeStarted = true;
+            }
+            if (log.isDebugEnabled()) log.debug("No response in time, sending hedged request");
+            Outcome<T> outcome = attempt(HEDGE);
+            if (outcome == null) return;
+            synchronized (this) {
+                if (!gaveUp) {
+                    hedgeOutcome.add(outcome);
+                    return;
+                }
+            }
+            if (outcome.error == null) discard(outcome.result);
+        }
+
+        /**
+         * Runs the specified attempt, returning its outcome, or null if it
+         * completed successfully but lost the race.
+         */
+        private Outcome<T> attempt(int index) {
+            long startTime = System.nanoTime();
+            T result;
+            try {
+                result = call(attempt, abortHandles[index]);
+            } catch (RuntimeException e) {
+                return new Outcome<T>(null, e);
+            }
+
+            recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            if (claim(index)) {
+                abortHandles[1 - index].abort();
+                return new Outcome<T>(result, null);
+            }
+            discard(result);
+            return null;
+        }
+
+        /**
+         * Claims the race for the specified attempt, unless another attempt
+         * has already won it or the caller has given up.
+         */
+        private synchronized boolean claim(int index) {
+            if (decided) return false;
+            decided = true;
+            winner = index;
+            return true;
+        }
+
+        /**
+         * Makes sure any attempt still running is aborted, and any result the
+         * caller didn't take is released, once the caller has its answer.
+         */
+        private void giveUp() {
+            int won;
+            synchronized (this) {
+                decided = true;
+                hedgeForbidden = true;
+                gaveUp = true;
+                won = winner;
+            }
+            for (int i = 0; i < abortHandles.length; i++) {
+                if (i != won) abortHandles[i].abort();
+            }
+            Outcome<T> outcome;
+            while ((outcome = hedgeOutcome.poll()) != null) {
+                if (outcome.error == null) discard(outcome.result);
+            }
+        }
+
+        private void discard(T result) {
+            try {
+                discarder.discard(result);
+            } catch (Exception e) {
+                log.debug("Unable to release the result of a hedged request", e);
+            }
+        }
+    }
+}
@@ -57,30 +57,35 @@ public final class InputSubstream extends FilterInputStream {
 
     @Override
     public int read() throws IOException {
-        byte[] b = new byte[1];
-        int bytesRead = read(b, 0, 1);
+        skipToOffset();
+        if (currentPosition >= requestedLength + requestedOffset) return -1;
 
-        if (bytesRead == -1) return bytesRead;
-        return b[0];
+        int b = super.read();
+        if (b != -1) currentPosition++;
+        return b;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        while (currentPosition < requestedOffset) {
-            long skippedBytes = super.skip(requestedOffset - currentPosition);
-            currentPosition += skippedBytes;
-        }
+        skipToOffset();
 
         long bytesRemaining = (requestedLength + requestedOffset) - currentPosition;
 		if (bytesRemaining <= 0) return -1;
 
         len = (int) Math.min(len, bytesRemaining);
         int bytesRead = super.read(b, off, len);
-        currentPosition += bytesRead;
+        if (bytesRead > 0) currentPosition += bytesRead;
 
         return bytesRead;
     }
 
+    private void skipToOffset() throws IOException {
+        while (currentPosition < requestedOffset) {
+            long skippedBytes = super.skip(requestedOffset - currentPosition);
+            currentPosition += skippedBytes;
+        }
+    }
+
 	@Override
 	public synchronized void mark(int readlimit) {
 		markedPosition = currentPosition;
@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -57,22 +58,27 @@ public class RepeatableFileInputStream extends InputStream {
 
     /**
      * Resets the input stream to the last mark point, or the beginning of the
-     * stream if there is no mark point, by creating a new FileInputStream based
-     * on the underlying file.
+     * stream if there is no mark point, by moving the position of the
+     * underlying file's channel. A new FileInputStream is only created if the
+     * stream was closed.
      *
      * @throws IOException
      *             when the FileInputStream cannot be re-created.
      */
     public void reset() throws IOException {
-        this.fis.close();
-        this.fis = new FileInputStream(file);
-
-        long skipped = 0;
-		long toSkip = markPoint;
-        while (toSkip > 0) {
-			skipped = this.fis.skip(toSkip);
-			toSkip -= skipped;
-		}
+        FileChannel channel = this.fis.getChannel();
+        if (channel.isOpen()) {
+            channel.position(markPoint);
+        } else {
+            this.fis = new FileInputStream(file);
+
+            long skipped = 0;
+            long toSkip = markPoint;
+            while (toSkip > 0) {
+                skipped = this.fis.skip(toSkip);
+                toSkip -= skipped;
+            }
+        }
 
         if (log.isDebugEnabled()) {
         	log.debug("Reset to mark point " + markPoint
@@ -138,7 +144,7 @@ public class RepeatableFileInputStream extends InputStream {
      */
     public int read(byte[] arg0, int arg1, int arg2) throws IOException {
         int count = fis.read(arg0, arg1, arg2);
-        bytesReadPastMarkPoint += count;
+        if (count > 0) bytesReadPastMarkPoint += count;
         return count;
     }
 
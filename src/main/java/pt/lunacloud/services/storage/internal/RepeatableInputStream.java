@@ -28,6 +28,11 @@ import org.apache.commons.logging.LogFactory;
  * relies on buffered data to repeat, and can therefore only be repeated when
  * less data has been read than this buffer can hold.
  * <p>
+ * The buffer is taken from a {@link StreamBufferPool} when data is first read,
+ * and returned to it as soon as it's exceeded or the stream is closed, so
+ * repeatable uploads don't allocate a new buffer for every request. Data is
+ * read straight into the caller's array and copied once into the buffer.
+ * <p>
  * <b>Note:</b> Always use a {@link RepeatableFileInputStream} instead of this
  * class if you are sourcing data from a file, as the file-based repeatable
  * input stream can be repeated without any limitations.
@@ -40,9 +45,17 @@ public class RepeatableInputStream extends InputStream {
     private int bufferOffset = 0;
     private long bytesReadPastMark = 0;
     private byte[] buffer = null;
+    private final StreamBufferPool bufferPool;
 
     /**
-     * Creates a repeatable input stream based on another input stream.
+     * True while the data read since the mark fits in the buffer (even if
+     * the buffer hasn't been acquired yet), and the stream can be reset.
+     */
+    private boolean repeatable = true;
+
+    /**
+     * Creates a repeatable input stream based on another input stream, with
+     * its buffer taken from the shared {@link StreamBufferPool}.
      *
      * @param inputStream
      *            The input stream to wrap. The data read from the wrapped input
@@ -52,17 +65,36 @@ public class RepeatableInputStream extends InputStream {
      *            The number of bytes buffered by this class.
      */
     public RepeatableInputStream(InputStream inputStream, int bufferSize) {
+        this(inputStream, bufferSize, StreamBufferPool.getDefault());
+    }
+
+    /**
+     * Creates a repeatable input stream based on another input stream.
+     *
+     * @param inputStream
+     *            The input stream to wrap. The data read from the wrapped input
+     *            stream is buffered as it is read, up to the buffer limit
+     *            specified.
+     * @param bufferSize
+     *            The number of bytes buffered by this class.
+     * @param bufferPool
+     *            The pool to take the buffer from and return it to.
+     */
+    public RepeatableInputStream(InputStream inputStream, int bufferSize, StreamBufferPool bufferPool) {
         if (inputStream == null) {
             throw new IllegalArgumentException("InputStream cannot be null");
         }
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("StreamBufferPool cannot be null");
+        }
 
         this.is = inputStream;
         this.bufferSize = bufferSize;
-        this.buffer = new byte[this.bufferSize];
+        this.bufferPool = bufferPool;
 
         if (log.isDebugEnabled()) {
         	log.debug("Underlying input stream will be repeatable up to "
-        	        + this.buffer.length + " bytes");
+        	        + this.bufferSize + " bytes");
         }
     }
 
@@ -75,7 +107,7 @@ public class RepeatableInputStream extends InputStream {
      *             case the input stream data cannot be repeated.
      */
     public void reset() throws IOException {
-        if (bytesReadPastMark <= bufferSize) {
+        if (repeatable) {
         	if (log.isDebugEnabled()) {
         		log.debug("Reset after reading " + bytesReadPastMark + " bytes.");
         	}
@@ -103,22 +135,24 @@ public class RepeatableInputStream extends InputStream {
     	if (log.isDebugEnabled()) {
     		log.debug("Input stream marked at " + bytesReadPastMark + " bytes");
     	}
-    	if (bytesReadPastMark <= bufferSize && buffer != null) {
+    	if (repeatable) {
             /*
-             * Clear buffer of already-read data to make more space. It's safe
-             * to cast bytesReadPastMark to an int because it is known to be
-             * less than bufferSize, which is an int.
+             * Clear buffer of already-read data to make more space, by moving
+             * the data not yet replayed to the front of the same buffer. It's
+             * safe to cast bytesReadPastMark to an int because it is known to
+             * be less than bufferSize, which is an int.
              */
-            byte[] newBuffer = new byte[this.bufferSize];
-    		System.arraycopy(buffer, bufferOffset, newBuffer, 0, (int)(bytesReadPastMark - bufferOffset));
-            this.buffer = newBuffer;
-            this.bytesReadPastMark -= bufferOffset;
+            int remaining = (int)(bytesReadPastMark - bufferOffset);
+            if (buffer != null && remaining > 0 && bufferOffset > 0) {
+                System.arraycopy(buffer, bufferOffset, buffer, 0, remaining);
+            }
+            this.bytesReadPastMark = remaining;
     		this.bufferOffset = 0;
     	} else {
-            // If mark is called after the buffer was already exceeded, create a new buffer.
+            // If mark is called after the buffer was already exceeded, start buffering again.
     		this.bufferOffset = 0;
             this.bytesReadPastMark = 0;
-            this.buffer = new byte[this.bufferSize];
+            this.repeatable = true;
     	}
     }
 
@@ -130,25 +164,28 @@ public class RepeatableInputStream extends InputStream {
     }
 
     /**
+     * Closes the wrapped input stream and returns the buffer to its pool,
+     * after which the stream can no longer be reset.
+     *
      * @see java.io.InputStream#close()
      */
     public void close() throws IOException {
-        is.close();
+        try {
+            is.close();
+        } finally {
+            repeatable = false;
+            releaseBuffer();
+        }
     }
 
     /**
      * @see java.io.InputStream#read(byte[], int, int)
      */
     public int read(byte[] out, int outOffset, int outLength) throws IOException {
-        byte[] tmp = new byte[outLength];
-
         // Check whether we already have buffered data.
-        if (bufferOffset < bytesReadPastMark && buffer != null) {
+        if (repeatable && bufferOffset < bytesReadPastMark) {
             // Data is being repeated, so read from buffer instead of wrapped input stream.
-            int bytesFromBuffer = tmp.length;
-            if (bufferOffset + bytesFromBuffer > bytesReadPastMark) {
-                bytesFromBuffer = (int) bytesReadPastMark - bufferOffset;
-            }
+            int bytesFromBuffer = (int) Math.min(outLength, bytesReadPastMark - bufferOffset);
 
             // Write to output.
             System.arraycopy(buffer, bufferOffset, out, outOffset, bytesFromBuffer);
@@ -156,30 +193,14 @@ public class RepeatableInputStream extends InputStream {
             return bytesFromBuffer;
         }
 
-        // Read data from input stream.
-        int count = is.read(tmp);
+        // Read data from input stream straight into the output array.
+        int count = is.read(out, outOffset, outLength);
 
         if (count <= 0) {
             return count;
         }
 
-        // Fill the buffer with data, as long as we won't exceed its capacity.
-        if (bytesReadPastMark + count <= bufferSize) {
-            System.arraycopy(tmp, 0, buffer, (int) bytesReadPastMark, count);
-            bufferOffset += count;
-        } else if (buffer != null) {
-            // We have exceeded the buffer capacity, after which point it is of no use. Free the memory.
-        	if (log.isDebugEnabled()) {
-        		log.debug("Buffer size " + bufferSize + " has been exceeded and the input stream "
-                + "will not be repeatable until the next mark. Freeing buffer memory");
-        	}
-            buffer = null;
-        }
-
-        // Write to output byte array.
-        System.arraycopy(tmp, 0, out, outOffset, count);
-        bytesReadPastMark += count;
-
+        buffer(out, outOffset, count);
         return count;
     }
 
@@ -187,17 +208,63 @@ public class RepeatableInputStream extends InputStream {
      * @see java.io.InputStream#read()
      */
     public int read() throws IOException {
-        byte[] tmp = new byte[1];
-        int count = read(tmp);
-        if (count != -1) {
-            return tmp[0];
+        if (repeatable && bufferOffset < bytesReadPastMark) {
+            return buffer[bufferOffset++] & 0xff;
+        }
+
+        int b = is.read();
+        if (b == -1) {
+            return b;
+        }
+
+        if (repeatable && bytesReadPastMark + 1 <= bufferSize) {
+            acquireBuffer()[bufferOffset++] = (byte) b;
+            bytesReadPastMark++;
         } else {
-            return count;
+            exceeded(1);
         }
+        return b;
     }
 
     public InputStream getWrappedInputStream() {
         return is;
     }
 
+    /** Copies data just read from the wrapped stream into the buffer, if it fits. */
+    private void buffer(byte[] data, int offset, int count) {
+        // Fill the buffer with data, as long as we won't exceed its capacity.
+        if (repeatable && bytesReadPastMark + count <= bufferSize) {
+            System.arraycopy(data, offset, acquireBuffer(), (int) bytesReadPastMark, count);
+            bufferOffset += count;
+            bytesReadPastMark += count;
+        } else {
+            exceeded(count);
+        }
+    }
+
+    private void exceeded(int count) {
+        if (repeatable) {
+            // We have exceeded the buffer capacity, after which point it is of no use. Free the memory.
+        	if (log.isDebugEnabled()) {
+        		log.debug("Buffer size " + bufferSize + " has been exceeded and the input stream "
+                + "will not be repeatable until the next mark. Returning buffer to the pool");
+        	}
+            repeatable = false;
+            releaseBuffer();
+        }
+        bytesReadPastMark += count;
+    }
+
+    private byte[] acquireBuffer() {
+        if (buffer == null) buffer = bufferPool.acquire(bufferSize);
+        return buffer;
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
 }
@@ -22,11 +22,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Date;
@@ -268,4 +270,101 @@ public class ServiceUtils {
                     "The data stored in '" + destinationFile.getAbsolutePath() + "' may be corrupt.");
         }
     }
+
+    /**
+     * Downloads an S3Object, as returned from
+     * {@link LunacloudStorageClient#getObject(pt.lunacloud.services.storage.model.GetObjectRequest)},
+     * into the remaining space of the specified buffer, which may be direct.
+     * Data is read straight into the buffer's backing array when it has one.
+     * On success the buffer's position is advanced past the object's data;
+     * on failure it's left unchanged.
+     * <p>
+     * If the object's length is known and larger than the space remaining in
+     * the buffer, the download is aborted before anything is stored.
+     * Otherwise an object that turns out not to fit (or a download that
+     * fails) may leave the remaining space of the buffer overwritten.
+     *
+     * @param s3Object
+     *            The S3Object containing a reference to an InputStream
+     *            containing the object's data.
+     * @param destination
+     *            The buffer to store the object's data in.
+     * @param performIntegrityCheck
+     *            Boolean valuable to indicate whether do the integrity check or not
+     * @param contentLength
+     *            The length of the object's data, or -1 if it isn't known.
+     */
+    public static void downloadObjectToBuffer(StorageObject s3Object, ByteBuffer destination, boolean performIntegrityCheck,
+            long contentLength) {
+        if (contentLength > destination.remaining()) {
+            abortQuietly(s3Object);
+            throw new LunacloudClientException("Unable to store object contents in buffer: the object's "
+                    + contentLength + " bytes don't fit in the " + destination.remaining() + " bytes remaining in the buffer");
+        }
+
+        int start = destination.position();
+        try {
+            InputStream content = s3Object.getObjectContent();
+            if (destination.hasArray()) {
+                byte[] array = destination.array();
+                int bytesRead;
+                while (destination.hasRemaining()
+                        && (bytesRead = content.read(array, destination.arrayOffset() + destination.position(), destination.remaining())) > -1) {
+                    destination.position(destination.position() + bytesRead);
+                }
+            } else {
+                byte[] buffer = new byte[1024*10];
+                int bytesRead;
+                while (destination.hasRemaining()
+                        && (bytesRead = content.read(buffer, 0, Math.min(buffer.length, destination.remaining()))) > -1) {
+                    destination.put(buffer, 0, bytesRead);
+                }
+            }
+            if (!destination.hasRemaining() && content.read() != -1) {
+                throw new LunacloudClientException("Unable to store object contents in buffer: "
+                        + "the object is larger than the " + (destination.position() - start) + " bytes remaining in the buffer");
+            }
+        } catch (IOException e) {
+            abortQuietly(s3Object);
+            destination.position(start);
+            throw new LunacloudClientException(
+                    "Unable to store object contents in buffer: " + e.getMessage(), e);
+        } catch (LunacloudClientException e) {
+            abortQuietly(s3Object);
+            destination.position(start);
+            throw e;
+        } finally {
+            try {s3Object.getObjectContent().close();} catch (Exception e) {}
+        }
+
+        byte[] clientSideHash = null;
+        byte[] serverSideHash = null;
+        try {
+            // Multipart Uploads don't have an MD5 calculated on the service side
+            if (performIntegrityCheck && ServiceUtils.isMultipartUploadETag(s3Object.getObjectMetadata().getETag()) == false) {
+                ByteBuffer downloaded = destination.duplicate();
+                downloaded.flip();
+                downloaded.position(start);
+                clientSideHash = Md5Utils.computeMD5Hash(downloaded);
+                serverSideHash = BinaryUtils.fromHex(s3Object.getObjectMetadata().getETag());
+            }
+        } catch (Exception e) {
+            log.warn("Unable to calculate MD5 hash to validate download: " + e.getMessage(), e);
+        }
+
+        if (performIntegrityCheck && clientSideHash != null && serverSideHash != null && !Arrays.equals(clientSideHash, serverSideHash)) {
+            destination.position(start);
+            throw new LunacloudClientException("Unable to verify integrity of data download.  " +
+                    "Client calculated content hash didn't match hash calculated by Amazon S3.  " +
+                    "The data stored in the buffer may be corrupt.");
+        }
+    }
+
+    private static void abortQuietly(StorageObject s3Object) {
+        try {
+            s3Object.getObjectContent().abort();
+        } catch (IOException abortException) {
+            log.warn("Couldn't abort stream", abortException);
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.services.storage.internal;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free pool of the byte buffers used to make upload streams
+ * repeatable, so that uploading from a stream doesn't allocate a new buffer
+ * for every request.
+ * <p>
+ * Only buffers of the pool's size are pooled; buffers of any other size are
+ * simply allocated, and left to the garbage collector when released.
+ */
+public final class StreamBufferPool {
+
+    /** The default number of buffers kept in a pool. */
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+    /** Shared pool of buffers of the default stream buffer size. */
+    private static final StreamBufferPool DEFAULT_POOL =
+            new StreamBufferPool(Constants.DEFAULT_STREAM_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+
+    private final int bufferSize;
+    private final AtomicReferenceArray<byte[]> buffers;
+
+    /**
+     * Constructs a new pool.
+     *
+     * @param bufferSize
+     *            The size of the buffers kept in the pool.
+     * @param maxPooledBuffers
+     *            The maximum number of free buffers kept in the pool.
+     */
+    public StreamBufferPool(int bufferSize, int maxPooledBuffers) {
+        if (bufferSize < 0) throw new IllegalArgumentException("Buffer size must not be negative");
+        if (maxPooledBuffers < 0) throw new IllegalArgumentException("Maximum pooled buffers must not be negative");
+
+        this.bufferSize = bufferSize;
+        this.buffers = new AtomicReferenceArray<byte[]>(maxPooledBuffers);
+    }
+
+    /**
+     * Returns the shared pool of buffers of
+     * {@link Constants#DEFAULT_STREAM_BUFFER_SIZE} bytes.
+     */
+    public static StreamBufferPool getDefault() {
+        return DEFAULT_POOL;
+    }
+
+    /**
+     * Returns a buffer of the specified size, taken from the pool if possible.
+     * The contents of a pooled buffer are whatever its last user left in it.
+     */
+    public byte[] acquire(int size) {
+        if (size == bufferSize) {
+            for (int i = 0; i < buffers.length(); i++) {
+                byte[] buffer = buffers.get(i);
+                if (buffer != null && buffers.compareAndSet(i, buffer, null)) return buffer;
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Returns the specified buffer to the pool. The caller must not use the
+     * buffer anymore afterwards.
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize) return;
+        for (int i = 0; i < buffers.length(); i++) {
+            if (buffers.get(i) == null && buffers.compareAndSet(i, null, buffer)) return;
+        }
+    }
+
+    /** Returns the size of the buffers kept in this pool. */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -27,6 +27,8 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import javax.management.ObjectName;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -52,6 +54,7 @@ import pt.lunacloud.services.storage.model.PutObjectRequest;
 import pt.lunacloud.services.storage.model.StorageObjectSummary;
 import pt.lunacloud.services.storage.model.StorageObject;
 import pt.lunacloud.services.storage.transfer.Transfer.TransferState;
+import pt.lunacloud.services.storage.transfer.internal.AbstractTransfer;
 import pt.lunacloud.services.storage.transfer.internal.DownloadImpl;
 import pt.lunacloud.services.storage.transfer.internal.DownloadMonitor;
 import pt.lunacloud.services.storage.transfer.internal.MultipleFileDownloadImpl;
@@ -59,6 +62,7 @@ import pt.lunacloud.services.storage.transfer.internal.MultipleFileTransfer;
 import pt.lunacloud.services.storage.transfer.internal.MultipleFileTransferMonitor;
 import pt.lunacloud.services.storage.transfer.internal.MultipleFileUploadImpl;
 import pt.lunacloud.services.storage.transfer.internal.ProgressListenerChain;
+import pt.lunacloud.services.storage.transfer.internal.TransferManagerStatistics;
 import pt.lunacloud.services.storage.transfer.internal.TransferManagerUtils;
 import pt.lunacloud.services.storage.transfer.internal.TransferProgressImpl;
 import pt.lunacloud.services.storage.transfer.internal.TransferProgressUpdatingListener;
@@ -66,6 +70,7 @@ import pt.lunacloud.services.storage.transfer.internal.TransferStateChangeListen
 import pt.lunacloud.services.storage.transfer.internal.UploadCallable;
 import pt.lunacloud.services.storage.transfer.internal.UploadImpl;
 import pt.lunacloud.services.storage.transfer.internal.UploadMonitor;
+import pt.lunacloud.util.JmxUtils;
 import pt.lunacloud.util.VersionInfoUtils;
 
 /**
@@ -122,6 +127,16 @@ public class TransferManager {
 	private ScheduledExecutorService timedThreadPool = new ScheduledThreadPoolExecutor(
 	        1);
 
+	/** Thread on which progress events are dispatched to listeners. */
+	private ScheduledExecutorService progressDispatchThreadPool = TransferManagerUtils
+	        .createProgressDispatchExecutorService();
+
+	/** Statistics of the transfers, exposed over JMX if enabled. */
+	private final TransferManagerStatistics statistics;
+
+	/** The name of the statistics MBean, or null if JMX isn't enabled. */
+	private ObjectName statisticsMBeanName;
+
 	private static final Log log = LogFactory.getLog(TransferManager.class);
 
 	/**
@@ -179,6 +194,7 @@ public class TransferManager {
 		this.s3 = s3;
 		this.threadPool = threadPool;
 		this.configuration = new TransferManagerConfiguration();
+		this.statistics = new TransferManagerStatistics(threadPool);
 	}
 
 	/**
@@ -191,6 +207,13 @@ public class TransferManager {
 	 */
 	public void setConfiguration(TransferManagerConfiguration configuration) {
 		this.configuration = configuration;
+		synchronized (this) {
+			if (configuration.isJmxEnabled() && statisticsMBeanName == null) {
+				statisticsMBeanName = JmxUtils.registerMBean("TransferManager", statistics);
+			} else if (!configuration.isJmxEnabled() && statisticsMBeanName != null) {
+				unregisterStatistics();
+			}
+		}
 	}
 
 	/**
@@ -203,6 +226,18 @@ public class TransferManager {
 		return configuration;
 	}
 
+	/**
+	 * Returns the statistics of the transfers made by this
+	 * <code>TransferManager</code>: how many are active, completed or failed,
+	 * their aggregate throughput and the estimated time until the active ones
+	 * complete. These are the statistics registered over JMX, when enabled.
+	 * 
+	 * @return The statistics of this <code>TransferManager</code>.
+	 */
+	public TransferManagerMXBean getStatistics() {
+		return statistics;
+	}
+
 	/**
 	 * Returns the underlying Amazon S3 client used to make requests to Amazon
 	 * S3.
@@ -379,13 +414,13 @@ public class TransferManager {
 		transferProgress.setTotalBytesToTransfer(TransferManagerUtils
 		        .getContentLength(putObjectRequest));
 
-		ProgressListenerChain listenerChain = new ProgressListenerChain(
-		        new TransferProgressUpdatingListener(transferProgress),
-		        putObjectRequest.getProgressListener());
+		ProgressListenerChain listenerChain = createListenerChain(
+		        transferProgress, putObjectRequest.getProgressListener());
 		putObjectRequest.setProgressListener(listenerChain);
 
 		UploadImpl upload = new UploadImpl(description, transferProgress,
 		        listenerChain, stateListener);
+		track(upload, listenerChain);
 
 		UploadCallable uploadCallable = new UploadCallable(this, threadPool,
 		        upload, putObjectRequest, listenerChain);
@@ -473,9 +508,8 @@ public class TransferManager {
 
 		// Add our own transfer progress listener
 		TransferProgressImpl transferProgress = new TransferProgressImpl();
-		ProgressListenerChain listenerChain = new ProgressListenerChain(
-		        new TransferProgressUpdatingListener(transferProgress),
-		        getObjectRequest.getProgressListener());
+		ProgressListenerChain listenerChain = createListenerChain(
+		        transferProgress, getObjectRequest.getProgressListener());
 		getObjectRequest.setProgressListener(listenerChain);
 		final ObjectMetadata objectMetadata = s3.getObjectMetadata(
 		        getObjectRequest.getBucketName(), getObjectRequest.getKey());
@@ -483,6 +517,7 @@ public class TransferManager {
 		final StartDownloadLock startDownloadLock = new StartDownloadLock();
 		final DownloadImpl download = new DownloadImpl(description,
 		        transferProgress, listenerChain, null, stateListener);
+		track(download, listenerChain);
 		long contentLength = objectMetadata.getContentLength();
 		if (getObjectRequest.getRange() != null
 		        && getObjectRequest.getRange().length == 2) {
@@ -882,12 +917,54 @@ public class TransferManager {
 	public void shutdownNow() {
 		threadPool.shutdownNow();
 		timedThreadPool.shutdownNow();
+		progressDispatchThreadPool.shutdownNow();
+		synchronized (this) {
+			unregisterStatistics();
+		}
 
 		if (s3 instanceof LunacloudStorageClient) {
 			((LunacloudStorageClient) s3).shutdown();
 		}
 	}
 
+	/**
+	 * Returns a new listener chain updating the specified progress inline,
+	 * and dispatching events to the specified request listener (and to those
+	 * added later to the transfer) at the configured rate.
+	 */
+	private ProgressListenerChain createListenerChain(
+	        TransferProgressImpl transferProgress,
+	        ProgressListener requestListener) {
+		long interval = configuration.getProgressEventIntervalMillis();
+		ProgressListenerChain listenerChain = new ProgressListenerChain(
+		        interval > 0 ? progressDispatchThreadPool : null, interval);
+		listenerChain.addSynchronousListener(new TransferProgressUpdatingListener(
+		        transferProgress));
+
+		// The progress of a whole directory is updated inline too
+		if (requestListener instanceof TransferProgressUpdatingListener) {
+			listenerChain.addSynchronousListener(requestListener);
+		} else {
+			listenerChain.addProgressListener(requestListener);
+		}
+		return listenerChain;
+	}
+
+	/**
+	 * Tracks the specified transfer in this <code>TransferManager</code>'s
+	 * statistics.
+	 */
+	private void track(AbstractTransfer transfer,
+	        ProgressListenerChain listenerChain) {
+		listenerChain.addSynchronousListener(statistics);
+		statistics.track(transfer);
+	}
+
+	private void unregisterStatistics() {
+		JmxUtils.unregisterMBean(statisticsMBeanName);
+		statisticsMBeanName = null;
+	}
+
 	public <X extends AmazonWebServiceRequest> X appendUserAgent(X request,
 	        String userAgent) {
 		request.getRequestClientOptions().addClientMarker(USER_AGENT);
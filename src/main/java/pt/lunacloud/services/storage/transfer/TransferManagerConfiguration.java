@@ -33,6 +33,9 @@ public class TransferManagerConfiguration {
     /** Default size threshold for when to use multipart uploads.  */
     private static final int DEFAULT_MULTIPART_UPLOAD_THRESHOLD = 16 * MB;
 
+    /** Default interval between two progress events reporting bytes transfered (10 per second). */
+    private static final long DEFAULT_PROGRESS_EVENT_INTERVAL_MILLIS = 100;
+
     
     /**
      * The minimum part size for upload parts. Decreasing the minimum part size
@@ -57,6 +60,16 @@ public class TransferManagerConfiguration {
      */
     private int multipartUploadThreshold = DEFAULT_MULTIPART_UPLOAD_THRESHOLD;
 
+    /**
+     * The minimum time, in milliseconds, between two progress events
+     * reporting bytes transfered to a transfer's listeners, or 0 to notify
+     * listeners inline, on the threads transferring data.
+     */
+    private long progressEventIntervalMillis = DEFAULT_PROGRESS_EVENT_INTERVAL_MILLIS;
+
+    /** True if the TransferManager's statistics are exposed over JMX. */
+    private boolean jmxEnabled;
+
     
     /**
      * Returns the minimum part size for upload parts. 
@@ -124,4 +137,61 @@ public class TransferManagerConfiguration {
     public void setMultipartUploadThreshold(int multipartUploadThreshold) {
         this.multipartUploadThreshold = multipartUploadThreshold;
     }
+
+    /**
+     * Returns the minimum time, in milliseconds, between two progress events
+     * reporting bytes transfered to a transfer's progress listeners.
+     * 
+     * @return The minimum time between two progress events, or 0 if
+     *         listeners are notified inline.
+     */
+    public long getProgressEventIntervalMillis() {
+        return progressEventIntervalMillis;
+    }
+
+    /**
+     * Sets the minimum time, in milliseconds, between two progress events
+     * reporting bytes transfered to a transfer's progress listeners. Listeners
+     * are notified on a separate thread, with the bytes transfered since the
+     * previous event, so that they never slow transfers down; other events
+     * (started, completed, failed...) are delivered in order, as soon as
+     * possible. Defaults to 100 milliseconds (10 events per second).
+     * <p>
+     * Setting it to 0 notifies listeners inline, on the threads transferring
+     * data, of every few kilobytes transfered.
+     * 
+     * @param progressEventIntervalMillis
+     *            The minimum time between two progress events, or 0 to
+     *            notify listeners inline.
+     */
+    public void setProgressEventIntervalMillis(long progressEventIntervalMillis) {
+        this.progressEventIntervalMillis = progressEventIntervalMillis;
+    }
+
+    /**
+     * Returns true if the TransferManager's statistics are registered as an
+     * MBean with the platform MBean server.
+     * 
+     * @return True if JMX is enabled.
+     */
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Sets whether the TransferManager's statistics (queue depth, active
+     * transfers and throughput) are registered as an MBean with the platform
+     * MBean server, as pt.lunacloud:type=TransferManager. The statistics
+     * are always tracked, and available from
+     * {@link TransferManager#getStatistics()}, so the MBean includes the
+     * transfers started before it's registered. Disabled by default.
+     * 
+     * @param jmxEnabled
+     *            True to register the TransferManager's MBean.
+     * 
+     * @see TransferManagerMXBean
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
 }
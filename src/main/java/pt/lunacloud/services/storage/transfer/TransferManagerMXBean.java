@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.services.storage.transfer;
+
+/**
+ * Management interface of a {@link TransferManager}, registered as
+ * pt.lunacloud:type=TransferManager when JMX is enabled in its configuration.
+ * Also available, without JMX, from {@link TransferManager#getStatistics()}.
+ *
+ * @see TransferManagerConfiguration#setJmxEnabled(boolean)
+ */
+public interface TransferManagerMXBean {
+
+    /** Returns the number of tasks waiting in the thread pool's queue. */
+    int getQueueDepth();
+
+    /** Returns the number of threads currently executing tasks. */
+    int getActiveThreads();
+
+    /** Returns the number of uploads and downloads that aren't finished yet. */
+    int getActiveTransfers();
+
+    /** Returns the number of uploads and downloads completed successfully. */
+    long getCompletedTransfers();
+
+    /** Returns the number of uploads and downloads that failed or were canceled. */
+    long getFailedTransfers();
+
+    /** Returns the number of bytes uploaded and downloaded. */
+    long getBytesTransferred();
+
+    /** Returns the bytes uploaded and downloaded per second, averaged over roughly the last minute. */
+    double getThroughput();
+
+    /** Returns the bytes uploaded and downloaded per second, measured over the last sampling interval. */
+    double getInstantaneousThroughput();
+
+    /**
+     * Returns the estimated time, in milliseconds, until the transfers not
+     * finished yet complete at the average throughput, or -1 if it can't be
+     * estimated.
+     */
+    long getEstimatedMillisRemaining();
+}
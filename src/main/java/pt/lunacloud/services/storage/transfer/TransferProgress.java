@@ -14,20 +14,64 @@
  */
 package pt.lunacloud.services.storage.transfer;
 
+import pt.lunacloud.metrics.ThroughputMeter;
+import pt.lunacloud.util.StripedLongCounter;
+
 /**
  * Describes the progress of a transfer.
+ * <p>
+ * The progress is updated without locking by the threads transferring data,
+ * which may be many for a multipart upload, so reading it never blocks them.
+ * Transfer rates are computed from the bytes transfered when they are read.
  */
 public abstract class TransferProgress {
+    /** Bytes transfered, updated concurrently by the threads transferring parts. */
+    private final StripedLongCounter bytesTransferedCounter = new StripedLongCounter();
+
+    /**
+     * Bytes transfered, as set directly by subclasses written before the
+     * progress was updated concurrently. It's added to the bytes recorded
+     * through {@link #addBytesTransfered(long)}, and is left at 0 by this
+     * class otherwise.
+     *
+     * @deprecated Use {@link #addBytesTransfered(long)} or
+     *             {@link #setBytesTransfered(long)}, which don't lose
+     *             updates made concurrently.
+     */
+    @Deprecated
     protected volatile long bytesTransfered = 0;
     protected volatile long totalBytesToTransfer = -1;
 
+    /** Time constant of the average transfer rate, in seconds. */
+    private static final double AVERAGE_RATE_TIME_CONSTANT_SECONDS = 10;
+
+    private final ThroughputMeter throughput = new ThroughputMeter(AVERAGE_RATE_TIME_CONSTANT_SECONDS);
+
     /**
      * Returns the number of bytes completed in the associated transfer.
      *
      * @return The number of bytes completed in the associated transfer.
      */
+    @SuppressWarnings("deprecation")
     public long getBytesTransfered() {
-        return bytesTransfered;
+        return bytesTransferedCounter.sum() + bytesTransfered;
+    }
+
+    /**
+     * Adds the specified number of bytes to the bytes completed in the
+     * associated transfer.
+     */
+    protected void addBytesTransfered(long bytes) {
+        bytesTransferedCounter.add(bytes);
+    }
+
+    /**
+     * Sets the number of bytes completed in the associated transfer.
+     */
+    @SuppressWarnings("deprecation")
+    protected void setBytesTransfered(long bytes) {
+        bytesTransfered = 0;
+        bytesTransferedCounter.set(bytes);
     }
 
     /**
@@ -49,9 +93,52 @@ public abstract class TransferProgress {
      * @return A percentage of the number of bytes transfered out of the total
      *         number of bytes to transfer.
      */
-    public synchronized double getPercentTransfered() {
+    public double getPercentTransfered() {
         if (getBytesTransfered() < 0) return 0;
 
         return ((double)getBytesTransfered() / (double)getTotalBytesToTransfer()) * (double)100;
     }
+
+    /**
+     * Returns the number of bytes transfered per second, measured between
+     * the last two calls to this method or {@link #getAverageBytesPerSecond()}
+     * at least a second apart.
+     *
+     * @return The current transfer rate, in bytes per second.
+     */
+    public double getBytesPerSecond() {
+        throughput.sample(getBytesTransfered());
+        return throughput.getInstantaneousRate();
+    }
+
+    /**
+     * Returns the number of bytes transfered per second, as an exponentially
+     * weighted moving average over roughly the last ten seconds.
+     *
+     * @return The average transfer rate, in bytes per second.
+     */
+    public double getAverageBytesPerSecond() {
+        throughput.sample(getBytesTransfered());
+        return throughput.getAverageRate();
+    }
+
+    /**
+     * Returns the estimated time, in milliseconds, until the transfer
+     * completes at the average transfer rate, or -1 if it can't be estimated
+     * yet because the total size isn't known or nothing was transfered.
+     *
+     * @return The estimated time until the transfer completes, in
+     *         milliseconds, or -1 if it can't be estimated.
+     *
+     * @see #getAverageBytesPerSecond()
+     */
+    public long getEstimatedMillisRemaining() {
+        long remaining = getTotalBytesToTransfer() - getBytesTransfered();
+        if (getTotalBytesToTransfer() < 0) return -1;
+        if (remaining <= 0) return 0;
+
+        double rate = getAverageBytesPerSecond();
+        if (rate <= 0) return -1;
+        return (long) (remaining / rate * 1000);
+    }
 }
@@ -14,8 +14,15 @@
  */
 package pt.lunacloud.services.storage.transfer.internal;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,27 +30,131 @@ import org.apache.commons.logging.LogFactory;
 import pt.lunacloud.services.storage.model.ProgressEvent;
 import pt.lunacloud.services.storage.model.ProgressListener;
 
-
+/**
+ * Progress listener notifying a list of listeners.
+ * <p>
+ * Synchronous listeners are notified inline, on the thread transferring the
+ * data, so they must be cheap and thread safe. Other listeners are notified
+ * inline too, unless the chain has a dispatch executor: then the bytes
+ * transfered are summed and delivered in a single event at most once per
+ * dispatch interval, and the other events (started, completed, failed...)
+ * are delivered in order as soon as possible, all on the dispatch executor's
+ * thread, so that slow listeners never slow the transfer down.
+ */
 public class ProgressListenerChain implements ProgressListener {
-    private final List<ProgressListener> listeners = new ArrayList<ProgressListener>();
+    private final List<ProgressListener> synchronousListeners = new CopyOnWriteArrayList<ProgressListener>();
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+
+    /** The single threaded executor events are dispatched on, or null to dispatch them inline. */
+    private final ScheduledExecutorService dispatchExecutor;
+    private final long dispatchIntervalMillis;
+
+    /** Bytes transfered that weren't dispatched yet. */
+    private final AtomicLong pendingBytes = new AtomicLong();
+    /** Events other than bytes transfered that weren't dispatched yet. */
+    private final Queue<ProgressEvent> pendingEvents = new ConcurrentLinkedQueue<ProgressEvent>();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+
+    private final Runnable dispatchTask = new Runnable() {
+        public void run() {
+            dispatchPendingEvents();
+        }
+    };
 
     private static final Log log = LogFactory.getLog(ProgressListenerChain.class);
     
     public ProgressListenerChain(ProgressListener... listeners) {
+        this(null, 0, listeners);
+    }
+
+    /**
+     * Creates a chain dispatching events to its listeners on the specified
+     * executor, coalescing the bytes transfered over the specified interval.
+     *
+     * @param dispatchExecutor
+     *            The single threaded executor to dispatch events on, or null
+     *            to notify listeners inline.
+     * @param dispatchIntervalMillis
+     *            The minimum time (in milliseconds) between two events
+     *            reporting bytes transfered.
+     * @param listeners
+     *            The listeners to notify.
+     */
+    public ProgressListenerChain(ScheduledExecutorService dispatchExecutor, long dispatchIntervalMillis,
+            ProgressListener... listeners) {
+        this.dispatchExecutor = dispatchExecutor;
+        this.dispatchIntervalMillis = dispatchIntervalMillis;
         for (ProgressListener listener : listeners) addProgressListener(listener);
     }
 
-    public synchronized void addProgressListener(ProgressListener listener) {
+    public void addProgressListener(ProgressListener listener) {
         if (listener == null) return;
         this.listeners.add(listener);
     }
 
-    public synchronized void removeProgressListener(ProgressListener listener) {
+    public void removeProgressListener(ProgressListener listener) {
         if (listener == null) return;
         this.listeners.remove(listener);
     }
 
+    /**
+     * Adds a listener notified inline, on the thread transferring the data,
+     * of every event.
+     */
+    public void addSynchronousListener(ProgressListener listener) {
+        if (listener == null) return;
+        this.synchronousListeners.add(listener);
+    }
+
     public void progressChanged(final ProgressEvent progressEvent) {
+        notify(synchronousListeners, progressEvent);
+
+        if (dispatchExecutor == null) {
+            notify(listeners, progressEvent);
+        } else if (!listeners.isEmpty()) {
+            if (progressEvent.getEventCode() == 0) {
+                pendingBytes.addAndGet(progressEvent.getBytesTransfered());
+                scheduleDispatch(dispatchIntervalMillis);
+            } else {
+                // Keep the bytes transfered so far ahead of the event
+                queueBytes(pendingBytes.getAndSet(0));
+                pendingEvents.add(progressEvent);
+                scheduleDispatch(0);
+            }
+        }
+    }
+
+    private void scheduleDispatch(long delayMillis) {
+        if (!dispatchScheduled.compareAndSet(false, true)) return;
+        try {
+            dispatchExecutor.schedule(dispatchTask, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down; deliver what we have inline rather than dropping it
+            dispatchPendingEvents();
+        }
+    }
+
+    private void dispatchPendingEvents() {
+        dispatchScheduled.set(false);
+        for (ProgressEvent event; (event = pendingEvents.poll()) != null;) {
+            notify(listeners, event);
+        }
+        queueBytes(pendingBytes.getAndSet(0));
+        for (ProgressEvent event; (event = pendingEvents.poll()) != null;) {
+            notify(listeners, event);
+        }
+    }
+
+    /** Queues events reporting the specified number of bytes transfered, if any. */
+    private void queueBytes(long bytes) {
+        while (bytes != 0) {
+            int eventBytes = (int) Math.max(Integer.MIN_VALUE, Math.min(bytes, Integer.MAX_VALUE));
+            pendingEvents.add(new ProgressEvent(eventBytes));
+            bytes -= eventBytes;
+        }
+    }
+
+    private static void notify(List<ProgressListener> listeners, ProgressEvent progressEvent) {
         for ( ProgressListener listener : listeners ) {
             try {
                 listener.progressChanged(progressEvent);
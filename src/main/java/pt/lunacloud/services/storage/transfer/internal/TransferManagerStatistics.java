@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.services.storage.transfer.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.lunacloud.metrics.ThroughputMeter;
+import pt.lunacloud.services.storage.model.ProgressEvent;
+import pt.lunacloud.services.storage.model.ProgressListener;
+import pt.lunacloud.services.storage.transfer.Transfer;
+import pt.lunacloud.services.storage.transfer.TransferManagerMXBean;
+import pt.lunacloud.services.storage.transfer.Transfer.TransferState;
+import pt.lunacloud.services.storage.transfer.TransferProgress;
+import pt.lunacloud.util.StripedLongCounter;
+
+/**
+ * The statistics of a TransferManager, optionally exposed over JMX.
+ * Registered as a progress and state change listener of every transfer it
+ * tracks. Throughput is computed from the bytes transfered when it's read.
+ */
+public class TransferManagerStatistics implements TransferManagerMXBean,
+        ProgressListener, TransferStateChangeListener {
+
+    private final ThreadPoolExecutor threadPool;
+
+    /** The transfers not finished yet, as a set. */
+    private final ConcurrentMap<Transfer, Boolean> activeTransfers = new ConcurrentHashMap<Transfer, Boolean>();
+
+    private final AtomicLong completedTransfers = new AtomicLong();
+    private final AtomicLong failedTransfers = new AtomicLong();
+    private final StripedLongCounter bytesTransferred = new StripedLongCounter();
+    private final ThroughputMeter throughput = new ThroughputMeter(60);
+
+    public TransferManagerStatistics(ThreadPoolExecutor threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * Tracks the specified transfer until it finishes. Its progress must be
+     * reported to this object too, synchronously.
+     */
+    public void track(AbstractTransfer transfer) {
+        activeTransfers.put(transfer, Boolean.TRUE);
+        transfer.addStateChangeListener(this);
+        // The transfer may have finished before we started listening
+        if (transfer.isDone()) transferStateChanged(transfer, transfer.getState());
+    }
+
+    public void progressChanged(ProgressEvent progressEvent) {
+        if (progressEvent.getBytesTransfered() > 0) {
+            bytesTransferred.add(progressEvent.getBytesTransfered());
+        }
+    }
+
+    public void transferStateChanged(Transfer transfer, TransferState state) {
+        if (state != TransferState.Completed && state != TransferState.Failed
+                && state != TransferState.Canceled) return;
+
+        // Count each transfer once, even if its state changes again
+        if (activeTransfers.remove(transfer) == null) return;
+        if (state == TransferState.Completed) {
+            completedTransfers.incrementAndGet();
+        } else {
+            failedTransfers.incrementAndGet();
+        }
+    }
+
+    public int getQueueDepth() {
+        return threadPool.getQueue().size();
+    }
+
+    public int getActiveThreads() {
+        return threadPool.getActiveCount();
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers.size();
+    }
+
+    public long getCompletedTransfers() {
+        return completedTransfers.get();
+    }
+
+    public long getFailedTransfers() {
+        return failedTransfers.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.sum();
+    }
+
+    public double getThroughput() {
+        throughput.sample(bytesTransferred.sum());
+        return throughput.getAverageRate();
+    }
+
+    public double getInstantaneousThroughput() {
+        throughput.sample(bytesTransferred.sum());
+        return throughput.getInstantaneousRate();
+    }
+
+    public long getEstimatedMillisRemaining() {
+        long remaining = 0;
+        for (Transfer transfer : activeTransfers.keySet()) {
+            TransferProgress progress = transfer.getProgress();
+            if (progress.getTotalBytesToTransfer() < 0) return -1;
+            remaining += Math.max(0, progress.getTotalBytesToTransfer() - progress.getBytesTransfered());
+        }
+        if (remaining == 0) return 0;
+
+        double rate = getThroughput();
+        if (rate <= 0) return -1;
+        return (long) (remaining / rate * 1000);
+    }
+}
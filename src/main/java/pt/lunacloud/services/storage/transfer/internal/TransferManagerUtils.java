@@ -18,6 +18,7 @@ import static pt.lunacloud.services.storage.internal.Constants.*;
 
 import java.io.File;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -48,6 +49,22 @@ public class TransferManagerUtils {
         return (ThreadPoolExecutor)Executors.newFixedThreadPool(10, threadFactory);
     }
 
+    /**
+     * Returns a new single threaded executor, with a daemon thread, to
+     * dispatch progress events to listeners on.
+     */
+    public static ScheduledExecutorService createProgressDispatchExecutorService() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("s3-transfer-manager-progress-dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
 	/**
 	 * Returns true if the specified upload request can use parallel part
 	 * uploads for increased performance.
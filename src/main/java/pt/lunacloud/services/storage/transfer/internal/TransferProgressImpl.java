@@ -18,12 +18,13 @@ import pt.lunacloud.services.storage.transfer.TransferProgress;
 
 public class TransferProgressImpl extends TransferProgress {
     
-    public synchronized void updateProgress(long bytes) {
-        this.bytesTransfered += bytes;
+    public void updateProgress(long bytes) {
+        addBytesTransfered(bytes);
     }
 
+    @Override
     public void setBytesTransfered(long bytesTransfered) {
-        this.bytesTransfered = bytesTransfered;
+        super.setBytesTransfered(bytesTransfered);
     }
 
     public void setTotalBytesToTransfer(long totalBytesToTransfer) {
@@ -16,6 +16,7 @@
 package pt.lunacloud.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +27,16 @@ import org.apache.commons.logging.LogFactory;
 
 import pt.lunacloud.http.AmazonHttpClient;
 
-
+/**
+ * Metrics of a single request execution: timed events, counters and
+ * properties.
+ * <p>
+ * Predefined {@link Field}s are stored in arrays indexed by the field's
+ * ordinal, and all storage is allocated on first use, so a request that
+ * records nothing allocates nothing beyond this object. When nothing consumes
+ * the metrics of a request, the shared {@link #NONE} instance is used instead,
+ * which records nothing at all.
+ */
 public class AWSRequestMetrics {
 
     /**
@@ -44,22 +54,56 @@ public class AWSRequestMetrics {
         HttpRequestTime,
         RequestMarshallTime,
         RetryPauseTime,
+        RateLimitPauseTime,
         RedirectLocation,
         Exception,
         CredentialsRequestTime,
         ServiceEndpoint,
         ServiceName,
+        // Phases of HttpRequestTime and of reading the response
+        ConnectionLeaseTime, // Waiting for a connection from the pool
+        ConnectTime, // Opening a new connection, including the TLS handshake
+        TlsHandshakeTime,
+        RequestSendTime, // Writing the request headers and body
+        TimeToFirstByte, // From the request being sent to the response headers being received
+        ResponseBodyTransferTime, // From the response headers being received to the body being read or closed;
+                                  // for streamed bodies, see MetricsCollector#collectResponseBodyMetrics
+        AttemptHistory, // One pt.lunacloud.metrics.RequestAttempt per attempt
     }
-    
+
+    /**
+     * Shared instance that records nothing, used when neither runtime
+     * profiling nor a metrics collector consumes the metrics of a request.
+     */
+    public static final AWSRequestMetrics NONE = new NoOpRequestMetrics();
+
+    private static final Field[] FIELDS = Field.values();
+
+    /* Resolves string keys to fields without allocating. */
+    private static final Map<String, Field> FIELDS_BY_NAME = new HashMap<String, Field>();
+    static {
+        for (Field field : FIELDS) FIELDS_BY_NAME.put(field.name(), field);
+    }
+
     private final TimingInfo timingInfo;
     
     /* Cache the system profiling flag so we don't have to do System.getProperty every time. */
     private final boolean profilingSystemPropertyEnabled;
-    /* Stores some key value pairs. */
-    private final Map<String, List<Object>> properties = new HashMap<String, List<Object>>();
-    
-    /* A map to store events that are being profiled. */
-    private final Map<String, Long> eventsBeingProfiled = new HashMap<String, Long>();
+    /* True if events and counters are recorded, for profiling or for a metrics collector. */
+    private final boolean enabled;
+
+    /* Values of the predefined fields' properties, indexed by ordinal; allocated on first use. */
+    private List<Object>[] fieldProperties;
+    /* Other key value pairs; allocated on first use. */
+    private Map<String, List<Object>> properties;
+
+    /* Start times (System.nanoTime) of the predefined events being profiled, 0 if not started. */
+    private long[] fieldEventStartTimes;
+    /* Total time (in nanoseconds) of each predefined event, indexed by ordinal. */
+    private long[] fieldEventTimes;
+    /* Other events being profiled; allocated on first use. */
+    private Map<String, Long> eventsBeingProfiled;
+
     /* Latency Logger */
     private static final Log latencyLogger = LogFactory.getLog("com.amazonaws.latency");
     private static final Object KEY_VALUE_SEPARATOR = "=";
@@ -67,8 +111,32 @@ public class AWSRequestMetrics {
     
     
     public AWSRequestMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param enabled
+     *            True to record events and counters even if the runtime
+     *            profiling system property isn't set (ex: for a
+     *            {@link pt.lunacloud.metrics.MetricsCollector}).
+     */
+    public AWSRequestMetrics(boolean enabled) {
         this.timingInfo = new TimingInfo();
         this.profilingSystemPropertyEnabled = isProfilingEnabled();
+        this.enabled = enabled || profilingSystemPropertyEnabled;
+    }
+
+    /**
+     * Returns a new instance recording events and counters if runtime
+     * profiling is enabled, or the shared {@link #NONE} instance otherwise.
+     */
+    public static AWSRequestMetrics newInstance() {
+        return isProfilingEnabled() ? new AWSRequestMetrics(true) : NONE;
+    }
+
+    /** Returns true if events and counters are recorded. */
+    public boolean isEnabled() {
+        return enabled;
     }
 
     /* Check the profiling system property and return true if set */
@@ -83,28 +151,54 @@ public class AWSRequestMetrics {
      *  events yet. Having said that, if you start and end an event in that sequence multiple times, all events
      *  are logged in timingInfo in that order.
      *  
-     *  This feature is enabled only if the system property "com.amazonaws.sdk.enableRuntimeProfiling" is set.
+     *  This feature is enabled only if the system property "com.amazonaws.sdk.enableRuntimeProfiling" is set,
+     *  or if this object was created enabled (ex: for a metrics collector).
      *
      *   @param eventName - The name of the event to start
      */
     public void startEvent(String eventName) {
-        if (profilingSystemPropertyEnabled) {
+        if (enabled) {
+            Field field = FIELDS_BY_NAME.get(eventName);
+            if (field != null) {
+                startEvent(field);
+                return;
+            }
+            if (eventsBeingProfiled == null) eventsBeingProfiled = new HashMap<String, Long>();
             /* This will overwrite past events */
             eventsBeingProfiled.put(eventName, System.nanoTime());
         }
     }
+
+    /**
+     * Start a predefined event which will be timed. See startEvent(String).
+     *
+     * @param field - The event to start
+     */
+    public void startEvent(Field field) {
+        if (enabled) {
+            if (fieldEventStartTimes == null) fieldEventStartTimes = new long[FIELDS.length];
+            /* This will overwrite past events */
+            fieldEventStartTimes[field.ordinal()] = System.nanoTime();
+        }
+    }
     
     /**
      * End an event which was previously started. Once ended, log how much time the event took. It is illegal to
      * end an Event that was not started. It is good practice to endEvent in a finally block. See Also startEvent.
      * 
-     * This feature is enabled only if the system property "com.amazonaws.sdk.enableRuntimeProfiling" is set.
+     * This feature is enabled only if the system property "com.amazonaws.sdk.enableRuntimeProfiling" is set,
+     * or if this object was created enabled (ex: for a metrics collector).
      * 
      * @param eventName - The name of the event to start
      */
     public void endEvent(String eventName) {
-        if (profilingSystemPropertyEnabled) {
-            Long startTime = eventsBeingProfiled.get(eventName);
+        if (enabled) {
+            Field field = FIELDS_BY_NAME.get(eventName);
+            if (field != null) {
+                endEvent(field);
+                return;
+            }
+            Long startTime = (eventsBeingProfiled == null) ? null : eventsBeingProfiled.get(eventName);
             /* Somebody tried to end an event that was not started. */
             if (startTime == null) {
                 throw new IllegalStateException("Trying to end an event which was never started. " + eventName);
@@ -113,26 +207,68 @@ public class AWSRequestMetrics {
             this.timingInfo.addSubMeasurement(eventName, new TimingInfo(startTime, System.nanoTime()));
         }
     }
+
+    /**
+     * End a predefined event which was previously started. See endEvent(String).
+     *
+     * @param field - The event to end
+     */
+    public void endEvent(Field field) {
+        if (enabled) {
+            long startTime = (fieldEventStartTimes == null) ? 0 : fieldEventStartTimes[field.ordinal()];
+            /* Somebody tried to end an event that was not started. */
+            if (startTime == 0) {
+                throw new IllegalStateException("Trying to end an event which was never started. " + field);
+            }
+            fieldEventStartTimes[field.ordinal()] = 0;
+            addEventTime(field, startTime, System.nanoTime());
+        }
+    }
+
+    /**
+     * Records a predefined event timed by the caller, ex: on another thread
+     * than the one executing the request.
+     *
+     * @param field - The event timed
+     * @param startTime - The time (System.nanoTime) the event started
+     * @param endTime - The time (System.nanoTime) the event ended
+     */
+    public void addEventTime(Field field, long startTime, long endTime) {
+        if (enabled) {
+            if (fieldEventTimes == null) fieldEventTimes = new long[FIELDS.length];
+            fieldEventTimes[field.ordinal()] += endTime - startTime;
+            this.timingInfo.addSubMeasurement(field.name(), new TimingInfo(startTime, endTime));
+        }
+    }
     
     /**
      * Add 1 to an existing count for a given event. If the count for that event does not exist, then it creates one
      * and initializes it to 1.
      * 
-     * This feature is enabled only if the system property "com.amazonaws.sdk.enableRuntimeProfiling" is set.
+     * This feature is enabled only if the system property "com.amazonaws.sdk.enableRuntimeProfiling" is set,
+     * or if this object was created enabled (ex: for a metrics collector).
      * 
      * @param event - The name of the event to count
      */
     public void incrementCounter(String event) {
-        if (profilingSystemPropertyEnabled) {
+        if (enabled) {
             timingInfo.incrementCounter(event);
         }
     }
+
+    public void incrementCounter(Field field) {
+        incrementCounter(field.name());
+    }
     
     public void setCounter(String counterName, long count) {
-        if (profilingSystemPropertyEnabled) {
+        if (enabled) {
             timingInfo.setCounter(counterName, count);
         }
     }
+
+    public void setCounter(Field field, long count) {
+        setCounter(field.name(), count);
+    }
     
     /**
      * Add a property. If you add the same property more than once, it stores all values a list.
@@ -141,6 +277,13 @@ public class AWSRequestMetrics {
      * @param value The property value
      */
     public void addProperty(String propertyName, Object value) {
+        Field field = FIELDS_BY_NAME.get(propertyName);
+        if (field != null) {
+            addProperty(field, value);
+            return;
+        }
+
+        if (properties == null) properties = new HashMap<String, List<Object>>();
         List<Object> propertyList = properties.get(propertyName);
         if (propertyList == null) {
             propertyList = new ArrayList<Object>();
@@ -149,16 +292,82 @@ public class AWSRequestMetrics {
         
         propertyList.add(value);
     }
-    
+
+    /**
+     * Add a predefined property. If you add the same property more than once, it stores all values a list.
+     *
+     * @param field The property
+     * @param value The property value
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void addProperty(Field field, Object value) {
+        if (fieldProperties == null) fieldProperties = new List[FIELDS.length];
+        List<Object> propertyList = fieldProperties[field.ordinal()];
+        if (propertyList == null) {
+            propertyList = new ArrayList<Object>(2);
+            fieldProperties[field.ordinal()] = propertyList;
+        }
+
+        propertyList.add(value);
+    }
+
+    /**
+     * Returns the last value added for the specified property, or null if
+     * none was added.
+     */
+    public Object getLastProperty(String propertyName) {
+        Field field = FIELDS_BY_NAME.get(propertyName);
+        if (field != null) return getLastProperty(field);
+
+        List<Object> propertyList = (properties == null) ? null : properties.get(propertyName);
+        return (propertyList == null || propertyList.isEmpty()) ? null : propertyList.get(propertyList.size() - 1);
+    }
+
+    /**
+     * Returns the last value added for the specified predefined property, or
+     * null if none was added.
+     */
+    public Object getLastProperty(Field field) {
+        List<Object> propertyList = (fieldProperties == null) ? null : fieldProperties[field.ordinal()];
+        return (propertyList == null || propertyList.isEmpty()) ? null : propertyList.get(propertyList.size() - 1);
+    }
+
+    /**
+     * Returns all the values added for the specified predefined property, in
+     * the order they were added.
+     */
+    public List<Object> getProperties(Field field) {
+        List<Object> propertyList = (fieldProperties == null) ? null : fieldProperties[field.ordinal()];
+        return (propertyList == null) ? Collections.<Object>emptyList() : Collections.unmodifiableList(propertyList);
+    }
+
+    /**
+     * Returns the total time (in nanoseconds) spent on each predefined event,
+     * indexed by the field's ordinal.
+     */
+    public long[] getFieldTimesNanos() {
+        return (fieldEventTimes == null) ? new long[FIELDS.length] : fieldEventTimes.clone();
+    }
+
     public void log() {
         if (!profilingSystemPropertyEnabled) {
             return;
         }
         
         StringBuilder builder = new StringBuilder();
-        
-        for (Entry<String, List<Object>> entry : properties.entrySet()) {
-            keyValueFormat(entry.getKey(), entry.getValue(), builder);
+
+        if (fieldProperties != null) {
+            for (Field field : FIELDS) {
+                if (fieldProperties[field.ordinal()] != null) {
+                    keyValueFormat(field.name(), fieldProperties[field.ordinal()], builder);
+                }
+            }
+        }
+
+        if (properties != null) {
+            for (Entry<String, List<Object>> entry : properties.entrySet()) {
+                keyValueFormat(entry.getKey(), entry.getValue(), builder);
+            }
         }
         
         for (Entry<String, Number> entry : timingInfo.getAllCounters().entrySet()) {
@@ -179,4 +388,29 @@ public class AWSRequestMetrics {
     public TimingInfo getTimingInfo() {
         return timingInfo;
     }
+
+    /**
+     * Request metrics that record nothing. Its timing info is shared by every
+     * request using it, so callers needing per request timing must check
+     * {@link AWSRequestMetrics#isEnabled()} first.
+     */
+    private static final class NoOpRequestMetrics extends AWSRequestMetrics {
+        private NoOpRequestMetrics() {
+            super(false);
+        }
+
+        @Override public boolean isEnabled() { return false; }
+        @Override public void startEvent(String eventName) {}
+        @Override public void startEvent(Field field) {}
+        @Override public void endEvent(String eventName) {}
+        @Override public void endEvent(Field field) {}
+        @Override public void addEventTime(Field field, long startTime, long endTime) {}
+        @Override public void incrementCounter(String event) {}
+        @Override public void incrementCounter(Field field) {}
+        @Override public void setCounter(String counterName, long count) {}
+        @Override public void setCounter(Field field, long count) {}
+        @Override public void addProperty(String propertyName, Object value) {}
+        @Override public void addProperty(Field field, Object value) {}
+        @Override public void log() {}
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Utilities for registering the SDK's MBeans with the platform MBean server.
+ * Registration failures are logged, never propagated, since monitoring must
+ * not prevent a client from working.
+ */
+public class JmxUtils {
+
+    /** The domain of the object names of the SDK's MBeans. */
+    public static final String DOMAIN = "pt.lunacloud";
+
+    private static final Log log = LogFactory.getLog(JmxUtils.class);
+
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * Registers the specified MBean under a unique object name of the
+     * specified type, ex: pt.lunacloud:type=HttpClient,name=HttpClient-1.
+     *
+     * @param type
+     *            The type of the MBean.
+     * @param mbean
+     *            The MBean (or MXBean) to register.
+     *
+     * @return The object name the MBean was registered under, or null if it
+     *         couldn't be registered.
+     */
+    public static ObjectName registerMBean(String type, Object mbean) {
+        String name = DOMAIN + ":type=" + type + ",name=" + type + "-" + sequence.incrementAndGet();
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            log.warn("Unable to register MBean " + name + ": " + e.getMessage(), e);
+        } catch (SecurityException e) {
+            log.warn("Unable to register MBean " + name + ": " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Unregisters the MBean registered under the specified object name, if
+     * any.
+     *
+     * @param objectName
+     *            The object name returned when the MBean was registered, or
+     *            null.
+     */
+    public static void unregisterMBean(ObjectName objectName) {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            // Already unregistered
+        } catch (JMException e) {
+            log.warn("Unable to unregister MBean " + objectName + ": " + e.getMessage(), e);
+        } catch (SecurityException e) {
+            log.warn("Unable to unregister MBean " + objectName + ": " + e.getMessage(), e);
+        }
+    }
+}
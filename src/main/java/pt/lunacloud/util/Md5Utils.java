@@ -21,6 +21,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -59,4 +60,15 @@ public class Md5Utils {
     public static byte[] computeMD5Hash(byte[] data) throws NoSuchAlgorithmException, IOException {
         return computeMD5Hash(new ByteArrayInputStream(data));
     }
+
+    /**
+     * Computes the MD5 hash of the remaining bytes of the given buffer and
+     * returns it as an array of bytes. The position of the buffer isn't
+     * changed, and direct buffers aren't copied to the heap as a whole.
+     */
+    public static byte[] computeMD5Hash(ByteBuffer data) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+        messageDigest.update(data.duplicate());
+        return messageDigest.digest();
+    }
 }
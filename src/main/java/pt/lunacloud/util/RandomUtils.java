@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.util;
+
+import java.util.Random;
+
+/**
+ * Utilities for generating random numbers from many threads at once.
+ * <p>
+ * A single {@link Random} shared between threads makes them contend on the
+ * same seed, so each thread gets its own instance here instead.
+ */
+public class RandomUtils {
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Returns the random number generator owned by the current thread.
+     */
+    public static Random current() {
+        return random.get();
+    }
+
+    /**
+     * Returns a random long uniformly distributed between zero (inclusive)
+     * and the specified bound (exclusive), using the current thread's
+     * generator.
+     */
+    public static long nextLong(long bound) {
+        if (bound <= 0) return 0;
+        if (bound <= Integer.MAX_VALUE) return current().nextInt((int) bound);
+        return (long) (current().nextDouble() * bound);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package pt.lunacloud.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free counter for values updated by many threads and read rarely.
+ * <p>
+ * Updates go to a single atomic value until two threads collide on it, at
+ * which point the counter is spread over cells, one per group of threads,
+ * each on its own cache line, so that concurrent updates don't contend.
+ * Reading the counter sums the cells, so a read concurrent with updates may
+ * miss the most recent ones.
+ */
+public class StripedLongCounter {
+
+    /** Longs per cache line, so that two cells never share one. */
+    private static final int PADDING = 8;
+
+    /** The number of cells, a power of two. */
+    private static final int CELLS = cellCount();
+
+    private final AtomicLong base = new AtomicLong();
+
+    /** Allocated on the first collision. */
+    private volatile AtomicLongArray cells;
+
+    private static int cellCount() {
+        int target = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+        int count = 1;
+        while (count < target) count <<= 1;
+        return count;
+    }
+
+    /** Adds the specified value to this counter. */
+    public void add(long x) {
+        AtomicLongArray c = cells;
+        if (c == null) {
+            long value = base.get();
+            if (base.compareAndSet(value, value + x)) return;
+            c = inflate();
+        }
+        c.getAndAdd(((int) Thread.currentThread().getId() & (CELLS - 1)) * PADDING, x);
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) cells = new AtomicLongArray(CELLS * PADDING);
+        return cells;
+    }
+
+    /** Returns the sum of the values added to this counter. */
+    public long sum() {
+        long sum = base.get();
+        AtomicLongArray c = cells;
+        if (c != null) {
+            for (int i = 0; i < CELLS; i++) sum += c.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets this counter to the specified value. Values added concurrently
+     * may be lost.
+     */
+    public void set(long value) {
+        AtomicLongArray c = cells;
+        if (c != null) {
+            for (int i = 0; i < CELLS; i++) c.set(i * PADDING, 0);
+        }
+        base.set(value);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
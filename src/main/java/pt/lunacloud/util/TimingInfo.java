@@ -15,6 +15,7 @@
 package pt.lunacloud.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,8 +25,9 @@ public class TimingInfo {
     
     private final long startTime;
     private long endTime;
-    private final Map<String, List<TimingInfo>> subMeasurementsByName = new HashMap<String, List<TimingInfo>>();
-    private final Map<String, Number> countersByName = new HashMap<String, Number>();
+    /* Allocated on first use, since most timing infos have neither sub measurements nor counters. */
+    private Map<String, List<TimingInfo>> subMeasurementsByName;
+    private Map<String, Number> countersByName;
 
     public TimingInfo() {
         this(System.currentTimeMillis(), -1);
@@ -71,6 +73,7 @@ public class TimingInfo {
 
     public void addSubMeasurement(String subMeasurementName, TimingInfo timingInfo) {
 
+        if (subMeasurementsByName == null) subMeasurementsByName = new HashMap<String, List<TimingInfo>>();
         List<TimingInfo> timings = subMeasurementsByName.get(subMeasurementName);
         if (timings == null) {
             timings = new ArrayList<TimingInfo>();
@@ -86,6 +89,7 @@ public class TimingInfo {
 
     public TimingInfo getSubMeasurement(String subMesurementName, int index) {
 
+        if (subMeasurementsByName == null) return null;
         List<TimingInfo> timings = subMeasurementsByName.get(subMesurementName);
         if (index < 0 || timings == null || timings.size() == 0
                 || index >= timings.size()) {
@@ -105,22 +109,25 @@ public class TimingInfo {
     }
 
     public List<TimingInfo> getAllSubMeasurements(String subMeasurementName) {
-        return subMeasurementsByName.get(subMeasurementName);
+        return (subMeasurementsByName == null) ? null : subMeasurementsByName.get(subMeasurementName);
     }
 
     public Map<String, List<TimingInfo>> getSubMeasurementsByName() {
+        if (subMeasurementsByName == null) return Collections.emptyMap();
         return subMeasurementsByName;
     }
 
     public Number getCounter(String key) {
-        return countersByName.get(key);
+        return (countersByName == null) ? null : countersByName.get(key);
     }
 
     public Map<String, Number> getAllCounters() {
+        if (countersByName == null) return Collections.emptyMap();
         return countersByName;
     }
     
     public void setCounter(String key, long count) {
+        if (countersByName == null) countersByName = new HashMap<String, Number>();
         countersByName.put(key, count);
     }
 